@@ -0,0 +1,39 @@
+-- Chuyển sensor_data sang partition theo ngày (RANGE TO_DAYS(recorded_at)) - chạy một lần, ngoài giờ cao điểm.
+-- Không ALTER trực tiếp bảng đang ingest (ALTER ... PARTITION BY sẽ chép lại toàn bộ bảng dưới khóa):
+-- tạo bảng mới, chép dữ liệu theo lô, rồi đổi tên cả hai bảng trong một câu RENAME (nguyên tử).
+--
+-- Lưu ý của MySQL với bảng partition:
+--   * Khóa chính phải chứa cột partition => PRIMARY KEY (id, recorded_at)
+--   * InnoDB không hỗ trợ foreign key trên bảng partition => bỏ FK sensor_data.device_id -> device.id;
+--     nên chạy ứng dụng với JPA_DDL_AUTO=none sau khi chuyển để Hibernate không cố tạo lại FK
+-- Sau khi chuyển, SensorRetentionService tự tạo trước partition tương lai (sensor.partition.precreate)
+-- và DROP PARTITION các ngày quá hạn (sensor.retention.days).
+
+CREATE TABLE sensor_data_new LIKE sensor_data;
+
+-- Bỏ mọi foreign key được chép theo (tên FK do Hibernate sinh, kiểm tra bằng SHOW CREATE TABLE sensor_data_new)
+-- ALTER TABLE sensor_data_new DROP FOREIGN KEY <ten_fk>;
+
+ALTER TABLE sensor_data_new
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (id, recorded_at);
+
+-- Partition đầu tiên chứa toàn bộ dữ liệu cũ trước ngày chuyển; đổi các mốc ngày cho phù hợp.
+-- pmax phải là partition cuối và luôn rỗng (ứng dụng tách nó ra khi tạo trước partition mới).
+ALTER TABLE sensor_data_new
+    PARTITION BY RANGE (TO_DAYS(recorded_at)) (
+        PARTITION p_old VALUES LESS THAN (TO_DAYS('2026-10-17')),
+        PARTITION p20261017 VALUES LESS THAN (TO_DAYS('2026-10-18')),
+        PARTITION p20261018 VALUES LESS THAN (TO_DAYS('2026-10-19')),
+        PARTITION pmax VALUES LESS THAN MAXVALUE
+    );
+
+-- Chép theo khoảng id để mỗi lô ngắn (lặp lại với các khoảng tiếp theo tới MAX(id))
+INSERT INTO sensor_data_new SELECT * FROM sensor_data WHERE id > 0 AND id <= 1000000;
+
+-- Chép phần phát sinh trong lúc chép rồi đổi tên nguyên tử
+INSERT INTO sensor_data_new SELECT * FROM sensor_data WHERE id > (SELECT COALESCE(MAX(id), 0) FROM sensor_data_new);
+RENAME TABLE sensor_data TO sensor_data_old, sensor_data_new TO sensor_data;
+
+-- Kiểm tra xong thì xóa bảng cũ
+-- DROP TABLE sensor_data_old;
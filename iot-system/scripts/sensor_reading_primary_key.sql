@@ -0,0 +1,23 @@
+-- Khóa chính của bảng hẹp sensor_reading: PRIMARY KEY (device_id, ts, metric_id) - chạy một lần sau khi Hibernate
+-- tạo bảng (JPA_DDL_AUTO=update sắp cột khóa theo kích thước kiểu => (metric_id, device_id, ts)), ngoài giờ cao điểm.
+--
+-- Vì sao (device_id, ts, metric_id): InnoDB lưu dòng theo thứ tự khóa chính (clustered index), nên
+--   * Đường đọc chính SensorReadingStore.pivot (device_id IN (...) AND ts BETWEEN ? AND ?) là một lần quét khoảng liền
+--     trên bảng cho mỗi thiết bị, không phải tra ngược từ chỉ mục phụ về khóa chính cho từng dòng
+--   * Mỗi thiết bị ghi theo thứ tự thời gian => dòng mới luôn nối vào cuối khoảng của thiết bị đó, ít tách trang
+--   * Truy vấn theo một metric (SensorReadingStore.find/count) đi qua chỉ mục phụ idx_sensor_reading_metric_ts
+--   * Chỉ mục phụ (device_id, ts) trùng với tiền tố khóa chính nên bỏ
+-- ALTER ... DROP/ADD PRIMARY KEY chép lại toàn bộ bảng; bảng lớn thì dùng pt-online-schema-change / gh-ost.
+-- Ứng dụng kiểm tra thứ tự cột khóa chính lúc khởi động và cảnh báo nếu chưa chạy script này.
+
+ALTER TABLE sensor_reading
+    DROP PRIMARY KEY,
+    ADD PRIMARY KEY (device_id, ts, metric_id);
+
+-- Chỉ mục phụ cũ (tạo bởi các phiên bản trước), bỏ qua lỗi nếu không tồn tại
+ALTER TABLE sensor_reading DROP INDEX idx_sensor_reading_device_ts;
+
+-- Kiểm tra: cột khóa chính theo thứ tự device_id, ts, metric_id
+SELECT COLUMN_NAME FROM information_schema.STATISTICS
+WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'sensor_reading' AND INDEX_NAME = 'PRIMARY'
+ORDER BY SEQ_IN_INDEX;
@@ -0,0 +1,85 @@
+package com.iot_system.bench;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Tiện ích dùng chung cho benchmark: stub repository/WebSocket và tắt log.
+ */
+final class BenchSupport {
+
+    private BenchSupport() {
+    }
+
+    /**
+     * Benchmark chạy ngoài Spring nên logback-spring.xml không được nạp (mặc định của logback là DEBUG).
+     * Hạ về WARN để log không chiếm thời gian đo.
+     */
+    static void quietLogging() {
+        Logger root = LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        if (root instanceof ch.qos.logback.classic.Logger logback) {
+            logback.setLevel(Level.WARN);
+        }
+    }
+
+    /** ObjectMapper cấu hình giống Spring Boot (JavaTimeModule, @JsonFormat trên DTO) */
+    static ObjectMapper objectMapper() {
+        return Jackson2ObjectMapperBuilder.json().build();
+    }
+
+    /**
+     * SimpMessagingTemplate gửi vào một channel không làm gì.
+     * Dùng MappingJackson2MessageConverter như broker của ứng dụng => vẫn đo đủ bước serialize.
+     */
+    static SimpMessagingTemplate noopMessagingTemplate(ObjectMapper objectMapper) {
+        MessageChannel channel = (message, timeout) -> true;
+        MappingJackson2MessageConverter converter = new MappingJackson2MessageConverter();
+        converter.setObjectMapper(objectMapper);
+        SimpMessagingTemplate template = new SimpMessagingTemplate(channel);
+        template.setMessageConverter(converter);
+        return template;
+    }
+
+    /**
+     * Stub cho interface repository Spring Data: findAll trả về danh sách cho trước,
+     * các phương thức khác trả về giá trị rỗng theo kiểu trả về.
+     */
+    @SuppressWarnings("unchecked")
+    static <R> R stubRepository(Class<R> type, List<?> findAllResult) {
+        return (R) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Class<?> returnType = method.getReturnType();
+            if (method.getName().equals("findAll") && (args == null || args.length == 0)) {
+                return findAllResult;
+            }
+            if (returnType == Optional.class) {
+                return Optional.empty();
+            }
+            if (List.class.isAssignableFrom(returnType)) {
+                return List.of();
+            }
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType == long.class) {
+                return 0L;
+            }
+            if (returnType == int.class) {
+                return 0;
+            }
+            if (method.getName().equals("toString")) {
+                return "stub " + type.getSimpleName();
+            }
+            return null;
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package com.iot_system.bench;
+
+import com.iot_system.util.DateTimeUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link DateTimeUtils#parseDateTime} với cả sáu định dạng cũ, các dạng mới (ISO, tương đối, khoảng)
+ * và một chuỗi không hợp lệ. "legacy" là cách cũ (String.matches + DateTimeFormatter.ofPattern mỗi lần gọi),
+ * giữ lại để so sánh; với dạng mới nó chỉ đi hết các regex rồi trả về null.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DateTimeParseBenchmark {
+
+    @Param({
+            "17-10-2026 14:35:07",
+            "17-10-2026 14:35",
+            "17-10-2026",
+            "17102026",
+            "17/10/2026",
+            "171026",
+            "2026-10-17T14:35:07",
+            "-15m",
+            "01-10-2026..17-10-2026",
+            "17-10-2026 25:00"
+    })
+    public String input;
+
+    @Benchmark
+    public DateTimeUtils.DateTimeParseResult parse() {
+        return DateTimeUtils.parseDateTime(input);
+    }
+
+    @Benchmark
+    public DateTimeUtils.DateTimeParseResult legacy() {
+        try {
+            if (input.matches("\\d{2}-\\d{2}-\\d{4} \\d{2}:\\d{2}:\\d{2}")) {
+                LocalDateTime exactTime = LocalDateTime.parse(input, DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss"));
+                return new DateTimeUtils.DateTimeParseResult(exactTime, exactTime.plusSeconds(1), true);
+            }
+            if (input.matches("\\d{2}-\\d{2}-\\d{4} \\d{2}:\\d{2}")) {
+                LocalDateTime minuteTime = LocalDateTime.parse(input, DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm"));
+                return new DateTimeUtils.DateTimeParseResult(minuteTime, minuteTime.plusMinutes(1), false);
+            }
+            if (input.matches("\\d{2}-\\d{2}-\\d{4}")) {
+                return legacyDay(LocalDate.parse(input, DateTimeFormatter.ofPattern("dd-MM-yyyy")));
+            }
+            if (input.matches("\\d{8}")) {
+                return legacyDay(LocalDate.parse(input, DateTimeFormatter.ofPattern("ddMMyyyy")));
+            }
+            if (input.matches("\\d{2}/\\d{2}/\\d{4}")) {
+                return legacyDay(LocalDate.parse(input, DateTimeFormatter.ofPattern("dd/MM/yyyy")));
+            }
+            if (input.matches("\\d{6}")) {
+                return legacyDay(LocalDate.parse(input, DateTimeFormatter.ofPattern("ddMMyy")));
+            }
+        } catch (Exception e) {
+            return null;
+        }
+        return null;
+    }
+
+    private static DateTimeUtils.DateTimeParseResult legacyDay(LocalDate date) {
+        return new DateTimeUtils.DateTimeParseResult(date.atStartOfDay(), date.plusDays(1).atStartOfDay(), false);
+    }
+}
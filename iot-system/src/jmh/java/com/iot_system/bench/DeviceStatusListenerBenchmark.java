@@ -0,0 +1,192 @@
+package com.iot_system.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.domain.enums.DeviceType;
+import com.iot_system.mqtt.DeviceStatusEvent;
+import com.iot_system.mqtt.IngestMetrics;
+import com.iot_system.mqtt.TelemetryDecoder;
+import com.iot_system.repository.DeviceRepository;
+import com.iot_system.repository.SensorDataRepository;
+import com.iot_system.service.CommandTracker;
+import com.iot_system.service.DeviceLivenessTracker;
+import com.iot_system.service.DeviceRegistry;
+import com.iot_system.service.MetricRegistry;
+import com.iot_system.service.QueryResultCache;
+import com.iot_system.service.SensorDataService;
+import com.iot_system.service.SensorReadingStore;
+import com.iot_system.service.SearchCountService;
+import com.iot_system.service.archive.ColdSegmentStore;
+import com.iot_system.service.event.DeviceStatusListener;
+import com.iot_system.service.event.SensorBroadcaster;
+import com.iot_system.service.ingest.DeviceWriteBehind;
+import com.iot_system.service.ingest.IngestDeadLetter;
+import com.iot_system.service.ingest.IngestDedupe;
+import com.iot_system.service.ingest.SensorBatchWriter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đường xử lý một message MQTT trong {@link DeviceStatusListener} (giải mã, tra thiết bị, đưa vào hàng đợi ghi,
+ * phát WebSocket), với repository và JdbcTemplate là stub (không chạm DB) và channel WebSocket không làm gì.
+ * Luồng writer nền vẫn chạy nên chi phí hàng đợi được tính như thật.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeviceStatusListenerBenchmark {
+
+    private static final int DEVICES = 100;
+
+    private DeviceStatusListener listener;
+    private SensorBatchWriter batchWriter;
+    private DeviceWriteBehind deviceWriteBehind;
+    private CommandTracker commandTracker;
+    private SensorBroadcaster broadcaster;
+
+    private DeviceStatusEvent[] sensorEvents;
+    private DeviceStatusEvent[] ackEvents;
+    private int next;
+
+    @Setup
+    public void setup() {
+        BenchSupport.quietLogging();
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        IngestMetrics ingestMetrics = new IngestMetrics(meterRegistry);
+        ObjectMapper objectMapper = BenchSupport.objectMapper();
+        SimpMessagingTemplate template = BenchSupport.noopMessagingTemplate(objectMapper);
+        JdbcTemplate jdbcTemplate = new NoopJdbcTemplate();
+
+        List<Device> devices = new ArrayList<>(DEVICES);
+        sensorEvents = new DeviceStatusEvent[DEVICES];
+        ackEvents = new DeviceStatusEvent[DEVICES];
+        for (int i = 0; i < DEVICES; i++) {
+            Device device = new Device();
+            device.setId((long) (i + 1));
+            device.setName("Thiết bị " + (i + 1));
+            device.setDeviceUid("esp32-" + (i + 1));
+            device.setType(DeviceType.values()[i % DeviceType.values().length]);
+            device.setState(DeviceState.OFF);
+            devices.add(device);
+
+            sensorEvents[i] = new DeviceStatusEvent(this, "sensor/data", ("""
+                    {"deviceUid":"esp32-%d","temperature":28.4,"humidity":71.2,"light_level":512}"""
+                    .formatted(i + 1)).getBytes(StandardCharsets.UTF_8));
+            ackEvents[i] = new DeviceStatusEvent(this, "device_actions_ack", ("""
+                    {"deviceId":%d,"state":"%s","correlationId":"bench-%d"}"""
+                    .formatted(i + 1, i % 2 == 0 ? "ON" : "OFF", i)).getBytes(StandardCharsets.UTF_8));
+        }
+
+        DeviceRegistry deviceRegistry = new DeviceRegistry(
+                BenchSupport.stubRepository(DeviceRepository.class, devices), meterRegistry);
+        ReflectionTestUtils.setField(deviceRegistry, "negativeTtlMs", 30_000L);
+        deviceRegistry.init();
+
+        batchWriter = new SensorBatchWriter(jdbcTemplate, TransactionOperations.withoutTransaction(), meterRegistry,
+                ingestMetrics, List.of(),
+                new IngestDedupe(jdbcTemplate, meterRegistry), new IngestDeadLetter(meterRegistry));
+        ReflectionTestUtils.setField(batchWriter, "queueCapacity", 20_000);
+        ReflectionTestUtils.setField(batchWriter, "batchSize", 500);
+        ReflectionTestUtils.setField(batchWriter, "flushIntervalMs", 50L);
+        ReflectionTestUtils.setField(batchWriter, "overflowPolicy", SensorBatchWriter.OverflowPolicy.DROP_OLDEST);
+        ReflectionTestUtils.setField(batchWriter, "offerTimeoutMs", 1000L);
+        batchWriter.start();
+        MetricRegistry metricRegistry = new MetricRegistry(jdbcTemplate, meterRegistry);
+        SensorDataService sensorDataService = new SensorDataService(
+                BenchSupport.stubRepository(SensorDataRepository.class, List.of()), batchWriter,
+                new ColdSegmentStore(meterRegistry), new QueryResultCache(meterRegistry),
+                new SearchCountService(jdbcTemplate, meterRegistry), metricRegistry,
+                new SensorReadingStore(jdbcTemplate, metricRegistry));
+
+        deviceWriteBehind = new DeviceWriteBehind(jdbcTemplate, meterRegistry, ingestMetrics, List.of());
+        ReflectionTestUtils.setField(deviceWriteBehind, "queueCapacity", 10_000);
+        ReflectionTestUtils.setField(deviceWriteBehind, "batchSize", 500);
+        ReflectionTestUtils.setField(deviceWriteBehind, "flushIntervalMs", 100L);
+        ReflectionTestUtils.setField(deviceWriteBehind, "offerTimeoutMs", 0L);
+        deviceWriteBehind.start();
+
+        commandTracker = new CommandTracker(template, meterRegistry);
+        ReflectionTestUtils.setField(commandTracker, "timeoutMs", 5000L);
+        ReflectionTestUtils.setField(commandTracker, "tickMs", 100L);
+        ReflectionTestUtils.setField(commandTracker, "wheelSize", 512);
+        ReflectionTestUtils.setField(commandTracker, "historySize", 10_000);
+        commandTracker.start();
+
+        DeviceLivenessTracker livenessTracker = new DeviceLivenessTracker(jdbcTemplate, deviceRegistry, template, meterRegistry);
+        ReflectionTestUtils.setField(livenessTracker, "maxDeviceId", 10_000_000L);
+
+        broadcaster = new SensorBroadcaster(template, objectMapper, meterRegistry, ingestMetrics);
+        ReflectionTestUtils.setField(broadcaster, "maxRatePerSecond", 4);
+        ReflectionTestUtils.setField(broadcaster, "legacyTopic", true);
+        broadcaster.start();
+
+        listener = new DeviceStatusListener(deviceRegistry, deviceWriteBehind, sensorDataService, template,
+                new TelemetryDecoder(), broadcaster, commandTracker, livenessTracker, ingestMetrics);
+    }
+
+    @TearDown
+    public void tearDown() {
+        broadcaster.stop();
+        commandTracker.stop();
+        deviceWriteBehind.stop();
+        batchWriter.stop();
+    }
+
+    @Benchmark
+    public void sensor() {
+        listener.handleDeviceEvent(sensorEvents[nextIndex()]);
+    }
+
+    @Benchmark
+    public void ack() {
+        listener.handleDeviceEvent(ackEvents[nextIndex()]);
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = i + 1 == DEVICES ? 0 : i + 1;
+        return i;
+    }
+
+    /** Ghi lô không chạm DB: trả về số dòng bằng kích thước lô */
+    private static final class NoopJdbcTemplate extends JdbcTemplate {
+        @Override
+        public int[] batchUpdate(String sql, BatchPreparedStatementSetter pss) {
+            return new int[pss.getBatchSize()];
+        }
+
+        @Override
+        public int[] batchUpdate(String sql, List<Object[]> batchArgs) {
+            return new int[batchArgs.size()];
+        }
+
+        @Override
+        public int update(String sql, Object... args) {
+            return 0;
+        }
+    }
+}
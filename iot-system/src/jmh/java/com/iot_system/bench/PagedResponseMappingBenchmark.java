@@ -0,0 +1,89 @@
+package com.iot_system.bench;
+
+import com.iot_system.domain.dto.PagedResponse;
+import com.iot_system.domain.dto.SensorReadingDTO;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.entity.SensorData;
+import com.iot_system.util.ResponseUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ResponseUtils#mapToPagedResponse} với cách đánh số thứ tự (stt) đang dùng trong SensorDataService:
+ * mỗi dòng gọi page.getContent().indexOf(row) => O(n^2) theo kích thước trang.
+ * "sequential" là mốc so sánh: đánh số bằng bộ đếm tăng dần (cùng kết quả vì mapper được gọi theo thứ tự).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PagedResponseMappingBenchmark {
+
+    @Param({"15", "100", "1000", "10000"})
+    public int pageSize;
+
+    private Page<SensorData> sensorPage;
+    private final int page = 3;
+
+    @Setup
+    public void setup() {
+        BenchSupport.quietLogging();
+        Device device = new Device();
+        device.setId(1L);
+        device.setDeviceUid("esp32-01");
+
+        LocalDateTime base = LocalDateTime.of(2026, 10, 17, 8, 0);
+        List<SensorData> rows = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            SensorData data = new SensorData();
+            data.setId((long) (page * pageSize + i + 1));
+            data.setDevice(device);
+            data.setTemperature(25.0 + (i % 100) / 10.0);
+            data.setHumidity(60.0 + (i % 40));
+            data.setLight(300.0 + i % 700);
+            data.setRecordedAt(base.plusSeconds(i));
+            rows.add(data);
+        }
+        sensorPage = new PageImpl<>(rows, PageRequest.of(page, pageSize), 1_000_000L);
+    }
+
+    @Benchmark
+    public PagedResponse<SensorReadingDTO> indexOfNumbering() {
+        int startIndex = page * pageSize;
+        return ResponseUtils.mapToPagedResponse(sensorPage, page, pageSize,
+                "Tìm thấy " + sensorPage.getContent().size() + " kết quả.",
+                data -> {
+                    int index = sensorPage.getContent().indexOf(data);
+                    return SensorReadingDTO.from(data, startIndex + index + 1);
+                },
+                "Không tìm thấy dữ liệu cảm biến.");
+    }
+
+    @Benchmark
+    public PagedResponse<SensorReadingDTO> sequentialNumbering() {
+        int[] next = {page * pageSize + 1};
+        return ResponseUtils.mapToPagedResponse(sensorPage, page, pageSize,
+                "Tìm thấy " + sensorPage.getContent().size() + " kết quả.",
+                data -> SensorReadingDTO.from(data, next[0]++),
+                "Không tìm thấy dữ liệu cảm biến.");
+    }
+}
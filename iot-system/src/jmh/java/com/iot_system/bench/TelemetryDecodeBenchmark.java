@@ -0,0 +1,90 @@
+package com.iot_system.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot_system.mqtt.AckMessage;
+import com.iot_system.mqtt.TelemetryDecoder;
+import com.iot_system.mqtt.TelemetryReading;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh giải mã payload MQTT: cách cũ (new String + readTree + has/get + Double + DateTimeFormatter mỗi message)
+ * với {@link TelemetryDecoder}. Chạy với -prof gc để xem gc.alloc.rate.norm (byte cấp phát / message).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TelemetryDecodeBenchmark {
+
+    private final byte[] sensorPayload = """
+            {"deviceUid":"esp32-01","temperature":28.4,"humidity":71.2,"light_level":512}"""
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] ackPayload = """
+            {"deviceId":3,"state":"ON","correlationId":"7d3f3c1e-5a55-4b8c-9a0f-0c2b5d8f6a11"}"""
+            .getBytes(StandardCharsets.UTF_8);
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final TelemetryDecoder decoder = new TelemetryDecoder();
+
+    @Benchmark
+    public void sensorLegacy(Blackhole bh) throws Exception {
+        JsonNode json = mapper.readTree(new String(sensorPayload));
+        String deviceUid = json.has("deviceUid") ? json.get("deviceUid").asText() : null;
+        Double temperature = json.has("temperature") ? json.get("temperature").asDouble() : null;
+        Double humidity = json.has("humidity") ? json.get("humidity").asDouble() : null;
+        Double light = null;
+        if (json.has("light")) {
+            light = json.get("light").asDouble();
+        } else if (json.has("light_level")) {
+            light = json.get("light_level").asDouble();
+        }
+        if (temperature != null && temperature == -1.0) temperature = null;
+        if (humidity != null && humidity == -1.0) humidity = null;
+        if (light != null && light == -1.0) light = null;
+        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+        bh.consume(deviceUid);
+        bh.consume(temperature);
+        bh.consume(humidity);
+        bh.consume(light);
+        bh.consume(fmt);
+    }
+
+    @Benchmark
+    public TelemetryReading sensorStreaming() throws Exception {
+        return decoder.decodeSensor(sensorPayload);
+    }
+
+    @Benchmark
+    public void ackLegacy(Blackhole bh) throws Exception {
+        JsonNode json = mapper.readTree(new String(ackPayload));
+        int deviceId = json.get("deviceId").asInt();
+        String state = json.get("state").asText();
+        String correlationId = json.has("correlationId") ? json.get("correlationId").asText() : null;
+        bh.consume(deviceId);
+        bh.consume(state);
+        bh.consume(correlationId);
+        bh.consume(DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss"));
+    }
+
+    @Benchmark
+    public AckMessage ackStreaming() throws Exception {
+        return decoder.decodeAck(ackPayload);
+    }
+}
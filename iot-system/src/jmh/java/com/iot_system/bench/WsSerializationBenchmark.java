@@ -0,0 +1,92 @@
+package com.iot_system.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot_system.domain.dto.SensorUpdateDTO;
+import com.iot_system.mqtt.IngestMetrics;
+import com.iot_system.service.event.SensorBroadcaster;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chi phí dựng + serialize payload WebSocket (channel không làm gì, chỉ đo phía server):
+ * - ack: Map như DeviceStatusListener.handleAck, qua convertAndSend
+ * - sensorMap: cách cũ, HashMap + convertAndSend cho mỗi đích
+ * - sensorBroadcaster: {@link SensorBroadcaster} ở chế độ gửi ngay (serialize một lần, dùng chung cho hai đích)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WsSerializationBenchmark {
+
+    private static final DateTimeFormatter WS_TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private SimpMessagingTemplate template;
+    private SensorBroadcaster broadcaster;
+    private final LocalDateTime recordedAt = LocalDateTime.of(2026, 10, 17, 14, 35, 7);
+
+    @Setup
+    public void setup() {
+        BenchSupport.quietLogging();
+        ObjectMapper objectMapper = BenchSupport.objectMapper();
+        template = BenchSupport.noopMessagingTemplate(objectMapper);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        broadcaster = new SensorBroadcaster(template, objectMapper, meterRegistry, new IngestMetrics(meterRegistry));
+        ReflectionTestUtils.setField(broadcaster, "maxRatePerSecond", 0);
+        ReflectionTestUtils.setField(broadcaster, "legacyTopic", true);
+        broadcaster.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        broadcaster.stop();
+    }
+
+    @Benchmark
+    public void ack() {
+        Map<String, Object> wsPayload = new HashMap<>();
+        wsPayload.put("deviceId", 3);
+        wsPayload.put("state", "ON");
+        wsPayload.put("correlationId", "7d3f3c1e-5a55-4b8c-9a0f-0c2b5d8f6a11");
+        wsPayload.put("recordedAt", recordedAt.format(WS_TIME_FORMAT));
+        template.convertAndSend("/topic/devices", wsPayload);
+    }
+
+    @Benchmark
+    public void sensorMap() {
+        Map<String, Object> wsPayload = new HashMap<>();
+        wsPayload.put("deviceUid", "esp32-01");
+        wsPayload.put("temperature", 28.4);
+        wsPayload.put("humidity", 71.2);
+        wsPayload.put("light", 512.0);
+        wsPayload.put("recordedAt", recordedAt.format(WS_TIME_FORMAT));
+        template.convertAndSend("/topic/sensors/esp32-01", wsPayload);
+        template.convertAndSend("/topic/sensors", wsPayload);
+    }
+
+    @Benchmark
+    public void sensorBroadcaster() {
+        broadcaster.publish(new SensorUpdateDTO("esp32-01", 28.4, 71.2, 512.0, recordedAt));
+    }
+}
@@ -0,0 +1,279 @@
+package com.iot_system.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot_system.domain.dto.DeviceControlDTO;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.service.DeviceRegistry;
+import com.iot_system.service.DeviceService;
+import jakarta.annotation.PreDestroy;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đội thiết bị ESP32 ảo cho profile loadtest.
+ * - Tạo (nếu chưa có) loadtest.devices thiết bị sim-00001.. trong bảng device
+ * - Mỗi thiết bị publish sensor/data với tần suất loadtest.sensor-rate-per-second (QoS loadtest.sensor-qos,
+ *   có "ts" và "msgId" để server chống ghi trùng)
+ * - Trả lời mọi lệnh trên device_actions bằng device_actions_ack (sau loadtest.ack-delay-ms)
+ * - Gửi lệnh qua DeviceService.sendCommand với tổng tần suất loadtest.command-rate-per-second
+ *   để đo thời gian khứ hồi ACK (iot.command.rtt)
+ * Thiết bị được chia đều trên loadtest.connections kết nối MQTT.
+ * loadtest.simulator.enabled=false: instance chỉ ingest (instance thứ hai khi thử chế độ cluster).
+ */
+@Component
+@Profile("loadtest")
+public class DeviceFleetSimulator {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceFleetSimulator.class);
+
+    private static final String INSERT_DEVICE_SQL =
+            "INSERT IGNORE INTO device (name, device_uid, type, state) VALUES (?, ?, 'ESP32', 'OFF')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceService deviceService;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${loadtest.broker.host:127.0.0.1}")
+    private String brokerHost;
+
+    @Value("${loadtest.broker.port:1883}")
+    private int brokerPort;
+
+    @Value("${mqtt.telemetryTopic}")
+    private String sensorTopic;
+
+    @Value("${mqtt.actionTopic}")
+    private String actionTopic;
+
+    @Value("${loadtest.devices:100}")
+    private int deviceCount;
+
+    @Value("${loadtest.connections:4}")
+    private int connections;
+
+    @Value("${loadtest.sensor-rate-per-second:1.0}")
+    private double sensorRatePerSecond;
+
+    @Value("${loadtest.command-rate-per-second:5.0}")
+    private double commandRatePerSecond;
+
+    @Value("${loadtest.ack-delay-ms:0}")
+    private long ackDelayMs;
+
+    @Value("${loadtest.tick-ms:50}")
+    private long tickMs;
+
+    @Value("${loadtest.sensor-qos:0}")
+    private int sensorQos;
+
+    @Value("${loadtest.simulator.enabled:true}")
+    private boolean enabled;
+
+    private final List<MqttAsyncClient> clients = new ArrayList<>();
+    private String[] deviceUids;
+    private long[] deviceIds;
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong publishFailed = new AtomicLong();
+    private final AtomicLong acksSent = new AtomicLong();
+    private final AtomicLong commandsSent = new AtomicLong();
+
+    // Chỉ luồng scheduler chạm vào
+    private double sensorCarry;
+    private double commandCarry;
+    private int nextDevice;
+    private long nextMessageId;
+
+    public DeviceFleetSimulator(JdbcTemplate jdbcTemplate, DeviceRegistry deviceRegistry, DeviceService deviceService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.deviceRegistry = deviceRegistry;
+        this.deviceService = deviceService;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() throws MqttException {
+        if (!enabled) {
+            log.info("[LOADTEST] Không chạy đội thiết bị ảo trên instance này (loadtest.simulator.enabled=false)");
+            return;
+        }
+        registerDevices();
+        connect();
+
+        scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "loadtest-simulator");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::publishTick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        if (commandRatePerSecond > 0) {
+            scheduler.scheduleAtFixedRate(this::commandTick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+        }
+        log.info("[LOADTEST] Mô phỏng {} thiết bị trên {} kết nối: sensor {}/s/thiết bị, lệnh {}/s, ackDelayMs={}",
+                deviceCount, clients.size(), sensorRatePerSecond, commandRatePerSecond, ackDelayMs);
+    }
+
+    private void registerDevices() {
+        deviceUids = new String[deviceCount];
+        List<Object[]> args = new ArrayList<>(deviceCount);
+        for (int i = 0; i < deviceCount; i++) {
+            deviceUids[i] = String.format("sim-%05d", i + 1);
+            args.add(new Object[]{"Thiết bị ảo " + (i + 1), deviceUids[i]});
+        }
+        jdbcTemplate.batchUpdate(INSERT_DEVICE_SQL, args);
+        deviceRegistry.reload();
+
+        deviceIds = new long[deviceCount];
+        for (int i = 0; i < deviceCount; i++) {
+            String uid = deviceUids[i];
+            deviceIds[i] = deviceRegistry.findByDeviceUid(uid)
+                    .map(Device::getId)
+                    .orElseThrow(() -> new IllegalStateException("Không tạo được thiết bị ảo " + uid));
+        }
+    }
+
+    private void connect() throws MqttException {
+        String brokerUrl = "tcp://" + brokerHost + ":" + brokerPort;
+        int count = Math.max(1, Math.min(connections, deviceCount));
+        for (int i = 0; i < count; i++) {
+            MqttAsyncClient client = new MqttAsyncClient(brokerUrl, "loadtest-sim-" + i, new MemoryPersistence());
+            MqttConnectOptions options = new MqttConnectOptions();
+            options.setCleanSession(true);
+            options.setMaxInflight(65_535);
+            client.connect(options).waitForCompletion();
+            clients.add(client);
+        }
+        // Một kết nối nhận lệnh là đủ (mọi thiết bị ảo dùng chung topic device_actions)
+        clients.get(0).subscribe(actionTopic, 1, (topic, message) -> onCommand(message.getPayload()))
+                .waitForCompletion();
+    }
+
+    private void publishTick() {
+        sensorCarry += deviceCount * sensorRatePerSecond * tickMs / 1000.0;
+        int due = (int) sensorCarry;
+        sensorCarry -= due;
+        long nowMillis = System.currentTimeMillis();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int k = 0; k < due; k++) {
+            int i = nextDevice;
+            nextDevice = i + 1 == deviceCount ? 0 : i + 1;
+            String json = "{\"deviceUid\":\"" + deviceUids[i] + "\""
+                    + ",\"temperature\":" + (20 + random.nextInt(150) / 10.0)
+                    + ",\"humidity\":" + (40 + random.nextInt(500) / 10.0)
+                    + ",\"light\":" + random.nextInt(1024)
+                    + ",\"ts\":" + nowMillis
+                    + ",\"msgId\":\"" + (++nextMessageId) + "\"}";
+            publish(clients.get(i % clients.size()), sensorTopic, json, sensorQos);
+        }
+    }
+
+    private void commandTick() {
+        commandCarry += commandRatePerSecond * tickMs / 1000.0;
+        int due = (int) commandCarry;
+        commandCarry -= due;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int k = 0; k < due; k++) {
+            long deviceId = deviceIds[random.nextInt(deviceCount)];
+            DeviceState action = random.nextBoolean() ? DeviceState.ON : DeviceState.OFF;
+            try {
+                deviceService.sendCommand(new DeviceControlDTO(deviceId, action));
+                commandsSent.incrementAndGet();
+            } catch (Exception e) {
+                log.warn("[LOADTEST] Lỗi gửi lệnh tới deviceId={}: {}", deviceId, e.getMessage());
+            }
+        }
+    }
+
+    // Chạy trên luồng callback của Paho: chỉ dựng payload rồi publish (hoặc hẹn giờ nếu có ack-delay)
+    private void onCommand(byte[] payload) {
+        try {
+            JsonNode command = objectMapper.readTree(payload);
+            int deviceId = command.path("deviceId").asInt();
+            String json = "{\"deviceId\":" + deviceId
+                    + ",\"state\":\"" + command.path("action").asText() + "\""
+                    + ",\"correlationId\":\"" + command.path("correlationId").asText() + "\"}";
+            MqttAsyncClient client = clients.get(deviceId % clients.size());
+            if (ackDelayMs > 0) {
+                scheduler.schedule(() -> sendAck(client, json), ackDelayMs, TimeUnit.MILLISECONDS);
+            } else {
+                sendAck(client, json);
+            }
+        } catch (Exception e) {
+            log.warn("[LOADTEST] Lệnh không hợp lệ: {}", e.getMessage());
+        }
+    }
+
+    private void sendAck(MqttAsyncClient client, String json) {
+        if (publish(client, actionTopic + "_ack", json, 1)) {
+            acksSent.incrementAndGet();
+        }
+    }
+
+    private boolean publish(MqttAsyncClient client, String topic, String json, int qos) {
+        try {
+            MqttMessage message = new MqttMessage(json.getBytes(StandardCharsets.UTF_8));
+            message.setQos(qos);
+            client.publish(topic, message);
+            published.incrementAndGet();
+            return true;
+        } catch (MqttException e) {
+            // Thường là REASON_CODE_MAX_INFLIGHT: client không đẩy kịp => coi như thiết bị mất bản tin
+            publishFailed.incrementAndGet();
+            return false;
+        }
+    }
+
+    public long published() {
+        return published.get();
+    }
+
+    public long publishFailed() {
+        return publishFailed.get();
+    }
+
+    public long acksSent() {
+        return acksSent.get();
+    }
+
+    public long commandsSent() {
+        return commandsSent.get();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        for (MqttAsyncClient client : clients) {
+            try {
+                client.disconnect().waitForCompletion(2000);
+                client.close();
+            } catch (MqttException e) {
+                log.debug("[LOADTEST] Lỗi đóng kết nối mô phỏng", e);
+            }
+        }
+    }
+}
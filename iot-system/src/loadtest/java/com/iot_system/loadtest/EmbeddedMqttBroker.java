@@ -0,0 +1,42 @@
+package com.iot_system.loadtest;
+
+import io.moquette.broker.Server;
+import io.moquette.broker.config.MemoryConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Properties;
+
+/**
+ * Broker MQTT (Moquette) chạy trong cùng process, chỉ dùng cho profile loadtest.
+ * Không xác thực, không lưu message xuống đĩa.
+ */
+public class EmbeddedMqttBroker {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedMqttBroker.class);
+
+    private final String host;
+    private final int port;
+    private final Server server = new Server();
+
+    public EmbeddedMqttBroker(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        Properties props = new Properties();
+        props.setProperty("host", host);
+        props.setProperty("port", String.valueOf(port));
+        props.setProperty("allow_anonymous", "true");
+        props.setProperty("persistence_enabled", "false");
+        server.startServer(new MemoryConfig(props));
+        log.info("[LOADTEST] Broker MQTT nội bộ đang chạy tại tcp://{}:{}", host, port);
+    }
+
+    public void stop() {
+        server.stopServer();
+        log.info("[LOADTEST] Đã dừng broker MQTT nội bộ");
+    }
+}
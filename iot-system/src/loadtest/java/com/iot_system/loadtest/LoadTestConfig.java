@@ -0,0 +1,45 @@
+package com.iot_system.loadtest;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Cấu hình profile loadtest: broker MQTT nội bộ phải chạy trước khi các bean mqttClient,
+ * commandMqttClient (MQTTConfig) kết nối.
+ * loadtest.broker.embedded=false: dùng broker của instance khác (loadtest.broker.host/port), xem chế độ cluster
+ * trong application-loadtest.properties.
+ */
+@Configuration
+@Profile("loadtest")
+public class LoadTestConfig {
+
+    static final String BROKER_BEAN = "embeddedMqttBroker";
+
+    @Bean(name = BROKER_BEAN, initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "loadtest.broker.embedded", havingValue = "true", matchIfMissing = true)
+    public EmbeddedMqttBroker embeddedMqttBroker(@Value("${loadtest.broker.host:127.0.0.1}") String host,
+                                                 @Value("${loadtest.broker.port:1883}") int port) {
+        return new EmbeddedMqttBroker(host, port);
+    }
+
+    /** mqttClient, commandMqttClient dependsOn broker => broker khởi động trước và dừng sau client */
+    @Bean
+    public static BeanFactoryPostProcessor mqttClientDependsOnBroker() {
+        return beanFactory -> {
+            if (!beanFactory.containsBeanDefinition(BROKER_BEAN)) {
+                return;
+            }
+            for (String name : new String[]{"mqttClient", "commandMqttClient"}) {
+                if (beanFactory.containsBeanDefinition(name)) {
+                    BeanDefinition client = beanFactory.getBeanDefinition(name);
+                    client.setDependsOn(BROKER_BEAN);
+                }
+            }
+        };
+    }
+}
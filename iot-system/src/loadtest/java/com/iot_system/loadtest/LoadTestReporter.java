@@ -0,0 +1,132 @@
+package com.iot_system.loadtest;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In số liệu tải mỗi loadtest.report-interval-s giây và tổng kết khi dừng:
+ * - publish: số bản tin thiết bị ảo gửi/giây
+ * - ingest: số message MQTT server nhận/giây (iot.mqtt.received)
+ * - DB: số dòng sensor_data ghi thành công/giây (iot.ingest.rows{result=written})
+ * - ACK p99: percentile 0.99 của iot.command.rtt (lớn nhất giữa các loại thiết bị)
+ * - rơi: bản tin bỏ ở lane MQTT + hàng đợi ghi + phía thiết bị ảo
+ * - trùng: bản tin giao lại bị IngestDedupe bỏ (iot.ingest.rows{result=duplicate})
+ */
+@Component
+@Profile("loadtest")
+public class LoadTestReporter {
+
+    private static final Logger log = LoggerFactory.getLogger(LoadTestReporter.class);
+
+    private final MeterRegistry meterRegistry;
+    private final DeviceFleetSimulator simulator;
+
+    @Value("${loadtest.report-interval-s:10}")
+    private int reportIntervalSeconds;
+
+    private ScheduledExecutorService scheduler;
+    private long startedNanos;
+    private Snapshot last;
+
+    private record Snapshot(long nanos, long published, double received, double written, double dropped,
+                            double duplicates, double timeouts, long acks) {
+    }
+
+    public LoadTestReporter(MeterRegistry meterRegistry, DeviceFleetSimulator simulator) {
+        this.meterRegistry = meterRegistry;
+        this.simulator = simulator;
+    }
+
+    @PostConstruct
+    public void start() {
+        startedNanos = System.nanoTime();
+        last = snapshot();
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "loadtest-reporter");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void report() {
+        try {
+            Snapshot now = snapshot();
+            log.info("[LOADTEST] {}", describe(last, now));
+            last = now;
+        } catch (Exception e) {
+            log.warn("[LOADTEST] Lỗi tổng hợp số liệu", e);
+        }
+    }
+
+    private String describe(Snapshot from, Snapshot to) {
+        double seconds = Math.max(1e-9, (to.nanos - from.nanos) / 1e9);
+        return String.format("publish=%.0f/s, ingest=%.0f/s, DB=%.0f dòng/s, ACK p99=%.1f ms, ACK=%d, timeout=%.0f, rơi=%.0f, "
+                        + "trùng=%.0f, thiết bị ảo lỗi publish=%d",
+                (to.published - from.published) / seconds,
+                (to.received - from.received) / seconds,
+                (to.written - from.written) / seconds,
+                ackP99Millis(),
+                to.acks - from.acks,
+                to.timeouts - from.timeouts,
+                to.dropped - from.dropped,
+                to.duplicates - from.duplicates,
+                simulator.publishFailed());
+    }
+
+    private Snapshot snapshot() {
+        return new Snapshot(System.nanoTime(),
+                simulator.published(),
+                sumCounters("iot.mqtt.received", null, null),
+                sumCounters("iot.ingest.rows", "result", "written"),
+                sumCounters("iot.ingest.rows", "result", "dropped") + sumCounters("iot.mqtt.dispatch.dropped", null, null),
+                sumCounters("iot.ingest.rows", "result", "duplicate"),
+                sumCounters("iot.command.timeouts", null, null),
+                simulator.acksSent());
+    }
+
+    private double sumCounters(String name, String tagKey, String tagValue) {
+        var search = meterRegistry.find(name);
+        if (tagKey != null) {
+            search = search.tag(tagKey, tagValue);
+        }
+        return search.counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    // Cần management.metrics.distribution.percentiles.iot.command.rtt chứa 0.99 (xem application-loadtest.properties)
+    private double ackP99Millis() {
+        double p99 = 0;
+        for (Timer timer : meterRegistry.find("iot.command.rtt").timers()) {
+            for (ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+                if (value.percentile() == 0.99) {
+                    p99 = Math.max(p99, value.value(TimeUnit.MILLISECONDS));
+                }
+            }
+        }
+        return p99;
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        Snapshot total = snapshot();
+        Snapshot origin = new Snapshot(startedNanos, 0, 0, 0, 0, 0, 0, 0);
+        log.info("[LOADTEST] Tổng kết sau {} s: {}", (total.nanos - startedNanos) / 1_000_000_000L,
+                describe(origin, total));
+    }
+}
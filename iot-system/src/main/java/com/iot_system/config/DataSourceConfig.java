@@ -0,0 +1,60 @@
+package com.iot_system.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * Hai pool kết nối tới cùng một database để truy vấn nặng không chiếm hết kết nối của luồng ingest:
+ * - query (@Primary, spring.datasource.hikari.*): JPA/repository, tìm kiếm, xuất file, job bảo trì
+ * - ingest (ingest.datasource.hikari.*): ghi sensor_data theo lô, ACK/lịch sử hành động, last_seen_at, rollup
+ *   => pool nhỏ, connection-timeout ngắn: khi DB quá tải luồng ghi thất bại nhanh thay vì treo 30 s
+ * Cả hai dùng chung url/username/password của spring.datasource (DataSourceProperties do Spring Boot tạo).
+ * Transaction trên pool ingest: ingestTransactionTemplate (chỉ inject theo qualifier; TransactionTemplate mặc định
+ * vẫn là của JPA trên pool query). Transaction manager của nó không đăng ký làm bean để không thay JpaTransactionManager.
+ * Spring Boot tự gắn metrics cho từng HikariDataSource: hikaricp.connections.{active,pending,timeout}{pool=query|ingest}
+ */
+@Configuration
+public class DataSourceConfig {
+
+    public static final String INGEST_JDBC_TEMPLATE = "ingestJdbcTemplate";
+    public static final String INGEST_TRANSACTION_TEMPLATE = "ingestTransactionTemplate";
+
+    @Bean
+    @Primary
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @ConfigurationProperties("ingest.datasource.hikari")
+    public HikariDataSource ingestDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    public JdbcTemplate jdbcTemplate(DataSource dataSource) {
+        return new JdbcTemplate(dataSource);
+    }
+
+    @Bean(INGEST_JDBC_TEMPLATE)
+    public JdbcTemplate ingestJdbcTemplate(@Qualifier("ingestDataSource") DataSource ingestDataSource) {
+        return new JdbcTemplate(ingestDataSource);
+    }
+
+    @Bean(name = INGEST_TRANSACTION_TEMPLATE, defaultCandidate = false)
+    public TransactionTemplate ingestTransactionTemplate(@Qualifier("ingestDataSource") DataSource ingestDataSource) {
+        return new TransactionTemplate(new DataSourceTransactionManager(ingestDataSource));
+    }
+}
@@ -1,5 +1,6 @@
 package com.iot_system.config;
 
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
@@ -10,11 +11,27 @@ import org.springframework.context.annotation.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Kết nối MQTT của ứng dụng.
+ * Chế độ cluster (mqtt.cluster.enabled=true, nhiều instance cùng ingest):
+ * - clientId phải cố định theo instance (mqtt.client-id, mặc định appName-hostname-server.port)
+ *   và cleanSession=false => broker giữ subscription và message QoS 1 chưa ACK khi instance kết nối lại
+ * - telemetry được subscribe qua shared subscription (xem CommandSubscriber), bản tin giao lại được
+ *   IngestDedupe loại bỏ
+ * Lệnh điều khiển đi qua kết nối riêng commandMqttClient (MqttAsyncClient, xem CommandPublisher): publish không
+ * chặn và không tranh khóa với luồng nhận telemetry của mqttClient.
+ */
 @Configuration
 public class MQTTConfig {
 
     private static final Logger log = LoggerFactory.getLogger(MQTTConfig.class);
 
+    @Value("${mqtt.scheme:ssl}")
+    private String scheme;
+
     @Value("${mqtt.host}")
     private String host;
 
@@ -30,24 +47,80 @@ public class MQTTConfig {
     @Value("${spring.application.name:iot-system}")
     private String appName;
 
+    @Value("${mqtt.client-id:}")
+    private String configuredClientId;
+
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    @Value("${mqtt.command.max-inflight:100}")
+    private int commandMaxInflight;
+
     @Bean
     public MqttClient mqttClient() throws MqttException {
-        // Broker URL = ssl://host:port (HiveMQ Cloud cần SSL)
-        String brokerUrl = "ssl://" + host + ":" + port;
-        String clientId = appName + "-" + System.currentTimeMillis();
+        // Broker URL = ssl://host:port (HiveMQ Cloud cần SSL); tcp:// cho broker cục bộ (profile loadtest)
+        String brokerUrl = scheme + "://" + host + ":" + port;
+        String clientId = clientId();
 
         MqttClient client = new MqttClient(brokerUrl, clientId, new MemoryPersistence());
 
-        MqttConnectOptions options = new MqttConnectOptions();
-        options.setUserName(username);
-        options.setPassword(password.toCharArray());
-        options.setAutomaticReconnect(true);
-        options.setCleanSession(true);
+        MqttConnectOptions options = connectOptions();
+        options.setCleanSession(!clusterEnabled);
 
         client.connect(options);
 
-        log.info("[MQTT] Đã kết nối tới {}", brokerUrl);
+        log.info("[MQTT] Đã kết nối tới {} (clientId={}, cluster={})", brokerUrl, clientId, clusterEnabled);
+
+        return client;
+    }
+
+    /** Kết nối chỉ để publish lệnh: không subscribe nên luôn cleanSession */
+    @Bean(destroyMethod = "close")
+    public MqttAsyncClient commandMqttClient() throws MqttException {
+        String brokerUrl = scheme + "://" + host + ":" + port;
+        String clientId = clientId() + "-cmd";
+
+        MqttAsyncClient client = new MqttAsyncClient(brokerUrl, clientId, new MemoryPersistence());
+
+        MqttConnectOptions options = connectOptions();
+        // Cửa sổ của Paho khớp với CommandPublisher: publish vượt cửa sổ xếp hàng ở CommandPublisher thay vì lỗi
+        options.setMaxInflight(commandMaxInflight);
+
+        client.connect(options).waitForCompletion();
+
+        log.info("[MQTT] Đã kết nối publish lệnh tới {} (clientId={}, max-inflight={})",
+                brokerUrl, clientId, commandMaxInflight);
 
         return client;
     }
+
+    private MqttConnectOptions connectOptions() {
+        MqttConnectOptions options = new MqttConnectOptions();
+        if (username != null && !username.isBlank()) {
+            options.setUserName(username);
+            options.setPassword(password.toCharArray());
+        }
+        options.setAutomaticReconnect(true);
+        return options;
+    }
+
+    private String clientId() {
+        if (configuredClientId != null && !configuredClientId.isBlank()) {
+            return configuredClientId;
+        }
+        if (!clusterEnabled) {
+            return appName + "-" + System.currentTimeMillis();
+        }
+        // Cố định qua các lần khởi động lại để broker trả lại phiên (subscription + message chưa ACK)
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "localhost";
+        }
+        return appName + "-" + host + "-" + serverPort;
+    }
 }
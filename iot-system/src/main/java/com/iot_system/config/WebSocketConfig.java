@@ -26,6 +26,7 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         // Nơi FE sẽ subscribe để nhận message từ BE
+        // (/topic/devices, /topic/sensors và /topic/sensors/{deviceUid} cho từng thiết bị)
         registry.enableSimpleBroker("/topic");
 
         // Prefix khi FE gửi message ngược lên BE (nếu cần)
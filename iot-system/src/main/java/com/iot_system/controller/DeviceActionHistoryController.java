@@ -6,19 +6,27 @@ import com.iot_system.domain.dto.ActionHistoryDTO;
 import com.iot_system.domain.dto.PagedResponse;
 import com.iot_system.domain.enums.DeviceState;
 import com.iot_system.domain.enums.DeviceType;
+import com.iot_system.domain.enums.ExportFormat;
 import com.iot_system.service.ActionHistoryService;
+import com.iot_system.service.DataExportService;
+import com.iot_system.util.ResponseUtils;
  
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/device-actions")
 public class DeviceActionHistoryController {
 
     private final ActionHistoryService actionHistoryService;
+    private final DataExportService dataExportService;
 
-    public DeviceActionHistoryController(ActionHistoryService actionHistoryService) {
+    public DeviceActionHistoryController(ActionHistoryService actionHistoryService,
+                                         DataExportService dataExportService) {
         this.actionHistoryService = actionHistoryService;
+        this.dataExportService = dataExportService;
     }
 
     @GetMapping("/search")
@@ -28,8 +36,35 @@ public class DeviceActionHistoryController {
             @RequestParam(required = false) DeviceState action,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "15") int size,
-            @RequestParam(defaultValue = "desc") String sort
+            @RequestParam(defaultValue = "desc") String sort,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) Integer limit
     ) {
+        // Có after/before/limit => phân trang keyset (không COUNT, trả nextCursor/prevCursor)
+        if (after != null || before != null || limit != null) {
+            return actionHistoryService.searchKeyset(dateStr, deviceType, action, after, before,
+                    limit != null ? limit : size, sort);
+        }
         return actionHistoryService.search(dateStr, deviceType, action, page, size, sort);
     }
+
+    // Xuất file CSV/NDJSON (stream thẳng từ DB, bộ nhớ cố định); cùng bộ lọc với /search
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(required = false) String dateStr,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) String deviceUid,
+            @RequestParam(required = false) DeviceType deviceType,
+            @RequestParam(required = false) DeviceState action,
+            @RequestParam(defaultValue = "asc") String sort,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip
+    ) {
+        ExportFormat exportFormat = ExportFormat.parse(format);
+        StreamingResponseBody body = dataExportService.exportActionHistory(dateStr, from, to, deviceUid,
+                deviceType, action, sort, exportFormat, gzip);
+        return ResponseUtils.attachment("device-actions", exportFormat, gzip, body);
+    }
 }
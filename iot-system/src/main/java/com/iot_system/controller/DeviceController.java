@@ -1,8 +1,10 @@
 package com.iot_system.controller;
 
+import com.iot_system.domain.dto.CommandStatusDTO;
 import com.iot_system.domain.dto.DeviceControlDTO;
 import com.iot_system.domain.dto.DeviceStatusDTO;
 import com.iot_system.service.DeviceService;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -28,4 +30,12 @@ public class DeviceController {
         String correlationId = deviceService.sendCommand(dto);
         return java.util.Map.of("correlationId", correlationId, "status", "ACCEPTED");
     }
+
+    // Trạng thái lệnh đã gửi: PENDING / ACKED (kèm latencyMs) / TIMED_OUT / LATE_ACK
+    @GetMapping("/commands/{correlationId}")
+    public ResponseEntity<CommandStatusDTO> commandStatus(@PathVariable String correlationId) {
+        return deviceService.getCommandStatus(correlationId)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 }
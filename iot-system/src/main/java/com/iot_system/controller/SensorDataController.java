@@ -1,20 +1,47 @@
 package com.iot_system.controller;
 
 import com.iot_system.domain.dto.PagedResponse;
+import com.iot_system.domain.dto.RollupPointDTO;
 import com.iot_system.domain.dto.SensorReadingDTO;
+import com.iot_system.domain.dto.SensorUpdateDTO;
+import com.iot_system.domain.enums.ExportFormat;
+import com.iot_system.domain.enums.RollupBucket;
 import com.iot_system.domain.enums.SensorMetric;
+import com.iot_system.exception.InvalidQueryException;
+import com.iot_system.service.DataExportService;
+import com.iot_system.service.MetricRegistry;
 import com.iot_system.service.SensorDataService;
+import com.iot_system.service.SensorRollupService;
+import com.iot_system.service.SensorWindowStore;
+import com.iot_system.util.ResponseUtils;
  
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/sensor-data")
 public class SensorDataController {
 
     private final SensorDataService sensorDataService;
+    private final SensorRollupService sensorRollupService;
+    private final DataExportService dataExportService;
+    private final SensorWindowStore sensorWindowStore;
+    private final MetricRegistry metricRegistry;
 
-    public SensorDataController(SensorDataService sensorDataService) {
+    public SensorDataController(SensorDataService sensorDataService,
+                                SensorRollupService sensorRollupService,
+                                DataExportService dataExportService,
+                                SensorWindowStore sensorWindowStore,
+                                MetricRegistry metricRegistry) {
         this.sensorDataService = sensorDataService;
+        this.sensorRollupService = sensorRollupService;
+        this.dataExportService = dataExportService;
+        this.sensorWindowStore = sensorWindowStore;
+        this.metricRegistry = metricRegistry;
     }
 
     // Một phương thức GET duy nhất tại path gốc "/api/sensor-data"
@@ -22,17 +49,41 @@ public class SensorDataController {
     public PagedResponse<SensorReadingDTO> search(
             @RequestParam(name = "dateStr", required = false) String dateStr,
             @RequestParam(defaultValue = "ALL") SensorMetric metric,
+            @RequestParam(required = false) String metricName,
             @RequestParam(required = false) String valueOp,
             @RequestParam(required = false) Double value,
+            @RequestParam(required = false) Double valueTo,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "15") int size,
-            @RequestParam(defaultValue = "desc") String sort
+            @RequestParam(defaultValue = "desc") String sort,
+            @RequestParam(required = false) String after,
+            @RequestParam(required = false) String before,
+            @RequestParam(required = false) Integer limit
     ) {
         String dateQuery = (dateStr != null && !dateStr.isBlank()) ? dateStr : null;
 
+        // metricName: tên metric trong danh mục (temperature/humidity/light tương đương metric=TEMP/HUMIDITY/LIGHT)
+        if (metricName != null && !metricName.isBlank()) {
+            SensorMetric wide = SensorMetric.fromColumn(metricName);
+            if (wide != null) {
+                metric = wide;
+            } else {
+                if (after != null || before != null || limit != null) {
+                    throw new InvalidQueryException("Phân trang keyset chưa hỗ trợ metricName ngoài temperature/humidity/light");
+                }
+                return sensorDataService.searchMetric(dateQuery, metricName, valueOp, value, valueTo, page, size, sort);
+            }
+        }
+
+        // Có after/before/limit => phân trang keyset (không COUNT, trả nextCursor/prevCursor)
+        if (after != null || before != null || limit != null) {
+            return sensorDataService.searchKeyset(dateQuery, metric, valueOp, value, valueTo, after, before,
+                    limit != null ? limit : size, sort);
+        }
+
         // Nếu truyền valueOp (không rỗng) => vào luồng tìm theo giá trị
         if (valueOp != null && !valueOp.isBlank()) {
-            return sensorDataService.searchByValue(dateQuery, metric, valueOp, value, page, size, sort);
+            return sensorDataService.searchByValue(dateQuery, metric, valueOp, value, valueTo, page, size, sort);
         }
 
         // Không có valueOp: nếu có ngày => tìm theo thời gian; nếu không => trả tất cả (có thể lọc metric)
@@ -41,4 +92,67 @@ public class SensorDataController {
         }
         return sensorDataService.search(dateQuery, metric, page, size, sort);
     }
+
+    // Danh sách metric đã đăng ký (dùng cho tham số metricName)
+    @GetMapping("/metrics")
+    public List<String> metrics() {
+        return metricRegistry.names();
+    }
+
+    // Chuỗi tổng hợp (count/min/max/avg/last) theo bucket phút/giờ/ngày cho biểu đồ dài hạn
+    @GetMapping("/aggregate")
+    public List<RollupPointDTO> aggregate(
+            @RequestParam(required = false) String deviceUid,
+            @RequestParam(required = false) Long deviceId,
+            @RequestParam(defaultValue = "ALL") SensorMetric metric,
+            @RequestParam(defaultValue = "HOUR") RollupBucket bucket,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to
+    ) {
+        return sensorRollupService.getSeries(deviceUid, deviceId, metric, bucket, from, to);
+    }
+
+    // Dựng lại bảng tổng hợp từ sensor_data cho khoảng thời gian (nới ra tròn ngày)
+    @PostMapping("/aggregate/rebuild")
+    public Map<String, Object> rebuildAggregate(@RequestParam String from, @RequestParam String to) {
+        int rows = sensorRollupService.rebuild(from, to);
+        return Map.of("status", "OK", "rows", rows);
+    }
+
+    // Xuất file CSV/NDJSON (stream thẳng từ DB, bộ nhớ cố định); cùng bộ lọc với GET /api/sensor-data
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> export(
+            @RequestParam(name = "dateStr", required = false) String dateStr,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to,
+            @RequestParam(required = false) String deviceUid,
+            @RequestParam(defaultValue = "ALL") SensorMetric metric,
+            @RequestParam(required = false) String valueOp,
+            @RequestParam(required = false) Double value,
+            @RequestParam(required = false) Double valueTo,
+            @RequestParam(defaultValue = "asc") String sort,
+            @RequestParam(defaultValue = "csv") String format,
+            @RequestParam(defaultValue = "false") boolean gzip
+    ) {
+        ExportFormat exportFormat = ExportFormat.parse(format);
+        StreamingResponseBody body = dataExportService.exportSensorData(dateStr, from, to, deviceUid,
+                metric, valueOp, value, valueTo, sort, exportFormat, gzip);
+        return ResponseUtils.attachment("sensor-data", exportFormat, gzip, body);
+    }
+
+    // Bản ghi mới nhất của từng thiết bị (đọc từ bộ nhớ)
+    @GetMapping("/latest")
+    public List<SensorUpdateDTO> latest() {
+        return sensorWindowStore.latestForAll();
+    }
+
+    // Dữ liệu N phút gần nhất của một thiết bị (bộ nhớ, hoặc DB nếu cửa sổ vượt quá phần đang giữ)
+    @GetMapping("/recent")
+    public List<SensorReadingDTO> recent(
+            @RequestParam(required = false) String deviceUid,
+            @RequestParam(required = false) Long deviceId,
+            @RequestParam(defaultValue = "15") int minutes
+    ) {
+        return sensorWindowStore.recent(deviceUid, deviceId, minutes);
+    }
 }
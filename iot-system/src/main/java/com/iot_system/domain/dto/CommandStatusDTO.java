@@ -0,0 +1,22 @@
+package com.iot_system.domain.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.iot_system.domain.enums.CommandStatus;
+import com.iot_system.domain.enums.DeviceState;
+
+import java.time.LocalDateTime;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record CommandStatusDTO(
+    String correlationId,
+    Long deviceId,
+    DeviceState action,
+    CommandStatus status,
+    @JsonFormat(pattern = "dd-MM-yyyy HH:mm:ss", timezone = "Asia/Ho_Chi_Minh")
+    LocalDateTime sentAt,
+    @JsonFormat(pattern = "dd-MM-yyyy HH:mm:ss", timezone = "Asia/Ho_Chi_Minh")
+    LocalDateTime completedAt,
+    Long latencyMs
+) {
+}
@@ -1,5 +1,7 @@
 package com.iot_system.domain.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 
@@ -10,6 +12,13 @@ public class PagedResponse<T> {
     private int pageSize;
     private long totalElements;
     private int totalPages;
+    // false khi totalElements/totalPages là giá trị cache hoặc ước lượng (xem CountMode)
+    private boolean totalExact = true;
+    // Chỉ có ở chế độ keyset (after/before + limit); ở chế độ page/size luôn null và không xuất ra JSON
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String nextCursor;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private String prevCursor;
 
     public PagedResponse(String message, List<T> data, int currentPage, int pageSize, long totalElements,
             int totalPages) {
@@ -21,6 +30,23 @@ public class PagedResponse<T> {
         this.totalPages = totalPages;
     }
 
+    public PagedResponse(String message, List<T> data, int currentPage, int pageSize, long totalElements,
+            int totalPages, boolean totalExact) {
+        this(message, data, currentPage, pageSize, totalElements, totalPages);
+        this.totalExact = totalExact;
+    }
+
+    /**
+     * Kết quả phân trang keyset: không chạy COUNT nên totalElements/totalPages = -1 (không xác định).
+     */
+    public static <T> PagedResponse<T> ofCursor(String message, List<T> data, int limit,
+                                                String nextCursor, String prevCursor) {
+        PagedResponse<T> response = new PagedResponse<>(message, data, 0, limit, -1, -1, false);
+        response.nextCursor = nextCursor;
+        response.prevCursor = prevCursor;
+        return response;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -44,4 +70,16 @@ public class PagedResponse<T> {
     public int getTotalPages() {
         return totalPages;
     }
+
+    public boolean isTotalExact() {
+        return totalExact;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public String getPrevCursor() {
+        return prevCursor;
+    }
 }
@@ -0,0 +1,23 @@
+package com.iot_system.domain.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.iot_system.domain.entity.SensorRollup;
+
+import java.time.LocalDateTime;
+
+public record RollupPointDTO(
+    String metric,
+    @JsonFormat(pattern = "dd-MM-yyyy HH:mm:ss", timezone = "Asia/Ho_Chi_Minh")
+    LocalDateTime bucketStart,
+    long count,
+    Double min,
+    Double max,
+    Double avg,
+    Double last
+) {
+    public static RollupPointDTO from(SensorRollup r) {
+        Double avg = (r.getSampleCount() > 0 && r.getSumValue() != null) ? r.getSumValue() / r.getSampleCount() : null;
+        return new RollupPointDTO(r.getMetric(), r.getBucketStart(), r.getSampleCount(),
+                r.getMinValue(), r.getMaxValue(), avg, r.getLastValue());
+    }
+}
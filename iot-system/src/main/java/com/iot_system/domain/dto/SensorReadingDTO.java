@@ -1,9 +1,11 @@
 package com.iot_system.domain.dto;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.iot_system.domain.entity.SensorData;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 
 public class SensorReadingDTO {
     private int stt;
@@ -14,6 +16,10 @@ public class SensorReadingDTO {
     @JsonFormat(pattern = "dd-MM-yyyy HH:mm:ss", timezone = "Asia/Ho_Chi_Minh")
     private LocalDateTime recordedAt;
 
+    // Metric ở bảng hẹp sensor_reading của cùng bản tin (co2, voltage, ...); rỗng thì không xuất ra JSON
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    private Map<String, Double> metrics;
+
     // Default constructor
     public SensorReadingDTO() {}
 
@@ -50,4 +56,7 @@ public class SensorReadingDTO {
     
     public LocalDateTime getRecordedAt() { return recordedAt; }
     public void setRecordedAt(LocalDateTime recordedAt) { this.recordedAt = recordedAt; }
+
+    public Map<String, Double> getMetrics() { return metrics; }
+    public void setMetrics(Map<String, Double> metrics) { this.metrics = metrics; }
 }
@@ -0,0 +1,19 @@
+package com.iot_system.domain.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import java.time.LocalDateTime;
+
+/**
+ * Bản tin realtime gửi qua WebSocket (/topic/sensors, /topic/sensors/{deviceUid}).
+ * Giữ nguyên tên trường như payload cũ để FE không phải đổi.
+ */
+public record SensorUpdateDTO(
+    String deviceUid,
+    Double temperature,
+    Double humidity,
+    Double light,
+    @JsonFormat(pattern = "dd-MM-yyyy HH:mm:ss", timezone = "Asia/Ho_Chi_Minh")
+    LocalDateTime recordedAt
+) {
+}
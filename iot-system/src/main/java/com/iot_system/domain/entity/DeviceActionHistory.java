@@ -12,13 +12,17 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.JoinColumn;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.Table;
 
 
 @Entity
-@Table(name =  "device_action_history")
+@Table(name =  "device_action_history", indexes = {
+        // Phục vụ lọc theo thời gian và phân trang keyset (executed_at, id)
+        @Index(name = "idx_action_history_executed_at_id", columnList = "executed_at, id")
+})
 public class DeviceActionHistory {
 
     @Id
@@ -0,0 +1,36 @@
+package com.iot_system.domain.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * Danh mục metric cảm biến (bảng sensor_metric): tên metric được intern thành id nhỏ để bảng hẹp sensor_reading
+ * chỉ lưu SMALLINT. Đọc/ghi qua MetricRegistry (JDBC), entity chỉ khai báo schema.
+ */
+@Entity
+@Table(name = "sensor_metric", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_sensor_metric_name", columnNames = "name")
+})
+public class MetricDefinition {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Short id;
+
+    @Column(nullable = false, length = 64)
+    private String name;
+
+    public Short getId() {
+        return id;
+    }
+
+    public void setId(Short id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+}
@@ -4,7 +4,16 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "sensor_data")
+@Table(name = "sensor_data", indexes = {
+        // Phục vụ lọc theo thời gian và phân trang keyset (recorded_at, id)
+        @Index(name = "idx_sensor_data_recorded_at_id", columnList = "recorded_at, id"),
+        // Tìm theo giá trị: mỗi metric một chỉ mục để quét khoảng giá trị rồi lọc thời gian ngay trên chỉ mục
+        @Index(name = "idx_sensor_data_temperature_recorded_at", columnList = "temperature, recorded_at"),
+        @Index(name = "idx_sensor_data_humidity_recorded_at", columnList = "humidity, recorded_at"),
+        @Index(name = "idx_sensor_data_light_recorded_at", columnList = "light, recorded_at"),
+        // Bản ghi mới nhất / cửa sổ gần đây của một thiết bị (khi bộ nhớ SensorWindowStore không đủ)
+        @Index(name = "idx_sensor_data_device_recorded_at", columnList = "device_id, recorded_at")
+})
 public class SensorData {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -0,0 +1,83 @@
+package com.iot_system.domain.entity;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Khóa chống ghi trùng bản tin cảm biến (bảng sensor_ingest_key), khóa chính (device_id, msg_key).
+ * claim_id: lô ghi đã giành khóa; claimed_at: để xóa khóa quá hạn.
+ * Ghi/đọc qua JDBC (IngestDedupe), entity chỉ khai báo schema.
+ */
+@Entity
+@Table(name = "sensor_ingest_key", indexes = {
+        @Index(name = "idx_sensor_ingest_key_claim", columnList = "claim_id"),
+        @Index(name = "idx_sensor_ingest_key_claimed_at", columnList = "claimed_at")
+})
+@IdClass(SensorIngestKey.Key.class)
+public class SensorIngestKey {
+    @Id
+    @Column(name = "device_id", nullable = false)
+    private Long deviceId;
+
+    @Id
+    @Column(name = "msg_key", nullable = false)
+    private Long msgKey;
+
+    @Column(name = "claim_id", nullable = false)
+    private long claimId;
+
+    @Column(name = "claimed_at", nullable = false)
+    private LocalDateTime claimedAt;
+
+    public static class Key implements Serializable {
+        private Long deviceId;
+        private Long msgKey;
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other
+                    && Objects.equals(deviceId, other.deviceId)
+                    && Objects.equals(msgKey, other.msgKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, msgKey);
+        }
+    }
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public Long getMsgKey() {
+        return msgKey;
+    }
+
+    public void setMsgKey(Long msgKey) {
+        this.msgKey = msgKey;
+    }
+
+    public long getClaimId() {
+        return claimId;
+    }
+
+    public void setClaimId(long claimId) {
+        this.claimId = claimId;
+    }
+
+    public LocalDateTime getClaimedAt() {
+        return claimedAt;
+    }
+
+    public void setClaimedAt(LocalDateTime claimedAt) {
+        this.claimedAt = claimedAt;
+    }
+}
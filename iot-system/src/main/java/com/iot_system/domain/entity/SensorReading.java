@@ -0,0 +1,90 @@
+package com.iot_system.domain.entity;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Bảng hẹp sensor_reading: một dòng cho mỗi (thiết bị, thời điểm, metric) với metric ngoài ba cột cố định của sensor_data.
+ * - Khóa chính PRIMARY KEY (device_id, ts, metric_id), theo đúng thứ tự này: dòng của một thiết bị nằm liền nhau theo
+ *   thời gian nên ghép các metric vào một trang sensor_data (SensorReadingStore.pivot) là một lần quét khoảng trên
+ *   clustered index, và mỗi thiết bị chỉ ghi nối vào cuối khoảng của nó
+ * - Hibernate (ddl-auto) không giữ thứ tự cột của @IdClass (tạo (metric_id, device_id, ts)) => thứ tự được đặt bằng
+ *   scripts/sensor_reading_primary_key.sql; SensorReadingStore cảnh báo lúc khởi động nếu bảng chưa đúng
+ * - Chỉ mục (metric_id, ts): truy vấn theo một metric trong khoảng thời gian, không phụ thuộc thiết bị
+ * Ghi/đọc qua JDBC (SensorBatchWriter, SensorReadingStore), entity chỉ khai báo schema.
+ */
+@Entity
+@Table(name = "sensor_reading", indexes = {
+        @Index(name = "idx_sensor_reading_metric_ts", columnList = "metric_id, ts")
+})
+@IdClass(SensorReading.Key.class)
+public class SensorReading {
+    @Id
+    @Column(name = "device_id", nullable = false)
+    private Long deviceId;
+
+    @Id
+    @Column(name = "ts", nullable = false)
+    private LocalDateTime recordedAt;
+
+    @Id
+    @Column(name = "metric_id", nullable = false)
+    private Short metricId;
+
+    @Column(name = "value", nullable = false)
+    private double value;
+
+    public static class Key implements Serializable {
+        private Long deviceId;
+        private LocalDateTime recordedAt;
+        private Short metricId;
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other
+                    && Objects.equals(deviceId, other.deviceId)
+                    && Objects.equals(recordedAt, other.recordedAt)
+                    && Objects.equals(metricId, other.metricId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(deviceId, recordedAt, metricId);
+        }
+    }
+
+    public Long getDeviceId() {
+        return deviceId;
+    }
+
+    public void setDeviceId(Long deviceId) {
+        this.deviceId = deviceId;
+    }
+
+    public LocalDateTime getRecordedAt() {
+        return recordedAt;
+    }
+
+    public void setRecordedAt(LocalDateTime recordedAt) {
+        this.recordedAt = recordedAt;
+    }
+
+    public Short getMetricId() {
+        return metricId;
+    }
+
+    public void setMetricId(Short metricId) {
+        this.metricId = metricId;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public void setValue(double value) {
+        this.value = value;
+    }
+}
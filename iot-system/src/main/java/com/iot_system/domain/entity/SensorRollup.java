@@ -0,0 +1,141 @@
+package com.iot_system.domain.entity;
+
+import com.iot_system.domain.enums.RollupBucket;
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Tổng hợp theo bucket (phút/giờ/ngày) cho từng thiết bị và từng metric.
+ * Được cập nhật tăng dần bởi luồng ingest (INSERT ... ON DUPLICATE KEY UPDATE), có thể dựng lại từ sensor_data.
+ */
+@Entity
+@Table(name = "sensor_rollup", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_sensor_rollup_bucket", columnNames = {"device_id", "metric", "bucket", "bucket_start"})
+})
+public class SensorRollup {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "device_id", nullable = false)
+    private Device device;
+
+    // Tên metric: TEMP / HUMIDITY / LIGHT
+    @Column(nullable = false, length = 32)
+    private String metric;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private RollupBucket bucket;
+
+    @Column(name = "bucket_start", nullable = false)
+    private LocalDateTime bucketStart;
+
+    @Column(name = "sample_count", nullable = false)
+    private long sampleCount;
+
+    @Column(name = "min_value")
+    private Double minValue;
+
+    @Column(name = "max_value")
+    private Double maxValue;
+
+    @Column(name = "sum_value")
+    private Double sumValue;
+
+    @Column(name = "last_value")
+    private Double lastValue;
+
+    @Column(name = "last_at")
+    private LocalDateTime lastAt;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Device getDevice() {
+        return device;
+    }
+
+    public void setDevice(Device device) {
+        this.device = device;
+    }
+
+    public String getMetric() {
+        return metric;
+    }
+
+    public void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    public RollupBucket getBucket() {
+        return bucket;
+    }
+
+    public void setBucket(RollupBucket bucket) {
+        this.bucket = bucket;
+    }
+
+    public LocalDateTime getBucketStart() {
+        return bucketStart;
+    }
+
+    public void setBucketStart(LocalDateTime bucketStart) {
+        this.bucketStart = bucketStart;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public void setSampleCount(long sampleCount) {
+        this.sampleCount = sampleCount;
+    }
+
+    public Double getMinValue() {
+        return minValue;
+    }
+
+    public void setMinValue(Double minValue) {
+        this.minValue = minValue;
+    }
+
+    public Double getMaxValue() {
+        return maxValue;
+    }
+
+    public void setMaxValue(Double maxValue) {
+        this.maxValue = maxValue;
+    }
+
+    public Double getSumValue() {
+        return sumValue;
+    }
+
+    public void setSumValue(Double sumValue) {
+        this.sumValue = sumValue;
+    }
+
+    public Double getLastValue() {
+        return lastValue;
+    }
+
+    public void setLastValue(Double lastValue) {
+        this.lastValue = lastValue;
+    }
+
+    public LocalDateTime getLastAt() {
+        return lastAt;
+    }
+
+    public void setLastAt(LocalDateTime lastAt) {
+        this.lastAt = lastAt;
+    }
+}
@@ -0,0 +1,12 @@
+package com.iot_system.domain.enums;
+
+/**
+ * Trạng thái một lệnh điều khiển theo correlationId.
+ * LATE_ACK: ACK về sau khi lệnh đã bị coi là quá hạn.
+ */
+public enum CommandStatus {
+    PENDING,
+    ACKED,
+    TIMED_OUT,
+    LATE_ACK
+}
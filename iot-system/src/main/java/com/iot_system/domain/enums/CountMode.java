@@ -0,0 +1,12 @@
+package com.iot_system.domain.enums;
+
+/**
+ * Cách tính totalElements cho tìm kiếm phân trang (cấu hình theo từng endpoint, xem search.count.*).
+ * EXACT chạy COUNT mỗi request; CACHED dùng lại kết quả COUNT trong cache-ttl-ms;
+ * ESTIMATE ước lượng không chạy COUNT (chỉ áp dụng được khi không lọc, còn lại dùng CACHED).
+ */
+public enum CountMode {
+    EXACT,
+    CACHED,
+    ESTIMATE
+}
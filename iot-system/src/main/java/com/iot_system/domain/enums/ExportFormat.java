@@ -0,0 +1,39 @@
+package com.iot_system.domain.enums;
+
+import com.iot_system.exception.InvalidQueryException;
+
+/**
+ * Định dạng xuất dữ liệu: CSV (có dòng tiêu đề) hoặc NDJSON (mỗi dòng một JSON object).
+ */
+public enum ExportFormat {
+    CSV("text/csv", "csv"),
+    NDJSON("application/x-ndjson", "ndjson");
+
+    private final String contentType;
+    private final String extension;
+
+    ExportFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String contentType() {
+        return contentType;
+    }
+
+    public String extension() {
+        return extension;
+    }
+
+    public static ExportFormat parse(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return CSV;
+        }
+        for (ExportFormat format : values()) {
+            if (format.name().equalsIgnoreCase(raw.trim())) {
+                return format;
+            }
+        }
+        throw new InvalidQueryException("Định dạng không hỗ trợ: " + raw + " (hỗ trợ: csv, ndjson)");
+    }
+}
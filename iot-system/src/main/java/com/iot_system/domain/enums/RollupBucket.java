@@ -0,0 +1,31 @@
+package com.iot_system.domain.enums;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Kích thước bucket của bảng tổng hợp sensor_rollup.
+ */
+public enum RollupBucket {
+    MINUTE(ChronoUnit.MINUTES, "%Y-%m-%d %H:%i:00"),
+    HOUR(ChronoUnit.HOURS, "%Y-%m-%d %H:00:00"),
+    DAY(ChronoUnit.DAYS, "%Y-%m-%d 00:00:00");
+
+    private final ChronoUnit unit;
+    private final String mysqlFormat;
+
+    RollupBucket(ChronoUnit unit, String mysqlFormat) {
+        this.unit = unit;
+        this.mysqlFormat = mysqlFormat;
+    }
+
+    /** Thời điểm bắt đầu bucket chứa time */
+    public LocalDateTime truncate(LocalDateTime time) {
+        return time.truncatedTo(unit);
+    }
+
+    /** Mẫu DATE_FORMAT của MySQL cho cùng phép cắt (dùng khi dựng lại từ dữ liệu thô) */
+    public String mysqlFormat() {
+        return mysqlFormat;
+    }
+}
@@ -1,10 +1,33 @@
 package com.iot_system.domain.enums;
 
+/**
+ * Metric có cột riêng trong sensor_data (bảng rộng). Metric khác do thiết bị gửi lên
+ * được lưu ở bảng hẹp sensor_reading, xem MetricRegistry.
+ */
 public enum SensorMetric {
-    ALL,
-    TEMP,
-    HUMIDITY,
-    LIGHT
-}
+    ALL(null),
+    TEMP("temperature"),
+    HUMIDITY("humidity"),
+    LIGHT("light");
+
+    private final String column;
 
+    SensorMetric(String column) {
+        this.column = column;
+    }
 
+    /** Tên cột trong sensor_data, đồng thời là tên metric trong registry; null với ALL */
+    public String column() {
+        return column;
+    }
+
+    /** Metric theo tên cột/tên metric (không phân biệt hoa thường); null nếu không phải cột của sensor_data */
+    public static SensorMetric fromColumn(String name) {
+        for (SensorMetric metric : values()) {
+            if (metric.column != null && metric.column.equalsIgnoreCase(name)) {
+                return metric;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.iot_system.domain.enums;
+
+import com.iot_system.exception.InvalidQueryException;
+
+/**
+ * Toán tử so sánh giá trị cảm biến.
+ * EQ so sánh xấp xỉ (±0.05) để tránh sai số DOUBLE; BETWEEN bao gồm hai đầu.
+ */
+public enum ValueOp {
+    EQ,
+    LT,
+    LTE,
+    GT,
+    GTE,
+    BETWEEN;
+
+    public static ValueOp parse(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return EQ;
+        }
+        for (ValueOp op : values()) {
+            if (op.name().equalsIgnoreCase(raw.trim())) {
+                return op;
+            }
+        }
+        throw new InvalidQueryException("Toán tử không hỗ trợ: " + raw + " (hỗ trợ: eq, lt, lte, gt, gte, between)");
+    }
+}
@@ -0,0 +1,8 @@
+package com.iot_system.exception;
+
+/** Lệnh không vào được hàng publish MQTT (hàng đầy, mất kết nối) => client nên thử lại sau */
+public class CommandRejectedException extends RuntimeException {
+    public CommandRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,5 +1,6 @@
 package com.iot_system.exception;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -27,6 +28,23 @@ public class GlobalExceptionHandler {
                 .body(new ErrorResponse("INVALID_DATE_FORMAT", "Sai định dạng ngày/giờ", ex.getMessage()));
     }
 
+    // Tham số truy vấn không hợp lệ (con trỏ keyset, valueOp, value...); IllegalArgumentException khác là lỗi 500
+    @ExceptionHandler(InvalidQueryException.class)
+    @ResponseBody
+    public ResponseEntity<Object> handleInvalidQuery(InvalidQueryException ex) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(new ErrorResponse("INVALID_ARGUMENT", "Tham số không hợp lệ", ex.getMessage()));
+    }
+
+    // Hàng publish lệnh đầy hoặc mất kết nối MQTT: lỗi tạm thời, client thử lại sau
+    @ExceptionHandler(CommandRejectedException.class)
+    @ResponseBody
+    public ResponseEntity<Object> handleCommandRejected(CommandRejectedException ex) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(new ErrorResponse("COMMAND_REJECTED", "Không gửi được lệnh, vui lòng thử lại", ex.getMessage()));
+    }
+
     static class ErrorResponse {
         public final String code;
         public final String message;
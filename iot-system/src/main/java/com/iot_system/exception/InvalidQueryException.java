@@ -0,0 +1,8 @@
+package com.iot_system.exception;
+
+/** Tham số truy vấn không hợp lệ (con trỏ keyset, valueOp/value, khoảng thời gian, định dạng xuất...) => HTTP 400 */
+public class InvalidQueryException extends RuntimeException {
+    public InvalidQueryException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package com.iot_system.mqtt;
+
+/**
+ * Bản tin ACK thiết bị gửi về trên topic {actionTopic}_ack.
+ * correlationId có thể null nếu firmware không gửi kèm.
+ */
+public record AckMessage(int deviceId, String state, String correlationId) {
+}
@@ -1,7 +1,16 @@
 package com.iot_system.mqtt;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import org.eclipse.paho.client.mqttv3.MqttClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
@@ -9,38 +18,172 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Publish lệnh điều khiển (QoS 1) qua commandMqttClient (MqttAsyncClient), không chờ PUBACK trên luồng gọi.
+ * - Tối đa mqtt.command.max-inflight lệnh đang chờ PUBACK; lệnh vượt cửa sổ xếp hàng (tối đa queue-capacity),
+ *   mỗi PUBACK về lại đẩy lệnh kế tiếp trong hàng => nhiều lệnh đi song song trên một kết nối TLS
+ * - Hàng đầy hoặc mất kết nối => future lỗi ngay, không chặn REST
+ * Metric: iot.command.publish.inflight, iot.command.publish.queued (gauge),
+ * iot.command.publish{result=ok|failed|rejected}, iot.command.publish.latency (xếp hàng -> PUBACK)
+ */
 @Service
 public class CommandPublisher {
 
-    private final MqttClient mqttClient;
+    private final MqttAsyncClient mqttClient;
+    private final MeterRegistry meterRegistry;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private static final Logger log = LoggerFactory.getLogger(CommandPublisher.class);
 
     @Value("${mqtt.actionTopic}")
     private String actionTopic;
 
-    public CommandPublisher(MqttClient mqttClient) {
-        this.mqttClient = mqttClient;
+    @Value("${mqtt.command.max-inflight:100}")
+    private int maxInflight;
+
+    @Value("${mqtt.command.queue-capacity:10000}")
+    private int queueCapacity;
+
+    private record Pending(String json, CompletableFuture<Void> future, long queuedAtNanos) {
     }
 
-    public void sendAction(int deviceId, String action, String correlationId) {
+    private final Queue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private Counter okCounter;
+    private Counter failedCounter;
+    private Counter rejectedCounter;
+    private Timer latencyTimer;
+
+    public CommandPublisher(MqttAsyncClient commandMqttClient, MeterRegistry meterRegistry) {
+        this.mqttClient = commandMqttClient;
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setActionTopic(String actionTopic) {
+        this.actionTopic = actionTopic;
+    }
+
+    void setLimits(int maxInflight, int queueCapacity) {
+        this.maxInflight = maxInflight;
+        this.queueCapacity = queueCapacity;
+    }
+
+    @PostConstruct
+    public void start() {
+        Gauge.builder("iot.command.publish.inflight", inflight, AtomicInteger::get).register(meterRegistry);
+        Gauge.builder("iot.command.publish.queued", queued, AtomicInteger::get).register(meterRegistry);
+        okCounter = Counter.builder("iot.command.publish").tag("result", "ok").register(meterRegistry);
+        failedCounter = Counter.builder("iot.command.publish").tag("result", "failed").register(meterRegistry);
+        rejectedCounter = Counter.builder("iot.command.publish").tag("result", "rejected").register(meterRegistry);
+        latencyTimer = Timer.builder("iot.command.publish.latency").register(meterRegistry);
+    }
+
+    /**
+     * Đưa lệnh vào hàng publish, trả về ngay.
+     * @return future hoàn tất khi broker PUBACK; lỗi nếu hàng đầy, mất kết nối hoặc publish thất bại
+     */
+    public CompletableFuture<Void> sendAction(int deviceId, String action, String correlationId) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        String json;
         try {
-            Map<String, Object> payload = Map.of(
+            json = objectMapper.writeValueAsString(Map.of(
                     "deviceId", deviceId,
                     "action", action,
                     "correlationId", correlationId
-            );
+            ));
+        } catch (Exception e) {
+            failedCounter.increment();
+            future.completeExceptionally(e);
+            return future;
+        }
 
-            String json = objectMapper.writeValueAsString(payload);
-            MqttMessage msg = new MqttMessage(json.getBytes());
-            msg.setQos(1);
+        // Đếm trước khi thêm vào hàng để không vượt queue-capacity khi nhiều luồng gọi cùng lúc
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            rejectedCounter.increment();
+            log.warn("[MQTT] Hàng publish lệnh đầy ({}), bỏ lệnh correlationId={}", queueCapacity, correlationId);
+            future.completeExceptionally(new RejectedExecutionException("Hàng publish lệnh đầy"));
+            return future;
+        }
+        queue.add(new Pending(json, future, System.nanoTime()));
+        drain();
+        return future;
+    }
 
-            mqttClient.publish(actionTopic, msg);
+    // Gọi sau mỗi lần thêm vào hàng và mỗi lần một lệnh hoàn tất (luồng callback của Paho)
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = inflight.get();
+            if (current >= maxInflight) {
+                return;
+            }
+            if (!inflight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Pending next = queue.poll();
+            if (next == null) {
+                inflight.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            publish(next);
+        }
+    }
 
-            log.info("[MQTT] Đã publish lên {}: {}", actionTopic, json);
-        } catch (Exception e) {
-            log.error("[MQTT] Lỗi publish MQTT", e);
+    private void publish(Pending pending) {
+        MqttMessage msg = new MqttMessage(pending.json().getBytes());
+        msg.setQos(1);
+        try {
+            mqttClient.publish(actionTopic, msg, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken token) {
+                    latencyTimer.record(System.nanoTime() - pending.queuedAtNanos(), TimeUnit.NANOSECONDS);
+                    okCounter.increment();
+                    log.debug("[MQTT] Đã publish lên {}: {}", actionTopic, pending.json());
+                    inflight.decrementAndGet();
+                    pending.future().complete(null);
+                    drain();
+                }
+
+                @Override
+                public void onFailure(IMqttToken token, Throwable e) {
+                    failedCounter.increment();
+                    log.error("[MQTT] Lỗi publish lệnh {}", pending.json(), e);
+                    inflight.decrementAndGet();
+                    pending.future().completeExceptionally(e);
+                    drain();
+                }
+            });
+        } catch (MqttException | RuntimeException e) {
+            // Lỗi đồng bộ (mất kết nối, ...): trả slot ngay, vòng drain đang chạy sẽ lấy lệnh kế tiếp
+            failedCounter.increment();
+            log.error("[MQTT] Lỗi publish lệnh {}", pending.json(), e);
+            inflight.decrementAndGet();
+            pending.future().completeExceptionally(e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            queued.decrementAndGet();
+            pending.future().completeExceptionally(new RejectedExecutionException("Ứng dụng đang dừng"));
+        }
+        try {
+            if (mqttClient.isConnected()) {
+                mqttClient.disconnect().waitForCompletion(2000);
+            }
+        } catch (MqttException e) {
+            log.debug("[MQTT] Lỗi đóng kết nối publish lệnh", e);
         }
     }
 }
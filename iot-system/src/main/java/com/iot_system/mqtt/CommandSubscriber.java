@@ -1,19 +1,30 @@
 package com.iot_system.mqtt;
 
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.MqttCallback;
 import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import jakarta.annotation.PostConstruct;
-
+/**
+ * Subscribe các topic thiết bị gửi lên.
+ * - ACK: subscribe thường => mọi instance đều nhận (trạng thái thiết bị trong RAM và lệnh đang chờ là của từng instance)
+ * - Telemetry: chế độ cluster dùng shared subscription $share/{group}/{topic} => broker chia message cho các
+ *   instance trong nhóm, mỗi bản tin chỉ một instance ghi
+ * - Lifecycle: subscribe sau khi MqttEventDispatcher đã chạy, khi dừng thì hủy subscribe và ngắt kết nối TRƯỚC khi
+ *   dispatcher dừng lane => không message nào được PUBACK rồi rơi vào lane không còn ai xử lý
+ */
 @Component
-public class CommandSubscriber {
+public class CommandSubscriber implements SmartLifecycle {
 
     private final MqttClient mqttClient;
-    private final ApplicationEventPublisher eventPublisher;
+    private final MqttEventDispatcher dispatcher;
+    private final IngestMetrics metrics;
     private static final Logger log = LoggerFactory.getLogger(CommandSubscriber.class);
 
     @Value("${mqtt.telemetryTopic}")
@@ -22,27 +33,94 @@ public class CommandSubscriber {
     @Value("${mqtt.actionTopic}")
     private String actionTopic;
 
-    public CommandSubscriber(MqttClient mqttClient, ApplicationEventPublisher eventPublisher) {
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${mqtt.cluster.group:iot-ingest}")
+    private String clusterGroup;
+
+    private volatile boolean running;
+    private String[] subscribedTopics = new String[0];
+
+    public CommandSubscriber(MqttClient mqttClient, MqttEventDispatcher dispatcher, IngestMetrics metrics) {
         this.mqttClient = mqttClient;
-        this.eventPublisher = eventPublisher;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
     }
 
-    @PostConstruct
-    public void init() {
+    @Override
+    public void start() {
+        running = true;
         try {
-            mqttClient.subscribe(actionTopic + "_ack", (topic, message) -> {
-                String payload = new String(message.getPayload());
-                eventPublisher.publishEvent(new DeviceStatusEvent(this, topic, payload));
+            String ackTopic = actionTopic + "_ack";
+            mqttClient.subscribe(ackTopic, (topic, message) -> {
+                metrics.received(ackTopic);
+                dispatcher.dispatch(new DeviceStatusEvent(this, topic, message.getPayload()));
             });
 
+            if (clusterEnabled) {
+                String sharedTopic = "$share/" + clusterGroup + "/" + sensorTopic;
+                // Message của shared subscription mang topic gốc (sensor/data), không khớp filter "$share/..."
+                // trong bảng listener của Paho v3 => nhận qua callback chung của client
+                mqttClient.setCallback(new MqttCallback() {
+                    @Override
+                    public void connectionLost(Throwable cause) {
+                        log.warn("[MQTT] Mất kết nối: {}", cause.getMessage());
+                    }
+
+                    @Override
+                    public void messageArrived(String topic, MqttMessage message) {
+                        if (topic.equals(sensorTopic)) {
+                            metrics.received(sensorTopic);
+                            dispatcher.dispatch(new DeviceStatusEvent(CommandSubscriber.this, topic, message.getPayload()));
+                        }
+                    }
+
+                    @Override
+                    public void deliveryComplete(IMqttDeliveryToken token) {
+                    }
+                });
+                mqttClient.subscribe(sharedTopic, 1);
+                subscribedTopics = new String[]{ackTopic, sharedTopic};
+                log.info("[MQTT] Đã subscribe tới: {} và {} (nhóm cluster '{}')", ackTopic, sharedTopic, clusterGroup);
+                return;
+            }
+
             mqttClient.subscribe(sensorTopic, (topic, message) -> {
-                String payload = new String(message.getPayload());
-                eventPublisher.publishEvent(new DeviceStatusEvent(this, topic, payload));
+                metrics.received(sensorTopic);
+                dispatcher.dispatch(new DeviceStatusEvent(this, topic, message.getPayload()));
             });
 
-            log.info("[MQTT] Đã subscribe tới: {} và {}", actionTopic + "_ack", sensorTopic);
+            subscribedTopics = new String[]{ackTopic, sensorTopic};
+            log.info("[MQTT] Đã subscribe tới: {} và {}", ackTopic, sensorTopic);
         } catch (Exception e) {
             log.error("[MQTT] Lỗi subscribe", e);
         }
     }
+
+    /**
+     * Ngừng nhận message: hủy subscribe rồi ngắt kết nối. disconnect() chờ callback đang chạy của Paho xong
+     * => sau khi trả về, không còn lời gọi dispatch() nào. Bản tin chưa PUBACK được broker giao lại
+     * (cluster: cho instance khác trong nhóm).
+     */
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            if (mqttClient.isConnected()) {
+                if (subscribedTopics.length > 0) {
+                    mqttClient.unsubscribe(subscribedTopics);
+                }
+                mqttClient.disconnect();
+            }
+            log.info("[MQTT] Đã ngừng nhận message từ broker");
+        } catch (MqttException e) {
+            log.warn("[MQTT] Lỗi hủy subscribe/ngắt kết nối", e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
 }
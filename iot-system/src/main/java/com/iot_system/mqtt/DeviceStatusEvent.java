@@ -2,21 +2,29 @@ package com.iot_system.mqtt;
 
 import org.springframework.context.ApplicationEvent;
 
+import java.nio.charset.StandardCharsets;
+
 public class DeviceStatusEvent extends ApplicationEvent {
     private final String topic;
-    private final String message;
+    private final byte[] payload;
 
-    public DeviceStatusEvent(Object source, String topic, String message) {
+    public DeviceStatusEvent(Object source, String topic, byte[] payload) {
         super(source);
         this.topic = topic;
-        this.message = message;
+        this.payload = payload;
     }
 
     public String getTopic() {
         return topic;
     }
 
+    /** Payload gốc từ MQTT, chưa giải mã */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /** Payload dạng chuỗi (chỉ dùng khi cần log) */
     public String getMessage() {
-        return message;
+        return new String(payload, StandardCharsets.UTF_8);
     }
 }
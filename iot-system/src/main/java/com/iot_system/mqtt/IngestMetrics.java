@@ -0,0 +1,94 @@
+package com.iot_system.mqtt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Đo toàn bộ đường đi MQTT -> DB -> WebSocket.
+ * - iot.mqtt.received{topic}: số message nhận theo subscription (tag là topic filter, không phải topic thực tế)
+ * - iot.ingest.stage{stage}: thời gian từng bước (giải mã, tra thiết bị, đưa vào hàng đợi ghi, gửi WS)
+ * - iot.ingest.errors{reason}: lỗi theo nguyên nhân
+ * - iot.ingest.lag: từ thời điểm thiết bị đo (field "ts" trong payload) tới lúc server xử lý xong
+ * Mọi meter được đăng ký sẵn, đường nóng chỉ tra EnumMap và gọi record/increment.
+ */
+@Component
+public class IngestMetrics {
+
+    public enum Stage {
+        PARSE_SENSOR, PARSE_ACK, DEVICE_LOOKUP, ENQUEUE, WS_SEND
+    }
+
+    public enum ErrorReason {
+        UNKNOWN_DEVICE, BAD_PAYLOAD, DB_FAILURE, QUEUE_FULL, WS_FAILURE, OTHER
+    }
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Counter> receivedByTopic = new ConcurrentHashMap<>();
+    private final Map<Stage, Timer> stageTimers = new EnumMap<>(Stage.class);
+    private final Map<ErrorReason, Counter> errorCounters = new EnumMap<>(ErrorReason.class);
+    private final Timer lagTimer;
+
+    public IngestMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (Stage stage : Stage.values()) {
+            stageTimers.put(stage, Timer.builder("iot.ingest.stage")
+                    .description("Thời gian từng bước xử lý message MQTT")
+                    .tag("stage", tagValue(stage))
+                    .register(meterRegistry));
+        }
+        for (ErrorReason reason : ErrorReason.values()) {
+            errorCounters.put(reason, Counter.builder("iot.ingest.errors")
+                    .tag("reason", tagValue(reason))
+                    .register(meterRegistry));
+        }
+        this.lagTimer = Timer.builder("iot.ingest.lag")
+                .description("Độ trễ từ thời điểm thiết bị đo tới lúc server xử lý xong")
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(5))
+                .register(meterRegistry);
+    }
+
+    /** Gọi từ callback của Paho cho mỗi message; topicFilter là chuỗi đã subscribe */
+    public void received(String topicFilter) {
+        receivedByTopic.computeIfAbsent(topicFilter, t -> Counter.builder("iot.mqtt.received")
+                .tag("topic", t)
+                .register(meterRegistry)).increment();
+    }
+
+    public void record(Stage stage, long startNanos) {
+        stageTimers.get(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void error(ErrorReason reason) {
+        errorCounters.get(reason).increment();
+    }
+
+    public void error(ErrorReason reason, int count) {
+        errorCounters.get(reason).increment(count);
+    }
+
+    /** Bỏ qua nếu thiết bị không gửi ts hoặc đồng hồ thiết bị chạy nhanh hơn server */
+    public void ingestLag(long deviceTimestampMillis) {
+        if (deviceTimestampMillis <= 0) {
+            return;
+        }
+        long lagMillis = System.currentTimeMillis() - deviceTimestampMillis;
+        if (lagMillis >= 0) {
+            lagTimer.record(lagMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static String tagValue(Enum<?> value) {
+        return value.name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,237 @@
+package com.iot_system.mqtt;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tách xử lý message MQTT khỏi luồng callback của Paho.
+ * - Mỗi message được băm theo deviceUid/deviceId vào một lane (hàng đợi có giới hạn + một luồng xử lý riêng)
+ *   => các message của cùng một thiết bị luôn được xử lý tuần tự, các thiết bị khác nhau chạy song song
+ * - Lane đầy: chờ tối đa offer-timeout-ms rồi bỏ message (đếm vào iot.mqtt.dispatch.dropped)
+ * - Khi dừng ứng dụng: CommandSubscriber (phase cao hơn) ngừng nhận từ broker trước, sau đó lane xử lý nốt
+ *   các message còn lại trước khi các bean bị hủy; message đến sau khi đã dừng bị từ chối (dispatch trả về false)
+ */
+@Component
+public class MqttEventDispatcher implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(MqttEventDispatcher.class);
+
+    private static final byte[] DEVICE_UID_FIELD = "\"deviceUid\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DEVICE_ID_FIELD = "\"deviceId\"".getBytes(StandardCharsets.US_ASCII);
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final int workers;
+    private final int inboxCapacity;
+    private final long offerTimeoutMs;
+    private final boolean virtualThreads;
+
+    private final BlockingQueue<DeviceStatusEvent>[] lanes;
+    private Thread[] laneThreads;
+    private volatile boolean running;
+    // true từ lúc tạo (message đến trước start() vẫn được giữ) tới khi stop(): sau đó không còn lane nào đọc
+    private volatile boolean accepting = true;
+
+    private final Timer processingTimer;
+    private final Counter droppedCounter;
+    private final Counter failedCounter;
+
+    @SuppressWarnings("unchecked")
+    public MqttEventDispatcher(ApplicationEventPublisher eventPublisher,
+                               MeterRegistry meterRegistry,
+                               @Value("${mqtt.dispatch.workers:0}") int workers,
+                               @Value("${mqtt.dispatch.inbox-capacity:10000}") int inboxCapacity,
+                               @Value("${mqtt.dispatch.offer-timeout-ms:500}") long offerTimeoutMs,
+                               @Value("${mqtt.dispatch.virtual-threads:false}") boolean virtualThreads) {
+        this.eventPublisher = eventPublisher;
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.inboxCapacity = inboxCapacity;
+        this.offerTimeoutMs = offerTimeoutMs;
+        this.virtualThreads = virtualThreads;
+
+        // Hàng đợi được tạo ngay để message đến trước khi start() vẫn được giữ lại
+        this.lanes = (BlockingQueue<DeviceStatusEvent>[]) new BlockingQueue<?>[this.workers];
+        int perLane = Math.max(1, inboxCapacity / this.workers);
+        for (int i = 0; i < this.workers; i++) {
+            lanes[i] = new ArrayBlockingQueue<>(perLane);
+        }
+
+        Gauge.builder("iot.mqtt.dispatch.inbox.depth", lanes, MqttEventDispatcher::depthOf)
+                .description("Số message MQTT đang chờ xử lý")
+                .register(meterRegistry);
+        this.processingTimer = Timer.builder("iot.mqtt.dispatch.processing")
+                .description("Thời gian xử lý một message MQTT trên lane")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("iot.mqtt.dispatch.dropped").register(meterRegistry);
+        this.failedCounter = Counter.builder("iot.mqtt.dispatch.failed").register(meterRegistry);
+    }
+
+    /**
+     * Gọi từ luồng callback của Paho: chỉ chọn lane và đưa vào hàng đợi.
+     * @return false nếu message bị bỏ (lane đầy hoặc dispatcher đã dừng)
+     */
+    public boolean dispatch(DeviceStatusEvent event) {
+        if (!accepting) {
+            droppedCounter.increment();
+            log.warn("[MQTT] Dispatcher đã dừng, bỏ message từ topic {}", event.getTopic());
+            return false;
+        }
+        BlockingQueue<DeviceStatusEvent> lane = lanes[laneOf(event.getPayload())];
+        boolean accepted;
+        try {
+            accepted = lane.offer(event, offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            droppedCounter.increment();
+            log.warn("[MQTT] Lane xử lý đầy, bỏ message từ topic {}", event.getTopic());
+        }
+        return accepted;
+    }
+
+    public int inboxDepth() {
+        return depthOf(lanes);
+    }
+
+    private static int depthOf(BlockingQueue<DeviceStatusEvent>[] lanes) {
+        int depth = 0;
+        for (BlockingQueue<DeviceStatusEvent> lane : lanes) {
+            depth += lane.size();
+        }
+        return depth;
+    }
+
+    private int laneOf(byte[] payload) {
+        int hash = partitionHash(payload, DEVICE_UID_FIELD);
+        if (hash == 0) {
+            hash = partitionHash(payload, DEVICE_ID_FIELD);
+        }
+        return Math.floorMod(hash, lanes.length);
+    }
+
+    /**
+     * Băm giá trị của một field JSON bằng cách quét byte (không parse, không cấp phát).
+     * Trả về 0 nếu không tìm thấy field.
+     */
+    static int partitionHash(byte[] payload, byte[] quotedField) {
+        int i = indexOf(payload, quotedField);
+        if (i < 0) {
+            return 0;
+        }
+        int n = payload.length;
+        int pos = i + quotedField.length;
+        while (pos < n && payload[pos] != ':') {
+            pos++;
+        }
+        pos++;
+        while (pos < n && (payload[pos] == ' ' || payload[pos] == '"')) {
+            pos++;
+        }
+        int hash = 1;
+        while (pos < n) {
+            byte b = payload[pos];
+            if (b == '"' || b == ',' || b == '}' || b == ' ') {
+                break;
+            }
+            hash = 31 * hash + b;
+            pos++;
+        }
+        return hash;
+    }
+
+    private static int indexOf(byte[] haystack, byte[] needle) {
+        outer:
+        for (int i = 0, last = haystack.length - needle.length; i <= last; i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (haystack[i + j] != needle[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private void runLane(BlockingQueue<DeviceStatusEvent> lane) {
+        while (running || !lane.isEmpty()) {
+            DeviceStatusEvent event;
+            try {
+                event = lane.poll(200, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (event == null) {
+                continue;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                eventPublisher.publishEvent(event);
+            } catch (Exception e) {
+                failedCounter.increment();
+                log.error("[MQTT] Lỗi xử lý message từ topic {}", event.getTopic(), e);
+            } finally {
+                processingTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        Thread.Builder builder = virtualThreads
+                ? Thread.ofVirtual().name("mqtt-dispatch-", 0)
+                : Thread.ofPlatform().daemon().name("mqtt-dispatch-", 0);
+        running = true;
+        laneThreads = new Thread[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            BlockingQueue<DeviceStatusEvent> lane = lanes[i];
+            laneThreads[i] = builder.start(() -> runLane(lane));
+        }
+        log.info("[MQTT] Khởi động {} lane xử lý (inboxCapacity={}, virtualThreads={})",
+                lanes.length, inboxCapacity, virtualThreads);
+    }
+
+    @Override
+    public void stop() {
+        accepting = false;
+        running = false;
+        if (laneThreads == null) {
+            return;
+        }
+        for (Thread t : laneThreads) {
+            try {
+                t.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        log.info("[MQTT] Đã dừng các lane xử lý, còn lại {} message", inboxDepth());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Dừng sau CommandSubscriber (phase mặc định) để không còn message nào được đưa vào lane khi lane đã dừng */
+    @Override
+    public int getPhase() {
+        return DEFAULT_PHASE - 1;
+    }
+}
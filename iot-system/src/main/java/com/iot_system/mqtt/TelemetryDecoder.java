@@ -0,0 +1,149 @@
+package com.iot_system.mqtt;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Giải mã payload MQTT trực tiếp từ byte[] bằng JsonParser (streaming),
+ * không dựng cây JsonNode và không boxing giá trị số.
+ * Quy tắc giữ nguyên như trước:
+ * - "light" được ưu tiên, nếu không có thì dùng "light_level"
+ * - giá trị -1 là sentinel "không đọc được" => coi như vắng mặt
+ * - "ts" (tùy chọn): thời điểm thiết bị đo, epoch giây hoặc mili giây
+ * - "msgId" (tùy chọn): mã bản tin do thiết bị gán, dùng làm khóa chống trùng
+ * - Trường kiểu số khác được giữ lại làm metric mở rộng (lưu ở bảng hẹp sensor_reading), cùng quy tắc sentinel
+ */
+@Component
+public class TelemetryDecoder {
+
+    private static final double SENTINEL = -1.0d;
+    /** Nhỏ hơn mốc này coi là epoch giây (tương ứng năm 2286 nếu là giây) */
+    private static final long EPOCH_SECONDS_LIMIT = 10_000_000_000L;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    public TelemetryReading decodeSensor(byte[] payload) throws IOException {
+        String deviceUid = null;
+        double temperature = Double.NaN;
+        double humidity = Double.NaN;
+        double light = Double.NaN;
+        double lightLevel = Double.NaN;
+        long deviceTimestampMillis = 0L;
+        String messageId = null;
+        Map<String, Double> metrics = null;
+
+        try (JsonParser p = jsonFactory.createParser(payload)) {
+            expectObject(p);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken token = p.nextToken();
+                switch (field) {
+                    case "deviceUid" -> deviceUid = text(p, token);
+                    case "temperature" -> temperature = number(p, token);
+                    case "humidity" -> humidity = number(p, token);
+                    case "light" -> light = number(p, token);
+                    case "light_level" -> lightLevel = number(p, token);
+                    case "ts" -> deviceTimestampMillis = epochMillis(p, token);
+                    case "msgId" -> messageId = text(p, token);
+                    default -> {
+                        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                            double value = sanitize(p.getDoubleValue());
+                            if (!Double.isNaN(value)) {
+                                if (metrics == null) {
+                                    metrics = new LinkedHashMap<>();
+                                }
+                                metrics.put(field, value);
+                            }
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                }
+            }
+        }
+
+        if (Double.isNaN(light)) {
+            light = lightLevel;
+        }
+        return new TelemetryReading(deviceUid, sanitize(temperature), sanitize(humidity), sanitize(light),
+                deviceTimestampMillis, messageId, metrics != null ? metrics : Map.of());
+    }
+
+    public AckMessage decodeAck(byte[] payload) throws IOException {
+        Integer deviceId = null;
+        String state = null;
+        String correlationId = null;
+
+        try (JsonParser p = jsonFactory.createParser(payload)) {
+            expectObject(p);
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken token = p.nextToken();
+                switch (field) {
+                    case "deviceId" -> deviceId = token == JsonToken.VALUE_NUMBER_INT
+                            ? p.getIntValue()
+                            : Integer.parseInt(p.getText().trim());
+                    case "state" -> state = text(p, token);
+                    case "correlationId" -> correlationId = text(p, token);
+                    default -> p.skipChildren();
+                }
+            }
+        }
+
+        if (deviceId == null || state == null) {
+            throw new IllegalArgumentException("ACK thiếu deviceId hoặc state");
+        }
+        return new AckMessage(deviceId, state, correlationId);
+    }
+
+    private static void expectObject(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Payload không phải JSON object");
+        }
+    }
+
+    private static String text(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token.isScalarValue()) {
+            return p.getText();
+        }
+        p.skipChildren();
+        return null;
+    }
+
+    private static double number(JsonParser p, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            return p.getDoubleValue();
+        }
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return Double.parseDouble(p.getText().trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        p.skipChildren();
+        return Double.NaN;
+    }
+
+    private static long epochMillis(JsonParser p, JsonToken token) throws IOException {
+        double raw = number(p, token);
+        if (Double.isNaN(raw) || raw <= 0) {
+            return 0L;
+        }
+        long value = (long) raw;
+        return value < EPOCH_SECONDS_LIMIT ? (long) (raw * 1000) : value;
+    }
+
+    private static double sanitize(double value) {
+        return value == SENTINEL ? Double.NaN : value;
+    }
+}
@@ -0,0 +1,60 @@
+package com.iot_system.mqtt;
+
+import java.util.Map;
+
+/**
+ * Bản tin cảm biến đã giải mã từ topic telemetry.
+ * Giá trị vắng mặt hoặc bằng sentinel -1 được biểu diễn bằng {@link Double#NaN}.
+ * deviceTimestampMillis = 0 nếu thiết bị không gửi "ts".
+ * messageId = "msgId" do thiết bị gán (null nếu không gửi).
+ * metrics: các trường số khác (co2, voltage, soil_moisture, ...) theo tên trường; Map rỗng nếu không có.
+ */
+public record TelemetryReading(String deviceUid, double temperature, double humidity, double light,
+                               long deviceTimestampMillis, String messageId, Map<String, Double> metrics) {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * Khóa idempotency của bản tin trong phạm vi một thiết bị (FNV-1a 64 bit):
+     * - có msgId: băm msgId
+     * - không có msgId: băm "ts" cùng mọi giá trị đo. "ts" có thể chỉ tới giây (TelemetryDecoder nhân 1000)
+     *   nên hai lần đo khác nhau trong cùng một giây phải khác khóa; chỉ bản tin giống hệt (giao lại) mới trùng khóa
+     * 0 = không xác định được (không có msgId lẫn ts) => không chống trùng được: thiết bị không gửi ts có thể gửi
+     * hai bản tin giống hệt nhau một cách hợp lệ.
+     */
+    public long idempotencyKey() {
+        long hash = FNV_OFFSET;
+        if (messageId != null && !messageId.isEmpty()) {
+            for (int i = 0; i < messageId.length(); i++) {
+                hash = (hash ^ messageId.charAt(i)) * FNV_PRIME;
+            }
+        } else if (deviceTimestampMillis != 0) {
+            hash = mix(hash, deviceTimestampMillis);
+            hash = mix(hash, Double.doubleToLongBits(temperature));
+            hash = mix(hash, Double.doubleToLongBits(humidity));
+            hash = mix(hash, Double.doubleToLongBits(light));
+            // Cộng (giao hoán) để không phụ thuộc thứ tự trường trong payload
+            long metricsHash = 0;
+            for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                metricsHash += mix(mix(FNV_OFFSET, metric.getKey().hashCode()), Double.doubleToLongBits(metric.getValue()));
+            }
+            hash = mix(hash, metricsHash);
+        } else {
+            return 0;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    public static Double boxed(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+}
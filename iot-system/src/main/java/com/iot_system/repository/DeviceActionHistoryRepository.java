@@ -6,13 +6,15 @@ import com.iot_system.domain.enums.DeviceType;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
 import java.util.Optional;
 
-public interface DeviceActionHistoryRepository extends JpaRepository<DeviceActionHistory, Long> {
+public interface DeviceActionHistoryRepository extends JpaRepository<DeviceActionHistory, Long>,
+        JpaSpecificationExecutor<DeviceActionHistory>, DeviceActionHistoryRepositoryCustom {
 
     @Query("""
            SELECT h FROM DeviceActionHistory h
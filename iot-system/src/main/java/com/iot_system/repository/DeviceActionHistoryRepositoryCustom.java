@@ -0,0 +1,13 @@
+package com.iot_system.repository;
+
+import com.iot_system.domain.entity.DeviceActionHistory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+public interface DeviceActionHistoryRepositoryCustom {
+
+    /** Lấy tối đa limit bản ghi theo spec/sort, không chạy COUNT */
+    List<DeviceActionHistory> findSlice(Specification<DeviceActionHistory> spec, Sort sort, int offset, int limit);
+}
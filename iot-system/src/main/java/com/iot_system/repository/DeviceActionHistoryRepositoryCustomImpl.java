@@ -0,0 +1,20 @@
+package com.iot_system.repository;
+
+import com.iot_system.domain.entity.DeviceActionHistory;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.List;
+
+class DeviceActionHistoryRepositoryCustomImpl implements DeviceActionHistoryRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Override
+    public List<DeviceActionHistory> findSlice(Specification<DeviceActionHistory> spec, Sort sort, int offset, int limit) {
+        return SpecificationSlices.find(em, DeviceActionHistory.class, spec, sort, offset, limit);
+    }
+}
@@ -9,9 +9,11 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
-public interface SensorDataRepository extends JpaRepository<SensorData, Long>, JpaSpecificationExecutor<SensorData> {
+public interface SensorDataRepository extends JpaRepository<SensorData, Long>, JpaSpecificationExecutor<SensorData>,
+        SensorDataRepositoryCustom {
 
     @Query("""
            SELECT s FROM SensorData s
@@ -34,5 +36,7 @@ public interface SensorDataRepository extends JpaRepository<SensorData, Long>, J
   
     Optional<SensorData> findTopByDevice_IdOrderByRecordedAtDesc(Long deviceId);
 
+    List<SensorData> findByDevice_IdAndRecordedAtGreaterThanEqualOrderByRecordedAtAsc(Long deviceId, LocalDateTime from);
+
 }
 
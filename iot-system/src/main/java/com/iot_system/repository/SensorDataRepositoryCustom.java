@@ -0,0 +1,25 @@
+package com.iot_system.repository;
+
+import com.iot_system.domain.entity.SensorData;
+import com.iot_system.util.KeysetCursor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface SensorDataRepositoryCustom {
+
+    /** Lấy tối đa limit bản ghi theo spec/sort, không chạy COUNT */
+    List<SensorData> findSlice(Specification<SensorData> spec, Sort sort, int offset, int limit);
+
+    /**
+     * Bản ghi có BẤT KỲ cột temperature/humidity/light nằm trong range.
+     * Thực hiện bằng UNION ba lần quét chỉ mục (metric, recorded_at) thay cho OR không dùng được chỉ mục.
+     * seekFrom != null => chỉ lấy bản ghi nằm sau con trỏ theo chiều sắp xếp (phân trang keyset).
+     */
+    List<SensorData> findAnyMetricInRange(ValueRange range, LocalDateTime start, LocalDateTime end,
+                                          KeysetCursor seekFrom, boolean ascending, int offset, int limit);
+
+    long countAnyMetricInRange(ValueRange range, LocalDateTime start, LocalDateTime end);
+}
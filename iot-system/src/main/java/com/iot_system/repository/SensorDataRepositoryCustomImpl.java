@@ -0,0 +1,123 @@
+package com.iot_system.repository;
+
+import com.iot_system.domain.entity.SensorData;
+import com.iot_system.util.KeysetCursor;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+class SensorDataRepositoryCustomImpl implements SensorDataRepositoryCustom {
+
+    /** Các cột giá trị, mỗi cột có chỉ mục (cột, recorded_at) khai báo trên SensorData */
+    private static final String[] METRIC_COLUMNS = {"temperature", "humidity", "light"};
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Override
+    public List<SensorData> findSlice(Specification<SensorData> spec, Sort sort, int offset, int limit) {
+        return SpecificationSlices.find(em, SensorData.class, spec, sort, offset, limit);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<SensorData> findAnyMetricInRange(ValueRange range, LocalDateTime start, LocalDateTime end,
+                                                 KeysetCursor seekFrom, boolean ascending, int offset, int limit) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT s.* FROM sensor_data s JOIN (");
+        // Trang cần nằm trong offset + limit dòng đầu của ít nhất một nhánh => mỗi nhánh chỉ lấy chừng đó dòng
+        appendUnion(sql, params, range, start, end, seekFrom, ascending, (long) offset + limit);
+        sql.append(") u ON u.id = s.id");
+        String direction = ascending ? "ASC" : "DESC";
+        sql.append(" ORDER BY s.recorded_at ").append(direction).append(", s.id ").append(direction);
+
+        Query query = em.createNativeQuery(sql.toString(), SensorData.class);
+        bind(query, params);
+        query.setFirstResult(offset);
+        query.setMaxResults(limit);
+        return query.getResultList();
+    }
+
+    @Override
+    public long countAnyMetricInRange(ValueRange range, LocalDateTime start, LocalDateTime end) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM (");
+        appendUnion(sql, params, range, start, end, null, false, 0);
+        sql.append(") u");
+
+        Query query = em.createNativeQuery(sql.toString());
+        bind(query, params);
+        return ((Number) query.getSingleResult()).longValue();
+    }
+
+    /**
+     * UNION các nhánh theo từng cột, mỗi nhánh quét chỉ mục (cột, recorded_at) của nó.
+     * branchLimit > 0: mỗi nhánh tự sắp xếp và cắt còn branchLimit dòng (kể cả điều kiện con trỏ) trước khi gộp,
+     * để khoảng giá trị rộng không phải dựng toàn bộ id khớp của cả ba cột; 0 = không cắt (dùng cho COUNT).
+     */
+    private static void appendUnion(StringBuilder sql, List<Object> params, ValueRange range,
+                                    LocalDateTime start, LocalDateTime end,
+                                    KeysetCursor seekFrom, boolean ascending, long branchLimit) {
+        String direction = ascending ? "ASC" : "DESC";
+        for (int i = 0; i < METRIC_COLUMNS.length; i++) {
+            if (i > 0) {
+                sql.append(" UNION ");
+            }
+            String column = METRIC_COLUMNS[i];
+            sql.append("(SELECT id FROM sensor_data WHERE ");
+            appendRange(sql, params, column, range);
+            if (start != null) {
+                sql.append(" AND recorded_at >= ").append(param(params, start));
+            }
+            if (end != null) {
+                sql.append(" AND recorded_at < ").append(param(params, end));
+            }
+            // Con trỏ áp dụng chính xác trong từng nhánh: LIMIT của nhánh không bị tiêu vào các dòng đã duyệt
+            if (seekFrom != null) {
+                sql.append(" AND ");
+                appendSeek(sql, params, seekFrom, ascending);
+            }
+            if (branchLimit > 0) {
+                sql.append(" ORDER BY recorded_at ").append(direction).append(", id ").append(direction)
+                        .append(" LIMIT ").append(branchLimit);
+            }
+            sql.append(')');
+        }
+    }
+
+    private static void appendRange(StringBuilder sql, List<Object> params, String column, ValueRange range) {
+        sql.append(column).append(" IS NOT NULL");
+        if (range.lo() != null) {
+            sql.append(" AND ").append(column).append(range.loInclusive() ? " >= " : " > ")
+                    .append(param(params, range.lo()));
+        }
+        if (range.hi() != null) {
+            sql.append(" AND ").append(column).append(range.hiInclusive() ? " <= " : " < ")
+                    .append(param(params, range.hi()));
+        }
+    }
+
+    private static void appendSeek(StringBuilder sql, List<Object> params, KeysetCursor cursor, boolean ascending) {
+        String op = ascending ? " > " : " < ";
+        sql.append("(recorded_at").append(op).append(param(params, cursor.time()))
+                .append(" OR (recorded_at = ").append(param(params, cursor.time()))
+                .append(" AND id").append(op).append(param(params, cursor.id())).append("))");
+    }
+
+    private static String param(List<Object> params, Object value) {
+        params.add(value);
+        return "?" + params.size();
+    }
+
+    private static void bind(Query query, List<Object> params) {
+        for (int i = 0; i < params.size(); i++) {
+            query.setParameter(i + 1, params.get(i));
+        }
+    }
+}
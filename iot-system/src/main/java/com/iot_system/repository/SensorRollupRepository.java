@@ -0,0 +1,31 @@
+package com.iot_system.repository;
+
+import com.iot_system.domain.entity.SensorRollup;
+import com.iot_system.domain.enums.RollupBucket;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface SensorRollupRepository extends JpaRepository<SensorRollup, Long> {
+
+    @Query("""
+           SELECT r FROM SensorRollup r
+           WHERE r.device.id = :deviceId
+             AND r.bucket = :bucket
+             AND r.metric IN :metrics
+             AND (:start IS NULL OR r.bucketStart >= :start)
+             AND (:end IS NULL OR r.bucketStart < :end)
+           ORDER BY r.bucketStart ASC, r.metric ASC
+           """)
+    List<SensorRollup> findSeries(
+            @Param("deviceId") Long deviceId,
+            @Param("bucket") RollupBucket bucket,
+            @Param("metrics") Collection<String> metrics,
+            @Param("start") LocalDateTime start,
+            @Param("end") LocalDateTime end
+    );
+}
@@ -0,0 +1,42 @@
+package com.iot_system.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+import java.util.List;
+
+/**
+ * Chạy Specification + Sort với offset/limit mà KHÔNG kèm câu COUNT (khác với findAll(spec, pageable)).
+ * Dùng cho phân trang keyset và các truy vấn chỉ cần một lát dữ liệu.
+ */
+final class SpecificationSlices {
+
+    private SpecificationSlices() {
+    }
+
+    static <T> List<T> find(EntityManager em, Class<T> type, Specification<T> spec, Sort sort, int offset, int limit) {
+        CriteriaBuilder cb = em.getCriteriaBuilder();
+        CriteriaQuery<T> query = cb.createQuery(type);
+        Root<T> root = query.from(type);
+        if (spec != null) {
+            Predicate predicate = spec.toPredicate(root, query, cb);
+            if (predicate != null) {
+                query.where(predicate);
+            }
+        }
+        if (sort != null && sort.isSorted()) {
+            query.orderBy(QueryUtils.toOrders(sort, root, cb));
+        }
+        TypedQuery<T> typed = em.createQuery(query);
+        typed.setFirstResult(offset);
+        typed.setMaxResults(limit);
+        return typed.getResultList();
+    }
+}
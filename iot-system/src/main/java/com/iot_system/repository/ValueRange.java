@@ -0,0 +1,33 @@
+package com.iot_system.repository;
+
+import com.iot_system.domain.enums.ValueOp;
+import com.iot_system.exception.InvalidQueryException;
+
+/**
+ * Khoảng giá trị cần tìm trên một cột cảm biến; lo/hi = null nghĩa là không chặn phía đó.
+ */
+public record ValueRange(Double lo, boolean loInclusive, Double hi, boolean hiInclusive) {
+
+    /** Sai số cho phép khi so sánh bằng (eq) trên cột DOUBLE */
+    public static final double EQ_TOLERANCE = 0.05d;
+
+    public static ValueRange of(ValueOp op, Double value, Double valueTo) {
+        if (value == null) {
+            throw new InvalidQueryException("Cần cung cấp giá trị để so sánh");
+        }
+        double v = value;
+        return switch (op) {
+            case EQ -> new ValueRange(v - EQ_TOLERANCE, true, v + EQ_TOLERANCE, true);
+            case LT -> new ValueRange(null, false, v, false);
+            case LTE -> new ValueRange(null, false, v, true);
+            case GT -> new ValueRange(v, false, null, false);
+            case GTE -> new ValueRange(v, true, null, false);
+            case BETWEEN -> {
+                if (valueTo == null) {
+                    throw new InvalidQueryException("Toán tử between cần thêm 'valueTo'");
+                }
+                yield new ValueRange(Math.min(v, valueTo), true, Math.max(v, valueTo), true);
+            }
+        };
+    }
+}
@@ -3,37 +3,71 @@ package com.iot_system.service;
 import com.iot_system.domain.dto.ActionHistoryDTO;
 import com.iot_system.domain.dto.PagedResponse;
 import com.iot_system.domain.entity.DeviceActionHistory;
+import com.iot_system.domain.enums.CountMode;
 import com.iot_system.domain.enums.DeviceState;
 import com.iot_system.domain.enums.DeviceType;
 import com.iot_system.repository.DeviceActionHistoryRepository;
-import com.iot_system.repository.DeviceRepository;
+import com.iot_system.service.ingest.DeviceWriteBehind;
+import com.iot_system.util.CountedPage;
 import com.iot_system.util.DateTimeUtils;
 import com.iot_system.exception.InvalidDateFormatException;
+import com.iot_system.util.KeysetCursor;
+import com.iot_system.util.KeysetPaging;
 import com.iot_system.util.ResponseUtils;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
 import jakarta.transaction.Transactional;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Function;
 
 @Service
 public class ActionHistoryService {
 
 
     private final DeviceActionHistoryRepository historyRepo;
-    private final DeviceRepository deviceRepo;
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceWriteBehind deviceWriteBehind;
+    private final QueryResultCache queryCache;
+    private final SearchCountService countService;
 
-    public ActionHistoryService(DeviceActionHistoryRepository historyRepo, DeviceRepository deviceRepo) {
+    @Value("${search.count.device-actions:EXACT}")
+    private CountMode countMode;
+
+    public ActionHistoryService(DeviceActionHistoryRepository historyRepo,
+                                DeviceRegistry deviceRegistry,
+                                DeviceWriteBehind deviceWriteBehind,
+                                QueryResultCache queryCache,
+                                SearchCountService countService) {
         this.historyRepo = historyRepo;
-        this.deviceRepo = deviceRepo;
+        this.deviceRegistry = deviceRegistry;
+        this.deviceWriteBehind = deviceWriteBehind;
+        this.queryCache = queryCache;
+        this.countService = countService;
+    }
+
+    // Khóa cache đã chuẩn hóa cho search(...)
+    private record SearchKey(LocalDateTime start, LocalDateTime end, DeviceType deviceType, DeviceState action,
+                             int page, int size, boolean ascending) {
+    }
+
+    // Khóa cache số đếm: chỉ gồm bộ lọc
+    private record CountKey(LocalDateTime start, LocalDateTime end, DeviceType deviceType, DeviceState action) {
     }
 
     @Transactional
     public void logAction(Long deviceId, DeviceState action) {
-        var device = deviceRepo.findById(deviceId)
+        var device = deviceRegistry.findById(deviceId)
                 .orElseThrow(() -> new IllegalArgumentException("Thiết bị không tồn tại"));
 
         DeviceActionHistory history = new DeviceActionHistory();
@@ -41,6 +75,7 @@ public class ActionHistoryService {
         history.setAction(action);
 
         historyRepo.save(history);
+        queryCache.onHistoryWritten(history.getExecutedAt(), history.getExecutedAt());
     }
 
     /**
@@ -74,26 +109,88 @@ public class ActionHistoryService {
             }
         }
 
-        Pageable pageable = PageRequest.of(page, size,
-                ("asc".equalsIgnoreCase(sort))
-                        ? org.springframework.data.domain.Sort.by("executedAt").ascending()
-                        : org.springframework.data.domain.Sort.by("executedAt").descending()
-        );
-        
-    // Không lọc theo tên thiết bị (đồng bộ với Controller); truyền null để bỏ qua điều kiện này
-    Page<DeviceActionHistory> historyPage = historyRepo.search(null, deviceType, action, start, end, pageable);
+        boolean ascending = "asc".equalsIgnoreCase(sort);
+        Sort executedAtSort = ascending
+                ? Sort.by("executedAt").ascending().and(Sort.by("id").ascending())
+                : Sort.by("executedAt").descending().and(Sort.by("id").descending());
+        DeviceType type = deviceType != null ? deviceType : DeviceType.ALL;
+        final LocalDateTime from = start;
+        final LocalDateTime to = end;
+
+        Page<ActionHistoryDTO> historyPage = queryCache.getOrLoad(
+                new SearchKey(start, end, type, action, page, size, ascending),
+                QueryResultCache.Domain.ACTION_HISTORY, start, end, deviceWriteBehind.historyWatermark(),
+                () -> {
+                    // Không lọc theo tên thiết bị (đồng bộ với Controller)
+                    Specification<DeviceActionHistory> spec = filter(type, action, from, to);
+                    long offset = (long) page * size;
+                    List<DeviceActionHistory> entities = historyRepo.findSlice(spec, executedAtSort, (int) offset, size);
+                    SearchCountService.Total total = countService.count(countMode, new CountKey(from, to, type, action),
+                            offset, entities.size(), size, null, () -> historyRepo.count(spec));
+                    int startIndex = page * size;
+                    List<ActionHistoryDTO> rows = new ArrayList<>(entities.size());
+                    for (DeviceActionHistory history : entities) {
+                        rows.add(ActionHistoryDTO.from(history, startIndex + rows.size() + 1));
+                    }
+                    return new CountedPage<>(rows, PageRequest.of(page, size), total.value(), total.exact());
+                });
 
-        int startIndex = page * size;
         return ResponseUtils.mapToPagedResponse(historyPage, page, size,
                 (start != null)
                         ? searchMessage + " (" + historyPage.getContent().size() + " kết quả)"
                         : "Tìm thấy " + historyPage.getContent().size() + " kết quả.",
-                history -> {
-                    int index = historyPage.getContent().indexOf(history);
-                    return ActionHistoryDTO.from(history, startIndex + index + 1);
-                },
+                Function.identity(),
                 "Không tìm thấy lịch sử hoạt động.");
     }
 
+    /**
+     * Phân trang keyset: after/before = "<executedAt>,<id>", trả về nextCursor/prevCursor, không chạy COUNT.
+     */
+    public PagedResponse<ActionHistoryDTO> searchKeyset(String dateStr, DeviceType deviceType, DeviceState action,
+                                                        String after, String before, int limit, String sort) {
+        LocalDateTime start = null;
+        LocalDateTime end = null;
+        if (dateStr != null && !dateStr.isBlank()) {
+            DateTimeUtils.DateTimeParseResult parseResult = DateTimeUtils.parseDateTime(dateStr);
+            if (parseResult == null) {
+                throw new InvalidDateFormatException("Hỗ trợ: dd-MM-yyyy HH:mm:ss, dd-MM-yyyy HH:mm, dd-MM-yyyy, ddMMyyyy, dd/MM/yyyy, ddMMyy");
+            }
+            start = parseResult.getStart();
+            end = parseResult.getEnd();
+        }
+
+        return KeysetPaging.page(filter(deviceType, action, start, end), "executedAt", after, before, limit,
+                "asc".equalsIgnoreCase(sort),
+                historyRepo::findSlice,
+                history -> KeysetCursor.format(history.getExecutedAt(), history.getId()),
+                ActionHistoryDTO::from,
+                "Không tìm thấy lịch sử hoạt động.");
+    }
 
-}
\ No newline at end of file
+    // Cùng điều kiện với DeviceActionHistoryRepository.search (JOIN FETCH device để lấy tên thiết bị)
+    private Specification<DeviceActionHistory> filter(DeviceType deviceType, DeviceState action,
+                                                      LocalDateTime start, LocalDateTime end) {
+        return (root, query, cb) -> {
+            Path<Object> device;
+            if (Long.class == query.getResultType() || long.class == query.getResultType()) {
+                device = root.join("device");
+            } else {
+                device = (Join<Object, Object>) root.fetch("device", JoinType.INNER);
+            }
+            List<Predicate> predicates = new ArrayList<>();
+            if (deviceType != null && deviceType != DeviceType.ALL) {
+                predicates.add(cb.equal(device.get("type"), deviceType));
+            }
+            if (action != null) {
+                predicates.add(cb.equal(root.get("action"), action));
+            }
+            if (start != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("executedAt"), start));
+            }
+            if (end != null) {
+                predicates.add(cb.lessThan(root.get("executedAt"), end));
+            }
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+}
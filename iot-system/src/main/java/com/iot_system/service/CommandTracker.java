@@ -0,0 +1,216 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.dto.CommandStatusDTO;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.enums.CommandStatus;
+import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.domain.enums.DeviceType;
+import com.iot_system.util.HashedTimingWheel;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Theo dõi lệnh điều khiển từ lúc publish tới lúc nhận ACK, theo correlationId.
+ * - Lệnh chờ ACK nằm trong một hashed timing wheel; quá command.timeout-ms => TIMED_OUT,
+ *   phát sự kiện COMMAND_TIMEOUT lên /topic/devices
+ * - Thời gian khứ hồi (publish -> ACK) ghi vào histogram iot.command.rtt theo loại thiết bị
+ * - Kết quả gần đây (tối đa history-size lệnh) được giữ lại để tra cứu trạng thái
+ */
+@Component
+public class CommandTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(CommandTracker.class);
+
+    private static final DateTimeFormatter WS_TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private final SimpMessagingTemplate wsTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${command.timeout-ms:5000}")
+    private long timeoutMs;
+
+    @Value("${command.tracker.tick-ms:100}")
+    private long tickMs;
+
+    @Value("${command.tracker.wheel-size:512}")
+    private int wheelSize;
+
+    @Value("${command.tracker.history-size:10000}")
+    private int historySize;
+
+    private static final class Pending {
+        final String correlationId;
+        final Long deviceId;
+        final DeviceType deviceType;
+        final DeviceState action;
+        final long sentNanos = System.nanoTime();
+        final LocalDateTime sentAt = LocalDateTime.now();
+        // Gán sau khi lệnh đã nằm trong pending: ACK về rất sớm có thể thấy null
+        volatile HashedTimingWheel.Timeout<Pending> timeout;
+
+        Pending(String correlationId, Long deviceId, DeviceType deviceType, DeviceState action) {
+            this.correlationId = correlationId;
+            this.deviceId = deviceId;
+            this.deviceType = deviceType;
+            this.action = action;
+        }
+    }
+
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private Map<String, CommandStatusDTO> finished;
+    private HashedTimingWheel<Pending> wheel;
+
+    private final Map<DeviceType, Timer> rttTimers = new EnumMap<>(DeviceType.class);
+    private final Map<DeviceType, Counter> timeoutCounters = new EnumMap<>(DeviceType.class);
+    private Counter lateAckCounter;
+    private Counter unknownAckCounter;
+
+    public CommandTracker(SimpMessagingTemplate wsTemplate, MeterRegistry meterRegistry) {
+        this.wsTemplate = wsTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() {
+        finished = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CommandStatusDTO> eldest) {
+                return size() > historySize;
+            }
+        });
+        for (DeviceType type : DeviceType.values()) {
+            rttTimers.put(type, Timer.builder("iot.command.rtt")
+                    .description("Thời gian từ lúc publish lệnh tới lúc nhận ACK")
+                    .tag("deviceType", type.name())
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            timeoutCounters.put(type, Counter.builder("iot.command.timeouts")
+                    .tag("deviceType", type.name())
+                    .register(meterRegistry));
+        }
+        lateAckCounter = Counter.builder("iot.command.late_ack").register(meterRegistry);
+        unknownAckCounter = Counter.builder("iot.command.unknown_ack").register(meterRegistry);
+        Gauge.builder("iot.command.pending", pending, Map::size).register(meterRegistry);
+
+        wheel = new HashedTimingWheel<>("command-timeout-wheel", wheelSize, tickMs, TimeUnit.MILLISECONDS, this::expire);
+        wheel.start();
+        log.info("[SERVICE] Theo dõi lệnh: timeoutMs={}, tickMs={}, wheelSize={}", timeoutMs, tickMs, wheelSize);
+    }
+
+    /**
+     * Gọi trước khi publish lệnh để ACK về sớm vẫn khớp được.
+     * Đưa vào pending trước rồi mới hẹn giờ: timeout ngắn hơn một tick có thể hết hạn ngay, expire() phải thấy lệnh.
+     */
+    public void track(String correlationId, Device device, DeviceState action) {
+        Pending command = new Pending(correlationId, device.getId(), device.getType(), action);
+        pending.put(correlationId, command);
+        command.timeout = wheel.schedule(command, timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Publish thất bại: bỏ theo dõi, không tính là timeout */
+    public void untrack(String correlationId) {
+        Pending command = pending.remove(correlationId);
+        if (command != null) {
+            cancelTimeout(command);
+        }
+    }
+
+    /** Gọi khi nhận ACK; trả về thời gian khứ hồi (ms) nếu lệnh đang chờ */
+    public Optional<Long> complete(String correlationId) {
+        if (correlationId == null) {
+            return Optional.empty();
+        }
+        long now = System.nanoTime();
+        Pending command = pending.remove(correlationId);
+        if (command != null) {
+            cancelTimeout(command);
+            long rttNanos = now - command.sentNanos;
+            rttTimers.get(command.deviceType).record(rttNanos, TimeUnit.NANOSECONDS);
+            long latencyMs = TimeUnit.NANOSECONDS.toMillis(rttNanos);
+            finished.put(correlationId, new CommandStatusDTO(correlationId, command.deviceId, command.action,
+                    CommandStatus.ACKED, command.sentAt, LocalDateTime.now(), latencyMs));
+            return Optional.of(latencyMs);
+        }
+
+        CommandStatusDTO previous = finished.get(correlationId);
+        if (previous != null && previous.status() == CommandStatus.TIMED_OUT) {
+            lateAckCounter.increment();
+            long latencyMs = Duration.between(previous.sentAt(), LocalDateTime.now()).toMillis();
+            finished.put(correlationId, new CommandStatusDTO(correlationId, previous.deviceId(), previous.action(),
+                    CommandStatus.LATE_ACK, previous.sentAt(), LocalDateTime.now(), latencyMs));
+            log.warn("[SERVICE] ACK về muộn cho correlationId={} ({} ms)", correlationId, latencyMs);
+        } else if (previous == null) {
+            unknownAckCounter.increment();
+        }
+        return Optional.empty();
+    }
+
+    public Optional<CommandStatusDTO> status(String correlationId) {
+        Pending command = pending.get(correlationId);
+        if (command != null) {
+            return Optional.of(new CommandStatusDTO(correlationId, command.deviceId, command.action,
+                    CommandStatus.PENDING, command.sentAt, null, null));
+        }
+        return Optional.ofNullable(finished.get(correlationId));
+    }
+
+    // Lệnh hoàn tất trước khi kịp hẹn giờ: timeout còn null, expire() về sau không thấy lệnh trong pending nên bỏ qua
+    private static void cancelTimeout(Pending command) {
+        HashedTimingWheel.Timeout<Pending> timeout = command.timeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    // Chạy trên luồng của timing wheel
+    private void expire(Pending command) {
+        if (!pending.remove(command.correlationId, command)) {
+            return;
+        }
+        timeoutCounters.get(command.deviceType).increment();
+        finished.put(command.correlationId, new CommandStatusDTO(command.correlationId, command.deviceId,
+                command.action, CommandStatus.TIMED_OUT, command.sentAt, LocalDateTime.now(), null));
+        log.warn("[SERVICE] Lệnh quá hạn chờ ACK: deviceId={}, hành động={}, correlationId={}",
+                command.deviceId, command.action, command.correlationId);
+
+        Map<String, Object> wsPayload = new LinkedHashMap<>();
+        wsPayload.put("type", "COMMAND_TIMEOUT");
+        wsPayload.put("deviceId", command.deviceId);
+        wsPayload.put("action", command.action);
+        wsPayload.put("correlationId", command.correlationId);
+        wsPayload.put("timeoutMs", timeoutMs);
+        wsPayload.put("recordedAt", LocalDateTime.now().format(WS_TIME_FORMAT));
+        try {
+            wsTemplate.convertAndSend("/topic/devices", wsPayload);
+        } catch (Exception e) {
+            log.error("[WS] Lỗi gửi sự kiện timeout lệnh", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.domain.enums.DeviceType;
+import com.iot_system.domain.enums.ExportFormat;
+import com.iot_system.domain.enums.SensorMetric;
+import com.iot_system.domain.enums.ValueOp;
+import com.iot_system.exception.InvalidDateFormatException;
+import com.iot_system.exception.InvalidQueryException;
+import com.iot_system.repository.ValueRange;
+import com.iot_system.service.archive.ColdSegmentStore;
+import com.iot_system.util.DateTimeUtils;
+import com.iot_system.util.ExportRowWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Xuất sensor_data / device_action_history ra CSV hoặc NDJSON với bộ nhớ cố định.
+ * - Đọc bằng con trỏ streaming của MySQL (fetchSize = Integer.MIN_VALUE): từng dòng được ghi thẳng ra response,
+ *   không dựng Page/List, không chạy COUNT
+ * - Cùng bộ lọc với SensorDataService.search/searchByValue và ActionHistoryService.search,
+ *   thêm deviceUid và khoảng from/to để xuất dài ngày
+ * - Tham số được kiểm tra trước khi bắt đầu ghi để lỗi vẫn trả về 400 như các API khác
+ */
+@Service
+public class DataExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(DataExportService.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String[] SENSOR_COLUMNS = {"id", "deviceUid", "temperature", "humidity", "light", "recordedAt"};
+    private static final String[] ACTION_COLUMNS = {"id", "deviceUid", "deviceName", "deviceType", "action", "executedAt"};
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceRegistry deviceRegistry;
+    private final ColdSegmentStore coldStore;
+    private final Counter sensorRowsCounter;
+    private final Counter actionRowsCounter;
+
+    public DataExportService(JdbcTemplate jdbcTemplate, DeviceRegistry deviceRegistry, ColdSegmentStore coldStore,
+                             MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.deviceRegistry = deviceRegistry;
+        this.coldStore = coldStore;
+        this.sensorRowsCounter = Counter.builder("iot.export.rows").tag("type", "sensor").register(meterRegistry);
+        this.actionRowsCounter = Counter.builder("iot.export.rows").tag("type", "action").register(meterRegistry);
+    }
+
+    /** Câu SQL đã dựng xong cùng tham số */
+    private record ExportQuery(String sql, List<Object> params) {
+    }
+
+    public StreamingResponseBody exportSensorData(String dateStr, String from, String to, String deviceUid,
+                                                  SensorMetric metric, String valueOp, Double value, Double valueTo,
+                                                  String sort, ExportFormat format, boolean gzip) {
+        LocalDateTime[] range = timeRange(dateStr, from, to);
+        // Chỉ xuất từ MySQL: khoảng chạm tới dữ liệu đã lưu trữ bị từ chối thay vì xuất thiếu
+        coldStore.requireNotArchived(range[0], "Xuất dữ liệu cảm biến");
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(
+                "SELECT s.id, d.device_uid, s.temperature, s.humidity, s.light, s.recorded_at"
+                        + " FROM sensor_data s JOIN device d ON d.id = s.device_id WHERE 1 = 1");
+        appendTimeRange(sql, params, "s.recorded_at", range);
+        if (deviceUid != null && !deviceUid.isBlank()) {
+            sql.append(" AND s.device_id = ?");
+            params.add(resolveDevice(deviceUid).getId());
+        }
+
+        if (valueOp != null && !valueOp.isBlank()) {
+            ValueRange valueRange = ValueRange.of(ValueOp.parse(valueOp), value, valueTo);
+            if (metric == null || metric == SensorMetric.ALL) {
+                sql.append(" AND (");
+                appendValueRange(sql, params, "s.temperature", valueRange);
+                sql.append(" OR ");
+                appendValueRange(sql, params, "s.humidity", valueRange);
+                sql.append(" OR ");
+                appendValueRange(sql, params, "s.light", valueRange);
+                sql.append(')');
+            } else {
+                sql.append(" AND ");
+                appendValueRange(sql, params, "s." + column(metric), valueRange);
+            }
+        } else if (metric != null && metric != SensorMetric.ALL) {
+            sql.append(" AND s.").append(column(metric)).append(" IS NOT NULL");
+        }
+        appendOrder(sql, "s.recorded_at", "s.id", sort);
+
+        ExportQuery query = new ExportQuery(sql.toString(), params);
+        return out -> stream(out, query, format, gzip, SENSOR_COLUMNS, sensorRowsCounter, (rs, writer) -> writer.startRow()
+                .value(rs.getLong(1))
+                .value(rs.getString(2))
+                .value(rs.getDouble(3), rs.wasNull())
+                .value(rs.getDouble(4), rs.wasNull())
+                .value(rs.getDouble(5), rs.wasNull())
+                .value(rs.getTimestamp(6).toLocalDateTime())
+                .endRow());
+    }
+
+    public StreamingResponseBody exportActionHistory(String dateStr, String from, String to, String deviceUid,
+                                                     DeviceType deviceType, DeviceState action,
+                                                     String sort, ExportFormat format, boolean gzip) {
+        LocalDateTime[] range = timeRange(dateStr, from, to);
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder(
+                "SELECT h.id, d.device_uid, d.name, d.type, h.action, h.executed_at"
+                        + " FROM device_action_history h JOIN device d ON d.id = h.device_id WHERE 1 = 1");
+        appendTimeRange(sql, params, "h.executed_at", range);
+        if (deviceUid != null && !deviceUid.isBlank()) {
+            sql.append(" AND h.device_id = ?");
+            params.add(resolveDevice(deviceUid).getId());
+        }
+        if (deviceType != null && deviceType != DeviceType.ALL) {
+            sql.append(" AND d.type = ?");
+            params.add(deviceType.name());
+        }
+        if (action != null) {
+            sql.append(" AND h.action = ?");
+            params.add(action.name());
+        }
+        appendOrder(sql, "h.executed_at", "h.id", sort);
+
+        ExportQuery query = new ExportQuery(sql.toString(), params);
+        return out -> stream(out, query, format, gzip, ACTION_COLUMNS, actionRowsCounter, (rs, writer) -> writer.startRow()
+                .value(rs.getLong(1))
+                .value(rs.getString(2))
+                .value(rs.getString(3))
+                .value(rs.getString(4))
+                .value(rs.getString(5))
+                .value(rs.getTimestamp(6).toLocalDateTime())
+                .endRow());
+    }
+
+    @FunctionalInterface
+    private interface RowExporter {
+        void write(ResultSet rs, ExportRowWriter writer) throws SQLException, IOException;
+    }
+
+    private void stream(OutputStream out, ExportQuery query, ExportFormat format, boolean gzip, String[] columns,
+                        Counter rowsCounter, RowExporter exporter) throws IOException {
+        long startNanos = System.nanoTime();
+        GZIPOutputStream gzipOut = gzip ? new GZIPOutputStream(out, BUFFER_SIZE) : null;
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(gzipOut != null ? gzipOut : out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        ExportRowWriter rowWriter = new ExportRowWriter(writer, format, columns);
+        PreparedStatement[] statement = new PreparedStatement[1];
+        long[] rows = new long[1];
+
+        PreparedStatementCreator creator = con -> {
+            PreparedStatement ps = con.prepareStatement(query.sql(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // MySQL Connector/J: trả từng dòng thay vì nạp toàn bộ kết quả vào RAM
+            ps.setFetchSize(Integer.MIN_VALUE);
+            for (int i = 0; i < query.params().size(); i++) {
+                ps.setObject(i + 1, query.params().get(i));
+            }
+            statement[0] = ps;
+            return ps;
+        };
+        RowCallbackHandler handler = rs -> {
+            try {
+                exporter.write(rs, rowWriter);
+                rows[0]++;
+            } catch (IOException e) {
+                // Client ngắt kết nối: hủy câu lệnh để driver không phải đọc nốt phần còn lại của kết quả streaming
+                try {
+                    statement[0].cancel();
+                } catch (SQLException ignored) {
+                    // bỏ qua, vẫn ném lỗi ghi ban đầu
+                }
+                throw new UncheckedIOException(e);
+            }
+        };
+
+        try {
+            jdbcTemplate.query(creator, handler);
+            writer.flush();
+            if (gzipOut != null) {
+                gzipOut.finish();
+            }
+        } catch (UncheckedIOException e) {
+            log.warn("[EXPORT] Client ngắt kết nối sau {} dòng", rows[0]);
+            throw e.getCause();
+        } finally {
+            rowsCounter.increment(rows[0]);
+        }
+        log.info("[EXPORT] Đã xuất {} dòng ({}{}) trong {} ms", rows[0], format, gzip ? ", gzip" : "",
+                (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    private Device resolveDevice(String deviceUid) {
+        return deviceRegistry.findByDeviceUid(deviceUid)
+                .orElseThrow(() -> new InvalidQueryException("Thiết bị không tồn tại: " + deviceUid));
+    }
+
+    // dateStr giữ nguyên ý nghĩa như API tìm kiếm; from/to dùng cho khoảng dài (from lấy đầu, to lấy cuối khoảng)
+    private static LocalDateTime[] timeRange(String dateStr, String from, String to) {
+        LocalDateTime start = null;
+        LocalDateTime end = null;
+        if (dateStr != null && !dateStr.isBlank()) {
+            DateTimeUtils.DateTimeParseResult result = parse(dateStr);
+            start = result.getStart();
+            end = result.getEnd();
+        }
+        if (from != null && !from.isBlank()) {
+            start = parse(from).getStart();
+        }
+        if (to != null && !to.isBlank()) {
+            end = parse(to).getEnd();
+        }
+        if (start != null && end != null && !start.isBefore(end)) {
+            throw new InvalidQueryException("'from' phải trước 'to'");
+        }
+        return new LocalDateTime[]{start, end};
+    }
+
+    private static DateTimeUtils.DateTimeParseResult parse(String input) {
+        DateTimeUtils.DateTimeParseResult result = DateTimeUtils.parseDateTime(input);
+        if (result == null) {
+            throw new InvalidDateFormatException("Hỗ trợ: dd-MM-yyyy HH:mm:ss, dd-MM-yyyy HH:mm, dd-MM-yyyy, ddMMyyyy, dd/MM/yyyy, ddMMyy");
+        }
+        return result;
+    }
+
+    private static void appendTimeRange(StringBuilder sql, List<Object> params, String column, LocalDateTime[] range) {
+        if (range[0] != null) {
+            sql.append(" AND ").append(column).append(" >= ?");
+            params.add(Timestamp.valueOf(range[0]));
+        }
+        if (range[1] != null) {
+            sql.append(" AND ").append(column).append(" < ?");
+            params.add(Timestamp.valueOf(range[1]));
+        }
+    }
+
+    // Cùng ngữ nghĩa với SensorDataService.valueFilter: cột NULL không bao giờ khớp
+    private static void appendValueRange(StringBuilder sql, List<Object> params, String column, ValueRange range) {
+        sql.append('(').append(column).append(" IS NOT NULL");
+        if (range.lo() != null) {
+            sql.append(" AND ").append(column).append(range.loInclusive() ? " >= ?" : " > ?");
+            params.add(range.lo());
+        }
+        if (range.hi() != null) {
+            sql.append(" AND ").append(column).append(range.hiInclusive() ? " <= ?" : " < ?");
+            params.add(range.hi());
+        }
+        sql.append(')');
+    }
+
+    private static void appendOrder(StringBuilder sql, String timeColumn, String idColumn, String sort) {
+        String direction = "desc".equalsIgnoreCase(sort) ? " DESC" : " ASC";
+        sql.append(" ORDER BY ").append(timeColumn).append(direction).append(", ").append(idColumn).append(direction);
+    }
+
+    private static String column(SensorMetric metric) {
+        return switch (metric) {
+            case TEMP -> "temperature";
+            case HUMIDITY -> "humidity";
+            case LIGHT -> "light";
+            default -> throw new InvalidQueryException("Metric không hợp lệ: " + metric);
+        };
+    }
+}
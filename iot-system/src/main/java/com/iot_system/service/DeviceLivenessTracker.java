@@ -0,0 +1,335 @@
+package com.iot_system.service;
+
+import com.iot_system.config.DataSourceConfig;
+import com.iot_system.domain.entity.Device;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Theo dõi thiết bị còn sống (lastSeenAt) cho đội thiết bị lớn.
+ * - Mỗi message telemetry/ACK chỉ ghi một số long vào mảng lastSeen[deviceId] (không ghi DB)
+ * - Mỗi flush-interval-ms: các thiết bị có lastSeen mới hơn lần ghi trước được cập nhật device.last_seen_at
+ *   bằng một câu UPDATE ... CASE (chia theo lô update-chunk-size thiết bị)
+ * - Mỗi sweep-interval-ms: quét toàn bộ mảng (O(số thiết bị)) để phát hiện online/offline,
+ *   phát sự kiện DEVICE_ONLINE / DEVICE_OFFLINE lên /topic/devices
+ */
+@Component
+public class DeviceLivenessTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceLivenessTracker.class);
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final DateTimeFormatter WS_TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private static final byte UNKNOWN = 0;
+    private static final byte ONLINE = 1;
+    private static final byte OFFLINE = 2;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DeviceRegistry deviceRegistry;
+    private final SimpMessagingTemplate wsTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${device.liveness.offline-after-ms:60000}")
+    private long offlineAfterMs;
+
+    @Value("${device.liveness.flush-interval-ms:10000}")
+    private long flushIntervalMs;
+
+    @Value("${device.liveness.sweep-interval-ms:5000}")
+    private long sweepIntervalMs;
+
+    @Value("${device.liveness.update-chunk-size:1000}")
+    private int updateChunkSize;
+
+    @Value("${device.liveness.max-device-id:10000000}")
+    private long maxDeviceId;
+
+    /** lastSeen[deviceId] = epoch millis, 0 = chưa thấy; ghi từ các luồng xử lý MQTT */
+    private volatile long[] lastSeen = new long[1024];
+    private final Object growLock = new Object();
+
+    // Chỉ luồng scheduler chạm vào hai mảng dưới
+    private long[] flushed = new long[0];
+    private byte[] states = new byte[0];
+    private int onlineCount;
+    private int offlineCount;
+
+    private ScheduledExecutorService scheduler;
+    private Timer flushTimer;
+    private Counter onlineTransitions;
+    private Counter offlineTransitions;
+
+    public DeviceLivenessTracker(@Qualifier(DataSourceConfig.INGEST_JDBC_TEMPLATE) JdbcTemplate jdbcTemplate,
+                                 DeviceRegistry deviceRegistry,
+                                 SimpMessagingTemplate wsTemplate,
+                                 MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.deviceRegistry = deviceRegistry;
+        this.wsTemplate = wsTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setIntervals(long offlineAfterMs, long flushIntervalMs, long sweepIntervalMs) {
+        this.offlineAfterMs = offlineAfterMs;
+        this.flushIntervalMs = flushIntervalMs;
+        this.sweepIntervalMs = sweepIntervalMs;
+    }
+
+    void setLimits(int updateChunkSize, long maxDeviceId) {
+        this.updateChunkSize = updateChunkSize;
+        this.maxDeviceId = maxDeviceId;
+    }
+
+    @PostConstruct
+    public void start() {
+        flushTimer = Timer.builder("iot.device.liveness.flush").register(meterRegistry);
+        onlineTransitions = Counter.builder("iot.device.liveness.transitions").tag("to", "online").register(meterRegistry);
+        offlineTransitions = Counter.builder("iot.device.liveness.transitions").tag("to", "offline").register(meterRegistry);
+        Gauge.builder("iot.device.liveness.online", this, t -> t.onlineCount).register(meterRegistry);
+        Gauge.builder("iot.device.liveness.offline", this, t -> t.offlineCount).register(meterRegistry);
+
+        seedFromRegistry();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "device-liveness");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::safeSweep, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::safeFlush, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("[SERVICE] Theo dõi online/offline: offlineAfterMs={}, flushIntervalMs={}, sweepIntervalMs={}",
+                offlineAfterMs, flushIntervalMs, sweepIntervalMs);
+    }
+
+    // Lấy last_seen_at đã lưu làm mốc ban đầu; trạng thái ban đầu được xác định im lặng (không phát sự kiện)
+    private void seedFromRegistry() {
+        long now = System.currentTimeMillis();
+        for (Device device : deviceRegistry.all()) {
+            if (device.getLastSeenAt() == null || device.getId() > maxDeviceId) {
+                continue;
+            }
+            int index = device.getId().intValue();
+            long seen = toMillis(device.getLastSeenAt());
+            long[] seenArray = ensureCapacity(index);
+            LONGS.setRelease(seenArray, index, seen);
+            ensureSchedulerArrays(seenArray.length);
+            flushed[index] = seen;
+            states[index] = now - seen <= offlineAfterMs ? ONLINE : OFFLINE;
+        }
+    }
+
+    /** Gọi cho mỗi message telemetry/ACK của thiết bị */
+    public void touch(long deviceId) {
+        if (deviceId <= 0 || deviceId > maxDeviceId) {
+            return;
+        }
+        int index = (int) deviceId;
+        long[] array = lastSeen;
+        if (index >= array.length) {
+            array = ensureCapacity(index);
+        }
+        LONGS.setRelease(array, index, System.currentTimeMillis());
+    }
+
+    /** lastSeenAt trong RAM (mới hơn DB tối đa một flush-interval), null nếu chưa thấy */
+    public LocalDateTime lastSeenAt(long deviceId) {
+        long[] array = lastSeen;
+        if (deviceId <= 0 || deviceId >= array.length) {
+            return null;
+        }
+        long seen = (long) LONGS.getAcquire(array, (int) deviceId);
+        return seen == 0 ? null : toLocal(seen);
+    }
+
+    // Lần ghi đồng thời vào mảng cũ trong lúc mở rộng có thể mất, message kế tiếp sẽ ghi lại
+    private long[] ensureCapacity(int index) {
+        synchronized (growLock) {
+            long[] current = lastSeen;
+            if (index < current.length) {
+                return current;
+            }
+            int newLength = current.length;
+            while (newLength <= index) {
+                newLength = newLength << 1;
+            }
+            long[] grown = Arrays.copyOf(current, newLength);
+            lastSeen = grown;
+            return grown;
+        }
+    }
+
+    private void ensureSchedulerArrays(int length) {
+        if (flushed.length < length) {
+            flushed = Arrays.copyOf(flushed, length);
+            states = Arrays.copyOf(states, length);
+        }
+    }
+
+    private void safeSweep() {
+        try {
+            sweep();
+        } catch (Exception e) {
+            log.error("[SERVICE] Lỗi quét online/offline", e);
+        }
+    }
+
+    private void safeFlush() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("[SERVICE] Lỗi ghi last_seen_at", e);
+        }
+    }
+
+    void sweep() {
+        long[] seenArray = lastSeen;
+        ensureSchedulerArrays(seenArray.length);
+        long now = System.currentTimeMillis();
+        int online = 0;
+        int offline = 0;
+        for (int i = 1; i < seenArray.length; i++) {
+            long seen = (long) LONGS.getAcquire(seenArray, i);
+            if (seen == 0) {
+                continue;
+            }
+            byte state = now - seen <= offlineAfterMs ? ONLINE : OFFLINE;
+            if (state == ONLINE) {
+                online++;
+            } else {
+                offline++;
+            }
+            if (state != states[i]) {
+                states[i] = state;
+                publishTransition(i, state, seen);
+            }
+        }
+        onlineCount = online;
+        offlineCount = offline;
+    }
+
+    private void publishTransition(long deviceId, byte state, long seen) {
+        boolean nowOnline = state == ONLINE;
+        (nowOnline ? onlineTransitions : offlineTransitions).increment();
+        log.info("[SERVICE] Thiết bị {} chuyển sang {}", deviceId, nowOnline ? "ONLINE" : "OFFLINE");
+
+        Map<String, Object> wsPayload = new LinkedHashMap<>();
+        wsPayload.put("type", nowOnline ? "DEVICE_ONLINE" : "DEVICE_OFFLINE");
+        wsPayload.put("deviceId", deviceId);
+        wsPayload.put("lastSeenAt", toLocal(seen).format(WS_TIME_FORMAT));
+        try {
+            wsTemplate.convertAndSend("/topic/devices", wsPayload);
+        } catch (Exception e) {
+            log.error("[WS] Lỗi gửi sự kiện online/offline", e);
+        }
+    }
+
+    void flush() {
+        long[] seenArray = lastSeen;
+        ensureSchedulerArrays(seenArray.length);
+        long startNanos = System.nanoTime();
+
+        List<Integer> ids = new ArrayList<>();
+        List<Long> values = new ArrayList<>();
+        int written = 0;
+        for (int i = 1; i < seenArray.length; i++) {
+            long seen = (long) LONGS.getAcquire(seenArray, i);
+            if (seen > flushed[i]) {
+                ids.add(i);
+                values.add(seen);
+                if (ids.size() == updateChunkSize) {
+                    written += writeChunk(ids, values);
+                    ids.clear();
+                    values.clear();
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            written += writeChunk(ids, values);
+        }
+        if (written > 0) {
+            flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            log.debug("[SERVICE] Đã cập nhật last_seen_at cho {} thiết bị", written);
+        }
+    }
+
+    // UPDATE device SET last_seen_at = CASE id WHEN ? THEN ? ... END WHERE id IN (?, ...)
+    private int writeChunk(List<Integer> ids, List<Long> values) {
+        StringBuilder sql = new StringBuilder("UPDATE device SET last_seen_at = CASE id");
+        Object[] args = new Object[ids.size() * 3];
+        int a = 0;
+        for (int k = 0; k < ids.size(); k++) {
+            sql.append(" WHEN ? THEN ?");
+            args[a++] = ids.get(k);
+            args[a++] = Timestamp.valueOf(toLocal(values.get(k)));
+        }
+        sql.append(" ELSE last_seen_at END WHERE id IN (");
+        for (int k = 0; k < ids.size(); k++) {
+            sql.append(k == 0 ? "?" : ", ?");
+            args[a++] = ids.get(k);
+        }
+        sql.append(')');
+
+        try {
+            jdbcTemplate.update(sql.toString(), args);
+        } catch (Exception e) {
+            // Không đánh dấu đã ghi => thử lại ở lần flush sau
+            log.error("[SERVICE] Lỗi cập nhật last_seen_at cho {} thiết bị", ids.size(), e);
+            return 0;
+        }
+        for (int k = 0; k < ids.size(); k++) {
+            flushed[ids.get(k)] = values.get(k);
+        }
+        return ids.size();
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime toLocal(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler == null) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Ghi nốt lastSeen chưa lưu
+        safeFlush();
+    }
+}
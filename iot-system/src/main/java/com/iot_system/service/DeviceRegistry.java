@@ -0,0 +1,146 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.entity.Device;
+import com.iot_system.repository.DeviceRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bộ nhớ đệm Device trong RAM, tra cứu theo deviceUid và id.
+ * - Nạp toàn bộ bảng device khi khởi động
+ * - Cache miss => đọc DB một lần rồi lưu lại; deviceUid không tồn tại được nhớ tạm (negative-ttl-ms)
+ *   để thiết bị lạ không bắn SELECT theo từng message
+ * - Mọi chỗ tạo/sửa/cập nhật trạng thái Device phải gọi {@link #put(Device)} hoặc {@link #evict(Long)}
+ */
+@Component
+public class DeviceRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceRegistry.class);
+
+    private final DeviceRepository deviceRepo;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Long, Device> byId = new ConcurrentHashMap<>();
+    private final Map<String, Device> byUid = new ConcurrentHashMap<>();
+    /** deviceUid không tồn tại -> thời điểm hết hạn (System.nanoTime) */
+    private final Map<String, Long> unknownUids = new ConcurrentHashMap<>();
+
+    @Value("${device.registry.negative-ttl-ms:30000}")
+    private long negativeTtlMs;
+
+    private Counter hitCounter;
+    private Counter missCounter;
+    private Counter negativeHitCounter;
+
+    public DeviceRegistry(DeviceRepository deviceRepo, MeterRegistry meterRegistry) {
+        this.deviceRepo = deviceRepo;
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setNegativeTtlMs(long negativeTtlMs) {
+        this.negativeTtlMs = negativeTtlMs;
+    }
+
+    @PostConstruct
+    public void init() {
+        hitCounter = Counter.builder("iot.device.registry.lookups").tag("result", "hit").register(meterRegistry);
+        missCounter = Counter.builder("iot.device.registry.lookups").tag("result", "miss").register(meterRegistry);
+        negativeHitCounter = Counter.builder("iot.device.registry.lookups").tag("result", "negative_hit").register(meterRegistry);
+        Gauge.builder("iot.device.registry.size", byId, Map::size).register(meterRegistry);
+
+        reload();
+    }
+
+    /** Nạp lại toàn bộ bảng device */
+    public void reload() {
+        List<Device> devices = deviceRepo.findAll();
+        refresh(devices);
+        log.info("[REGISTRY] Đã nạp {} thiết bị vào bộ nhớ đệm", devices.size());
+    }
+
+    /** Cập nhật bộ nhớ đệm từ danh sách vừa đọc từ DB (ví dụ sau findAll) */
+    public void refresh(Collection<Device> devices) {
+        devices.forEach(this::put);
+    }
+
+    public Optional<Device> findByDeviceUid(String deviceUid) {
+        Device cached = byUid.get(deviceUid);
+        if (cached != null) {
+            hitCounter.increment();
+            return Optional.of(cached);
+        }
+        Long expiresAt = unknownUids.get(deviceUid);
+        if (expiresAt != null) {
+            if (System.nanoTime() - expiresAt < 0) {
+                negativeHitCounter.increment();
+                return Optional.empty();
+            }
+            unknownUids.remove(deviceUid, expiresAt);
+        }
+
+        missCounter.increment();
+        Optional<Device> loaded = deviceRepo.findByDeviceUid(deviceUid);
+        if (loaded.isPresent()) {
+            put(loaded.get());
+        } else {
+            unknownUids.put(deviceUid, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(negativeTtlMs));
+        }
+        return loaded;
+    }
+
+    public Optional<Device> findById(Long id) {
+        Device cached = byId.get(id);
+        if (cached != null) {
+            hitCounter.increment();
+            return Optional.of(cached);
+        }
+        missCounter.increment();
+        Optional<Device> loaded = deviceRepo.findById(id);
+        loaded.ifPresent(this::put);
+        return loaded;
+    }
+
+    /** Danh sách thiết bị trong bộ nhớ đệm, sắp theo id */
+    public List<Device> all() {
+        return byId.values().stream()
+                .sorted(Comparator.comparing(Device::getId))
+                .toList();
+    }
+
+    /** Ghi đè bản ghi trong bộ nhớ đệm sau khi tạo/sửa/cập nhật trạng thái */
+    public void put(Device device) {
+        if (device == null || device.getId() == null) {
+            return;
+        }
+        Device previous = byId.put(device.getId(), device);
+        if (previous != null && previous.getDeviceUid() != null
+                && !previous.getDeviceUid().equals(device.getDeviceUid())) {
+            byUid.remove(previous.getDeviceUid(), previous);
+        }
+        if (device.getDeviceUid() != null) {
+            byUid.put(device.getDeviceUid(), device);
+            unknownUids.remove(device.getDeviceUid());
+        }
+    }
+
+    public void evict(Long id) {
+        Device removed = byId.remove(id);
+        if (removed != null && removed.getDeviceUid() != null) {
+            byUid.remove(removed.getDeviceUid(), removed);
+        }
+    }
+}
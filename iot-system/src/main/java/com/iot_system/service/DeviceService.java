@@ -1,16 +1,22 @@
 package com.iot_system.service;
 
+import com.iot_system.domain.dto.CommandStatusDTO;
 import com.iot_system.domain.dto.DeviceControlDTO;
 import com.iot_system.domain.dto.DeviceStatusDTO;
 import com.iot_system.domain.entity.Device;
+import com.iot_system.exception.CommandRejectedException;
 import com.iot_system.mqtt.CommandPublisher;
+import com.iot_system.service.ingest.DeviceWriteBehind;
 import com.iot_system.repository.DeviceRepository;
 import jakarta.transaction.Transactional;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service cho bảng Device
@@ -22,17 +28,42 @@ import java.util.List;
 public class DeviceService {
 
     private final DeviceRepository deviceRepo;
+    private final DeviceRegistry deviceRegistry;
     private final CommandPublisher commandPublisher;
+    private final CommandTracker commandTracker;
+    private final DeviceWriteBehind deviceWriteBehind;
+    private final DeviceLivenessTracker livenessTracker;
 
     private static final Logger log = LoggerFactory.getLogger(DeviceService.class);
 
-    public DeviceService(DeviceRepository deviceRepo, CommandPublisher commandPublisher) {
+    public DeviceService(DeviceRepository deviceRepo,
+                         DeviceRegistry deviceRegistry,
+                         CommandPublisher commandPublisher,
+                         CommandTracker commandTracker,
+                         DeviceWriteBehind deviceWriteBehind,
+                         DeviceLivenessTracker livenessTracker) {
         this.deviceRepo = deviceRepo;
+        this.deviceRegistry = deviceRegistry;
         this.commandPublisher = commandPublisher;
+        this.commandTracker = commandTracker;
+        this.deviceWriteBehind = deviceWriteBehind;
+        this.livenessTracker = livenessTracker;
     }
 
     public List<DeviceStatusDTO> getAllDevices() {
-        return deviceRepo.findAll().stream()
+        // Đọc DB để thấy cả thiết bị thêm trực tiếp vào bảng, đồng thời làm mới bộ nhớ đệm
+        List<Device> devices = deviceRepo.findAll();
+        // Trạng thái từ ACK chưa kịp ghi xuống DB được phủ lên bản đọc từ DB
+        devices.forEach(d -> deviceWriteBehind.pendingState(d.getId()).ifPresent(d::setState));
+        // lastSeenAt trong RAM mới hơn DB tối đa một chu kỳ flush
+        devices.forEach(d -> {
+            LocalDateTime lastSeen = livenessTracker.lastSeenAt(d.getId());
+            if (lastSeen != null && (d.getLastSeenAt() == null || lastSeen.isAfter(d.getLastSeenAt()))) {
+                d.setLastSeenAt(lastSeen);
+            }
+        });
+        deviceRegistry.refresh(devices);
+        return devices.stream()
                 .map(d -> new DeviceStatusDTO(
                         d.getId(),
                         d.getName(),
@@ -45,18 +76,39 @@ public class DeviceService {
     }
 
     /**
-     * Publish lệnh xuống MQTT (chưa update DB, chờ ACK từ ESP32)
+     * Publish lệnh xuống MQTT (chưa update DB, chờ ACK từ ESP32).
+     * Trả về ngay khi lệnh vào hàng publish, không chờ PUBACK; publish lỗi => bỏ theo dõi lệnh.
+     * Lệnh bị từ chối ngay (hàng publish đầy, mất kết nối) => CommandRejectedException, không trả correlationId
      */
     @Transactional
     public String sendCommand(DeviceControlDTO dto) {
-        Device device = deviceRepo.findById(dto.deviceId())
+        Device device = deviceRegistry.findById(dto.deviceId())
                 .orElseThrow(() -> new IllegalArgumentException("Thiết bị không tồn tại"));
 
         String correlationId = java.util.UUID.randomUUID().toString();
-        commandPublisher.sendAction(device.getId().intValue(), dto.action().toString(), correlationId);
+        // Đăng ký chờ ACK trước khi publish để ACK về sớm vẫn khớp được
+        commandTracker.track(correlationId, device, dto.action());
+        CompletableFuture<Void> published =
+                commandPublisher.sendAction(device.getId().intValue(), dto.action().toString(), correlationId);
+        if (published.isCompletedExceptionally()) {
+            commandTracker.untrack(correlationId);
+            Throwable cause = published.exceptionNow();
+            log.warn("[SERVICE] Lệnh bị từ chối -> deviceId={}, hành động={}: {}", device.getId(), dto.action(), cause.getMessage());
+            throw new CommandRejectedException("Không gửi được lệnh: " + cause.getMessage(), cause);
+        }
+        published.whenComplete((ok, e) -> {
+            if (e != null) {
+                commandTracker.untrack(correlationId);
+            }
+        });
 
         log.info("[SERVICE] Đã gửi lệnh -> deviceId={}, hành động={}", device.getId(), dto.action());
         return correlationId;
     }
 
+    /** Trạng thái lệnh theo correlationId (PENDING / ACKED / TIMED_OUT / LATE_ACK) */
+    public Optional<CommandStatusDTO> getCommandStatus(String correlationId) {
+        return commandTracker.status(correlationId);
+    }
+
 }
@@ -0,0 +1,133 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.entity.MetricDefinition;
+import com.iot_system.domain.entity.SensorReading;
+import com.iot_system.domain.enums.SensorMetric;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Danh mục metric cảm biến (bảng sensor_metric), intern tên metric thành id SMALLINT.
+ * - temperature/humidity/light (id 1..3) có cột riêng trong sensor_data (xem {@link SensorMetric})
+ * - Metric khác (co2, voltage, soil_moisture, ...) được đăng ký lần đầu thiết bị gửi lên và lưu ở bảng hẹp
+ *   sensor_reading (device_id, ts, metric_id, value), schema xem {@link SensorReading}
+ * - Bảng do Hibernate tạo từ entity ({@link MetricDefinition}, {@link SensorReading}) => đợi entityManagerFactory
+ * - Toàn bộ danh mục nằm trong RAM; chỉ tên mới mới chạm DB. Số metric bị chặn bởi sensor.metrics.max-count
+ *   để thiết bị gửi sai định dạng không làm phình danh mục
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class MetricRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(MetricRegistry.class);
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-z][a-z0-9_]{0,63}");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Integer> idsByName = new ConcurrentHashMap<>();
+    private final Map<Integer, String> namesById = new ConcurrentHashMap<>();
+
+    @Value("${sensor.metrics.max-count:256}")
+    private int maxCount;
+
+    private Counter rejectedCounter;
+
+    public MetricRegistry(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void init() {
+        rejectedCounter = Counter.builder("iot.sensor.metrics.rejected")
+                .description("Số giá trị bị bỏ do tên metric không hợp lệ hoặc danh mục đã đầy")
+                .register(meterRegistry);
+        Gauge.builder("iot.sensor.metrics.registered", idsByName, Map::size).register(meterRegistry);
+
+        int id = 1;
+        for (SensorMetric metric : SensorMetric.values()) {
+            if (metric.column() != null) {
+                jdbcTemplate.update("INSERT IGNORE INTO sensor_metric (id, name) VALUES (?, ?)", id++, metric.column());
+            }
+        }
+        jdbcTemplate.query("SELECT id, name FROM sensor_metric", rs -> {
+            register(rs.getInt(1), rs.getString(2));
+        });
+        log.info("[REGISTRY] Đã nạp {} metric cảm biến", idsByName.size());
+    }
+
+    private void register(int id, String name) {
+        idsByName.put(name, id);
+        namesById.put(id, name);
+    }
+
+    /**
+     * Id của metric, đăng ký mới nếu chưa có.
+     * @return -1 nếu tên không hợp lệ hoặc danh mục đã đủ max-count
+     */
+    public int intern(String name) {
+        String normalized = name.toLowerCase(Locale.ROOT);
+        Integer id = idsByName.get(normalized);
+        if (id != null) {
+            return id;
+        }
+        if (!NAME_PATTERN.matcher(normalized).matches()) {
+            rejectedCounter.increment();
+            return -1;
+        }
+        synchronized (this) {
+            id = idsByName.get(normalized);
+            if (id != null) {
+                return id;
+            }
+            if (idsByName.size() >= maxCount) {
+                rejectedCounter.increment();
+                log.warn("[REGISTRY] Danh mục metric đã đủ {} mục, bỏ metric mới '{}'", maxCount, normalized);
+                return -1;
+            }
+            // INSERT IGNORE: instance khác có thể vừa đăng ký cùng tên
+            jdbcTemplate.update("INSERT IGNORE INTO sensor_metric (name) VALUES (?)", normalized);
+            Integer created = jdbcTemplate.queryForObject("SELECT id FROM sensor_metric WHERE name = ?", Integer.class, normalized);
+            register(created, normalized);
+            log.info("[REGISTRY] Đăng ký metric mới '{}' (id={})", normalized, created);
+            return created;
+        }
+    }
+
+    /** Id của metric đã đăng ký; -1 nếu chưa có (không đăng ký mới) */
+    public int idOf(String name) {
+        Integer id = idsByName.get(name.toLowerCase(Locale.ROOT));
+        return id != null ? id : -1;
+    }
+
+    public String nameOf(int id) {
+        return namesById.get(id);
+    }
+
+    /** Đã có metric nào lưu ở bảng hẹp chưa; chưa có thì đường đọc bỏ qua bước ghép sensor_reading */
+    public boolean hasNarrowMetrics() {
+        return idsByName.size() > SensorMetric.values().length - 1;
+    }
+
+    /** Tên mọi metric đã đăng ký, theo thứ tự chữ cái */
+    public List<String> names() {
+        return List.copyOf(new TreeSet<>(idsByName.keySet()));
+    }
+}
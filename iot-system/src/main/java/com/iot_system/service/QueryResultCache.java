@@ -0,0 +1,225 @@
+package com.iot_system.service;
+
+import com.iot_system.service.ingest.ActionHistoryListener;
+import com.iot_system.service.ingest.SensorBatchListener;
+import com.iot_system.service.ingest.SensorReadingRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache kết quả tìm kiếm phân trang (sensor_data, lịch sử hành động), LRU giới hạn theo số mục và dung lượng ước tính.
+ * - Khóa: truy vấn đã chuẩn hóa (khoảng thời gian sau khi parse, bộ lọc, trang, chiều sắp xếp) do service tạo
+ * - Khoảng thời gian kết thúc trước mốc ghi (watermark - settle-ms) là BẤT BIẾN: giữ tới khi bị đẩy ra vì LRU
+ *   hoặc khi job lưu trữ/xóa dữ liệu cũ gọi invalidateBefore
+ * - Khoảng chạm tới "hiện tại" (hoặc không có end) là KHẢ BIẾN: bị xóa ngay khi một lô mới ghi xong
+ *   có thời điểm nằm trong khoảng đó
+ * - Kết quả đang tải mà có lô mới giao với nó được trả về nhưng không lưu (tránh lưu dữ liệu cũ)
+ * Mốc ghi không vượt qua lô chờ ghi lại từ đĩa, nên lô ghi lại (dữ liệu cũ) chỉ giao với mục khả biến.
+ */
+@Component
+public class QueryResultCache implements SensorBatchListener, ActionHistoryListener {
+
+    public enum Domain {
+        SENSOR(160),
+        ACTION_HISTORY(200);
+
+        // Ước tính byte của một DTO trên heap (object + Double/LocalDateTime con), đủ để giới hạn bộ nhớ tương đối
+        private final int rowBytes;
+
+        Domain(int rowBytes) {
+            this.rowBytes = rowBytes;
+        }
+    }
+
+    private static final int ENTRY_OVERHEAD_BYTES = 256;
+
+    private record Entry(Domain domain, LocalDateTime start, LocalDateTime end, boolean immutable,
+                         Page<?> page, long bytes) {
+    }
+
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // Tăng khi có lô mới ghi xong / khi dữ liệu cũ bị xóa; dùng để bỏ kết quả tải trong lúc dữ liệu thay đổi
+    private final Map<Domain, AtomicLong> writeGenerations = new EnumMap<>(Domain.class);
+    private final Map<Domain, AtomicLong> purgeGenerations = new EnumMap<>(Domain.class);
+    private long totalBytes;
+
+    @Value("${query-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${query-cache.max-entries:2000}")
+    private int maxEntries;
+
+    @Value("${query-cache.max-bytes:33554432}")
+    private long maxBytes;
+
+    @Value("${query-cache.settle-ms:5000}")
+    private long settleMs;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter sizeEvictionCounter;
+    private final Counter invalidationCounter;
+
+    public QueryResultCache(MeterRegistry meterRegistry) {
+        for (Domain domain : Domain.values()) {
+            writeGenerations.put(domain, new AtomicLong());
+            purgeGenerations.put(domain, new AtomicLong());
+        }
+        hitCounter = Counter.builder("iot.query.cache.requests").tag("result", "hit").register(meterRegistry);
+        missCounter = Counter.builder("iot.query.cache.requests").tag("result", "miss").register(meterRegistry);
+        sizeEvictionCounter = Counter.builder("iot.query.cache.evictions").tag("reason", "size").register(meterRegistry);
+        invalidationCounter = Counter.builder("iot.query.cache.evictions").tag("reason", "invalidated").register(meterRegistry);
+        Gauge.builder("iot.query.cache.entries", this, QueryResultCache::size).register(meterRegistry);
+        Gauge.builder("iot.query.cache.bytes", this, QueryResultCache::bytes)
+                .description("Dung lượng ước tính của các kết quả đang cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("iot.query.cache.hit.ratio", this, c -> {
+            double total = c.hitCounter.count() + c.missCounter.count();
+            return total == 0 ? 0 : c.hitCounter.count() / total;
+        }).register(meterRegistry);
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    synchronized void setLimits(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evictToLimits();
+    }
+
+    void setSettleMs(long settleMs) {
+        this.settleMs = settleMs;
+    }
+
+    /**
+     * Trả về kết quả đã cache cho key hoặc gọi loader rồi lưu lại.
+     * @param start/end   khoảng thời gian đã chuẩn hóa của truy vấn (null = không giới hạn)
+     * @param watermark   mốc ghi của domain (SensorBatchWriter.ingestWatermark / DeviceWriteBehind.historyWatermark)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Page<T> getOrLoad(Object key, Domain domain, LocalDateTime start, LocalDateTime end,
+                                 LocalDateTime watermark, Supplier<Page<T>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCounter.increment();
+                return (Page<T>) entry.page();
+            }
+        }
+        missCounter.increment();
+
+        boolean immutable = end != null && !end.isAfter(watermark.minusNanos(settleMs * 1_000_000L));
+        long writeGeneration = writeGenerations.get(domain).get();
+        long purgeGeneration = purgeGenerations.get(domain).get();
+        Page<T> page = loader.get();
+        long bytes = ENTRY_OVERHEAD_BYTES + (long) page.getNumberOfElements() * domain.rowBytes;
+        if (bytes > maxBytes) {
+            return page;
+        }
+
+        synchronized (this) {
+            // Có lô mới ghi xong (với kết quả khả biến) hoặc dữ liệu cũ bị xóa trong lúc tải => có thể đã cũ, không lưu
+            if ((!immutable && writeGenerations.get(domain).get() != writeGeneration)
+                    || purgeGenerations.get(domain).get() != purgeGeneration) {
+                return page;
+            }
+            Entry previous = entries.put(key, new Entry(domain, start, end, immutable, page, bytes));
+            if (previous != null) {
+                totalBytes -= previous.bytes();
+            }
+            totalBytes += bytes;
+            evictToLimits();
+        }
+        return page;
+    }
+
+    private void evictToLimits() {
+        Iterator<Entry> it = entries.values().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            totalBytes -= eldest.bytes();
+            sizeEvictionCounter.increment();
+        }
+    }
+
+    @Override
+    public void onBatchWritten(List<SensorReadingRow> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        LocalDateTime oldest = batch.get(0).recordedAt();
+        LocalDateTime newest = oldest;
+        for (SensorReadingRow row : batch) {
+            if (row.recordedAt().isBefore(oldest)) {
+                oldest = row.recordedAt();
+            }
+            if (row.recordedAt().isAfter(newest)) {
+                newest = row.recordedAt();
+            }
+        }
+        invalidateOverlapping(Domain.SENSOR, oldest, newest);
+    }
+
+    @Override
+    public void onHistoryWritten(LocalDateTime oldest, LocalDateTime newest) {
+        invalidateOverlapping(Domain.ACTION_HISTORY, oldest, newest);
+    }
+
+    // Xóa mục khả biến có khoảng [start, end) giao với [oldest, newest]
+    private synchronized void invalidateOverlapping(Domain domain, LocalDateTime oldest, LocalDateTime newest) {
+        writeGenerations.get(domain).incrementAndGet();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.domain() == domain && !entry.immutable()
+                    && (entry.start() == null || !entry.start().isAfter(newest))
+                    && (entry.end() == null || entry.end().isAfter(oldest))) {
+                it.remove();
+                totalBytes -= entry.bytes();
+                invalidationCounter.increment();
+            }
+        }
+    }
+
+    /** Dữ liệu trước cutoff vừa bị xóa (retention/lưu trữ): bỏ mọi mục có khoảng bắt đầu trước cutoff */
+    public synchronized void invalidateBefore(Domain domain, LocalDateTime cutoff) {
+        purgeGenerations.get(domain).incrementAndGet();
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.domain() == domain && (entry.start() == null || entry.start().isBefore(cutoff))) {
+                it.remove();
+                totalBytes -= entry.bytes();
+                invalidationCounter.increment();
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+}
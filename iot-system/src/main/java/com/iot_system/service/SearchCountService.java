@@ -0,0 +1,225 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.enums.CountMode;
+import com.iot_system.service.ingest.SensorBatchListener;
+import com.iot_system.service.ingest.SensorReadingRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Tính totalElements cho tìm kiếm phân trang theo {@link CountMode} của từng endpoint (search.count.*):
+ * - EXACT: chạy COUNT với cùng điều kiện lọc mỗi lần
+ * - CACHED: dùng lại COUNT của cùng bộ lọc (không tính trang/sắp xếp) trong cache-ttl-ms => lật trang không COUNT lại
+ * - ESTIMATE: không COUNT; dùng ước lượng do nơi gọi cung cấp (chỉ có cho truy vấn không lọc), không có thì như CACHED
+ * Trang trả về thiếu dòng thì tổng đã biết chính xác (offset + số dòng) nên không cần đếm, xem {@link #fromShortPage}.
+ *
+ * Ước lượng số dòng sensor_data = COUNT(*) chạy nền mỗi estimate-refresh-ms + số dòng sensor_data SensorBatchWriter ghi
+ * từ lần đếm đó - số dòng SensorRetentionService/SensorArchiveService xóa (DROP PARTITION không biết số dòng => đếm lại
+ * ngay). Trước lần đếm đầu tiên dùng information_schema.TABLES.TABLE_ROWS. Chỉ đếm nền khi đã có endpoint dùng ước lượng.
+ */
+@Component
+public class SearchCountService implements SensorBatchListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchCountService.class);
+
+    /** Tổng số bản ghi; exact = false khi lấy từ cache hoặc ước lượng */
+    public record Total(long value, boolean exact) {
+    }
+
+    private record Cached(long value, long expiresAtNanos) {
+    }
+
+    private enum Source {
+        EXACT, CACHED, ESTIMATE, PAGE
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final LinkedHashMap<Object, Cached> cache = new LinkedHashMap<>(256, 0.75f, true);
+    private final Map<Source, Counter> counters = new EnumMap<>(Source.class);
+
+    private volatile long sensorBaseRows = -1;
+    private final AtomicLong sensorRowsSinceBase = new AtomicLong();
+    private volatile boolean sensorEstimateUsed;
+
+    @Value("${search.count.cache-ttl-ms:30000}")
+    private long cacheTtlMs;
+
+    @Value("${search.count.cache-max-entries:1000}")
+    private int cacheMaxEntries;
+
+    @Value("${search.count.estimate-refresh-ms:300000}")
+    private long estimateRefreshMs;
+
+    private ScheduledExecutorService scheduler;
+
+    public SearchCountService(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setCache(long ttlMs, int maxEntries) {
+        this.cacheTtlMs = ttlMs;
+        this.cacheMaxEntries = maxEntries;
+    }
+
+    void setEstimateRefreshMs(long estimateRefreshMs) {
+        this.estimateRefreshMs = estimateRefreshMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        for (Source source : Source.values()) {
+            counters.put(source, Counter.builder("iot.search.count")
+                    .description("Số lần xác định totalElements theo nguồn")
+                    .tag("source", source.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "search-count-estimate");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::refreshSensorEstimate, estimateRefreshMs, estimateRefreshMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tổng số bản ghi theo mode.
+     * @param key       bộ lọc đã chuẩn hóa (không gồm trang/sắp xếp), dùng cho CACHED
+     * @param estimator ước lượng không chạy COUNT; null = bộ lọc này không ước lượng được
+     * @param exact     COUNT chính xác
+     */
+    public Total count(CountMode mode, Object key, LongSupplier estimator, LongSupplier exact) {
+        if (mode == CountMode.ESTIMATE && estimator != null) {
+            counters.get(Source.ESTIMATE).increment();
+            return new Total(estimator.getAsLong(), false);
+        }
+        if (mode == CountMode.EXACT) {
+            counters.get(Source.EXACT).increment();
+            return new Total(exact.getAsLong(), true);
+        }
+        long now = System.nanoTime();
+        synchronized (cache) {
+            Cached cached = cache.get(key);
+            if (cached != null && now - cached.expiresAtNanos() < 0) {
+                counters.get(Source.CACHED).increment();
+                return new Total(cached.value(), false);
+            }
+        }
+        counters.get(Source.EXACT).increment();
+        long value = exact.getAsLong();
+        synchronized (cache) {
+            cache.put(key, new Cached(value, now + TimeUnit.MILLISECONDS.toNanos(cacheTtlMs)));
+            if (cache.size() > cacheMaxEntries) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+        return new Total(value, true);
+    }
+
+    /** Như count(...), nhưng nếu trang trả về thiếu dòng thì tổng = offset + số dòng, không cần đếm */
+    public Total count(CountMode mode, Object key, long offset, int returned, int requested,
+                       LongSupplier estimator, LongSupplier exact) {
+        long known = fromShortPage(offset, returned, requested);
+        if (known >= 0) {
+            counters.get(Source.PAGE).increment();
+            return new Total(known, true);
+        }
+        return count(mode, key, estimator, exact);
+    }
+
+    /**
+     * Tổng suy ra từ một trang: trang thiếu dòng (và không phải trang rỗng nằm sau cuối dữ liệu) => offset + returned.
+     * @return -1 nếu không suy ra được
+     */
+    public static long fromShortPage(long offset, int returned, int requested) {
+        if (returned < requested && (returned > 0 || offset == 0)) {
+            return offset + returned;
+        }
+        return -1;
+    }
+
+    /** Ước lượng số dòng sensor_data (bảng nóng), không chạy COUNT trên luồng gọi */
+    public long estimateSensorRows() {
+        sensorEstimateUsed = true;
+        long base = sensorBaseRows;
+        if (base < 0) {
+            Long tableRows = jdbcTemplate.queryForObject(
+                    "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'sensor_data'",
+                    Long.class);
+            base = tableRows != null ? tableRows : 0;
+            sensorBaseRows = base;
+            sensorRowsSinceBase.set(0);
+            // Thống kê InnoDB sai số lớn: lấy số đếm thật sớm thay vì đợi tới chu kỳ kế tiếp
+            scheduler.execute(this::refreshSensorEstimate);
+        }
+        // Xóa nhiều hơn số đã ghi kể từ lần đếm => có thể âm trước khi đếm lại
+        return Math.max(0, base + sensorRowsSinceBase.get());
+    }
+
+    private void refreshSensorEstimate() {
+        if (!sensorEstimateUsed) {
+            return;
+        }
+        try {
+            long before = sensorRowsSinceBase.get();
+            Long rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sensor_data", Long.class);
+            // Dòng ghi trong lúc COUNT chạy có thể bị tính hai lần; chấp nhận được với một ước lượng
+            sensorBaseRows = rows != null ? rows : 0;
+            sensorRowsSinceBase.addAndGet(-before);
+            log.debug("[SERVICE] Cập nhật ước lượng sensor_data: {} dòng", sensorBaseRows);
+        } catch (Exception e) {
+            log.warn("[SERVICE] Lỗi đếm sensor_data cho ước lượng", e);
+        }
+    }
+
+    @Override
+    public void onBatchWritten(List<SensorReadingRow> batch) {
+        // Bản tin chỉ có metric mở rộng chỉ ghi vào sensor_reading
+        long rows = 0;
+        for (SensorReadingRow row : batch) {
+            if (row.hasWideValues()) {
+                rows++;
+            }
+        }
+        sensorRowsSinceBase.addAndGet(rows);
+    }
+
+    /** Đã xóa rows dòng sensor_data (quá hạn hoặc đã chuyển sang tầng lạnh) */
+    public void onSensorRowsDeleted(long rows) {
+        sensorRowsSinceBase.addAndGet(-rows);
+    }
+
+    /** Đã xóa một lượng dòng sensor_data không biết trước (DROP PARTITION) => đếm lại ngay thay vì đợi chu kỳ */
+    public void refreshSensorEstimateNow() {
+        if (scheduler != null && sensorEstimateUsed) {
+            scheduler.execute(this::refreshSensorEstimate);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
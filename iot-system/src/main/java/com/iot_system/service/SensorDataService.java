@@ -4,11 +4,23 @@ import com.iot_system.domain.dto.PagedResponse;
 import com.iot_system.domain.dto.SensorReadingDTO;
 import com.iot_system.domain.entity.Device;
 import com.iot_system.domain.entity.SensorData;
+import com.iot_system.domain.enums.CountMode;
 import com.iot_system.domain.enums.SensorMetric;
+import com.iot_system.domain.enums.ValueOp;
+import com.iot_system.exception.InvalidQueryException;
 import com.iot_system.repository.SensorDataRepository;
+import com.iot_system.repository.ValueRange;
+import com.iot_system.service.archive.ColdSegmentStore;
+import com.iot_system.service.ingest.MetricSample;
+import com.iot_system.service.ingest.SensorBatchWriter;
+import com.iot_system.service.ingest.SensorReadingRow;
+import com.iot_system.util.CountedPage;
 import com.iot_system.util.DateTimeUtils;
+import com.iot_system.util.KeysetCursor;
+import com.iot_system.util.KeysetPaging;
 import com.iot_system.exception.InvalidDateFormatException;
 import com.iot_system.util.ResponseUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
@@ -18,6 +30,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import jakarta.persistence.criteria.Predicate;
 
 @Service
@@ -26,22 +42,81 @@ public class SensorDataService {
     private static final Logger log = LoggerFactory.getLogger(SensorDataService.class);
 
     private final SensorDataRepository sensorRepo;
-
-    public SensorDataService(SensorDataRepository sensorRepo) {
+    private final SensorBatchWriter batchWriter;
+    private final ColdSegmentStore coldStore;
+    private final QueryResultCache queryCache;
+    private final SearchCountService countService;
+    private final MetricRegistry metricRegistry;
+    private final SensorReadingStore readingStore;
+
+    // Cách tính totalElements cho từng endpoint (xem CountMode)
+    @Value("${search.count.sensor-data:EXACT}")
+    private CountMode searchCountMode;
+
+    @Value("${search.count.sensor-data-all:ESTIMATE}")
+    private CountMode allDataCountMode;
+
+    @Value("${search.count.sensor-value:CACHED}")
+    private CountMode valueCountMode;
+
+    public SensorDataService(SensorDataRepository sensorRepo,
+                             SensorBatchWriter batchWriter,
+                             ColdSegmentStore coldStore,
+                             QueryResultCache queryCache,
+                             SearchCountService countService,
+                             MetricRegistry metricRegistry,
+                             SensorReadingStore readingStore) {
         this.sensorRepo = sensorRepo;
+        this.batchWriter = batchWriter;
+        this.coldStore = coldStore;
+        this.queryCache = queryCache;
+        this.countService = countService;
+        this.metricRegistry = metricRegistry;
+        this.readingStore = readingStore;
+    }
+
+    // Khóa cache đã chuẩn hóa: hai dateStr khác cách viết nhưng cùng khoảng thời gian dùng chung một mục
+    private record SearchKey(String kind, LocalDateTime start, LocalDateTime end, SensorMetric metric,
+                             ValueRange range, int page, int size, boolean ascending) {
+    }
+
+    // Khóa cache số đếm: chỉ gồm bộ lọc, mọi trang/chiều sắp xếp dùng chung
+    private record CountKey(String kind, LocalDateTime start, LocalDateTime end, SensorMetric metric, ValueRange range) {
     }
 
     
-    //Lưu một bản ghi dữ liệu cảm biến vào csdl (ghi thời điểm hiện tại)
+    //Đưa một bản ghi dữ liệu cảm biến vào hàng đợi ghi theo lô (ghi thời điểm hiện tại)
+    //Trả về false nếu bản ghi bị bỏ do hàng đợi đầy
     
-    public SensorData saveSensorData(Device device, Double temperature, Double humidity, Double light) {
-        SensorData data = new SensorData();
-        data.setDevice(device);
-        data.setTemperature(temperature);
-        data.setHumidity(humidity);
-        data.setLight(light);
-        data.setRecordedAt(LocalDateTime.now());
-        return sensorRepo.save(data);
+    public boolean saveSensorData(Device device, Double temperature, Double humidity, Double light) {
+        return saveSensorData(device,
+                SensorReadingRow.orNaN(temperature),
+                SensorReadingRow.orNaN(humidity),
+                SensorReadingRow.orNaN(light));
+    }
+
+    //Bản không boxing cho luồng ingest: NaN = không có giá trị
+    public boolean saveSensorData(Device device, double temperature, double humidity, double light) {
+        return batchWriter.enqueue(new SensorReadingRow(device.getId(), temperature, humidity, light, LocalDateTime.now()));
+    }
+
+    //Kèm các metric khác (ghi vào sensor_reading; tên không hợp lệ hoặc vượt giới hạn danh mục bị bỏ)
+    //và khóa idempotency của bản tin (0 = không chống trùng)
+    public boolean saveSensorData(Device device, double temperature, double humidity, double light,
+                                  Map<String, Double> metrics, long idempotencyKey) {
+        if (metrics.isEmpty()) {
+            return batchWriter.enqueue(new SensorReadingRow(device.getId(), temperature, humidity, light,
+                    LocalDateTime.now(), List.of(), idempotencyKey));
+        }
+        List<MetricSample> samples = new ArrayList<>(metrics.size());
+        for (Map.Entry<String, Double> entry : metrics.entrySet()) {
+            int metricId = metricRegistry.intern(entry.getKey());
+            if (metricId > 0) {
+                samples.add(new MetricSample(metricId, entry.getValue()));
+            }
+        }
+        return batchWriter.enqueue(new SensorReadingRow(device.getId(), temperature, humidity, light,
+                LocalDateTime.now(), samples, idempotencyKey));
     }
 
     /**
@@ -80,29 +155,27 @@ public class SensorDataService {
             }
         }
 
-    // Gọi repository JPQL search(...) + sắp xếp theo Pageable
-        Page<SensorData> sensorPage = sensorRepo.search(start, end, metric != null ? metric.name() : "ALL", PageRequest.of(page, size,
-                ("asc".equalsIgnoreCase(sort))
-                        ? Sort.by("recordedAt").ascending()
-                        : Sort.by("recordedAt").descending()
-        ));
+        Page<SensorReadingDTO> sensorPage = cachedSearch(start, end, metric, page, size, sort, searchCountMode);
 
-        int startIndex = page * size;
         return ResponseUtils.mapToPagedResponse(sensorPage, page, size,
                 (start != null)
                         ? searchMessage + " (" + sensorPage.getContent().size() + " kết quả)"
                         : "Tìm thấy " + sensorPage.getContent().size() + " kết quả.",
-                data -> {
-                    int index = sensorPage.getContent().indexOf(data);
-                    return SensorReadingDTO.from(data, startIndex + index + 1);
-                },
+                Function.identity(),
                 "Không tìm thấy dữ liệu cảm biến.");
     }
 
+    /**
+     * Tìm theo giá trị cảm biến, hỗ trợ: eq (xấp xỉ ±0.05), lt, lte, gt, gte, between (value..valueTo).
+     * - metric cụ thể: lọc trên một cột, dùng chỉ mục (cột, recorded_at)
+     * - metric = ALL: khớp ở bất kỳ cột nào, chạy UNION ba lần quét chỉ mục thay cho OR
+     * - chỉ đọc MySQL: không chọn ngày => chỉ gồm dữ liệu từ mốc lưu trữ; ngày trước mốc => lỗi 400
+     */
     public PagedResponse<SensorReadingDTO> searchByValue(String dateStr,
                                                          SensorMetric metric,
                                                          String valueOp,
                                                          Double value,
+                                                         Double valueTo,
                                                          int page,
                                                          int size,
                                                          String sort) {
@@ -116,136 +189,349 @@ public class SensorDataService {
             start = parseResult.getStart();
             end = parseResult.getEnd();
         }
+        String archivedNote = archivedNote(start);
+        start = hotOnlyStart(start, "Tìm theo giá trị");
+
+        ValueRange range = ValueRange.of(ValueOp.parse(valueOp), value, valueTo);
+        boolean ascending = "asc".equalsIgnoreCase(sort);
+        boolean anyMetric = metric == null || metric == SensorMetric.ALL;
+        final LocalDateTime from = start;
+        final LocalDateTime to = end;
+        CountKey countKey = new CountKey("value", start, end, anyMetric ? SensorMetric.ALL : metric, range);
+        long offset = (long) page * size;
+
+        Page<SensorReadingDTO> sensorPage = queryCache.getOrLoad(
+                new SearchKey("value", start, end, anyMetric ? SensorMetric.ALL : metric, range, page, size, ascending),
+                QueryResultCache.Domain.SENSOR, start, end, batchWriter.ingestWatermark(),
+                () -> {
+                    // Trường hợp đặc biệt: metric = ALL => khớp giá trị ở bất kỳ cột nào
+                    if (anyMetric) {
+                        List<SensorData> rows = sensorRepo.findAnyMetricInRange(range, from, to, null, ascending, (int) offset, size);
+                        SearchCountService.Total total = countService.count(valueCountMode, countKey,
+                                offset, rows.size(), size, null,
+                                () -> sensorRepo.countAnyMetricInRange(range, from, to));
+                        return toDtoPage(rows, page, size, total);
+                    }
+                    // Các trường hợp còn lại: lọc theo một cảm biến cụ thể
+                    Specification<SensorData> spec = timeRangeFilter(from, to).and(valueFilter(metric, range));
+                    List<SensorData> rows = sensorRepo.findSlice(spec, recordedAtSort(ascending), (int) offset, size);
+                    SearchCountService.Total total = countService.count(valueCountMode, countKey,
+                            offset, rows.size(), size, null, () -> sensorRepo.count(spec));
+                    return toDtoPage(rows, page, size, total);
+                });
+
+        return ResponseUtils.mapToPagedResponse(sensorPage, page, size,
+                (anyMetric ? "Tìm theo giá trị (ALL) thành công" : "Tìm theo giá trị thành công") + archivedNote,
+                Function.identity(),
+                "Không tìm thấy dữ liệu cảm biến.");
+    }
+
+    /**
+     * Tìm theo một metric lưu ở bảng hẹp sensor_reading (co2, voltage, ...), có thể lọc thêm theo giá trị.
+     * Chỉ quét chỉ mục (metric_id, ts) của metric đó; mỗi dòng trả về có metrics = {tên: giá trị}.
+     */
+    public PagedResponse<SensorReadingDTO> searchMetric(String dateStr,
+                                                        String metricName,
+                                                        String valueOp,
+                                                        Double value,
+                                                        Double valueTo,
+                                                        int page,
+                                                        int size,
+                                                        String sort) {
+        int metricId = metricRegistry.idOf(metricName);
+        if (metricId < 0) {
+            throw new InvalidQueryException("Metric không tồn tại: " + metricName);
+        }
+        String name = metricRegistry.nameOf(metricId);
+        LocalDateTime start = null;
+        LocalDateTime end = null;
+        if (dateStr != null && !dateStr.isBlank()) {
+            DateTimeUtils.DateTimeParseResult parseResult = DateTimeUtils.parseDateTime(dateStr);
+            if (parseResult == null) {
+                throw new InvalidDateFormatException("Hỗ trợ: dd-MM-yyyy HH:mm:ss, dd-MM-yyyy HH:mm, dd-MM-yyyy, ddMMyyyy, dd/MM/yyyy, ddMMyy");
+            }
+            start = parseResult.getStart();
+            end = parseResult.getEnd();
+        }
+        ValueRange range = (valueOp != null && !valueOp.isBlank())
+                ? ValueRange.of(ValueOp.parse(valueOp), value, valueTo)
+                : null;
+        boolean ascending = "asc".equalsIgnoreCase(sort);
+        final LocalDateTime from = start;
+        final LocalDateTime to = end;
+        String kind = "metric:" + metricId;
+
+        Page<SensorReadingDTO> sensorPage = queryCache.getOrLoad(
+                new SearchKey(kind, start, end, SensorMetric.ALL, range, page, size, ascending),
+                QueryResultCache.Domain.SENSOR, start, end, batchWriter.ingestWatermark(),
+                () -> {
+                    long offset = (long) page * size;
+                    List<SensorReadingStore.MetricPoint> points =
+                            readingStore.find(metricId, from, to, range, ascending, offset, size);
+                    SearchCountService.Total total = countService.count(
+                            range != null ? valueCountMode : searchCountMode,
+                            new CountKey(kind, from, to, SensorMetric.ALL, range),
+                            offset, points.size(), size, null,
+                            () -> readingStore.count(metricId, from, to, range));
+                    List<SensorReadingDTO> rows = new ArrayList<>(points.size());
+                    for (SensorReadingStore.MetricPoint point : points) {
+                        SensorReadingDTO dto = new SensorReadingDTO(page * size + rows.size() + 1,
+                                null, null, null, point.recordedAt());
+                        dto.setMetrics(Map.of(name, point.value()));
+                        rows.add(dto);
+                    }
+                    return new CountedPage<>(rows, PageRequest.of(page, size), total.value(), total.exact());
+                });
+
+        return ResponseUtils.mapToPagedResponse(sensorPage, page, size,
+                "Tìm thấy " + sensorPage.getContent().size() + " kết quả cho metric " + name + ".",
+                Function.identity(),
+                "Không tìm thấy dữ liệu cảm biến.");
+    }
+
+    /**
+     * Phân trang keyset: after/before = "<recordedAt>,<id>", trả về nextCursor/prevCursor, không chạy COUNT.
+     * Dùng cùng bộ lọc với search/searchByValue (dateStr, metric, valueOp/value/valueTo).
+     * Chỉ đọc MySQL: cùng giới hạn theo mốc lưu trữ như searchByValue.
+     */
+    public PagedResponse<SensorReadingDTO> searchKeyset(String dateStr,
+                                                        SensorMetric metric,
+                                                        String valueOp,
+                                                        Double value,
+                                                        Double valueTo,
+                                                        String after,
+                                                        String before,
+                                                        int limit,
+                                                        String sort) {
+        LocalDateTime start = null;
+        LocalDateTime end = null;
+        if (dateStr != null && !dateStr.isBlank()) {
+            DateTimeUtils.DateTimeParseResult parseResult = DateTimeUtils.parseDateTime(dateStr);
+            if (parseResult == null) {
+                throw new InvalidDateFormatException("Hỗ trợ: dd-MM-yyyy HH:mm:ss, dd-MM-yyyy HH:mm, dd-MM-yyyy, ddMMyyyy, dd/MM/yyyy, ddMMyy");
+            }
+            start = parseResult.getStart();
+            end = parseResult.getEnd();
+        }
+        String archivedNote = archivedNote(start);
+        start = hotOnlyStart(start, "Phân trang keyset");
+        PagedResponse<SensorReadingDTO> response = keysetPage(start, end, metric, valueOp, value, valueTo,
+                after, before, limit, "asc".equalsIgnoreCase(sort));
+        return archivedNote.isEmpty() || response.getData().isEmpty()
+                ? response
+                : PagedResponse.ofCursor(response.getMessage() + archivedNote, response.getData(), limit,
+                        response.getNextCursor(), response.getPrevCursor());
+    }
 
-    // Trường hợp đặc biệt: metric = ALL => khớp giá trị ở bất kỳ cột nào (OR)
-        if (metric == SensorMetric.ALL) {
-            if (value == null) {
-                throw new IllegalArgumentException("Cần truyền 'value' khi tìm kiếm ở chế độ ALL");
+    private PagedResponse<SensorReadingDTO> keysetPage(LocalDateTime start, LocalDateTime end, SensorMetric metric,
+                                                       String valueOp, Double value, Double valueTo,
+                                                       String after, String before, int limit, boolean ascending) {
+        if (valueOp != null && !valueOp.isBlank()) {
+            ValueRange range = ValueRange.of(ValueOp.parse(valueOp), value, valueTo);
+            if (metric == null || metric == SensorMetric.ALL) {
+                final LocalDateTime from = start;
+                final LocalDateTime to = end;
+                return KeysetPaging.page(after, before, limit, ascending,
+                        (seekFrom, scanAscending, n) ->
+                                sensorRepo.findAnyMetricInRange(range, from, to, seekFrom, scanAscending, 0, n),
+                        SensorDataService::cursorOf,
+                        SensorReadingDTO::from,
+                        "Không tìm thấy dữ liệu cảm biến.");
             }
-            if (valueOp != null && !valueOp.equalsIgnoreCase("eq")) {
-                throw new IllegalArgumentException("Chế độ ALL chỉ hỗ trợ so sánh tuyệt đối (eq)");
+            return KeysetPaging.page(timeRangeFilter(start, end).and(valueFilter(metric, range)), "recordedAt",
+                    after, before, limit, ascending,
+                    sensorRepo::findSlice,
+                    SensorDataService::cursorOf,
+                    SensorReadingDTO::from,
+                    "Không tìm thấy dữ liệu cảm biến.");
+        }
+
+        return KeysetPaging.page(timeRangeFilter(start, end).and(metricPresentFilter(metric)), "recordedAt",
+                after, before, limit, ascending,
+                sensorRepo::findSlice,
+                SensorDataService::cursorOf,
+                SensorReadingDTO::from,
+                "Không tìm thấy dữ liệu cảm biến.");
+    }
+
+    // Tìm theo thời gian qua QueryResultCache; stt được đánh sẵn trong DTO theo vị trí trên trang
+    private Page<SensorReadingDTO> cachedSearch(LocalDateTime start, LocalDateTime end, SensorMetric metric,
+                                                int page, int size, String sort, CountMode countMode) {
+        boolean ascending = "asc".equalsIgnoreCase(sort);
+        return queryCache.getOrLoad(
+                new SearchKey("time", start, end, metric != null ? metric : SensorMetric.ALL, null, page, size, ascending),
+                QueryResultCache.Domain.SENSOR, start, end, batchWriter.ingestWatermark(),
+                () -> searchTiered(start, end, metric, page, size, ascending, countMode));
+    }
+
+    // Dòng sensor_data + metric ở bảng hẹp của cùng bản tin (chỉ truy vấn thêm khi đã có metric mở rộng)
+    private Page<SensorReadingDTO> toDtoPage(List<SensorData> content, int page, int size,
+                                             SearchCountService.Total total) {
+        int startIndex = page * size;
+        Map<SensorReadingStore.ReadingKey, Map<String, Double>> extra =
+                !content.isEmpty() && metricRegistry.hasNarrowMetrics() ? readingStore.pivot(content) : Map.of();
+        List<SensorReadingDTO> rows = new ArrayList<>(content.size());
+        for (SensorData data : content) {
+            SensorReadingDTO dto = SensorReadingDTO.from(data, startIndex + rows.size() + 1);
+            if (!extra.isEmpty() && data.getDevice() != null) {
+                dto.setMetrics(extra.get(new SensorReadingStore.ReadingKey(data.getDevice().getId(), data.getRecordedAt())));
             }
+            rows.add(dto);
+        }
+        return new CountedPage<>(rows, PageRequest.of(page, size), total.value(), total.exact());
+    }
 
-            final LocalDateTime startTime2 = start;
-            final LocalDateTime endTime2 = end;
-            final Double v = value;
-            // Dùng tolerance nhỏ để tránh sai số số thực khi so sánh bằng tuyệt đối (DOUBLE)
-            final double tol = 0.05d;
+    // recordedAt + id để thứ tự ổn định giữa các trang khi nhiều bản ghi cùng thời điểm
+    private static Sort recordedAtSort(boolean ascending) {
+        return ascending
+                ? Sort.by("recordedAt").ascending().and(Sort.by("id").ascending())
+                : Sort.by("recordedAt").descending().and(Sort.by("id").descending());
+    }
 
-            Specification<SensorData> specAll = (root, query, cb) -> {
-                var predicate = cb.conjunction();
-                if (startTime2 != null) {
-                    predicate = cb.and(predicate, cb.greaterThanOrEqualTo(root.get("recordedAt"), startTime2));
+    /**
+     * Tìm theo thời gian trên cả hai tầng: MySQL (từ mốc lưu trữ trở đi) và segment trên đĩa (trước mốc).
+     * Hai tầng tách rời theo thời gian nên kết quả là phép nối: desc = MySQL rồi segment, asc = segment rồi MySQL;
+     * offset của trang được chia cho từng tầng theo tổng số bản ghi của tầng đứng trước.
+     * Tổng của tầng lạnh đọc từ header segment (rẻ); tổng của MySQL lấy theo countMode, trừ khi trang đọc được
+     * đã cho biết chính xác (trang thiếu dòng) hoặc cần nó để tính offset của tầng lạnh.
+     */
+    private Page<SensorReadingDTO> searchTiered(LocalDateTime start, LocalDateTime end, SensorMetric metric,
+                                                int page, int size, boolean ascending, CountMode countMode) {
+        LocalDateTime boundary = coldStore.archivedBefore();
+        boolean hasCold = boundary != null && (start == null || start.isBefore(boundary));
+        LocalDateTime hotStart = hasCold ? boundary : start;
+        LocalDateTime coldEnd = !hasCold || end == null || end.isAfter(boundary) ? boundary : end;
+        boolean hotEmpty = hasCold && end != null && !end.isAfter(boundary);
+        Specification<SensorData> hotSpec = timeRangeFilter(hotStart, end).and(metricPresentFilter(metric));
+        Sort hotSort = recordedAtSort(ascending);
+        long coldTotal = hasCold ? coldStore.count(start, coldEnd, metric) : 0;
+
+        long offset = (long) page * size;
+        long hotTotal = hotEmpty ? 0 : -1; // -1 = chưa biết
+        List<SensorData> rows = new ArrayList<>(size);
+        if (ascending) {
+            if (offset < coldTotal) {
+                rows.addAll(coldStore.read(start, coldEnd, metric, true, offset, size));
+            }
+            long hotOffset = Math.max(0, offset - coldTotal);
+            int wanted = size - rows.size();
+            if (wanted > 0 && hotTotal != 0) {
+                List<SensorData> hot = sensorRepo.findSlice(hotSpec, hotSort, (int) hotOffset, wanted);
+                rows.addAll(hot);
+                hotTotal = SearchCountService.fromShortPage(hotOffset, hot.size(), wanted);
+            }
+        } else {
+            if (hotTotal != 0) {
+                List<SensorData> hot = sensorRepo.findSlice(hotSpec, hotSort, (int) offset, size);
+                rows.addAll(hot);
+                hotTotal = SearchCountService.fromShortPage(offset, hot.size(), size);
+            }
+            if (rows.size() < size && hasCold) {
+                if (hotTotal < 0) {
+                    // Trang rỗng nằm sau cuối MySQL: cần tổng chính xác để biết offset trong tầng lạnh
+                    hotTotal = sensorRepo.count(hotSpec);
                 }
-                if (endTime2 != null) {
-                    predicate = cb.and(predicate, cb.lessThan(root.get("recordedAt"), endTime2));
+                long coldOffset = Math.max(0, offset - hotTotal);
+                if (coldOffset < coldTotal) {
+                    rows.addAll(coldStore.read(start, coldEnd, metric, false, coldOffset, size - rows.size()));
                 }
-                // OR: bất kỳ cột nào (temperature/humidity/light) xấp xỉ bằng giá trị (±tol)
-                var orPredicate = cb.or(
-                        cb.between(root.get("temperature"), v - tol, v + tol),
-                        cb.between(root.get("humidity"), v - tol, v + tol),
-                        cb.between(root.get("light"), v - tol, v + tol)
-                );
-                return cb.and(predicate, orPredicate);
-            };
-
-            Page<SensorData> sensorPage = sensorRepo.findAll(specAll, PageRequest.of(page, size,
-                    ("asc".equalsIgnoreCase(sort))
-                            ? Sort.by("recordedAt").ascending()
-                            : Sort.by("recordedAt").descending()
-            ));
-
-            int startIndex = page * size;
-            return ResponseUtils.mapToPagedResponse(sensorPage, page, size,
-                    "Tìm theo giá trị (ALL) thành công",
-                    data -> {
-                        int index = sensorPage.getContent().indexOf(data);
-                        return SensorReadingDTO.from(data, startIndex + index + 1);
-                    },
-                    "Không tìm thấy dữ liệu cảm biến.");
+            }
         }
 
-        // Các trường hợp còn lại: lọc theo một cảm biến cụ thể với toán tử 'eq'
-        if (valueOp == null || valueOp.isBlank()) {
-            valueOp = "eq";
-        }
-        if (!"eq".equalsIgnoreCase(valueOp)) {
-            throw new IllegalArgumentException("Chỉ hỗ trợ so sánh giá trị tuyệt đối (eq)");
+        SearchCountService.Total total;
+        if (hotTotal >= 0) {
+            total = new SearchCountService.Total(hotTotal + coldTotal, true);
+        } else {
+            // Chỉ ước lượng được khi không lọc gì: khi đó tầng nóng là toàn bộ bảng sensor_data
+            boolean unfiltered = start == null && end == null && (metric == null || metric == SensorMetric.ALL);
+            SearchCountService.Total hot = countService.count(countMode,
+                    new CountKey("time", hotStart, end, metric != null ? metric : SensorMetric.ALL, null),
+                    unfiltered ? countService::estimateSensorRows : null,
+                    () -> sensorRepo.count(hotSpec));
+            total = new SearchCountService.Total(hot.value() + coldTotal, hot.exact());
         }
-        if (value == null) {
-            throw new IllegalArgumentException("Cần cung cấp giá trị để so sánh");
+        return toDtoPage(rows, page, size, total);
+    }
+
+    /**
+     * searchByValue/searchKeyset chỉ đọc MySQL: không giới hạn dưới => chỉ lấy phần từ mốc lưu trữ trở đi
+     * (kèm ghi chú trong message), khoảng bắt đầu trước mốc => lỗi 400 thay vì trả thiếu dữ liệu.
+     */
+    private LocalDateTime hotOnlyStart(LocalDateTime start, String operation) {
+        if (start == null) {
+            return coldStore.archivedBefore();
         }
+        coldStore.requireNotArchived(start, operation);
+        return start;
+    }
+
+    private String archivedNote(LocalDateTime start) {
+        LocalDateTime boundary = coldStore.archivedBefore();
+        return start == null && boundary != null
+                ? " (chỉ gồm dữ liệu từ " + boundary.toLocalDate() + ", dữ liệu cũ hơn đã được lưu trữ)"
+                : "";
+    }
 
-        final LocalDateTime startTime = start;
-        final LocalDateTime endTime = end;
-        final SensorMetric metricFinal = metric;
-        final Double v = value;
-        final double tol = 0.05d; // đồng bộ với nhánh ALL để tránh sai số số thực
+    private static String cursorOf(SensorData data) {
+        return KeysetCursor.format(data.getRecordedAt(), data.getId());
+    }
 
-        Specification<SensorData> spec = (root, query, cb) -> {
+    private Specification<SensorData> timeRangeFilter(LocalDateTime start, LocalDateTime end) {
+        return (root, query, cb) -> {
             Predicate predicate = cb.conjunction();
-            if (startTime != null) {
-                predicate = cb.and(predicate, cb.greaterThanOrEqualTo(root.get("recordedAt"), startTime));
-            }
-            if (endTime != null) {
-                predicate = cb.and(predicate, cb.lessThan(root.get("recordedAt"), endTime));
+            if (start != null) {
+                predicate = cb.and(predicate, cb.greaterThanOrEqualTo(root.get("recordedAt"), start));
             }
-            if (metricFinal != null && metricFinal != SensorMetric.ALL) {
-                String field = resolveField(metricFinal);
-                // So sánh xấp xỉ bằng (±tol) để ổn định trước sai số Double
-                predicate = cb.and(predicate, cb.between(root.get(field), v - tol, v + tol));
+            if (end != null) {
+                predicate = cb.and(predicate, cb.lessThan(root.get("recordedAt"), end));
             }
             return predicate;
         };
-
-        Page<SensorData> sensorPage = sensorRepo.findAll(spec, PageRequest.of(page, size,
-                ("asc".equalsIgnoreCase(sort))
-                        ? Sort.by("recordedAt").ascending()
-                        : Sort.by("recordedAt").descending()
-        ));
-
-        int startIndex = page * size;
-        return ResponseUtils.mapToPagedResponse(sensorPage, page, size,
-                "Tìm theo giá trị thành công",
-                data -> {
-                    int index = sensorPage.getContent().indexOf(data);
-                    return SensorReadingDTO.from(data, startIndex + index + 1);
-                },
-                "Không tìm thấy dữ liệu cảm biến.");
     }
 
-    private String resolveField(SensorMetric metric) {
-        switch (metric) {
-            case TEMP: return "temperature";
-            case HUMIDITY: return "humidity";
-            case LIGHT: return "light";
-            default: return null;
+    // Tương đương điều kiện metricName trong SensorDataRepository.search
+    private Specification<SensorData> metricPresentFilter(SensorMetric metric) {
+        if (metric == null || metric == SensorMetric.ALL) {
+            return (root, query, cb) -> cb.conjunction();
         }
+        String field = metric.column();
+        return (root, query, cb) -> cb.isNotNull(root.get(field));
     }
 
+    // Lọc một cột theo khoảng giá trị; cột NULL không bao giờ khớp
+    private Specification<SensorData> valueFilter(SensorMetric metric, ValueRange range) {
+        String field = metric.column();
+        return (root, query, cb) -> {
+            Predicate predicate = cb.isNotNull(root.get(field));
+            if (range.lo() != null) {
+                predicate = cb.and(predicate, range.loInclusive()
+                        ? cb.greaterThanOrEqualTo(root.get(field), range.lo())
+                        : cb.greaterThan(root.get(field), range.lo()));
+            }
+            if (range.hi() != null) {
+                predicate = cb.and(predicate, range.hiInclusive()
+                        ? cb.lessThanOrEqualTo(root.get(field), range.hi())
+                        : cb.lessThan(root.get(field), range.hi()));
+            }
+            return predicate;
+        };
+    }
+
+
 
 
     // Lấy toàn bộ dữ liệu cảm biến (có phân trang), có thể lọc theo metric != ALL
     public PagedResponse<SensorReadingDTO> getAllData(SensorMetric metric, int page, int size, String sort) {
         log.info("Getting all sensor data - page: {}, size: {}, sort: {}", page, size, sort);
         
-        Page<SensorData> sensorPage = sensorRepo.search(null, null, metric != null ? metric.name() : "ALL", PageRequest.of(page, size,
-                ("asc".equalsIgnoreCase(sort))
-                        ? Sort.by("recordedAt").ascending()
-                        : Sort.by("recordedAt").descending()
-        ));
+        Page<SensorReadingDTO> sensorPage = cachedSearch(null, null, metric, page, size, sort, allDataCountMode);
 
         log.info("Found {} sensor data records, total elements: {}", 
                 sensorPage.getContent().size(), sensorPage.getTotalElements());
 
-
-        int startIndex = page * size;
         return ResponseUtils.mapToPagedResponse(sensorPage, page, size,
                 "Tìm thấy " + sensorPage.getContent().size() + " kết quả.",
-                data -> {
-                    int index = sensorPage.getContent().indexOf(data);
-                    return SensorReadingDTO.from(data, startIndex + index + 1);
-                },
+                Function.identity(),
                 "Không tìm thấy dữ liệu cảm biến.");
     }
 
@@ -0,0 +1,153 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.entity.SensorData;
+import com.iot_system.repository.ValueRange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Đọc bảng hẹp sensor_reading (device_id, ts, metric_id, value), xem {@link MetricRegistry}.
+ * - Theo một metric: quét chỉ mục (metric_id, ts), không chạm dòng của metric khác
+ * - Ghép (pivot) vào các dòng sensor_data của một trang: quét khoảng khóa chính (device_id, ts, metric_id) trong khoảng
+ *   thời gian của trang, thứ tự cột khóa xem {@link com.iot_system.domain.entity.SensorReading}
+ */
+@Component
+public class SensorReadingStore {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorReadingStore.class);
+
+    static final List<String> PRIMARY_KEY = List.of("device_id", "ts", "metric_id");
+
+    /** Một giá trị của metric tại (thiết bị, thời điểm) */
+    public record MetricPoint(long deviceId, LocalDateTime recordedAt, double value) {
+    }
+
+    /** Khóa ghép dòng sensor_data với các metric cùng bản tin */
+    public record ReadingKey(long deviceId, LocalDateTime recordedAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MetricRegistry metricRegistry;
+
+    public SensorReadingStore(JdbcTemplate jdbcTemplate, MetricRegistry metricRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.metricRegistry = metricRegistry;
+    }
+
+    /** Chạy sau khi Hibernate đã tạo/cập nhật schema; chỉ cảnh báo, không tự ALTER bảng đang dùng */
+    @EventListener(ApplicationReadyEvent.class)
+    public void checkPrimaryKey() {
+        List<String> columns;
+        try {
+            columns = jdbcTemplate.queryForList("SELECT COLUMN_NAME FROM information_schema.STATISTICS"
+                    + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'sensor_reading' AND INDEX_NAME = 'PRIMARY'"
+                    + " ORDER BY SEQ_IN_INDEX", String.class);
+        } catch (Exception e) {
+            log.warn("[SERVICE] Không đọc được khóa chính của sensor_reading: {}", e.getMessage());
+            return;
+        }
+        if (!columns.isEmpty() && !columns.equals(PRIMARY_KEY)) {
+            log.warn("[SERVICE] sensor_reading có PRIMARY KEY {} thay vì {}, chạy scripts/sensor_reading_primary_key.sql",
+                    columns, PRIMARY_KEY);
+        }
+    }
+
+    /** Giá trị của một metric trong [start, end) (null = không giới hạn), lọc thêm theo range nếu có */
+    public List<MetricPoint> find(int metricId, LocalDateTime start, LocalDateTime end, ValueRange range,
+                                  boolean ascending, long offset, int limit) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT device_id, ts, value FROM sensor_reading");
+        appendWhere(sql, params, metricId, start, end, range);
+        String direction = ascending ? " ASC" : " DESC";
+        sql.append(" ORDER BY ts").append(direction).append(", device_id").append(direction).append(" LIMIT ? OFFSET ?");
+        params.add(limit);
+        params.add(offset);
+        return jdbcTemplate.query(sql.toString(),
+                (rs, i) -> new MetricPoint(rs.getLong(1), rs.getTimestamp(2).toLocalDateTime(), rs.getDouble(3)),
+                params.toArray());
+    }
+
+    public long count(int metricId, LocalDateTime start, LocalDateTime end, ValueRange range) {
+        List<Object> params = new ArrayList<>();
+        StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM sensor_reading");
+        appendWhere(sql, params, metricId, start, end, range);
+        Long total = jdbcTemplate.queryForObject(sql.toString(), Long.class, params.toArray());
+        return total != null ? total : 0;
+    }
+
+    private static void appendWhere(StringBuilder sql, List<Object> params, int metricId,
+                                    LocalDateTime start, LocalDateTime end, ValueRange range) {
+        sql.append(" WHERE metric_id = ?");
+        params.add(metricId);
+        if (start != null) {
+            sql.append(" AND ts >= ?");
+            params.add(Timestamp.valueOf(start));
+        }
+        if (end != null) {
+            sql.append(" AND ts < ?");
+            params.add(Timestamp.valueOf(end));
+        }
+        if (range != null && range.lo() != null) {
+            sql.append(range.loInclusive() ? " AND value >= ?" : " AND value > ?");
+            params.add(range.lo());
+        }
+        if (range != null && range.hi() != null) {
+            sql.append(range.hiInclusive() ? " AND value <= ?" : " AND value < ?");
+            params.add(range.hi());
+        }
+    }
+
+    /**
+     * Các metric ở bảng hẹp của cùng bản tin với từng dòng sensor_data (khớp device_id + recorded_at).
+     * Dòng không có thiết bị (đọc từ tầng lưu trữ lạnh) bị bỏ qua.
+     */
+    public Map<ReadingKey, Map<String, Double>> pivot(List<SensorData> rows) {
+        Set<Long> deviceIds = new TreeSet<>();
+        LocalDateTime from = null;
+        LocalDateTime to = null;
+        for (SensorData row : rows) {
+            if (row.getDevice() == null) {
+                continue;
+            }
+            deviceIds.add(row.getDevice().getId());
+            if (from == null || row.getRecordedAt().isBefore(from)) {
+                from = row.getRecordedAt();
+            }
+            if (to == null || row.getRecordedAt().isAfter(to)) {
+                to = row.getRecordedAt();
+            }
+        }
+        Map<ReadingKey, Map<String, Double>> result = new HashMap<>();
+        if (deviceIds.isEmpty()) {
+            return result;
+        }
+
+        List<Object> params = new ArrayList<>(deviceIds);
+        params.add(Timestamp.valueOf(from));
+        params.add(Timestamp.valueOf(to));
+        String sql = "SELECT device_id, ts, metric_id, value FROM sensor_reading WHERE device_id IN ("
+                + "?,".repeat(deviceIds.size() - 1) + "?) AND ts BETWEEN ? AND ?";
+        jdbcTemplate.query(sql, rs -> {
+            String name = metricRegistry.nameOf(rs.getInt(3));
+            if (name != null) {
+                result.computeIfAbsent(new ReadingKey(rs.getLong(1), rs.getTimestamp(2).toLocalDateTime()),
+                        k -> new LinkedHashMap<>()).put(name, rs.getDouble(4));
+            }
+        }, params.toArray());
+        return result;
+    }
+}
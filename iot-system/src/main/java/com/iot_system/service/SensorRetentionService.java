@@ -0,0 +1,266 @@
+package com.iot_system.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bảo trì sensor_data theo thời gian: tạo trước partition tương lai và xóa dữ liệu quá hạn lưu trữ.
+ * - Bảng đã partition theo RANGE (TO_DAYS(recorded_at)) (xem scripts/sensor_data_partitioning.sql):
+ *   tách partition pmax (luôn rỗng) thành các partition ngày/tháng sắp tới, DROP PARTITION những partition
+ *   nằm trọn trước mốc lưu trữ => chỉ khóa metadata trong thời gian rất ngắn
+ * - Bảng chưa partition: DELETE ... LIMIT chunk-size theo từng lô nhỏ (mỗi lô một transaction autocommit),
+ *   nghỉ chunk-pause-ms giữa các lô và dừng sau max-run-ms để không giữ khóa lâu khi đang ingest
+ * - sensor_reading (metric mở rộng, xem MetricRegistry) dùng cùng mốc lưu trữ, luôn xóa theo lô nhỏ
+ * Xóa dữ liệu chỉ bật khi đặt sensor.retention.days > 0 (mặc định 0 = giữ vĩnh viễn) để nâng cấp không tự xóa dữ liệu cũ.
+ */
+@Component
+public class SensorRetentionService {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorRetentionService.class);
+
+    private static final String TABLE = "sensor_data";
+    private static final String MAX_PARTITION = "pmax";
+    /** TO_DAYS('1970-01-01') */
+    private static final long TO_DAYS_EPOCH = 719_528L;
+
+    public enum Granularity {
+        DAY("'p'yyyyMMdd"),
+        MONTH("'p'yyyyMM");
+
+        private final DateTimeFormatter nameFormat;
+
+        Granularity(String pattern) {
+            this.nameFormat = DateTimeFormatter.ofPattern(pattern, Locale.ROOT);
+        }
+
+        LocalDate periodStart(LocalDate date) {
+            return this == DAY ? date : date.with(TemporalAdjusters.firstDayOfMonth());
+        }
+
+        LocalDate next(LocalDate periodStart) {
+            return this == DAY ? periodStart.plusDays(1) : periodStart.plusMonths(1);
+        }
+
+        String partitionName(LocalDate periodStart) {
+            return nameFormat.format(periodStart);
+        }
+    }
+
+    /** Một partition và mốc trên (VALUES LESS THAN), upperBound = null với MAXVALUE */
+    private record Partition(String name, LocalDate upperBound) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final QueryResultCache queryCache;
+    private final SearchCountService countService;
+
+    @Value("${sensor.retention.days:0}")
+    private int retentionDays;
+
+    @Value("${sensor.retention.run-interval-ms:3600000}")
+    private long runIntervalMs;
+
+    @Value("${sensor.retention.initial-delay-ms:60000}")
+    private long initialDelayMs;
+
+    @Value("${sensor.retention.chunk-size:5000}")
+    private int chunkSize;
+
+    @Value("${sensor.retention.chunk-pause-ms:50}")
+    private long chunkPauseMs;
+
+    @Value("${sensor.retention.max-run-ms:60000}")
+    private long maxRunMs;
+
+    @Value("${sensor.partition.granularity:DAY}")
+    private Granularity granularity;
+
+    @Value("${sensor.partition.precreate:7}")
+    private int precreate;
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running = true;
+
+    private final Counter deletedRowsCounter;
+    private final Counter droppedPartitionsCounter;
+    private final Counter createdPartitionsCounter;
+
+    public SensorRetentionService(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry, QueryResultCache queryCache,
+                                  SearchCountService countService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.queryCache = queryCache;
+        this.countService = countService;
+        this.deletedRowsCounter = Counter.builder("iot.sensor.retention.deleted.rows").register(meterRegistry);
+        this.droppedPartitionsCounter = Counter.builder("iot.sensor.retention.partitions").tag("action", "dropped").register(meterRegistry);
+        this.createdPartitionsCounter = Counter.builder("iot.sensor.retention.partitions").tag("action", "created").register(meterRegistry);
+    }
+
+    void setRetentionDays(int retentionDays) {
+        this.retentionDays = retentionDays;
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sensor-retention");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::safeRun, initialDelayMs, runIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("[SERVICE] Bảo trì sensor_data: retentionDays={}, granularity={}, precreate={}, runIntervalMs={}",
+                retentionDays, granularity, precreate, runIntervalMs);
+    }
+
+    private void safeRun() {
+        try {
+            runOnce();
+        } catch (Exception e) {
+            log.error("[SERVICE] Lỗi bảo trì sensor_data", e);
+        }
+    }
+
+    /**
+     * Một lượt bảo trì; trả về số dòng bị xóa bằng DELETE (0 khi xóa bằng DROP PARTITION).
+     * retentionDays = 0 (mặc định) => không xóa gì; bảng đã partition vẫn được tạo trước partition tương lai
+     */
+    public long runOnce() {
+        List<Partition> partitions = loadPartitions();
+        if (!partitions.isEmpty()) {
+            precreatePartitions(partitions);
+        }
+        if (retentionDays <= 0) {
+            return 0;
+        }
+        LocalDate cutoff = LocalDate.now().minusDays(retentionDays);
+        // sensor_reading (metric mở rộng) không partition: luôn xóa theo lô
+        purgeInChunks("sensor_reading", "ts", cutoff);
+        if (partitions.isEmpty()) {
+            long deleted = purgeInChunks(TABLE, "recorded_at", cutoff);
+            countService.onSensorRowsDeleted(deleted);
+            return deleted;
+        }
+        dropExpiredPartitions(partitions, cutoff);
+        return 0;
+    }
+
+    private List<Partition> loadPartitions() {
+        List<Partition> partitions = new ArrayList<>();
+        jdbcTemplate.query("SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS"
+                        + " WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL"
+                        + " ORDER BY PARTITION_ORDINAL_POSITION",
+                rs -> {
+                    String description = rs.getString(2);
+                    LocalDate upperBound = "MAXVALUE".equalsIgnoreCase(description)
+                            ? null
+                            : LocalDate.ofEpochDay(Long.parseLong(description.trim()) - TO_DAYS_EPOCH);
+                    partitions.add(new Partition(rs.getString(1), upperBound));
+                },
+                TABLE);
+        return partitions;
+    }
+
+    // pmax luôn rỗng (các partition được tạo trước) => REORGANIZE chỉ đổi metadata
+    private void precreatePartitions(List<Partition> partitions) {
+        Partition last = partitions.get(partitions.size() - 1);
+        if (last.upperBound() != null || !MAX_PARTITION.equals(last.name())) {
+            log.warn("[SERVICE] sensor_data đã partition nhưng không có partition cuối '{}' (MAXVALUE), bỏ qua tạo trước",
+                    MAX_PARTITION);
+            return;
+        }
+        LocalDate covered = partitions.size() > 1
+                ? partitions.get(partitions.size() - 2).upperBound()
+                : granularity.periodStart(LocalDate.now());
+        LocalDate target = granularity.periodStart(LocalDate.now());
+        for (int i = 0; i <= precreate; i++) {
+            target = granularity.next(target);
+        }
+        if (!covered.isBefore(target)) {
+            return;
+        }
+
+        StringBuilder sql = new StringBuilder("ALTER TABLE ").append(TABLE)
+                .append(" REORGANIZE PARTITION ").append(MAX_PARTITION).append(" INTO (");
+        int created = 0;
+        for (LocalDate start = covered; start.isBefore(target); start = granularity.next(start)) {
+            LocalDate end = granularity.next(start);
+            sql.append("PARTITION ").append(granularity.partitionName(start))
+                    .append(" VALUES LESS THAN (TO_DAYS('").append(end).append("')), ");
+            created++;
+        }
+        sql.append("PARTITION ").append(MAX_PARTITION).append(" VALUES LESS THAN MAXVALUE)");
+        jdbcTemplate.execute(sql.toString());
+        createdPartitionsCounter.increment(created);
+        log.info("[SERVICE] Đã tạo trước {} partition sensor_data tới {}", created, target);
+    }
+
+    // Chỉ DROP partition có mốc trên <= cutoff (toàn bộ dữ liệu bên trong đã quá hạn)
+    private void dropExpiredPartitions(List<Partition> partitions, LocalDate cutoff) {
+        List<String> expired = new ArrayList<>();
+        for (Partition partition : partitions) {
+            if (partition.upperBound() != null && !partition.upperBound().isAfter(cutoff)) {
+                expired.add(partition.name());
+            }
+        }
+        // pmax không bao giờ nằm trong danh sách => bảng luôn còn ít nhất một partition
+        if (expired.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.execute("ALTER TABLE " + TABLE + " DROP PARTITION " + String.join(", ", expired));
+        queryCache.invalidateBefore(QueryResultCache.Domain.SENSOR, cutoff.atStartOfDay());
+        countService.refreshSensorEstimateNow();
+        droppedPartitionsCounter.increment(expired.size());
+        log.info("[SERVICE] Đã xóa {} partition sensor_data trước {}: {}", expired.size(), cutoff, expired);
+    }
+
+    // Bảng không partition: xóa theo lô nhỏ, dừng khi hết dữ liệu quá hạn, hết thời gian hoặc ứng dụng dừng
+    private long purgeInChunks(String table, String timeColumn, LocalDate cutoff) {
+        Timestamp before = Timestamp.valueOf(cutoff.atStartOfDay());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxRunMs);
+        long total = 0;
+        while (running) {
+            int deleted = jdbcTemplate.update("DELETE FROM " + table + " WHERE " + timeColumn + " < ? LIMIT ?", before, chunkSize);
+            total += deleted;
+            deletedRowsCounter.increment(deleted);
+            if (deleted < chunkSize || System.nanoTime() > deadline) {
+                break;
+            }
+            try {
+                Thread.sleep(chunkPauseMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (total > 0) {
+            queryCache.invalidateBefore(QueryResultCache.Domain.SENSOR, cutoff.atStartOfDay());
+            log.info("[SERVICE] Đã xóa {} dòng {} trước {}", total, table, cutoff);
+        }
+        return total;
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.iot_system.service;
+
+import com.iot_system.config.DataSourceConfig;
+import com.iot_system.domain.dto.RollupPointDTO;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.enums.RollupBucket;
+import com.iot_system.domain.enums.SensorMetric;
+import com.iot_system.exception.InvalidDateFormatException;
+import com.iot_system.exception.InvalidQueryException;
+import com.iot_system.repository.SensorRollupRepository;
+import com.iot_system.service.archive.ColdSegmentStore;
+import com.iot_system.service.ingest.SensorBatchListener;
+import com.iot_system.service.ingest.SensorReadingRow;
+import com.iot_system.util.DateTimeUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bảng tổng hợp sensor_rollup (phút/giờ/ngày) cho từng thiết bị, từng metric.
+ * - Sau mỗi lô ghi sensor_data, gộp lô trong RAM rồi upsert một câu lệnh batch (count/min/max/sum/last)
+ * - Truy vấn chuỗi tổng hợp cho biểu đồ dài hạn
+ * - Dựng lại từ dữ liệu thô cho một khoảng thời gian
+ */
+@Service
+public class SensorRollupService implements SensorBatchListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorRollupService.class);
+
+    private static final String[] METRICS = {"TEMP", "HUMIDITY", "LIGHT"};
+    private static final String[] COLUMNS = {"temperature", "humidity", "light"};
+
+    // Thứ tự gán trong ON DUPLICATE KEY UPDATE có ý nghĩa: last_value phải so sánh với last_at cũ
+    private static final String UPSERT_SQL = """
+            INSERT INTO sensor_rollup
+                (device_id, metric, bucket, bucket_start, sample_count, min_value, max_value, sum_value, last_value, last_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON DUPLICATE KEY UPDATE
+                last_value = IF(last_at IS NULL OR VALUES(last_at) >= last_at, VALUES(last_value), last_value),
+                last_at = GREATEST(COALESCE(last_at, VALUES(last_at)), VALUES(last_at)),
+                sample_count = sample_count + VALUES(sample_count),
+                min_value = LEAST(COALESCE(min_value, VALUES(min_value)), VALUES(min_value)),
+                max_value = GREATEST(COALESCE(max_value, VALUES(max_value)), VALUES(max_value)),
+                sum_value = COALESCE(sum_value, 0) + VALUES(sum_value)
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    // Upsert sau mỗi lô chạy trên luồng ghi sensor_data => dùng pool ingest; dựng lại dùng pool query trong transaction JPA
+    private final JdbcTemplate ingestJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SensorRollupRepository rollupRepo;
+    private final DeviceRegistry deviceRegistry;
+    private final ColdSegmentStore coldStore;
+    private final Counter upsertFailedCounter;
+
+    @Value("${rollup.enabled:true}")
+    private boolean enabled;
+
+    public SensorRollupService(JdbcTemplate jdbcTemplate,
+                               @Qualifier(DataSourceConfig.INGEST_JDBC_TEMPLATE) JdbcTemplate ingestJdbcTemplate,
+                               TransactionTemplate transactionTemplate,
+                               SensorRollupRepository rollupRepo,
+                               DeviceRegistry deviceRegistry,
+                               ColdSegmentStore coldStore,
+                               MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ingestJdbcTemplate = ingestJdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.rollupRepo = rollupRepo;
+        this.deviceRegistry = deviceRegistry;
+        this.coldStore = coldStore;
+        this.upsertFailedCounter = Counter.builder("iot.rollup.upsert.failed").register(meterRegistry);
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    private record Key(long deviceId, String metric, RollupBucket bucket, LocalDateTime bucketStart) {
+    }
+
+    private static final class Acc {
+        long count;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        double sum;
+        double last;
+        LocalDateTime lastAt;
+
+        void add(double value, LocalDateTime at) {
+            count++;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            sum += value;
+            if (lastAt == null || !at.isBefore(lastAt)) {
+                last = value;
+                lastAt = at;
+            }
+        }
+    }
+
+    @Override
+    public void onBatchWritten(List<SensorReadingRow> batch) {
+        if (!enabled) {
+            return;
+        }
+        Map<Key, Acc> groups = new HashMap<>();
+        for (SensorReadingRow row : batch) {
+            accumulate(groups, row, 0, row.temperature());
+            accumulate(groups, row, 1, row.humidity());
+            accumulate(groups, row, 2, row.light());
+        }
+        if (groups.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> args = new ArrayList<>(groups.size());
+        groups.forEach((key, acc) -> args.add(new Object[]{
+                key.deviceId(), key.metric(), key.bucket().name(), Timestamp.valueOf(key.bucketStart()),
+                acc.count, acc.min, acc.max, acc.sum, acc.last, Timestamp.valueOf(acc.lastAt)
+        }));
+        try {
+            ingestJdbcTemplate.batchUpdate(UPSERT_SQL, args);
+        } catch (Exception e) {
+            upsertFailedCounter.increment(args.size());
+            log.error("[ROLLUP] Lỗi cập nhật {} dòng tổng hợp (có thể dựng lại bằng /api/sensor-data/aggregate/rebuild)",
+                    args.size(), e);
+        }
+    }
+
+    private static void accumulate(Map<Key, Acc> groups, SensorReadingRow row, int metricIndex, double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        for (RollupBucket bucket : RollupBucket.values()) {
+            Key key = new Key(row.deviceId(), METRICS[metricIndex], bucket, bucket.truncate(row.recordedAt()));
+            groups.computeIfAbsent(key, k -> new Acc()).add(value, row.recordedAt());
+        }
+    }
+
+    /**
+     * Chuỗi tổng hợp theo thiết bị/metric/bucket trong khoảng [from, to).
+     * from/to dùng các định dạng của DateTimeUtils; from lấy đầu khoảng, to lấy cuối khoảng (ví dụ to=17-10-2025 => hết ngày 17).
+     */
+    public List<RollupPointDTO> getSeries(String deviceUid, Long deviceId, SensorMetric metric, RollupBucket bucket,
+                                          String from, String to) {
+        Device device;
+        if (deviceId != null) {
+            device = deviceRegistry.findById(deviceId)
+                    .orElseThrow(() -> new InvalidQueryException("Thiết bị không tồn tại"));
+        } else if (deviceUid != null && !deviceUid.isBlank()) {
+            device = deviceRegistry.findByDeviceUid(deviceUid)
+                    .orElseThrow(() -> new InvalidQueryException("Thiết bị không tồn tại"));
+        } else {
+            throw new InvalidQueryException("Cần truyền 'deviceUid' hoặc 'deviceId'");
+        }
+
+        List<String> metrics = (metric == null || metric == SensorMetric.ALL)
+                ? List.of(METRICS)
+                : List.of(metric.name());
+        LocalDateTime start = from != null && !from.isBlank() ? parse(from).getStart() : null;
+        LocalDateTime end = to != null && !to.isBlank() ? parse(to).getEnd() : null;
+
+        return rollupRepo.findSeries(device.getId(), bucket, metrics, start, end).stream()
+                .map(RollupPointDTO::from)
+                .toList();
+    }
+
+    /**
+     * Dựng lại toàn bộ bucket trong khoảng thời gian từ sensor_data.
+     * Khoảng được nới ra tròn ngày để bucket DAY/HOUR/MINUTE đều đầy đủ.
+     * Ngày đã lưu trữ không còn dữ liệu thô trong sensor_data => từ chối, nếu không sẽ xóa mất tổng hợp của ngày đó.
+     * @return số dòng tổng hợp đã ghi
+     */
+    public int rebuild(String from, String to) {
+        if (from == null || from.isBlank() || to == null || to.isBlank()) {
+            throw new InvalidQueryException("Cần truyền 'from' và 'to'");
+        }
+        LocalDateTime start = RollupBucket.DAY.truncate(parse(from).getStart());
+        LocalDateTime rawEnd = parse(to).getEnd();
+        LocalDateTime end = RollupBucket.DAY.truncate(rawEnd);
+        if (end.isBefore(rawEnd)) {
+            end = end.plusDays(1);
+        }
+        if (!start.isBefore(end)) {
+            throw new InvalidQueryException("'from' phải trước 'to'");
+        }
+        coldStore.requireNotArchived(start, "Dựng lại tổng hợp");
+
+        final LocalDateTime rangeStart = start;
+        final LocalDateTime rangeEnd = end;
+        Integer written = transactionTemplate.execute(status -> {
+            jdbcTemplate.update("DELETE FROM sensor_rollup WHERE bucket_start >= ? AND bucket_start < ?",
+                    Timestamp.valueOf(rangeStart), Timestamp.valueOf(rangeEnd));
+            int total = 0;
+            for (RollupBucket bucket : RollupBucket.values()) {
+                for (int i = 0; i < METRICS.length; i++) {
+                    total += jdbcTemplate.update(rebuildSql(bucket, METRICS[i], COLUMNS[i]),
+                            Timestamp.valueOf(rangeStart), Timestamp.valueOf(rangeEnd));
+                }
+            }
+            return total;
+        });
+        log.info("[ROLLUP] Đã dựng lại tổng hợp từ {} tới {}: {} dòng", rangeStart, rangeEnd, written);
+        return written != null ? written : 0;
+    }
+
+    // Ghi đè (không cộng dồn) nếu luồng ingest vừa tạo lại bucket trong lúc dựng lại
+    private static String rebuildSql(RollupBucket bucket, String metric, String column) {
+        String bucketExpr = "STR_TO_DATE(DATE_FORMAT(recorded_at, '" + bucket.mysqlFormat() + "'), '%Y-%m-%d %H:%i:%s')";
+        return "INSERT INTO sensor_rollup"
+                + " (device_id, metric, bucket, bucket_start, sample_count, min_value, max_value, sum_value, last_value, last_at)"
+                + " SELECT device_id, '" + metric + "', '" + bucket.name() + "', " + bucketExpr + ","
+                + " COUNT(*), MIN(" + column + "), MAX(" + column + "), SUM(" + column + "),"
+                + " 0 + SUBSTRING_INDEX(GROUP_CONCAT(" + column + " ORDER BY recorded_at DESC, id DESC), ',', 1),"
+                + " MAX(recorded_at)"
+                + " FROM sensor_data"
+                + " WHERE recorded_at >= ? AND recorded_at < ? AND " + column + " IS NOT NULL"
+                + " GROUP BY device_id, " + bucketExpr
+                + " ON DUPLICATE KEY UPDATE"
+                + " sample_count = VALUES(sample_count), min_value = VALUES(min_value), max_value = VALUES(max_value),"
+                + " sum_value = VALUES(sum_value), last_value = VALUES(last_value), last_at = VALUES(last_at)";
+    }
+
+    private static DateTimeUtils.DateTimeParseResult parse(String input) {
+        DateTimeUtils.DateTimeParseResult result = DateTimeUtils.parseDateTime(input);
+        if (result == null) {
+            throw new InvalidDateFormatException("Hỗ trợ: dd-MM-yyyy HH:mm:ss, dd-MM-yyyy HH:mm, dd-MM-yyyy, ddMMyyyy, dd/MM/yyyy, ddMMyy");
+        }
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.dto.SensorReadingDTO;
+import com.iot_system.domain.dto.SensorUpdateDTO;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.entity.SensorData;
+import com.iot_system.exception.InvalidQueryException;
+import com.iot_system.repository.SensorDataRepository;
+import com.iot_system.service.ingest.SensorBatchListener;
+import com.iot_system.service.ingest.SensorReadingRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dữ liệu cảm biến gần đây của từng thiết bị, giữ trong RAM.
+ * - Được nạp từ luồng ghi lô (sau khi sensor_data đã ghi thành công) => luôn khớp với DB
+ * - Mỗi thiết bị một ring buffer kích thước cố định bằng mảng long/double (không giữ đối tượng SensorData)
+ * - Cửa sổ yêu cầu cũ hơn phần ring còn giữ (hoặc trước lúc ứng dụng khởi động) => đọc DB
+ */
+@Component
+public class SensorWindowStore implements SensorBatchListener {
+
+    private final SensorDataRepository sensorRepo;
+    private final DeviceRegistry deviceRegistry;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sensor.window.capacity:1024}")
+    private int capacity;
+
+    @Value("${sensor.window.max-minutes:1440}")
+    private int maxMinutes;
+
+    private final Map<Long, Ring> rings = new ConcurrentHashMap<>();
+    /** Mọi bản ghi ghi sau mốc này đều đi qua onBatchWritten */
+    private long startedAtMillis;
+
+    private Counter memoryReadCounter;
+    private Counter dbReadCounter;
+
+    public SensorWindowStore(SensorDataRepository sensorRepo, DeviceRegistry deviceRegistry, MeterRegistry meterRegistry) {
+        this.sensorRepo = sensorRepo;
+        this.deviceRegistry = deviceRegistry;
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setLimits(int capacity, int maxMinutes) {
+        this.capacity = capacity;
+        this.maxMinutes = maxMinutes;
+    }
+
+    @PostConstruct
+    public void init() {
+        init(LocalDateTime.now());
+    }
+
+    void init(LocalDateTime startedAt) {
+        startedAtMillis = toMillis(startedAt);
+        memoryReadCounter = Counter.builder("iot.sensor.window.reads").tag("source", "memory").register(meterRegistry);
+        dbReadCounter = Counter.builder("iot.sensor.window.reads").tag("source", "db").register(meterRegistry);
+        Gauge.builder("iot.sensor.window.devices", rings, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Ring buffer của một thiết bị. Ghi từ luồng writer, đọc từ luồng HTTP => đồng bộ trên chính đối tượng.
+     */
+    private static final class Ring {
+        final long[] times;
+        final double[] temperature;
+        final double[] humidity;
+        final double[] light;
+        int next;
+        int size;
+        /** Mọi bản ghi có thời điểm >= mốc này đều còn trong ring */
+        long coveredFromMillis;
+
+        // Bản ghi mới nhất (có thể được nạp từ DB khi ring còn trống)
+        boolean hasLatest;
+        boolean seeded;
+        long latestAt;
+        double latestTemperature;
+        double latestHumidity;
+        double latestLight;
+
+        Ring(int capacity, long coveredFromMillis) {
+            this.times = new long[capacity];
+            this.temperature = new double[capacity];
+            this.humidity = new double[capacity];
+            this.light = new double[capacity];
+            this.coveredFromMillis = coveredFromMillis;
+        }
+
+        synchronized void append(long at, double t, double h, double l) {
+            if (size == times.length) {
+                // Ghi đè bản ghi cũ nhất => phần được bao phủ bắt đầu sau nó
+                coveredFromMillis = Math.max(coveredFromMillis, times[next] + 1);
+            } else {
+                size++;
+            }
+            times[next] = at;
+            temperature[next] = t;
+            humidity[next] = h;
+            light[next] = l;
+            next = (next + 1) % times.length;
+            setLatest(at, t, h, l);
+        }
+
+        void setLatest(long at, double t, double h, double l) {
+            hasLatest = true;
+            latestAt = at;
+            latestTemperature = t;
+            latestHumidity = h;
+            latestLight = l;
+        }
+
+        /** null nếu ring không bao phủ đủ cửa sổ */
+        synchronized List<SensorReadingDTO> window(long fromMillis) {
+            if (fromMillis < coveredFromMillis) {
+                return null;
+            }
+            List<SensorReadingDTO> result = new ArrayList<>();
+            int oldest = (next - size + times.length) % times.length;
+            for (int k = 0; k < size; k++) {
+                int i = (oldest + k) % times.length;
+                if (times[i] >= fromMillis) {
+                    result.add(new SensorReadingDTO(result.size() + 1,
+                            boxed(temperature[i]), boxed(humidity[i]), boxed(light[i]), toLocal(times[i])));
+                }
+            }
+            return result;
+        }
+
+        synchronized SensorUpdateDTO latest(String deviceUid) {
+            if (!hasLatest) {
+                return null;
+            }
+            return new SensorUpdateDTO(deviceUid, boxed(latestTemperature), boxed(latestHumidity),
+                    boxed(latestLight), toLocal(latestAt));
+        }
+    }
+
+    @Override
+    public void onBatchWritten(List<SensorReadingRow> batch) {
+        for (SensorReadingRow row : batch) {
+            if (!row.hasWideValues()) {
+                // Bản tin chỉ có metric ở bảng hẹp: cửa sổ gần đây chỉ giữ ba cột của sensor_data
+                continue;
+            }
+            ring(row.deviceId()).append(toMillis(row.recordedAt()), row.temperature(), row.humidity(), row.light());
+        }
+    }
+
+    /** Bản ghi mới nhất của mọi thiết bị có dữ liệu (thiết bị chưa có trong RAM được nạp từ DB một lần) */
+    public List<SensorUpdateDTO> latestForAll() {
+        List<SensorUpdateDTO> result = new ArrayList<>();
+        for (Device device : deviceRegistry.all()) {
+            Ring ring = ring(device.getId());
+            seedLatest(device.getId(), ring);
+            SensorUpdateDTO latest = ring.latest(device.getDeviceUid());
+            if (latest != null) {
+                result.add(latest);
+            }
+        }
+        return result;
+    }
+
+    /** Dữ liệu trong N phút gần nhất của một thiết bị, tăng dần theo thời gian */
+    public List<SensorReadingDTO> recent(String deviceUid, Long deviceId, int minutes) {
+        if (minutes <= 0 || minutes > maxMinutes) {
+            throw new InvalidQueryException("'minutes' phải trong khoảng 1.." + maxMinutes);
+        }
+        Device device = resolveDevice(deviceUid, deviceId);
+        LocalDateTime from = LocalDateTime.now().minusMinutes(minutes);
+
+        List<SensorReadingDTO> fromMemory = ring(device.getId()).window(toMillis(from));
+        if (fromMemory != null) {
+            memoryReadCounter.increment();
+            return fromMemory;
+        }
+
+        dbReadCounter.increment();
+        List<SensorData> rows = sensorRepo.findByDevice_IdAndRecordedAtGreaterThanEqualOrderByRecordedAtAsc(device.getId(), from);
+        List<SensorReadingDTO> result = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            result.add(SensorReadingDTO.from(rows.get(i), i + 1));
+        }
+        return result;
+    }
+
+    private Ring ring(long deviceId) {
+        return rings.computeIfAbsent(deviceId, id -> new Ring(capacity, startedAtMillis));
+    }
+
+    private void seedLatest(Long deviceId, Ring ring) {
+        synchronized (ring) {
+            if (ring.hasLatest || ring.seeded) {
+                return;
+            }
+            ring.seeded = true;
+        }
+        dbReadCounter.increment();
+        Optional<SensorData> latest = sensorRepo.findTopByDevice_IdOrderByRecordedAtDesc(deviceId);
+        latest.ifPresent(data -> {
+            synchronized (ring) {
+                if (!ring.hasLatest) {
+                    ring.setLatest(toMillis(data.getRecordedAt()), SensorReadingRow.orNaN(data.getTemperature()),
+                            SensorReadingRow.orNaN(data.getHumidity()), SensorReadingRow.orNaN(data.getLight()));
+                }
+            }
+        });
+    }
+
+    private Device resolveDevice(String deviceUid, Long deviceId) {
+        if (deviceId != null) {
+            return deviceRegistry.findById(deviceId)
+                    .orElseThrow(() -> new InvalidQueryException("Thiết bị không tồn tại"));
+        }
+        if (deviceUid != null && !deviceUid.isBlank()) {
+            return deviceRegistry.findByDeviceUid(deviceUid)
+                    .orElseThrow(() -> new InvalidQueryException("Thiết bị không tồn tại"));
+        }
+        throw new InvalidQueryException("Cần truyền 'deviceUid' hoặc 'deviceId'");
+    }
+
+    // Giờ địa phương quy về mili giây chỉ để so sánh/lưu trữ (không đổi múi giờ)
+    private static long toMillis(LocalDateTime time) {
+        return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+    }
+
+    private static LocalDateTime toLocal(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    private static Double boxed(double value) {
+        return Double.isNaN(value) ? null : value;
+    }
+}
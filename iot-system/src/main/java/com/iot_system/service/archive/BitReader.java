@@ -0,0 +1,38 @@
+package com.iot_system.service.archive;
+
+import java.nio.ByteBuffer;
+
+/** Đọc chuỗi bit (MSB trước) trực tiếp trên ByteBuffer (thường là vùng mmap), không sao chép */
+final class BitReader {
+
+    private final ByteBuffer buffer;
+    private final int baseOffset;
+    private long bitPosition;
+
+    BitReader(ByteBuffer buffer, int baseOffset) {
+        this.buffer = buffer;
+        this.baseOffset = baseOffset;
+    }
+
+    boolean readBit() {
+        int b = buffer.get(baseOffset + (int) (bitPosition >>> 3));
+        boolean bit = ((b >>> (7 - (int) (bitPosition & 7))) & 1) != 0;
+        bitPosition++;
+        return bit;
+    }
+
+    /** Đọc n bit (1 <= n <= 64) thành số không dấu */
+    long readBits(int n) {
+        long result = 0;
+        while (n > 0) {
+            int b = buffer.get(baseOffset + (int) (bitPosition >>> 3)) & 0xFF;
+            int free = 8 - (int) (bitPosition & 7);
+            int take = Math.min(free, n);
+            int bits = (b >>> (free - take)) & ((1 << take) - 1);
+            result = (result << take) | bits;
+            bitPosition += take;
+            n -= take;
+        }
+        return result;
+    }
+}
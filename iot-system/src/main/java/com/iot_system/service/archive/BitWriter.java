@@ -0,0 +1,47 @@
+package com.iot_system.service.archive;
+
+import java.util.Arrays;
+
+/** Ghi chuỗi bit (MSB trước) vào mảng byte tự giãn; dùng cho mã hóa segment */
+final class BitWriter {
+
+    private byte[] buffer;
+    private long bitPosition;
+
+    BitWriter(int initialBytes) {
+        this.buffer = new byte[Math.max(16, initialBytes)];
+    }
+
+    void writeBit(boolean bit) {
+        writeBits(bit ? 1 : 0, 1);
+    }
+
+    /** Ghi n bit thấp của value (1 <= n <= 64) */
+    void writeBits(long value, int n) {
+        ensureCapacity(bitPosition + n);
+        while (n > 0) {
+            int byteIndex = (int) (bitPosition >>> 3);
+            int free = 8 - (int) (bitPosition & 7);
+            int take = Math.min(free, n);
+            int bits = (int) ((value >>> (n - take)) & ((1 << take) - 1));
+            buffer[byteIndex] |= (byte) (bits << (free - take));
+            bitPosition += take;
+            n -= take;
+        }
+    }
+
+    int byteLength() {
+        return (int) ((bitPosition + 7) >>> 3);
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    private void ensureCapacity(long bits) {
+        int bytes = (int) ((bits + 7) >>> 3);
+        if (bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(bytes, buffer.length * 2));
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.iot_system.service.archive;
+
+import com.iot_system.domain.enums.SensorMetric;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Định dạng file segment của tầng lưu trữ lạnh: các bản ghi của MỘT thiết bị trong MỘT ngày, tăng dần theo thời gian.
+ * <pre>
+ * header (46 byte): magic 'IOTS' | version (short) | deviceId (long) | count (int)
+ *                   | số giá trị có mặt của temperature, humidity, light (3 x int) | firstMicros (long) | lastMicros (long)
+ * thân: chuỗi bit nén kiểu Gorilla, mỗi bản ghi gồm timestamp rồi temperature, humidity, light
+ *   - timestamp (micro giây): delta-of-delta, mã tiền tố '0' | '10'+7 | '110'+12 | '1110'+20 | '11110'+32 | '11111'+64 bit
+ *   - giá trị: XOR với giá trị trước của cùng cột, '0' = trùng, '10' = dùng lại cửa sổ bit có nghĩa trước,
+ *     '11' + 5 bit số 0 đầu + 6 bit độ dài + phần bit có nghĩa
+ * </pre>
+ * Giá trị vắng mặt (NULL) được lưu là NaN như {@link com.iot_system.service.ingest.SensorReadingRow}.
+ * Header chứa sẵn số bản ghi theo từng metric => đếm một segment nằm trọn trong khoảng truy vấn mà không cần giải nén.
+ */
+public final class ColdSegment {
+
+    static final int MAGIC = 0x494F5453;
+    static final short VERSION = 1;
+    static final int HEADER_BYTES = 46;
+
+    private ColdSegment() {
+    }
+
+    public record Header(long deviceId, int count, int temperatureCount, int humidityCount, int lightCount,
+                         long firstMicros, long lastMicros) {
+
+        /** Số bản ghi có giá trị cho metric (ALL = mọi bản ghi), cùng ý nghĩa với SensorDataRepository.search */
+        public int count(SensorMetric metric) {
+            if (metric == null) {
+                return count;
+            }
+            return switch (metric) {
+                case TEMP -> temperatureCount;
+                case HUMIDITY -> humidityCount;
+                case LIGHT -> lightCount;
+                default -> count;
+            };
+        }
+    }
+
+    @FunctionalInterface
+    public interface ReadingConsumer {
+        void accept(long deviceId, long micros, double temperature, double humidity, double light);
+    }
+
+    public static long toMicros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    public static LocalDateTime fromMicros(long micros) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(micros, 1_000_000L),
+                (int) Math.floorMod(micros, 1_000_000L) * 1_000, ZoneOffset.UTC);
+    }
+
+    public static Header readHeader(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IllegalStateException("Segment không hợp lệ");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IllegalStateException("Phiên bản segment không hỗ trợ: " + buffer.getShort(4));
+        }
+        return new Header(buffer.getLong(6), buffer.getInt(14), buffer.getInt(18), buffer.getInt(22), buffer.getInt(26),
+                buffer.getLong(30), buffer.getLong(38));
+    }
+
+    /** Giải nén toàn bộ segment theo thứ tự thời gian tăng dần */
+    public static void decode(ByteBuffer buffer, ReadingConsumer consumer) {
+        Header header = readHeader(buffer);
+        BitReader in = new BitReader(buffer, HEADER_BYTES);
+        ValueDecoder temperature = new ValueDecoder();
+        ValueDecoder humidity = new ValueDecoder();
+        ValueDecoder light = new ValueDecoder();
+        long micros = 0;
+        long delta = 0;
+        for (int i = 0; i < header.count(); i++) {
+            if (i == 0) {
+                micros = in.readBits(64);
+            } else {
+                delta += readDeltaOfDelta(in);
+                micros += delta;
+            }
+            consumer.accept(header.deviceId(), micros,
+                    temperature.next(in), humidity.next(in), light.next(in));
+        }
+    }
+
+    private static long readDeltaOfDelta(BitReader in) {
+        if (!in.readBit()) {
+            return 0;
+        }
+        if (!in.readBit()) {
+            return signed(in.readBits(7), 7);
+        }
+        if (!in.readBit()) {
+            return signed(in.readBits(12), 12);
+        }
+        if (!in.readBit()) {
+            return signed(in.readBits(20), 20);
+        }
+        if (!in.readBit()) {
+            return signed(in.readBits(32), 32);
+        }
+        return in.readBits(64);
+    }
+
+    private static long signed(long value, int bits) {
+        return (value << (64 - bits)) >> (64 - bits);
+    }
+
+    private static boolean fits(long value, int bits) {
+        return value >= -(1L << (bits - 1)) && value < (1L << (bits - 1));
+    }
+
+    /** Gom bản ghi của một thiết bị trong một ngày (theo thứ tự thời gian) rồi mã hóa thành segment */
+    public static final class Builder {
+
+        private final long deviceId;
+        private long[] micros = new long[256];
+        private double[] temperature = new double[256];
+        private double[] humidity = new double[256];
+        private double[] light = new double[256];
+        private int size;
+
+        public Builder(long deviceId) {
+            this.deviceId = deviceId;
+        }
+
+        public long deviceId() {
+            return deviceId;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public void add(long timeMicros, double t, double h, double l) {
+            if (size == micros.length) {
+                int capacity = size * 2;
+                micros = Arrays.copyOf(micros, capacity);
+                temperature = Arrays.copyOf(temperature, capacity);
+                humidity = Arrays.copyOf(humidity, capacity);
+                light = Arrays.copyOf(light, capacity);
+            }
+            micros[size] = timeMicros;
+            temperature[size] = t;
+            humidity[size] = h;
+            light[size] = l;
+            size++;
+        }
+
+        /** Trả về nội dung file; ByteBuffer có position = 0, limit = độ dài file */
+        public ByteBuffer encode() {
+            BitWriter out = new BitWriter(size * 8);
+            ValueEncoder t = new ValueEncoder();
+            ValueEncoder h = new ValueEncoder();
+            ValueEncoder l = new ValueEncoder();
+            int temperatureCount = 0;
+            int humidityCount = 0;
+            int lightCount = 0;
+            long prevDelta = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0) {
+                    out.writeBits(micros[0], 64);
+                } else {
+                    long delta = micros[i] - micros[i - 1];
+                    writeDeltaOfDelta(out, delta - prevDelta);
+                    prevDelta = delta;
+                }
+                t.write(out, temperature[i]);
+                h.write(out, humidity[i]);
+                l.write(out, light[i]);
+                temperatureCount += Double.isNaN(temperature[i]) ? 0 : 1;
+                humidityCount += Double.isNaN(humidity[i]) ? 0 : 1;
+                lightCount += Double.isNaN(light[i]) ? 0 : 1;
+            }
+
+            ByteBuffer file = ByteBuffer.allocate(HEADER_BYTES + out.byteLength());
+            file.putInt(MAGIC)
+                    .putShort(VERSION)
+                    .putLong(deviceId)
+                    .putInt(size)
+                    .putInt(temperatureCount)
+                    .putInt(humidityCount)
+                    .putInt(lightCount)
+                    .putLong(size > 0 ? micros[0] : 0)
+                    .putLong(size > 0 ? micros[size - 1] : 0)
+                    .put(out.buffer(), 0, out.byteLength());
+            return file.flip();
+        }
+
+        private static void writeDeltaOfDelta(BitWriter out, long dod) {
+            if (dod == 0) {
+                out.writeBit(false);
+            } else if (fits(dod, 7)) {
+                out.writeBits(0b10, 2);
+                out.writeBits(dod, 7);
+            } else if (fits(dod, 12)) {
+                out.writeBits(0b110, 3);
+                out.writeBits(dod, 12);
+            } else if (fits(dod, 20)) {
+                out.writeBits(0b1110, 4);
+                out.writeBits(dod, 20);
+            } else if (fits(dod, 32)) {
+                out.writeBits(0b11110, 5);
+                out.writeBits(dod, 32);
+            } else {
+                out.writeBits(0b11111, 5);
+                out.writeBits(dod, 64);
+            }
+        }
+    }
+
+    // Trạng thái XOR của một cột: giá trị trước và cửa sổ bit có nghĩa (leading/trailing zero) đang dùng
+    private static final class ValueEncoder {
+        private boolean first = true;
+        private long previous;
+        private int leading = -1;
+        private int trailing;
+
+        void write(BitWriter out, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                out.writeBits(bits, 64);
+                previous = bits;
+                first = false;
+                return;
+            }
+            long xor = bits ^ previous;
+            previous = bits;
+            if (xor == 0) {
+                out.writeBit(false);
+                return;
+            }
+            out.writeBit(true);
+            int lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trail = Long.numberOfTrailingZeros(xor);
+            if (leading >= 0 && lead >= leading && trail >= trailing) {
+                out.writeBit(false);
+                out.writeBits(xor >>> trailing, 64 - leading - trailing);
+                return;
+            }
+            int significant = 64 - lead - trail;
+            out.writeBit(true);
+            out.writeBits(lead, 5);
+            out.writeBits(significant - 1, 6);
+            out.writeBits(xor >>> trail, significant);
+            leading = lead;
+            trailing = trail;
+        }
+    }
+
+    private static final class ValueDecoder {
+        private boolean first = true;
+        private long previous;
+        private int leading;
+        private int trailing;
+
+        double next(BitReader in) {
+            if (first) {
+                previous = in.readBits(64);
+                first = false;
+            } else if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.readBits(5);
+                    int significant = (int) in.readBits(6) + 1;
+                    trailing = 64 - leading - significant;
+                }
+                previous ^= in.readBits(64 - leading - trailing) << trailing;
+            }
+            return Double.longBitsToDouble(previous);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.iot_system.service.archive;
+
+import com.iot_system.domain.entity.SensorData;
+import com.iot_system.domain.enums.SensorMetric;
+import com.iot_system.exception.InvalidQueryException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Tầng lưu trữ lạnh của sensor_data trên đĩa cục bộ: {dir}/{yyyy-MM-dd}/{deviceId}.seg (xem {@link ColdSegment}).
+ * - File WATERMARK giữ ngày đầu tiên CHƯA lưu trữ: mọi bản ghi trước ngày đó chỉ nằm trong segment,
+ *   từ ngày đó trở đi chỉ đọc từ MySQL => hai tầng không bao giờ chồng lấn, kể cả khi job dừng giữa chừng
+ * - Segment được đọc bằng FileChannel.map (READ_ONLY): dữ liệu nằm trong page cache của hệ điều hành,
+ *   chỉ giải nén các segment cắt ngang biên truy vấn, segment nằm trọn trong khoảng được đếm bằng header
+ * - Ghi file tạm rồi ATOMIC_MOVE => người đọc không bao giờ thấy segment ghi dở
+ */
+@Component
+public class ColdSegmentStore {
+
+    private static final Logger log = LoggerFactory.getLogger(ColdSegmentStore.class);
+
+    private static final String WATERMARK_FILE = "WATERMARK";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${sensor.archive.dir:data/sensor-archive}")
+    private String dir;
+
+    private Path root;
+    private volatile LocalDate watermark;
+    private Timer readTimer;
+
+    public ColdSegmentStore(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        root = Paths.get(dir).toAbsolutePath();
+        Path file = root.resolve(WATERMARK_FILE);
+        if (Files.exists(file)) {
+            watermark = LocalDate.parse(Files.readString(file, StandardCharsets.UTF_8).trim());
+            log.info("[ARCHIVE] Tầng lưu trữ lạnh tại {}, dữ liệu trước {} nằm trong segment", root, watermark);
+        }
+        readTimer = Timer.builder("iot.sensor.cold.read").register(meterRegistry);
+    }
+
+    /** Mốc thời gian chia hai tầng: trước mốc đọc từ segment, từ mốc trở đi đọc từ MySQL; null = chưa lưu trữ gì */
+    public LocalDateTime archivedBefore() {
+        LocalDate current = watermark;
+        return current != null ? current.atStartOfDay() : null;
+    }
+
+    public LocalDate watermark() {
+        return watermark;
+    }
+
+    /**
+     * Chặn các thao tác chỉ đọc/ghi MySQL (tìm theo giá trị, keyset, xuất file, dựng lại rollup) trên khoảng
+     * có phần đã lưu trữ: trả lỗi 400 kèm mốc thay vì âm thầm bỏ qua dữ liệu nằm trong segment.
+     * @param start đầu khoảng; null = không giới hạn dưới, cũng bị chặn khi đã lưu trữ
+     */
+    public void requireNotArchived(LocalDateTime start, String operation) {
+        LocalDateTime boundary = archivedBefore();
+        if (boundary != null && (start == null || start.isBefore(boundary))) {
+            throw new InvalidQueryException(operation + " chỉ hỗ trợ dữ liệu từ " + boundary.toLocalDate()
+                    + " trở đi; dữ liệu trước mốc này đã được lưu trữ");
+        }
+    }
+
+    /** Xóa segment cũ của ngày (nếu lần chạy trước dừng giữa chừng) trước khi ghi lại ngày đó */
+    void clearDay(LocalDate day) throws IOException {
+        deleteRecursively(root.resolve(day.toString()));
+    }
+
+    void write(LocalDate day, ByteBuffer segment, long deviceId) throws IOException {
+        Path dayDir = Files.createDirectories(root.resolve(day.toString()));
+        writeAtomically(dayDir.resolve(deviceId + SEGMENT_SUFFIX), segment);
+    }
+
+    /** Chỉ gọi sau khi mọi segment của các ngày trước newWatermark đã được ghi xuống đĩa */
+    void advanceWatermark(LocalDate newWatermark) throws IOException {
+        Files.createDirectories(root);
+        writeAtomically(root.resolve(WATERMARK_FILE),
+                ByteBuffer.wrap(newWatermark.toString().getBytes(StandardCharsets.UTF_8)));
+        watermark = newWatermark;
+    }
+
+    /** Xóa segment của các ngày trước cutoff (hết hạn lưu trữ); trả về số ngày đã xóa */
+    int deleteDaysBefore(LocalDate cutoff) throws IOException {
+        int deleted = 0;
+        for (LocalDate day : days(null, cutoff.atStartOfDay())) {
+            deleteRecursively(root.resolve(day.toString()));
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /** Số bản ghi lưu trữ trong [start, end) có giá trị cho metric; start/end null = không giới hạn */
+    public long count(LocalDateTime start, LocalDateTime end, SensorMetric metric) {
+        long startNanos = System.nanoTime();
+        long total = 0;
+        for (LocalDate day : days(start, end)) {
+            boolean whole = coversDay(day, start, end);
+            for (Path file : segments(day)) {
+                ByteBuffer buffer = map(file);
+                ColdSegment.Header header = ColdSegment.readHeader(buffer);
+                if (whole) {
+                    total += header.count(metric);
+                } else if (overlaps(header, start, end)) {
+                    long[] matched = new long[1];
+                    ColdSegment.decode(buffer, (deviceId, micros, t, h, l) -> {
+                        if (matches(micros, t, h, l, start, end, metric)) {
+                            matched[0]++;
+                        }
+                    });
+                    total += matched[0];
+                }
+            }
+        }
+        readTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return total;
+    }
+
+    /**
+     * Lấy tối đa limit bản ghi trong [start, end) sau khi bỏ qua offset bản ghi, sắp theo recordedAt.
+     * Ngày nằm trọn trong khoảng và nằm hoàn toàn trước offset được bỏ qua bằng header, không giải nén.
+     * Bản ghi trả về là SensorData tách rời (id = null, không gắn Device), chỉ dùng để hiển thị.
+     */
+    public List<SensorData> read(LocalDateTime start, LocalDateTime end, SensorMetric metric,
+                                 boolean ascending, long offset, int limit) {
+        long startNanos = System.nanoTime();
+        List<SensorData> result = new ArrayList<>(Math.max(0, limit));
+        List<LocalDate> days = days(start, end);
+        if (!ascending) {
+            days = days.reversed();
+        }
+        long skip = offset;
+        for (LocalDate day : days) {
+            if (result.size() >= limit) {
+                break;
+            }
+            List<Path> files = segments(day);
+            if (skip > 0 && coversDay(day, start, end)) {
+                long dayCount = 0;
+                for (Path file : files) {
+                    dayCount += ColdSegment.readHeader(map(file)).count(metric);
+                }
+                if (skip >= dayCount) {
+                    skip -= dayCount;
+                    continue;
+                }
+            }
+
+            List<SensorData> dayRows = new ArrayList<>();
+            for (Path file : files) {
+                ColdSegment.decode(map(file), (deviceId, micros, t, h, l) -> {
+                    if (matches(micros, t, h, l, start, end, metric)) {
+                        dayRows.add(toEntity(micros, t, h, l));
+                    }
+                });
+            }
+            Comparator<SensorData> order = Comparator.comparing(SensorData::getRecordedAt);
+            dayRows.sort(ascending ? order : order.reversed());
+            int from = (int) Math.min(skip, dayRows.size());
+            skip -= from;
+            for (int i = from; i < dayRows.size() && result.size() < limit; i++) {
+                result.add(dayRows.get(i));
+            }
+        }
+        readTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        return result;
+    }
+
+    private static SensorData toEntity(long micros, double t, double h, double l) {
+        SensorData data = new SensorData();
+        data.setTemperature(Double.isNaN(t) ? null : t);
+        data.setHumidity(Double.isNaN(h) ? null : h);
+        data.setLight(Double.isNaN(l) ? null : l);
+        data.setRecordedAt(ColdSegment.fromMicros(micros));
+        return data;
+    }
+
+    private static boolean matches(long micros, double t, double h, double l,
+                                   LocalDateTime start, LocalDateTime end, SensorMetric metric) {
+        if (start != null && micros < ColdSegment.toMicros(start)) {
+            return false;
+        }
+        if (end != null && micros >= ColdSegment.toMicros(end)) {
+            return false;
+        }
+        if (metric == null) {
+            return true;
+        }
+        return switch (metric) {
+            case TEMP -> !Double.isNaN(t);
+            case HUMIDITY -> !Double.isNaN(h);
+            case LIGHT -> !Double.isNaN(l);
+            default -> true;
+        };
+    }
+
+    private static boolean overlaps(ColdSegment.Header header, LocalDateTime start, LocalDateTime end) {
+        return header.count() > 0
+                && (start == null || header.lastMicros() >= ColdSegment.toMicros(start))
+                && (end == null || header.firstMicros() < ColdSegment.toMicros(end));
+    }
+
+    private static boolean coversDay(LocalDate day, LocalDateTime start, LocalDateTime end) {
+        return (start == null || !start.isAfter(day.atStartOfDay()))
+                && (end == null || !end.isBefore(day.plusDays(1).atStartOfDay()));
+    }
+
+    // Các ngày có thư mục segment và giao với [start, end), tăng dần
+    private List<LocalDate> days(LocalDateTime start, LocalDateTime end) {
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        List<LocalDate> days = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path path : stream) {
+                LocalDate day;
+                try {
+                    day = LocalDate.parse(path.getFileName().toString());
+                } catch (DateTimeParseException e) {
+                    continue;
+                }
+                if ((start == null || day.plusDays(1).atStartOfDay().isAfter(start))
+                        && (end == null || day.atStartOfDay().isBefore(end))) {
+                    days.add(day);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        days.sort(null);
+        return days;
+    }
+
+    private List<Path> segments(LocalDate day) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root.resolve(day.toString()), "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return files;
+    }
+
+    // Vùng map vẫn hợp lệ sau khi đóng channel; được giải phóng khi buffer bị GC
+    private static ByteBuffer map(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeAtomically(Path target, ByteBuffer content) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.iot_system.service.archive;
+
+import com.iot_system.service.QueryResultCache;
+import com.iot_system.service.SearchCountService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chuyển sensor_data cũ hơn sensor.archive.after-days sang tầng lưu trữ lạnh ({@link ColdSegmentStore}), từng ngày một:
+ * 1. Đọc streaming các dòng của ngày (ORDER BY device_id, recorded_at), mỗi thiết bị ghi thành một segment nén
+ * 2. Dời WATERMARK sang ngày kế tiếp => từ lúc này truy vấn đọc ngày đó từ segment, bỏ qua MySQL
+ * 3. DELETE các dòng trước WATERMARK theo lô nhỏ (dừng giữa chừng không sao: dòng còn sót bị bỏ qua khi đọc
+ *    và được xóa nốt ở lượt sau)
+ * Segment cũ hơn sensor.retention.days bị xóa cùng job để tầng lạnh tuân theo cùng chính sách lưu trữ
+ * (sensor.retention.days = 0, mặc định => giữ segment vĩnh viễn).
+ */
+@Component
+public class SensorArchiveService {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorArchiveService.class);
+
+    private static final String SELECT_DAY_SQL =
+            "SELECT device_id, temperature, humidity, light, recorded_at FROM sensor_data"
+                    + " WHERE recorded_at >= ? AND recorded_at < ? ORDER BY device_id, recorded_at";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ColdSegmentStore store;
+    private final MeterRegistry meterRegistry;
+    private final QueryResultCache queryCache;
+    private final SearchCountService countService;
+
+    @Value("${sensor.archive.enabled:false}")
+    private boolean enabled;
+
+    @Value("${sensor.archive.after-days:30}")
+    private int afterDays;
+
+    @Value("${sensor.archive.max-days-per-run:7}")
+    private int maxDaysPerRun;
+
+    @Value("${sensor.archive.run-interval-ms:3600000}")
+    private long runIntervalMs;
+
+    @Value("${sensor.archive.initial-delay-ms:120000}")
+    private long initialDelayMs;
+
+    @Value("${sensor.archive.delete-chunk-size:5000}")
+    private int deleteChunkSize;
+
+    @Value("${sensor.retention.days:0}")
+    private int retentionDays;
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running;
+
+    private Counter archivedRowsCounter;
+    private Counter segmentsCounter;
+    private Counter segmentBytesCounter;
+
+    public SensorArchiveService(JdbcTemplate jdbcTemplate,
+                                ColdSegmentStore store,
+                                MeterRegistry meterRegistry,
+                                QueryResultCache queryCache,
+                                SearchCountService countService) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.store = store;
+        this.meterRegistry = meterRegistry;
+        this.queryCache = queryCache;
+        this.countService = countService;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        archivedRowsCounter = Counter.builder("iot.sensor.archive.rows").register(meterRegistry);
+        segmentsCounter = Counter.builder("iot.sensor.archive.segments").register(meterRegistry);
+        segmentBytesCounter = Counter.builder("iot.sensor.archive.bytes").register(meterRegistry);
+        Gauge.builder("iot.sensor.archive.watermark.age.days", store,
+                        s -> s.watermark() != null ? ChronoUnit.DAYS.between(s.watermark(), LocalDate.now()) : 0)
+                .register(meterRegistry);
+
+        running = true;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "sensor-archive");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::safeRun, initialDelayMs, runIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("[ARCHIVE] Lưu trữ sensor_data cũ hơn {} ngày, tối đa {} ngày mỗi lượt", afterDays, maxDaysPerRun);
+    }
+
+    private void safeRun() {
+        try {
+            runOnce();
+        } catch (Exception e) {
+            log.error("[ARCHIVE] Lỗi lưu trữ sensor_data", e);
+        }
+    }
+
+    /** Một lượt lưu trữ; trả về số ngày đã chuyển sang tầng lạnh */
+    public int runOnce() throws IOException {
+        LocalDate target = LocalDate.now().minusDays(afterDays);
+        LocalDate day = store.watermark();
+        if (day == null) {
+            Timestamp oldest = jdbcTemplate.queryForObject("SELECT MIN(recorded_at) FROM sensor_data", Timestamp.class);
+            day = oldest != null ? oldest.toLocalDateTime().toLocalDate() : target;
+        }
+
+        int archivedDays = 0;
+        while (running && day.isBefore(target) && archivedDays < maxDaysPerRun) {
+            archiveDay(day);
+            day = day.plusDays(1);
+            store.advanceWatermark(day);
+            archivedDays++;
+        }
+        if (store.watermark() != null) {
+            purgeArchivedRows(store.watermark());
+        }
+        if (retentionDays > 0) {
+            LocalDate cutoff = LocalDate.now().minusDays(retentionDays);
+            int expired = store.deleteDaysBefore(cutoff);
+            if (expired > 0) {
+                queryCache.invalidateBefore(QueryResultCache.Domain.SENSOR, cutoff.atStartOfDay());
+                log.info("[ARCHIVE] Đã xóa segment của {} ngày quá hạn lưu trữ", expired);
+            }
+        }
+        return archivedDays;
+    }
+
+    private void archiveDay(LocalDate day) throws IOException {
+        long startNanos = System.nanoTime();
+        store.clearDay(day);
+        long[] totals = new long[3]; // dòng, segment, byte
+        ColdSegment.Builder[] current = new ColdSegment.Builder[1];
+
+        PreparedStatementCreator creator = con -> {
+            PreparedStatement ps = con.prepareStatement(SELECT_DAY_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // MySQL Connector/J: đọc streaming, không nạp cả ngày vào RAM
+            ps.setFetchSize(Integer.MIN_VALUE);
+            ps.setTimestamp(1, Timestamp.valueOf(day.atStartOfDay()));
+            ps.setTimestamp(2, Timestamp.valueOf(day.plusDays(1).atStartOfDay()));
+            return ps;
+        };
+        try {
+            jdbcTemplate.query(creator, rs -> {
+                long deviceId = rs.getLong(1);
+                if (current[0] == null || current[0].deviceId() != deviceId) {
+                    flush(day, current[0], totals);
+                    current[0] = new ColdSegment.Builder(deviceId);
+                }
+                current[0].add(ColdSegment.toMicros(rs.getTimestamp(5).toLocalDateTime()),
+                        column(rs, 2), column(rs, 3), column(rs, 4));
+            });
+            flush(day, current[0], totals);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        archivedRowsCounter.increment(totals[0]);
+        segmentsCounter.increment(totals[1]);
+        segmentBytesCounter.increment(totals[2]);
+        log.info("[ARCHIVE] Ngày {}: {} dòng -> {} segment, {} KB trong {} ms", day, totals[0], totals[1],
+                totals[2] / 1024, (System.nanoTime() - startNanos) / 1_000_000);
+    }
+
+    private void flush(LocalDate day, ColdSegment.Builder builder, long[] totals) {
+        if (builder == null || builder.size() == 0) {
+            return;
+        }
+        ByteBuffer segment = builder.encode();
+        int bytes = segment.remaining();
+        try {
+            store.write(day, segment, builder.deviceId());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        totals[0] += builder.size();
+        totals[1]++;
+        totals[2] += bytes;
+    }
+
+    private static double column(ResultSet rs, int index) throws SQLException {
+        double value = rs.getDouble(index);
+        return rs.wasNull() ? Double.NaN : value;
+    }
+
+    // Mỗi lô một transaction autocommit, giống SensorRetentionService.purgeInChunks
+    private void purgeArchivedRows(LocalDate watermark) {
+        Timestamp before = Timestamp.valueOf(watermark.atStartOfDay());
+        long total = 0;
+        while (running) {
+            int deleted = jdbcTemplate.update("DELETE FROM sensor_data WHERE recorded_at < ? LIMIT ?", before, deleteChunkSize);
+            total += deleted;
+            if (deleted < deleteChunkSize) {
+                break;
+            }
+        }
+        if (total > 0) {
+            countService.onSensorRowsDeleted(total);
+            log.info("[ARCHIVE] Đã xóa {} dòng sensor_data đã lưu trữ (trước {})", total, watermark);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
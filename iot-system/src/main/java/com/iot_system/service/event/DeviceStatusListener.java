@@ -1,83 +1,136 @@
 package com.iot_system.service.event;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot_system.domain.dto.SensorUpdateDTO;
 import com.iot_system.domain.entity.Device;
-import com.iot_system.domain.entity.DeviceActionHistory;
 import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.mqtt.AckMessage;
 import com.iot_system.mqtt.DeviceStatusEvent;
-import com.iot_system.repository.DeviceActionHistoryRepository;
-import com.iot_system.repository.DeviceRepository;
+import com.iot_system.mqtt.IngestMetrics;
+import com.iot_system.mqtt.IngestMetrics.ErrorReason;
+import com.iot_system.mqtt.IngestMetrics.Stage;
+import com.iot_system.mqtt.TelemetryDecoder;
+import com.iot_system.mqtt.TelemetryReading;
+import com.iot_system.service.CommandTracker;
+import com.iot_system.service.DeviceLivenessTracker;
+import com.iot_system.service.DeviceRegistry;
 import com.iot_system.service.SensorDataService;
+import com.iot_system.service.ingest.DeviceWriteBehind;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 
 @Component
 public class DeviceStatusListener {
 
-    private final DeviceRepository deviceRepository;
-    private final DeviceActionHistoryRepository actionHistoryRepository;
+    private final DeviceRegistry deviceRegistry;
+    private final DeviceWriteBehind deviceWriteBehind;
     private final SensorDataService sensorDataService;
     private final SimpMessagingTemplate wsTemplate;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final TelemetryDecoder decoder;
+    private final SensorBroadcaster sensorBroadcaster;
+    private final CommandTracker commandTracker;
+    private final DeviceLivenessTracker livenessTracker;
+    private final IngestMetrics metrics;
 
     private static final Logger log = LoggerFactory.getLogger(DeviceStatusListener.class);
 
+    private static final DateTimeFormatter WS_TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
     private final String actionTopic = "device_actions";
     private final String sensorTopic = "sensor/data";
 
-    public DeviceStatusListener(DeviceRepository deviceRepository,
-                                DeviceActionHistoryRepository actionHistoryRepository,
+    @Value("${mqtt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+
+    @Value("${mqtt.cluster.instance-index:0}")
+    private int instanceIndex;
+
+    @Value("${mqtt.cluster.instance-count:1}")
+    private int instanceCount;
+
+    public DeviceStatusListener(DeviceRegistry deviceRegistry,
+                                DeviceWriteBehind deviceWriteBehind,
                                 SensorDataService sensorDataService,
-                                SimpMessagingTemplate wsTemplate) {
-        this.deviceRepository = deviceRepository;
-        this.actionHistoryRepository = actionHistoryRepository;
+                                SimpMessagingTemplate wsTemplate,
+                                TelemetryDecoder decoder,
+                                SensorBroadcaster sensorBroadcaster,
+                                CommandTracker commandTracker,
+                                DeviceLivenessTracker livenessTracker,
+                                IngestMetrics metrics) {
+        this.deviceRegistry = deviceRegistry;
+        this.deviceWriteBehind = deviceWriteBehind;
         this.sensorDataService = sensorDataService;
         this.wsTemplate = wsTemplate;
+        this.decoder = decoder;
+        this.sensorBroadcaster = sensorBroadcaster;
+        this.commandTracker = commandTracker;
+        this.livenessTracker = livenessTracker;
+        this.metrics = metrics;
     }
 
     @EventListener
     public void handleDeviceEvent(DeviceStatusEvent event) {
         try {
-            JsonNode json = mapper.readTree(event.getMessage());
-
             if (event.getTopic().equals(actionTopic + "_ack")) {
-                handleAck(json);
+                long startNanos = System.nanoTime();
+                AckMessage ack = decoder.decodeAck(event.getPayload());
+                metrics.record(Stage.PARSE_ACK, startNanos);
+                handleAck(ack);
             } else if (event.getTopic().equals(sensorTopic)) {
-                handleSensor(json);
+                long startNanos = System.nanoTime();
+                TelemetryReading reading = decoder.decodeSensor(event.getPayload());
+                metrics.record(Stage.PARSE_SENSOR, startNanos);
+                handleSensor(reading);
             }
+        } catch (IOException | IllegalArgumentException e) {
+            // JSON hỏng hoặc thiếu field bắt buộc
+            metrics.error(ErrorReason.BAD_PAYLOAD);
+            log.warn("[WS] Payload không hợp lệ từ topic {}: {}", event.getTopic(), e.getMessage());
         } catch (Exception e) {
+            metrics.error(ErrorReason.OTHER);
             log.error("[WS] Lỗi xử lý sự kiện thiết bị", e);
         }
     }
 
     /** Xử lý ACK bật/tắt thiết bị */
-    private void handleAck(JsonNode json) {
+    private void handleAck(AckMessage ack) {
         try {
-            int deviceId = json.get("deviceId").asInt();
-            String state = json.get("state").asText();
-            String correlationId = json.has("correlationId") ? json.get("correlationId").asText() : null;
-
-            Device device = deviceRepository.findById((long) deviceId)
-                    .orElseThrow(() -> new RuntimeException("Device not found: " + deviceId));
-            device.setState(DeviceState.valueOf(state));
-            deviceRepository.save(device);
-
-            DeviceActionHistory history = new DeviceActionHistory();
-            history.setDevice(device);
-            history.setAction(DeviceState.valueOf(state));
-            history.setExecutedAt(LocalDateTime.now());
-            actionHistoryRepository.save(history);
+            int deviceId = ack.deviceId();
+            String state = ack.state();
+            String correlationId = ack.correlationId();
+            commandTracker.complete(correlationId);
+
+            long lookupStart = System.nanoTime();
+            Optional<Device> found = deviceRegistry.findById((long) deviceId);
+            metrics.record(Stage.DEVICE_LOOKUP, lookupStart);
+            if (found.isEmpty()) {
+                metrics.error(ErrorReason.UNKNOWN_DEVICE);
+                log.warn("[SERVICE] ACK từ thiết bị không tồn tại: deviceId={}", deviceId);
+                return;
+            }
+            Device device = found.get();
+            livenessTracker.touch(device.getId());
+            DeviceState newState = DeviceState.valueOf(state);
+            LocalDateTime executedAt = LocalDateTime.now();
+
+            // Cập nhật trạng thái trong RAM ngay; DB được ghi trễ theo lô (DeviceWriteBehind)
+            device.setState(newState);
+            deviceRegistry.put(device);
+            if (writesHistory(device.getId(), correlationId) && !deviceWriteBehind.recordAck(device.getId(), newState, executedAt)) {
+                metrics.error(ErrorReason.QUEUE_FULL);
+            }
 
-            log.info("[SERVICE] Đã lưu lịch sử hành động: deviceId={}, trạng thái={}", deviceId, state);
+            log.info("[SERVICE] Đã nhận ACK, chờ ghi lịch sử hành động: deviceId={}, trạng thái={}", deviceId, state);
 
             //Gửi WebSocket tới FE
             Map<String, Object> wsPayload = new HashMap<>();
@@ -85,57 +138,82 @@ public class DeviceStatusListener {
             wsPayload.put("state", state);
             if (correlationId != null) wsPayload.put("correlationId", correlationId);
             // Thống nhất format thời gian dd-MM-yyyy HH:mm:ss
-            DateTimeFormatter fmt = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
-            wsPayload.put("recordedAt", history.getExecutedAt().format(fmt));
-            wsTemplate.convertAndSend("/topic/devices", wsPayload);
+            wsPayload.put("recordedAt", executedAt.format(WS_TIME_FORMAT));
+            long sendStart = System.nanoTime();
+            try {
+                wsTemplate.convertAndSend("/topic/devices", wsPayload);
+            } catch (Exception e) {
+                metrics.error(ErrorReason.WS_FAILURE);
+                throw e;
+            } finally {
+                metrics.record(Stage.WS_SEND, sendStart);
+            }
 
+        } catch (IllegalArgumentException e) {
+            // Trạng thái không thuộc DeviceState
+            metrics.error(ErrorReason.BAD_PAYLOAD);
+            log.warn("[SERVICE] ACK có trạng thái không hợp lệ: {}", ack.state());
         } catch (Exception e) {
             log.error("[SERVICE] Lỗi xử lý ACK", e);
         }
     }
 
-    /** Xử lý dữ liệu cảm biến */
-    private void handleSensor(JsonNode json) {
-        try {
-            String deviceUid = json.has("deviceUid") ? json.get("deviceUid").asText() : null;
-            Double temperature = json.has("temperature") ? json.get("temperature").asDouble() : null;
-            Double humidity = json.has("humidity") ? json.get("humidity").asDouble() : null;
-            Double light = null;
-            if (json.has("light")) {
-                light = json.get("light").asDouble();
-            } else if (json.has("light_level")) {
-                light = json.get("light_level").asDouble();
-            }
+    /**
+     * Cluster: mọi instance đều nhận ACK nhưng chỉ một instance ghi lịch sử.
+     * - Có correlationId: instance đã gửi lệnh (đang theo dõi correlationId)
+     * - Không có (thiết bị tự đổi trạng thái): instance phụ trách thiết bị, deviceId mod instance-count = instance-index
+     */
+    private boolean writesHistory(long deviceId, String correlationId) {
+        if (!clusterEnabled) {
+            return true;
+        }
+        if (correlationId != null) {
+            return commandTracker.status(correlationId).isPresent();
+        }
+        return Math.floorMod(deviceId, Math.max(instanceCount, 1)) == instanceIndex;
+    }
 
-            // Sanitize values: accept zero, ignore sentinel -1
-            if (temperature != null && temperature == -1.0) temperature = null;
-            if (humidity != null && humidity == -1.0) humidity = null;
-            if (light != null && light == -1.0) light = null;
+    /** Xử lý dữ liệu cảm biến (giá trị NaN = vắng mặt hoặc sentinel -1, đã lọc trong decoder) */
+    private void handleSensor(TelemetryReading reading) {
+        try {
+            String deviceUid = reading.deviceUid();
 
             if (deviceUid != null) {
-                Device device = deviceRepository.findByDeviceUid(deviceUid)
-                        .orElseThrow(() -> new RuntimeException("Không tìm thấy thiết bị: " + deviceUid));
-
-                sensorDataService.saveSensorData(device, temperature, humidity, light);
-
-            log.info("[SERVICE] Đã lưu dữ liệu cảm biến cho deviceUid={}", deviceUid);
-
-                //Gửi WebSocket tới FE
-                Map<String, Object> wsPayload = new HashMap<>();
-                wsPayload.put("deviceUid", deviceUid);
-                wsPayload.put("temperature", temperature);
-                wsPayload.put("humidity", humidity);
-                wsPayload.put("light", light);
-                DateTimeFormatter fmt = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
-                wsPayload.put("recordedAt", LocalDateTime.now().format(fmt));
-                wsTemplate.convertAndSend("/topic/sensors", wsPayload);
-
-                
+                long lookupStart = System.nanoTime();
+                Optional<Device> found = deviceRegistry.findByDeviceUid(deviceUid);
+                metrics.record(Stage.DEVICE_LOOKUP, lookupStart);
+                if (found.isEmpty()) {
+                    metrics.error(ErrorReason.UNKNOWN_DEVICE);
+                    log.warn("[SERVICE] Không tìm thấy thiết bị: {}", deviceUid);
+                    return;
+                }
+                Device device = found.get();
+                livenessTracker.touch(device.getId());
+
+                long enqueueStart = System.nanoTime();
+                boolean accepted = sensorDataService.saveSensorData(device, reading.temperature(), reading.humidity(), reading.light(),
+                        reading.metrics(), reading.idempotencyKey());
+                metrics.record(Stage.ENQUEUE, enqueueStart);
+                if (accepted) {
+                    log.debug("[SERVICE] Đã nhận dữ liệu cảm biến vào hàng đợi ghi cho deviceUid={}", deviceUid);
+                } else {
+                    metrics.error(ErrorReason.QUEUE_FULL);
+                }
+
+                //Gửi WebSocket tới FE (gộp theo thiết bị, xem SensorBroadcaster)
+                sensorBroadcaster.publish(new SensorUpdateDTO(deviceUid,
+                        TelemetryReading.boxed(reading.temperature()),
+                        TelemetryReading.boxed(reading.humidity()),
+                        TelemetryReading.boxed(reading.light()),
+                        LocalDateTime.now()));
+                metrics.ingestLag(reading.deviceTimestampMillis());
 
             } else {
+                metrics.error(ErrorReason.BAD_PAYLOAD);
                 log.warn("[SERVICE] Thiếu deviceUid trong payload");
             }
         } catch (Exception e) {
+            metrics.error(ErrorReason.OTHER);
             log.error("[WS] Lỗi xử lý dữ liệu cảm biến", e);
         }
     }
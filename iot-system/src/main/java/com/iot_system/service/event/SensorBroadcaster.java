@@ -0,0 +1,163 @@
+package com.iot_system.service.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.iot_system.domain.dto.SensorUpdateDTO;
+import com.iot_system.mqtt.IngestMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Phát dữ liệu cảm biến realtime qua WebSocket theo từng thiết bị, có gộp (conflation).
+ * - Mỗi thiết bị có một đích riêng /topic/sensors/{deviceUid}; /topic/sensors (tất cả thiết bị) vẫn giữ nếu bật legacy-topic
+ * - max-rate-per-second = N > 0: mỗi thiết bị gửi tối đa N bản tin/giây, giá trị mới nhất thắng (bản tin trung gian bị bỏ)
+ *   => mỗi subscriber nhận tối đa N bản tin/giây/thiết bị; N = 0 thì gửi ngay từng bản tin như cũ
+ * - Payload được serialize một lần thành byte[] rồi dùng chung cho mọi đích và mọi subscriber
+ */
+@Component
+public class SensorBroadcaster {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorBroadcaster.class);
+
+    private static final String LEGACY_DESTINATION = "/topic/sensors";
+
+    private final SimpMessagingTemplate wsTemplate;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final IngestMetrics ingestMetrics;
+
+    @Value("${ws.sensors.max-rate-per-second:4}")
+    private int maxRatePerSecond;
+
+    @Value("${ws.sensors.legacy-topic:false}")
+    private boolean legacyTopic;
+
+    /** Bản tin mới nhất chưa gửi của từng thiết bị */
+    private static final class Slot {
+        final String destination;
+        final AtomicReference<SensorUpdateDTO> pending = new AtomicReference<>();
+
+        Slot(String deviceUid) {
+            this.destination = LEGACY_DESTINATION + "/" + deviceUid;
+        }
+    }
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private ScheduledExecutorService ticker;
+
+    private Counter sentCounter;
+    private Counter conflatedCounter;
+    private Counter failedCounter;
+
+    public SensorBroadcaster(SimpMessagingTemplate wsTemplate,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             IngestMetrics ingestMetrics) {
+        this.wsTemplate = wsTemplate;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.ingestMetrics = ingestMetrics;
+    }
+
+    void setMaxRatePerSecond(int maxRatePerSecond) {
+        this.maxRatePerSecond = maxRatePerSecond;
+    }
+
+    void setLegacyTopic(boolean legacyTopic) {
+        this.legacyTopic = legacyTopic;
+    }
+
+    @PostConstruct
+    public void start() {
+        sentCounter = Counter.builder("iot.ws.sensors.sent").register(meterRegistry);
+        conflatedCounter = Counter.builder("iot.ws.sensors.conflated")
+                .description("Số bản tin bị thay bởi bản tin mới hơn trước khi kịp gửi")
+                .register(meterRegistry);
+        failedCounter = Counter.builder("iot.ws.sensors.failed").register(meterRegistry);
+        Gauge.builder("iot.ws.sensors.devices", slots, Map::size).register(meterRegistry);
+
+        if (maxRatePerSecond > 0) {
+            long periodMicros = TimeUnit.SECONDS.toMicros(1) / maxRatePerSecond;
+            ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "ws-sensor-broadcast");
+                t.setDaemon(true);
+                return t;
+            });
+            ticker.scheduleAtFixedRate(this::flushPending, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+        }
+        log.info("[WS] Phát dữ liệu cảm biến: maxRatePerSecond={}, legacyTopic={}", maxRatePerSecond, legacyTopic);
+    }
+
+    /** Gọi từ luồng xử lý MQTT: chỉ ghi đè bản tin chờ gửi của thiết bị (không chặn, không serialize) */
+    public void publish(SensorUpdateDTO update) {
+        Slot slot = slots.computeIfAbsent(update.deviceUid(), Slot::new);
+        if (maxRatePerSecond <= 0) {
+            send(slot, update);
+            return;
+        }
+        if (slot.pending.getAndSet(update) != null) {
+            conflatedCounter.increment();
+        }
+    }
+
+    private void flushPending() {
+        for (Slot slot : slots.values()) {
+            SensorUpdateDTO update = slot.pending.getAndSet(null);
+            if (update != null) {
+                send(slot, update);
+            }
+        }
+    }
+
+    private void send(Slot slot, SensorUpdateDTO update) {
+        long startNanos = System.nanoTime();
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(update);
+            wsTemplate.send(slot.destination, jsonMessage(payload));
+            if (legacyTopic) {
+                wsTemplate.send(LEGACY_DESTINATION, jsonMessage(payload));
+            }
+            sentCounter.increment();
+        } catch (Exception e) {
+            failedCounter.increment();
+            ingestMetrics.error(IngestMetrics.ErrorReason.WS_FAILURE);
+            log.error("[WS] Lỗi gửi dữ liệu cảm biến của {}", update.deviceUid(), e);
+        } finally {
+            ingestMetrics.record(IngestMetrics.Stage.WS_SEND, startNanos);
+        }
+    }
+
+    // Gửi byte[] đã serialize sẵn (không qua MessageConverter) với content-type JSON
+    private static Message<byte[]> jsonMessage(byte[] payload) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (ticker != null) {
+            ticker.shutdown();
+        }
+    }
+}
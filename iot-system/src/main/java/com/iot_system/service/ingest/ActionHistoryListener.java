@@ -0,0 +1,12 @@
+package com.iot_system.service.ingest;
+
+import java.time.LocalDateTime;
+
+/**
+ * Được {@link DeviceWriteBehind} gọi trên luồng writer sau khi một lô device_action_history đã ghi thành công.
+ * oldest/newest là executedAt nhỏ nhất/lớn nhất trong lô.
+ */
+public interface ActionHistoryListener {
+
+    void onHistoryWritten(LocalDateTime oldest, LocalDateTime newest);
+}
@@ -0,0 +1,378 @@
+package com.iot_system.service.ingest;
+
+import com.iot_system.config.DataSourceConfig;
+import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.mqtt.IngestMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ghi trễ (write-behind) trạng thái thiết bị và lịch sử hành động khi nhận ACK.
+ * - device.state: chỉ giữ trạng thái mới nhất của mỗi thiết bị (nhiều ACK liên tiếp => một câu UPDATE)
+ * - device_action_history: gom theo lô rồi ghi bằng JDBC batch
+ * - Một luồng writer flush sau mỗi flush-interval-ms hoặc khi đủ batch-size; khi dừng ứng dụng ghi nốt phần còn lại
+ * - Lô lịch sử ghi lỗi không bị bỏ: writer giữ lô, chờ backoff rồi ghi lại và chưa nhận lô mới (hàng đợi đầy dần =>
+ *   recordAck chặn tối đa offer-timeout-ms như khi DB chậm). Lỗi liên tiếp retry.max-attempts lần mà DB vẫn trả lời
+ *   => ghi từng dòng để dòng lỗi dữ liệu không chặn cả hàng đợi
+ * Trạng thái trong RAM (DeviceRegistry) được cập nhật ngay ở nơi gọi, không chờ DB.
+ */
+@Component
+public class DeviceWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(DeviceWriteBehind.class);
+
+    private static final String INSERT_HISTORY_SQL =
+            "INSERT INTO device_action_history (device_id, action, executed_at) VALUES (?, ?, ?)";
+    private static final String UPDATE_STATE_SQL = "UPDATE device SET state = ? WHERE id = ?";
+    private static final String PING_SQL = "SELECT 1";
+
+    private record ActionRow(long deviceId, DeviceState action, LocalDateTime executedAt) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final IngestMetrics ingestMetrics;
+    private final List<ActionHistoryListener> listeners;
+
+    @Value("${device.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${device.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${device.write-behind.flush-interval-ms:100}")
+    private long flushIntervalMs;
+
+    @Value("${device.write-behind.offer-timeout-ms:1000}")
+    private long offerTimeoutMs;
+
+    @Value("${device.write-behind.retry.max-attempts:5}")
+    private int retryMaxAttempts;
+
+    @Value("${device.write-behind.retry.backoff-ms:200}")
+    private long retryBackoffMs;
+
+    @Value("${device.write-behind.retry.max-backoff-ms:10000}")
+    private long retryMaxBackoffMs;
+
+    private BlockingQueue<ActionRow> historyQueue;
+    // executedAt của dòng cũ nhất trong lô đang ghi (null = không có); xem historyWatermark()
+    private volatile LocalDateTime inFlightOldest;
+    private final Map<Long, DeviceState> dirtyStates = new ConcurrentHashMap<>();
+    private Thread writerThread;
+    private volatile boolean running;
+
+    private Counter historyWrittenCounter;
+    private Counter historyFailedCounter;
+    private Counter historyDroppedCounter;
+    private Counter historyRetryCounter;
+    private Counter stateWrittenCounter;
+    private Counter stateFailedCounter;
+    private Timer flushTimer;
+
+    public DeviceWriteBehind(@Qualifier(DataSourceConfig.INGEST_JDBC_TEMPLATE) JdbcTemplate jdbcTemplate,
+                             MeterRegistry meterRegistry,
+                             IngestMetrics ingestMetrics,
+                             List<ActionHistoryListener> listeners) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.ingestMetrics = ingestMetrics;
+        this.listeners = listeners;
+    }
+
+    void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    void setRetry(int maxAttempts, long backoffMs, long maxBackoffMs) {
+        this.retryMaxAttempts = maxAttempts;
+        this.retryBackoffMs = backoffMs;
+        this.retryMaxBackoffMs = maxBackoffMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        historyQueue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Gauge.builder("iot.device.writebehind.queue.depth", historyQueue, BlockingQueue::size).register(meterRegistry);
+        Gauge.builder("iot.device.writebehind.dirty.states", dirtyStates, Map::size).register(meterRegistry);
+        historyWrittenCounter = rows("history", "written");
+        historyFailedCounter = rows("history", "failed");
+        historyDroppedCounter = rows("history", "dropped");
+        historyRetryCounter = Counter.builder("iot.device.writebehind.retries")
+                .description("Số lần ghi lại một lô lịch sử hành động bị lỗi")
+                .register(meterRegistry);
+        stateWrittenCounter = rows("state", "written");
+        stateFailedCounter = rows("state", "failed");
+        flushTimer = Timer.builder("iot.device.writebehind.flush").register(meterRegistry);
+
+        running = true;
+        writerThread = new Thread(this::runWriter, "device-write-behind");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        log.info("[INGEST] Khởi động write-behind thiết bị: queueCapacity={}, batchSize={}, flushIntervalMs={}",
+                queueCapacity, batchSize, flushIntervalMs);
+    }
+
+    private Counter rows(String kind, String result) {
+        return Counter.builder("iot.device.writebehind.rows")
+                .tag("kind", kind)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ghi nhận một ACK: trạng thái mới nhất của thiết bị + một dòng lịch sử.
+     * @return false nếu dòng lịch sử bị bỏ do hàng đợi đầy (trạng thái vẫn được ghi)
+     */
+    public boolean recordAck(long deviceId, DeviceState state, LocalDateTime executedAt) {
+        dirtyStates.put(deviceId, state);
+        boolean accepted;
+        try {
+            accepted = running && historyQueue.offer(new ActionRow(deviceId, state, executedAt),
+                    offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            historyDroppedCounter.increment();
+            log.warn("[INGEST] Hàng đợi lịch sử hành động đầy hoặc đã dừng, bỏ bản ghi deviceId={}", deviceId);
+        }
+        return accepted;
+    }
+
+    /** Trạng thái đã nhận nhưng chưa ghi xuống DB (dùng để phủ lên dữ liệu vừa đọc từ DB) */
+    public Optional<DeviceState> pendingState(long deviceId) {
+        return Optional.ofNullable(dirtyStates.get(deviceId));
+    }
+
+    /** Mốc ghi lịch sử hành động, cùng ý nghĩa với SensorBatchWriter.ingestWatermark() */
+    public LocalDateTime historyWatermark() {
+        LocalDateTime mark = LocalDateTime.now();
+        ActionRow head = historyQueue.peek();
+        if (head != null && head.executedAt().isBefore(mark)) {
+            mark = head.executedAt();
+        }
+        LocalDateTime inFlight = inFlightOldest;
+        if (inFlight != null && inFlight.isBefore(mark)) {
+            mark = inFlight;
+        }
+        return mark;
+    }
+
+    private void runWriter() {
+        List<ActionRow> batch = new ArrayList<>(batchSize);
+        // Số lần liên tiếp lô hiện tại ghi lỗi; > 0 => batch là lô lỗi đang chờ ghi lại
+        int failures = 0;
+        while (running) {
+            try {
+                if (failures > 0) {
+                    Thread.sleep(retryDelayMs(failures));
+                } else {
+                    ActionRow head = historyQueue.peek();
+                    if (head != null) {
+                        inFlightOldest = head.executedAt();
+                    }
+                    ActionRow first = historyQueue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        if (head == null) {
+                            inFlightOldest = first.executedAt();
+                        }
+                        batch.add(first);
+                        historyQueue.drainTo(batch, batchSize - 1);
+                    }
+                }
+                if (flush(batch, failures + 1 >= retryMaxAttempts)) {
+                    batch.clear();
+                    inFlightOldest = null;
+                    failures = 0;
+                } else {
+                    failures++;
+                    historyRetryCounter.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // Ghi nốt phần còn lại (gồm lô lỗi đang giữ); DB vẫn lỗi thì không còn chỗ giữ => đếm failed
+        do {
+            if (!flush(batch, true)) {
+                historyFailedCounter.increment(batch.size());
+                log.error("[INGEST] Đang dừng, bỏ {} dòng lịch sử hành động chưa ghi được", batch.size());
+            }
+            batch.clear();
+            historyQueue.drainTo(batch, batchSize);
+        } while (!batch.isEmpty());
+    }
+
+    private long retryDelayMs(int failures) {
+        long delay = retryBackoffMs << Math.min(failures - 1, 20);
+        return Math.min(delay, retryMaxBackoffMs);
+    }
+
+    /** @return false nếu lô lịch sử chưa ghi được và phải giữ lại */
+    private boolean flush(List<ActionRow> batch, boolean isolateBadRows) {
+        if (batch.isEmpty() && dirtyStates.isEmpty()) {
+            return true;
+        }
+        long startNanos = System.nanoTime();
+        try {
+            flushStates();
+            return flushHistory(batch, isolateBadRows);
+        } finally {
+            flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void flushStates() {
+        if (dirtyStates.isEmpty()) {
+            return;
+        }
+        List<Map.Entry<Long, DeviceState>> snapshot = new ArrayList<>(dirtyStates.size());
+        for (Map.Entry<Long, DeviceState> e : dirtyStates.entrySet()) {
+            snapshot.add(Map.entry(e.getKey(), e.getValue()));
+        }
+        List<Object[]> args = new ArrayList<>(snapshot.size());
+        for (Map.Entry<Long, DeviceState> e : snapshot) {
+            args.add(new Object[]{e.getValue().name(), e.getKey()});
+        }
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_STATE_SQL, args);
+            // Chỉ xóa nếu chưa có trạng thái mới hơn đến trong lúc ghi
+            for (Map.Entry<Long, DeviceState> e : snapshot) {
+                dirtyStates.remove(e.getKey(), e.getValue());
+            }
+            stateWrittenCounter.increment(snapshot.size());
+        } catch (Exception e) {
+            // Giữ lại trong dirtyStates để thử lại ở lần flush sau
+            stateFailedCounter.increment(snapshot.size());
+            ingestMetrics.error(IngestMetrics.ErrorReason.DB_FAILURE, snapshot.size());
+            log.error("[INGEST] Lỗi cập nhật trạng thái {} thiết bị", snapshot.size(), e);
+        }
+    }
+
+    private boolean flushHistory(List<ActionRow> batch, boolean isolateBadRows) {
+        if (batch.isEmpty()) {
+            return true;
+        }
+        try {
+            insertHistory(batch);
+        } catch (Exception e) {
+            ingestMetrics.error(IngestMetrics.ErrorReason.DB_FAILURE, batch.size());
+            if (isolateBadRows) {
+                return insertRowByRow(batch, e);
+            }
+            log.warn("[INGEST] Lỗi ghi lô {} dòng lịch sử hành động, giữ lại để ghi lại: {}", batch.size(), e.getMessage());
+            return false;
+        }
+        historyWrittenCounter.increment(batch.size());
+        log.debug("[INGEST] Đã ghi {} dòng lịch sử hành động", batch.size());
+        notifyListeners(batch);
+        return true;
+    }
+
+    /**
+     * Lô vẫn lỗi sau retry.max-attempts lần: nếu DB không trả lời thì giữ nguyên lô; nếu DB hoạt động thì lỗi nằm ở
+     * dữ liệu => ghi từng dòng, bỏ (đếm failed) những dòng lỗi để không chặn các lô sau
+     */
+    private boolean insertRowByRow(List<ActionRow> batch, Exception batchError) {
+        try {
+            jdbcTemplate.queryForObject(PING_SQL, Integer.class);
+        } catch (Exception e) {
+            log.error("[INGEST] DB chưa hồi phục, giữ lô {} dòng lịch sử hành động", batch.size(), batchError);
+            return false;
+        }
+        List<ActionRow> written = new ArrayList<>(batch.size());
+        for (ActionRow row : batch) {
+            try {
+                insertHistory(List.of(row));
+                written.add(row);
+            } catch (Exception e) {
+                historyFailedCounter.increment();
+                log.error("[INGEST] Bỏ dòng lịch sử hành động không ghi được {}", row, e);
+            }
+        }
+        if (!written.isEmpty()) {
+            historyWrittenCounter.increment(written.size());
+            notifyListeners(written);
+        }
+        return true;
+    }
+
+    private void insertHistory(List<ActionRow> rows) {
+        List<Object[]> args = new ArrayList<>(rows.size());
+        for (ActionRow row : rows) {
+            args.add(new Object[]{row.deviceId(), row.action().name(), Timestamp.valueOf(row.executedAt())});
+        }
+        jdbcTemplate.batchUpdate(INSERT_HISTORY_SQL, args);
+    }
+
+    private void notifyListeners(List<ActionRow> batch) {
+        if (listeners.isEmpty()) {
+            return;
+        }
+        LocalDateTime oldest = batch.get(0).executedAt();
+        LocalDateTime newest = oldest;
+        for (ActionRow row : batch) {
+            if (row.executedAt().isBefore(oldest)) {
+                oldest = row.executedAt();
+            }
+            if (row.executedAt().isAfter(newest)) {
+                newest = row.executedAt();
+            }
+        }
+        for (ActionHistoryListener listener : listeners) {
+            try {
+                listener.onHistoryWritten(oldest, newest);
+            } catch (Exception e) {
+                log.error("[INGEST] Listener {} lỗi khi xử lý lô {} dòng lịch sử", listener.getClass().getSimpleName(), batch.size(), e);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (writerThread != null) {
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("[INGEST] Đã dừng write-behind thiết bị, còn lại {} dòng lịch sử, {} trạng thái chưa ghi",
+                historyQueue.size(), dirtyStates.size());
+    }
+}
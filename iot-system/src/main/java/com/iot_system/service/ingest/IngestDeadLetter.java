@@ -0,0 +1,232 @@
+package com.iot_system.service.ingest;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lô sensor_data ghi thất bại sau mọi lần thử lại được lưu ra đĩa: {dir}/batch-{thời điểm}-{seq}.csv, mỗi dòng một bản tin
+ * deviceId,recordedAt,temperature,humidity,light,idempotencyKey,metricId:value;metricId:value (giá trị vắng mặt để trống).
+ * SensorBatchWriter đọc lại file cũ nhất theo chu kỳ (ingest.dead-letter.replay-interval-ms) và chỉ xóa file sau khi ghi
+ * thành công => DB ngừng lâu hơn thời gian thử lại không làm mất dữ liệu, chỉ làm chậm. Ghi lại lô trùng với lô đã
+ * ghi được IngestDedupe loại bỏ (nếu bật). Lô lỗi do chính dữ liệu bị đổi sang .failed, cần xử lý thủ công.
+ * Giữ recordedAt cũ nhất của từng file đang chờ => SensorBatchWriter.ingestWatermark không vượt qua dữ liệu chưa ghi.
+ * Ghi file tạm rồi ATOMIC_MOVE như ColdSegmentStore => không bao giờ đọc lại một file ghi dở.
+ */
+@Component
+public class IngestDeadLetter {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestDeadLetter.class);
+
+    private static final String PREFIX = "batch-";
+    private static final String SUFFIX = ".csv";
+    // Mốc cho file không đọc được: nhỏ hơn mọi recordedAt thực tế nhưng vẫn trừ được settle-ms
+    private static final LocalDateTime UNREADABLE_OLDEST = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final MeterRegistry meterRegistry;
+    private final AtomicLong sequence = new AtomicLong();
+    // File đang chờ ghi lại -> recordedAt cũ nhất trong file
+    private final Map<Path, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    @Value("${ingest.dead-letter.dir:data/ingest-dead-letter}")
+    private String dir;
+
+    private Path root;
+
+    public IngestDeadLetter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setDir(String dir) {
+        this.dir = dir;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        root = Files.createDirectories(Paths.get(dir).toAbsolutePath());
+        for (Path file : files()) {
+            LocalDateTime oldest;
+            try {
+                oldest = oldest(read(file));
+            } catch (IOException | RuntimeException e) {
+                // File hỏng bị cách ly ở lần ghi lại; tới lúc đó không coi khoảng thời gian nào là đã ghi xong
+                log.warn("[INGEST] Không đọc được lô chờ ghi lại {}", file, e);
+                oldest = UNREADABLE_OLDEST;
+            }
+            if (oldest != null) {
+                pending.put(file, oldest);
+            }
+        }
+        Gauge.builder("iot.ingest.dead_letter.files", pending, Map::size)
+                .description("Số lô sensor_data đang chờ ghi lại từ đĩa")
+                .register(meterRegistry);
+        if (!pending.isEmpty()) {
+            log.warn("[INGEST] Có {} lô sensor_data chờ ghi lại trong {}", pending.size(), root);
+        }
+    }
+
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /** recordedAt cũ nhất trong các lô đang chờ ghi lại; null nếu không còn lô nào */
+    public LocalDateTime oldestPending() {
+        LocalDateTime oldest = null;
+        for (LocalDateTime recordedAt : pending.values()) {
+            if (oldest == null || recordedAt.isBefore(oldest)) {
+                oldest = recordedAt;
+            }
+        }
+        return oldest;
+    }
+
+    /** Lưu một lô ra đĩa; false nếu không ghi được (lô bị mất) */
+    public boolean append(List<SensorReadingRow> batch) {
+        String name = PREFIX + System.currentTimeMillis() + "-" + sequence.incrementAndGet() + SUFFIX;
+        Path tmp = root.resolve(name + ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (SensorReadingRow row : batch) {
+                    writer.write(format(row));
+                    writer.newLine();
+                }
+            }
+            Path file = Files.move(tmp, root.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+            LocalDateTime oldest = oldest(batch);
+            if (oldest != null) {
+                pending.put(file, oldest);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("[INGEST] Không lưu được lô {} bản ghi ra {}", batch.size(), root, e);
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // file tạm sót lại không bao giờ được đọc (không có đuôi .csv)
+            }
+            return false;
+        }
+    }
+
+    /** File lô cũ nhất (tên theo thời điểm ghi); null nếu không còn */
+    public Path oldest() {
+        List<Path> files = files();
+        return files.isEmpty() ? null : files.get(0);
+    }
+
+    public List<SensorReadingRow> read(Path file) throws IOException {
+        List<SensorReadingRow> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                rows.add(parse(line));
+            }
+        }
+        return rows;
+    }
+
+    public void delete(Path file) throws IOException {
+        Files.deleteIfExists(file);
+        pending.remove(file);
+    }
+
+    /** Lô không ghi được dù DB hoạt động: đổi sang .failed, không đọc lại nữa */
+    public void quarantine(Path file) {
+        try {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".failed"), StandardCopyOption.ATOMIC_MOVE);
+            pending.remove(file);
+        } catch (IOException e) {
+            log.error("[INGEST] Không cách ly được lô {}", file, e);
+        }
+    }
+
+    private List<Path> files() {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, PREFIX + "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            log.warn("[INGEST] Lỗi đọc thư mục lô chờ ghi lại {}", root, e);
+        }
+        // batch-{millis}-{seq}: so theo số để 9 < 10
+        files.sort((a, b) -> {
+            long[] x = order(a);
+            long[] y = order(b);
+            return x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]);
+        });
+        return files;
+    }
+
+    private static LocalDateTime oldest(List<SensorReadingRow> batch) {
+        LocalDateTime oldest = null;
+        for (SensorReadingRow row : batch) {
+            if (oldest == null || row.recordedAt().isBefore(oldest)) {
+                oldest = row.recordedAt();
+            }
+        }
+        return oldest;
+    }
+
+    private static long[] order(Path file) {
+        String name = file.getFileName().toString();
+        String[] parts = name.substring(PREFIX.length(), name.length() - SUFFIX.length()).split("-");
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
+
+    static String format(SensorReadingRow row) {
+        StringBuilder line = new StringBuilder(96)
+                .append(row.deviceId()).append(',')
+                .append(row.recordedAt()).append(',')
+                .append(value(row.temperature())).append(',')
+                .append(value(row.humidity())).append(',')
+                .append(value(row.light())).append(',')
+                .append(row.idempotencyKey()).append(',');
+        for (int i = 0; i < row.metrics().size(); i++) {
+            MetricSample sample = row.metrics().get(i);
+            if (i > 0) {
+                line.append(';');
+            }
+            line.append(sample.metricId()).append(':').append(sample.value());
+        }
+        return line.toString();
+    }
+
+    static SensorReadingRow parse(String line) {
+        String[] f = line.split(",", -1);
+        List<MetricSample> metrics = new ArrayList<>();
+        if (!f[6].isEmpty()) {
+            for (String sample : f[6].split(";")) {
+                int colon = sample.indexOf(':');
+                metrics.add(new MetricSample(Integer.parseInt(sample.substring(0, colon)),
+                        Double.parseDouble(sample.substring(colon + 1))));
+            }
+        }
+        return new SensorReadingRow(Long.parseLong(f[0]), number(f[2]), number(f[3]), number(f[4]),
+                LocalDateTime.parse(f[1]), metrics.isEmpty() ? List.of() : metrics, Long.parseLong(f[5]));
+    }
+
+    private static String value(double value) {
+        return Double.isNaN(value) ? "" : Double.toString(value);
+    }
+
+    private static double number(String field) {
+        return field.isEmpty() ? Double.NaN : Double.parseDouble(field);
+    }
+}
@@ -0,0 +1,177 @@
+package com.iot_system.service.ingest;
+
+import com.iot_system.config.DataSourceConfig;
+import com.iot_system.domain.entity.SensorIngestKey;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chống ghi trùng sensor_data khi cùng một bản tin được giao nhiều lần: QoS 1 giao lại sau khi mất kết nối,
+ * hoặc broker chuyển message chưa ACK của shared subscription sang instance khác khi một instance chết.
+ * - Mỗi bản tin có khóa (device_id, idempotencyKey) - xem TelemetryReading.idempotencyKey
+ * - Trước khi ghi một lô, writer "giành" khóa: INSERT IGNORE vào sensor_ingest_key kèm claim_id ngẫu nhiên của lô,
+ *   rồi đọc lại các khóa mang claim_id đó => khóa chính của bảng phân xử giữa các instance, không cần khóa phân tán
+ * - Giành khóa chạy trong cùng transaction với INSERT sensor_data/sensor_reading (SensorBatchWriter): ghi lỗi hoặc
+ *   tiến trình chết giữa chừng => khóa rollback cùng dữ liệu, lần giao lại vẫn được ghi. Instance khác giành cùng khóa
+ *   thì chờ transaction này kết thúc rồi mới biết trùng hay không
+ * - Khóa cũ hơn ttl-ms bị xóa nền: chỉ cần giữ trong khoảng broker còn có thể giao lại
+ * Schema: entity {@link SensorIngestKey}.
+ * Tắt (mặc định khi không chạy cluster) => không chạm DB, mọi dòng đi thẳng.
+ */
+@Component
+public class IngestDedupe {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestDedupe.class);
+
+    private static final Comparator<Object[]> CLAIM_ORDER = Comparator
+            .<Object[]>comparingLong(a -> (Long) a[0])
+            .thenComparingLong(a -> (Long) a[1]);
+
+    private static final String CLAIM_SQL =
+            "INSERT IGNORE INTO sensor_ingest_key (device_id, msg_key, claim_id, claimed_at) VALUES (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ingest.dedupe.enabled:false}")
+    private boolean enabled;
+
+    @Value("${ingest.dedupe.ttl-ms:3600000}")
+    private long ttlMs;
+
+    @Value("${ingest.dedupe.purge-interval-ms:60000}")
+    private long purgeIntervalMs;
+
+    @Value("${ingest.dedupe.purge-chunk-size:5000}")
+    private int purgeChunkSize;
+
+    private ScheduledExecutorService scheduler;
+    private Counter duplicateCounter;
+
+    public IngestDedupe(@Qualifier(DataSourceConfig.INGEST_JDBC_TEMPLATE) JdbcTemplate jdbcTemplate,
+                        MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    void setPurge(long ttlMs, long intervalMs, int chunkSize) {
+        this.ttlMs = ttlMs;
+        this.purgeIntervalMs = intervalMs;
+        this.purgeChunkSize = chunkSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        duplicateCounter = Counter.builder("iot.ingest.rows").tag("result", "duplicate").register(meterRegistry);
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ingest-dedupe-purge");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::purgeExpired, purgeIntervalMs, purgeIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("[INGEST] Bật chống ghi trùng theo khóa bản tin, giữ khóa {} ms", ttlMs);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Giành khóa cho các dòng có idempotencyKey; dòng không có khóa luôn được giữ.
+     * Dòng trùng (đã ghi bởi lô trước/instance khác, hoặc lặp lại trong cùng lô) bị bỏ khỏi kết quả.
+     * Phải gọi trong transaction của lô ghi (ingestTransactionTemplate) để khóa commit/rollback cùng dữ liệu.
+     */
+    public List<SensorReadingRow> claim(List<SensorReadingRow> batch) {
+        if (!enabled) {
+            return batch;
+        }
+        List<Object[]> args = null;
+        long claimId = ThreadLocalRandom.current().nextLong();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (SensorReadingRow row : batch) {
+            if (row.idempotencyKey() != 0) {
+                if (args == null) {
+                    args = new ArrayList<>(batch.size());
+                }
+                args.add(new Object[]{row.deviceId(), row.idempotencyKey(), claimId, now});
+            }
+        }
+        if (args == null) {
+            return batch;
+        }
+        // Cùng thứ tự khóa chính ở mọi instance => hai lô giành chồng khóa chờ nhau thay vì deadlock
+        args.sort(CLAIM_ORDER);
+
+        Set<Key> won = new HashSet<>();
+        jdbcTemplate.batchUpdate(CLAIM_SQL, args);
+        jdbcTemplate.query("SELECT device_id, msg_key FROM sensor_ingest_key WHERE claim_id = ?",
+                rs -> {
+                    won.add(new Key(rs.getLong(1), rs.getLong(2)));
+                }, claimId);
+
+        List<SensorReadingRow> rows = new ArrayList<>(batch.size());
+        for (SensorReadingRow row : batch) {
+            // remove: khóa lặp lại trong cùng lô chỉ lấy lần đầu
+            if (row.idempotencyKey() == 0 || won.remove(new Key(row.deviceId(), row.idempotencyKey()))) {
+                rows.add(row);
+            }
+        }
+        int duplicates = batch.size() - rows.size();
+        if (duplicates > 0) {
+            duplicateCounter.increment(duplicates);
+            log.debug("[INGEST] Bỏ {} bản tin trùng", duplicates);
+        }
+        return rows;
+    }
+
+    private record Key(long deviceId, long msgKey) {
+    }
+
+    private void purgeExpired() {
+        try {
+            Timestamp before = Timestamp.valueOf(LocalDateTime.now().minusNanos(ttlMs * 1_000_000L));
+            int deleted;
+            do {
+                deleted = jdbcTemplate.update("DELETE FROM sensor_ingest_key WHERE claimed_at < ? LIMIT ?",
+                        before, purgeChunkSize);
+            } while (deleted >= purgeChunkSize);
+        } catch (Exception e) {
+            log.warn("[INGEST] Lỗi xóa khóa chống trùng quá hạn", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
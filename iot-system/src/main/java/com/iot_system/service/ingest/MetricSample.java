@@ -0,0 +1,5 @@
+package com.iot_system.service.ingest;
+
+/** Một giá trị của metric lưu ở bảng hẹp sensor_reading; metricId đã intern qua MetricRegistry */
+public record MetricSample(int metricId, double value) {
+}
@@ -0,0 +1,12 @@
+package com.iot_system.service.ingest;
+
+import java.util.List;
+
+/**
+ * Được {@link SensorBatchWriter} gọi trên luồng writer sau khi một lô sensor_data đã ghi thành công.
+ * Cài đặt không được giữ tham chiếu tới danh sách sau khi trả về (writer tái sử dụng nó).
+ */
+public interface SensorBatchListener {
+
+    void onBatchWritten(List<SensorReadingRow> batch);
+}
@@ -0,0 +1,492 @@
+package com.iot_system.service.ingest;
+
+import com.iot_system.config.DataSourceConfig;
+import com.iot_system.mqtt.IngestMetrics;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hàng đợi ghi sensor_data (và sensor_reading cho metric ngoài ba cột cố định) theo lô.
+ * - Producer (luồng MQTT) chỉ offer vào hàng đợi có giới hạn
+ * - Một luồng writer gom tối đa batch-size dòng hoặc chờ tối đa flush-interval-ms rồi ghi bằng JDBC batch
+ *   (kết hợp rewriteBatchedStatements=true của MySQL => một câu INSERT nhiều dòng)
+ * - Khi hàng đợi đầy: áp dụng {@link OverflowPolicy}
+ * - Mỗi lô là một transaction trên pool ingest: giành khóa chống trùng ({@link IngestDedupe}), sensor_data
+ *   và sensor_reading cùng commit hoặc cùng rollback
+ * - Lô lỗi được thử lại tối đa retry.max-attempts lần (chờ retry.backoff-ms, gấp đôi mỗi lần); vẫn lỗi thì lưu ra đĩa
+ *   ({@link IngestDeadLetter}) và được ghi lại khi DB hoạt động trở lại
+ */
+@Component
+public class SensorBatchWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorBatchWriter.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO sensor_data (device_id, temperature, humidity, light, recorded_at) VALUES (?, ?, ?, ?, ?)";
+
+    // Trùng (thiết bị, thời điểm, metric) => giữ giá trị mới nhất
+    private static final String INSERT_METRIC_SQL =
+            "INSERT INTO sensor_reading (device_id, ts, metric_id, value) VALUES (?, ?, ?, ?)"
+                    + " ON DUPLICATE KEY UPDATE value = VALUES(value)";
+
+    /**
+     * Chính sách khi hàng đợi đầy.
+     * BLOCK: chặn producer tối đa offer-timeout-ms (đẩy áp lực ngược về broker qua QoS 1), hết giờ thì bỏ bản ghi mới.
+     * DROP_NEWEST: bỏ ngay bản ghi mới.
+     * DROP_OLDEST: bỏ bản ghi cũ nhất trong hàng đợi để nhận bản ghi mới.
+     */
+    public enum OverflowPolicy {
+        BLOCK,
+        DROP_NEWEST,
+        DROP_OLDEST
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionOperations transaction;
+    private final MeterRegistry meterRegistry;
+    private final IngestMetrics ingestMetrics;
+    private final List<SensorBatchListener> listeners;
+    private final IngestDedupe dedupe;
+    private final IngestDeadLetter deadLetter;
+
+    @Value("${ingest.queue-capacity:20000}")
+    private int queueCapacity;
+
+    @Value("${ingest.batch-size:500}")
+    private int batchSize;
+
+    @Value("${ingest.flush-interval-ms:50}")
+    private long flushIntervalMs;
+
+    @Value("${ingest.overflow-policy:BLOCK}")
+    private OverflowPolicy overflowPolicy;
+
+    @Value("${ingest.offer-timeout-ms:1000}")
+    private long offerTimeoutMs;
+
+    @Value("${ingest.retry.max-attempts:3}")
+    private int retryMaxAttempts;
+
+    @Value("${ingest.retry.backoff-ms:200}")
+    private long retryBackoffMs;
+
+    @Value("${ingest.dead-letter.replay-interval-ms:60000}")
+    private long replayIntervalMs;
+
+    private BlockingQueue<SensorReadingRow> queue;
+    // recordedAt của bản ghi cũ nhất trong lô đang gom/ghi (null = không có lô nào); xem ingestWatermark()
+    private volatile LocalDateTime inFlightOldest;
+    private Thread writerThread;
+    private volatile boolean running;
+    // Lô gần nhất (không phải lô ghi lại) ghi thành công => DB đang hoạt động; chỉ luồng writer đọc/ghi
+    private boolean lastFlushOk = true;
+
+    private Counter writtenCounter;
+    private Counter failedCounter;
+    private Counter droppedCounter;
+    private Counter deadLetterCounter;
+    private Counter retryCounter;
+    private Timer flushTimer;
+    private Timer persistDelayTimer;
+    private DistributionSummary batchSizeSummary;
+
+    public SensorBatchWriter(@Qualifier(DataSourceConfig.INGEST_JDBC_TEMPLATE) JdbcTemplate jdbcTemplate,
+                             @Qualifier(DataSourceConfig.INGEST_TRANSACTION_TEMPLATE) TransactionOperations transaction,
+                             MeterRegistry meterRegistry,
+                             IngestMetrics ingestMetrics,
+                             List<SensorBatchListener> listeners,
+                             IngestDedupe dedupe,
+                             IngestDeadLetter deadLetter) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transaction = transaction;
+        this.meterRegistry = meterRegistry;
+        this.ingestMetrics = ingestMetrics;
+        this.listeners = listeners;
+        this.dedupe = dedupe;
+        this.deadLetter = deadLetter;
+    }
+
+    void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    void setFlushIntervalMs(long flushIntervalMs) {
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    void setOverflowPolicy(OverflowPolicy overflowPolicy, long offerTimeoutMs) {
+        this.overflowPolicy = overflowPolicy;
+        this.offerTimeoutMs = offerTimeoutMs;
+    }
+
+    void setRetry(int maxAttempts, long backoffMs, long replayIntervalMs) {
+        this.retryMaxAttempts = maxAttempts;
+        this.retryBackoffMs = backoffMs;
+        this.replayIntervalMs = replayIntervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        Gauge.builder("iot.ingest.queue.depth", queue, BlockingQueue::size)
+                .description("Số bản ghi sensor_data đang chờ ghi")
+                .register(meterRegistry);
+        Gauge.builder("iot.ingest.queue.capacity", queue, q -> queueCapacity)
+                .register(meterRegistry);
+        writtenCounter = Counter.builder("iot.ingest.rows").tag("result", "written").register(meterRegistry);
+        failedCounter = Counter.builder("iot.ingest.rows").tag("result", "failed").register(meterRegistry);
+        droppedCounter = Counter.builder("iot.ingest.rows").tag("result", "dropped").register(meterRegistry);
+        deadLetterCounter = Counter.builder("iot.ingest.rows").tag("result", "dead_letter").register(meterRegistry);
+        retryCounter = Counter.builder("iot.ingest.retries")
+                .description("Số lần thử ghi lại một lô sensor_data")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("iot.ingest.flush")
+                .description("Thời gian ghi một lô sensor_data")
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("iot.ingest.batch.size").register(meterRegistry);
+        persistDelayTimer = Timer.builder("iot.ingest.persist.delay")
+                .description("Thời gian từ lúc nhận bản ghi cũ nhất của lô tới lúc lô được ghi xong")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        running = true;
+        writerThread = new Thread(this::runWriter, "sensor-ingest-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+
+        log.info("[INGEST] Khởi động writer: queueCapacity={}, batchSize={}, flushIntervalMs={}, overflowPolicy={}",
+                queueCapacity, batchSize, flushIntervalMs, overflowPolicy);
+    }
+
+    /**
+     * Đưa một bản ghi vào hàng đợi.
+     * @return false nếu bản ghi bị bỏ do hàng đợi đầy hoặc writer đã dừng
+     */
+    public boolean enqueue(SensorReadingRow row) {
+        if (!running) {
+            droppedCounter.increment();
+            log.warn("[INGEST] Writer đã dừng, bỏ bản ghi deviceId={}", row.deviceId());
+            return false;
+        }
+        boolean accepted;
+        switch (overflowPolicy) {
+            case DROP_NEWEST -> accepted = queue.offer(row);
+            case DROP_OLDEST -> {
+                accepted = queue.offer(row);
+                while (!accepted) {
+                    if (queue.poll() != null) {
+                        droppedCounter.increment();
+                    }
+                    accepted = queue.offer(row);
+                }
+                return true;
+            }
+            default -> {
+                try {
+                    accepted = queue.offer(row, offerTimeoutMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    accepted = false;
+                }
+            }
+        }
+        if (!accepted) {
+            droppedCounter.increment();
+            log.warn("[INGEST] Hàng đợi đầy ({}), bỏ bản ghi deviceId={}", queueCapacity, row.deviceId());
+        }
+        return accepted;
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Mốc ghi: mọi bản ghi có recordedAt trước mốc này đã được ghi vào DB hoặc bị bỏ hẳn (hàng đợi đầy, không lưu được
+     * ra đĩa, lô bị cách ly) - không còn nằm trong hàng đợi, lô đang ghi hay lô chờ ghi lại trên đĩa.
+     * Hàng đợi FIFO nên chỉ cần xem phần tử đầu hàng đợi, lô đang ghi và lô cũ nhất trong {@link IngestDeadLetter}
+     * (lô lỗi được lưu ra đĩa trước khi inFlightOldest được xóa nên mốc không nhảy qua nó).
+     * Bản ghi vừa lấy recordedAt nhưng chưa kịp vào hàng đợi không được tính => nơi dùng phải trừ hao vài giây.
+     */
+    public LocalDateTime ingestWatermark() {
+        LocalDateTime mark = LocalDateTime.now();
+        SensorReadingRow head = queue.peek();
+        if (head != null && head.recordedAt().isBefore(mark)) {
+            mark = head.recordedAt();
+        }
+        LocalDateTime inFlight = inFlightOldest;
+        if (inFlight != null && inFlight.isBefore(mark)) {
+            mark = inFlight;
+        }
+        LocalDateTime pendingReplay = deadLetter.oldestPending();
+        if (pendingReplay != null && pendingReplay.isBefore(mark)) {
+            mark = pendingReplay;
+        }
+        return mark;
+    }
+
+    private void runWriter() {
+        List<SensorReadingRow> batch = new ArrayList<>(batchSize);
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        long nextReplayNanos = System.nanoTime();
+        while (running) {
+            try {
+                if (System.nanoTime() - nextReplayNanos >= 0) {
+                    replayDeadLetters();
+                    nextReplayNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayIntervalMs);
+                }
+                SensorReadingRow head = queue.peek();
+                if (head != null) {
+                    inFlightOldest = head.recordedAt();
+                }
+                SensorReadingRow first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    inFlightOldest = null;
+                    continue;
+                }
+                if (head == null) {
+                    inFlightOldest = first.recordedAt();
+                }
+                batch.add(first);
+                // Gom thêm cho tới khi đủ batch-size hoặc hết flush-interval tính từ bản ghi đầu tiên
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    if (batch.size() >= batchSize) {
+                        break;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    SensorReadingRow next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+                batch.clear();
+                inFlightOldest = null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // Ghi nốt phần còn lại (gồm cả lô đang gom dở khi bị ngắt)
+        queue.drainTo(batch);
+        while (!batch.isEmpty()) {
+            List<SensorReadingRow> chunk = batch.subList(0, Math.min(batchSize, batch.size()));
+            flush(chunk);
+            chunk.clear();
+        }
+    }
+
+    private void flush(List<SensorReadingRow> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        List<SensorReadingRow> rows;
+        try {
+            rows = writeWithRetry(batch, retryMaxAttempts);
+            lastFlushOk = true;
+            writtenCounter.increment(rows.size());
+            persistDelayTimer.record(Duration.between(batch.get(0).recordedAt(), LocalDateTime.now()));
+            log.debug("[INGEST] Đã ghi {} bản ghi sensor_data", rows.size());
+        } catch (Exception e) {
+            lastFlushOk = false;
+            ingestMetrics.error(IngestMetrics.ErrorReason.DB_FAILURE, batch.size());
+            if (deadLetter.append(batch)) {
+                deadLetterCounter.increment(batch.size());
+                log.error("[INGEST] Lỗi ghi lô {} bản ghi sensor_data sau {} lần thử, đã lưu ra đĩa chờ ghi lại",
+                        batch.size(), retryMaxAttempts, e);
+            } else {
+                failedCounter.increment(batch.size());
+                log.error("[INGEST] Lỗi ghi lô {} bản ghi sensor_data, bỏ lô", batch.size(), e);
+            }
+            return;
+        } finally {
+            flushTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            batchSizeSummary.record(batch.size());
+        }
+        if (!rows.isEmpty()) {
+            notifyListeners(rows);
+        }
+    }
+
+    private List<SensorReadingRow> writeWithRetry(List<SensorReadingRow> batch, int maxAttempts) {
+        long backoffMs = retryBackoffMs;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return transaction.execute(status -> write(batch));
+            } catch (RuntimeException e) {
+                // Đang dừng: không chờ thêm, lô được lưu ra đĩa
+                if (attempt >= maxAttempts || !running) {
+                    throw e;
+                }
+                retryCounter.increment();
+                log.warn("[INGEST] Lỗi ghi lô {} bản ghi (lần {}/{}), thử lại sau {} ms: {}",
+                        batch.size(), attempt, maxAttempts, backoffMs, e.getMessage());
+                try {
+                    Thread.sleep(backoffMs);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                backoffMs *= 2;
+            }
+        }
+    }
+
+    /**
+     * Ghi lại các lô đã lưu ra đĩa, cũ trước; dừng ở lô đầu tiên còn lỗi (DB chưa hồi phục), để lần sau.
+     * Lô lỗi trong khi lô mới vẫn ghi được => lỗi nằm ở dữ liệu của lô: cách ly (.failed) để không chặn các lô sau.
+     * Khi lô còn chờ, ingestWatermark không vượt qua nó nên kết quả truy vấn chạm tới khoảng đó được cache dạng khả biến
+     * và bị xóa khi listener nhận lô ghi lại.
+     */
+    private void replayDeadLetters() {
+        if (!deadLetter.hasPending()) {
+            return;
+        }
+        Path file;
+        while (running && (file = deadLetter.oldest()) != null) {
+            List<SensorReadingRow> rows;
+            try {
+                List<SensorReadingRow> batch = deadLetter.read(file);
+                rows = batch.isEmpty() ? batch : writeWithRetry(batch, 1);
+                deadLetter.delete(file);
+            } catch (Exception e) {
+                if (lastFlushOk) {
+                    log.error("[INGEST] Lô {} vẫn lỗi khi DB hoạt động, cách ly để kiểm tra thủ công", file.getFileName(), e);
+                    deadLetter.quarantine(file);
+                    continue;
+                }
+                log.warn("[INGEST] Chưa ghi lại được lô {}: {}", file.getFileName(), e.getMessage());
+                return;
+            }
+            writtenCounter.increment(rows.size());
+            log.info("[INGEST] Đã ghi lại lô {} ({} bản ghi)", file.getFileName(), rows.size());
+            if (!rows.isEmpty()) {
+                notifyListeners(rows);
+            }
+        }
+    }
+
+    /**
+     * Ghi một lô trong transaction đang mở; trả về các dòng đã ghi (bỏ bản tin trùng).
+     * Lỗi => rollback cả khóa đã giành, lần giao lại của bản tin vẫn được ghi.
+     */
+    private List<SensorReadingRow> write(List<SensorReadingRow> batch) {
+        // Bỏ bản tin đã ghi trước đó (giao lại QoS 1 / chuyển giữa các instance); tắt chống trùng => giữ nguyên lô
+        List<SensorReadingRow> rows = dedupe.claim(batch);
+
+        // Thường mọi bản tin đều có cột của sensor_data và không có metric khác => không cấp phát thêm
+        List<SensorReadingRow> wideRows = rows;
+        List<Object[]> metricArgs = null;
+        for (int i = 0; i < rows.size(); i++) {
+            SensorReadingRow row = rows.get(i);
+            if (!row.hasWideValues() && wideRows == rows) {
+                wideRows = new ArrayList<>(rows.subList(0, i));
+            } else if (row.hasWideValues() && wideRows != rows) {
+                wideRows.add(row);
+            }
+            if (!row.metrics().isEmpty()) {
+                if (metricArgs == null) {
+                    metricArgs = new ArrayList<>();
+                }
+                for (MetricSample sample : row.metrics()) {
+                    metricArgs.add(new Object[]{row.deviceId(), row.recordedAt(), sample.metricId(), sample.value()});
+                }
+            }
+        }
+        if (!wideRows.isEmpty()) {
+            insertWide(wideRows);
+        }
+        if (metricArgs != null) {
+            jdbcTemplate.batchUpdate(INSERT_METRIC_SQL, metricArgs);
+        }
+        return rows;
+    }
+
+    private void notifyListeners(List<SensorReadingRow> batch) {
+        for (SensorBatchListener listener : listeners) {
+            try {
+                listener.onBatchWritten(batch);
+            } catch (Exception e) {
+                log.error("[INGEST] Listener {} lỗi khi xử lý lô {} bản ghi", listener.getClass().getSimpleName(), batch.size(), e);
+            }
+        }
+    }
+
+    private void insertWide(List<SensorReadingRow> rows) {
+        jdbcTemplate.batchUpdate(INSERT_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                SensorReadingRow row = rows.get(i);
+                ps.setLong(1, row.deviceId());
+                setNullableDouble(ps, 2, row.temperature());
+                setNullableDouble(ps, 3, row.humidity());
+                setNullableDouble(ps, 4, row.light());
+                ps.setObject(5, row.recordedAt());
+            }
+
+            @Override
+            public int getBatchSize() {
+                return rows.size();
+            }
+        });
+    }
+
+    private static void setNullableDouble(PreparedStatement ps, int index, double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            ps.setNull(index, Types.DOUBLE);
+        } else {
+            ps.setDouble(index, value);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (writerThread != null) {
+            // Không interrupt để tránh cắt ngang câu lệnh JDBC đang chạy; writer tự thoát sau tối đa flush-interval
+            try {
+                writerThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        log.info("[INGEST] Đã dừng writer, còn lại {} bản ghi trong hàng đợi", queue.size());
+    }
+}
@@ -0,0 +1,33 @@
+package com.iot_system.service.ingest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Một bản tin cảm biến chờ ghi theo lô.
+ * - temperature/humidity/light => một dòng sensor_data (bỏ qua nếu cả ba vắng mặt)
+ * - metrics => mỗi phần tử một dòng sensor_reading (device_id, metric_id, ts, value)
+ * - idempotencyKey: khóa chống trùng của bản tin trong phạm vi thiết bị (0 = không có), xem {@link IngestDedupe}
+ * Giá trị vắng mặt (null / sentinel -1) được biểu diễn bằng {@link Double#NaN} để tránh boxing.
+ */
+public record SensorReadingRow(long deviceId,
+                               double temperature,
+                               double humidity,
+                               double light,
+                               LocalDateTime recordedAt,
+                               List<MetricSample> metrics,
+                               long idempotencyKey) {
+
+    public SensorReadingRow(long deviceId, double temperature, double humidity, double light, LocalDateTime recordedAt) {
+        this(deviceId, temperature, humidity, light, recordedAt, List.of(), 0L);
+    }
+
+    /** Có ít nhất một giá trị cho các cột của sensor_data */
+    public boolean hasWideValues() {
+        return !Double.isNaN(temperature) || !Double.isNaN(humidity) || !Double.isNaN(light);
+    }
+
+    public static double orNaN(Double value) {
+        return value != null ? value : Double.NaN;
+    }
+}
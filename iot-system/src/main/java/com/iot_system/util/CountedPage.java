@@ -0,0 +1,24 @@
+package com.iot_system.util;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * Page kèm cờ totalExact: false khi totalElements lấy từ cache hoặc ước lượng thay vì COUNT ngay lúc truy vấn.
+ * ResponseUtils.mapToPagedResponse chuyển cờ này sang PagedResponse.totalExact.
+ */
+public class CountedPage<T> extends PageImpl<T> {
+
+    private final boolean totalExact;
+
+    public CountedPage(List<T> content, Pageable pageable, long total, boolean totalExact) {
+        super(content, pageable, total);
+        this.totalExact = totalExact;
+    }
+
+    public boolean isTotalExact() {
+        return totalExact;
+    }
+}
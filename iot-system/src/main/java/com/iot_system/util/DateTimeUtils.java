@@ -1,67 +1,271 @@
 package com.iot_system.util;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
 
 /**
  * Utility class for date/time parsing operations
  */
 public class DateTimeUtils {
-    
-    private static final Logger log = LoggerFactory.getLogger(DateTimeUtils.class);
-    
+
+    private static final String RANGE_SEPARATOR = "..";
+
+    // Độ dài (nano giây) của một đơn vị khi phần lẻ của giây có i chữ số
+    private static final int[] NANO_UNITS = {0, 100_000_000, 10_000_000, 1_000_000, 100_000, 10_000, 1_000, 100, 10, 1};
+
     /**
      * Parse string date/time thành LocalDateTime với các định dạng được hỗ trợ
      * Hỗ trợ: dd-MM-yyyy HH:mm:ss, dd-MM-yyyy HH:mm, dd-MM-yyyy, ddMMyyyy, dd/MM/yyyy, ddMMyy
+     * Thêm:
+     * - ISO-8601: yyyy-MM-dd, yyyy-MM-ddTHH:mm, yyyy-MM-ddTHH:mm:ss[.SSS] (có thể kèm Z hoặc ±HH:mm, quy về giờ server);
+     *   phần lẻ của giây 1-9 chữ số, khoảng khớp dài đúng một đơn vị của chữ số cuối (.123 => 1 ms)
+     * - Tương đối: -30s, -15m, -2h, -7d => từ thời điểm đó tới hiện tại
+     * - Khoảng: from..to, mỗi vế là một trong các dạng trên; from lấy đầu khoảng, to lấy cuối khoảng
+     *   (ví dụ 01-10-2026..17-10-2026 gồm trọn ngày 17, -2h..-1h là một giờ)
+     * Quét ký tự một lần, không dùng regex hay DateTimeFormatter; trả về null nếu không hợp lệ.
      */
     public static DateTimeParseResult parseDateTime(String input) {
-        try {
-            // 1. dd-MM-yyyy HH:mm:ss (format chính từ application.properties - tìm kiếm chính xác theo giây)
-            if (input.matches("\\d{2}-\\d{2}-\\d{4} \\d{2}:\\d{2}:\\d{2}")) {
-                LocalDateTime exactTime = LocalDateTime.parse(input, DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss"));
-                return new DateTimeParseResult(exactTime, exactTime.plusSeconds(1), true);
+        return parseDateTime(input, LocalDateTime.now());
+    }
+
+    /** Như {@link #parseDateTime(String)} với mốc "hiện tại" cho trước (dạng tương đối) */
+    public static DateTimeParseResult parseDateTime(String input, LocalDateTime now) {
+        if (input == null) {
+            return null;
+        }
+        int begin = 0;
+        int end = input.length();
+        while (begin < end && input.charAt(begin) == ' ') begin++;
+        while (end > begin && input.charAt(end - 1) == ' ') end--;
+        if (begin == end) {
+            return null;
+        }
+
+        int separator = input.indexOf(RANGE_SEPARATOR, begin);
+        if (separator < 0 || separator >= end) {
+            DateTimeParseResult point = parsePoint(input, begin, end, now);
+            if (point != null && point.isRelative()) {
+                // Dạng tương đối đứng một mình: từ mốc đó tới hiện tại
+                return point.getStart().isBefore(now) ? new DateTimeParseResult(point.getStart(), now, false) : null;
             }
-            
-            // 2. dd-MM-yyyy HH:mm (tìm kiếm trong phút)
-            if (input.matches("\\d{2}-\\d{2}-\\d{4} \\d{2}:\\d{2}")) {
-                LocalDateTime minuteTime = LocalDateTime.parse(input, DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm"));
-                return new DateTimeParseResult(minuteTime, minuteTime.plusMinutes(1), false);
+            return point;
+        }
+
+        int leftEnd = separator;
+        int rightBegin = separator + RANGE_SEPARATOR.length();
+        while (leftEnd > begin && input.charAt(leftEnd - 1) == ' ') leftEnd--;
+        while (rightBegin < end && input.charAt(rightBegin) == ' ') rightBegin++;
+        DateTimeParseResult from = parsePoint(input, begin, leftEnd, now);
+        DateTimeParseResult to = parsePoint(input, rightBegin, end, now);
+        if (from == null || to == null || !from.getStart().isBefore(to.getEnd())) {
+            return null;
+        }
+        return new DateTimeParseResult(from.getStart(), to.getEnd(), false);
+    }
+
+    /**
+     * Một mốc thời gian trong input[begin, end).
+     * Dạng tương đối trả về kết quả relative (start == end) để nơi gọi tự quyết định cuối khoảng.
+     */
+    private static DateTimeParseResult parsePoint(String s, int begin, int end, LocalDateTime now) {
+        int len = end - begin;
+        if (len < 2) {
+            return null;
+        }
+        if (s.charAt(begin) == '-') {
+            return parseRelative(s, begin + 1, end, now);
+        }
+        if (len >= 10 && s.charAt(begin + 4) == '-' && s.charAt(begin + 7) == '-') {
+            return parseIso(s, begin, end);
+        }
+        switch (len) {
+            case 19 -> {
+                // 1. dd-MM-yyyy HH:mm:ss (tìm kiếm chính xác theo giây)
+                if (!isDashDate(s, begin) || s.charAt(begin + 10) != ' '
+                        || s.charAt(begin + 13) != ':' || s.charAt(begin + 16) != ':') {
+                    return null;
+                }
+                LocalDateTime time = dateTime(digits(s, begin + 6, 4), digits(s, begin + 3, 2), digits(s, begin, 2),
+                        digits(s, begin + 11, 2), digits(s, begin + 14, 2), digits(s, begin + 17, 2));
+                return time == null ? null : new DateTimeParseResult(time, time.plusSeconds(1), true);
+            }
+            case 16 -> {
+                // 2. dd-MM-yyyy HH:mm (tìm kiếm trong phút)
+                if (!isDashDate(s, begin) || s.charAt(begin + 10) != ' ' || s.charAt(begin + 13) != ':') {
+                    return null;
+                }
+                LocalDateTime time = dateTime(digits(s, begin + 6, 4), digits(s, begin + 3, 2), digits(s, begin, 2),
+                        digits(s, begin + 11, 2), digits(s, begin + 14, 2), 0);
+                return time == null ? null : new DateTimeParseResult(time, time.plusMinutes(1), false);
+            }
+            case 10 -> {
+                // 3. dd-MM-yyyy, 5. dd/MM/yyyy (tìm kiếm theo ngày)
+                char sep = s.charAt(begin + 2);
+                if ((sep != '-' && sep != '/') || s.charAt(begin + 5) != sep) {
+                    return null;
+                }
+                return day(digits(s, begin + 6, 4), digits(s, begin + 3, 2), digits(s, begin, 2));
+            }
+            case 8 -> {
+                // 4. ddMMyyyy
+                return day(digits(s, begin + 4, 4), digits(s, begin + 2, 2), digits(s, begin, 2));
             }
-            
-            // 3. dd-MM-yyyy (tìm kiếm theo ngày)
-            if (input.matches("\\d{2}-\\d{2}-\\d{4}")) {
-                LocalDate date = LocalDate.parse(input, DateTimeFormatter.ofPattern("dd-MM-yyyy"));
-                return new DateTimeParseResult(date.atStartOfDay(), date.plusDays(1).atStartOfDay(), false);
+            case 6 -> {
+                // 6. ddMMyy (năm 2000-2099)
+                int year = digits(s, begin + 4, 2);
+                return day(year < 0 ? -1 : 2000 + year, digits(s, begin + 2, 2), digits(s, begin, 2));
             }
-            
-            // 4. ddMMyyyy 
-            if (input.matches("\\d{8}")) {
-                LocalDate date = LocalDate.parse(input, DateTimeFormatter.ofPattern("ddMMyyyy"));
-                return new DateTimeParseResult(date.atStartOfDay(), date.plusDays(1).atStartOfDay(), false);
+            default -> {
+                return null;
             }
+        }
+    }
 
-            // 5. dd/MM/yyyy
-            if (input.matches("\\d{2}/\\d{2}/\\d{4}")) {
-                LocalDate date = LocalDate.parse(input, DateTimeFormatter.ofPattern("dd/MM/yyyy"));
-                return new DateTimeParseResult(date.atStartOfDay(), date.plusDays(1).atStartOfDay(), false);
+    // yyyy-MM-dd[(T| )HH:mm[:ss[(.|,)S..S]]][Z|±HH:mm]
+    private static DateTimeParseResult parseIso(String s, int begin, int end) {
+        int year = digits(s, begin, 4);
+        int month = digits(s, begin + 5, 2);
+        int dayOfMonth = digits(s, begin + 8, 2);
+        int len = end - begin;
+        if (len == 10) {
+            return day(year, month, dayOfMonth);
+        }
+        char t = s.charAt(begin + 10);
+        if ((t != 'T' && t != ' ') || len < 16 || s.charAt(begin + 13) != ':') {
+            return null;
+        }
+        int hour = digits(s, begin + 11, 2);
+        int minute = digits(s, begin + 14, 2);
+        int second = 0;
+        boolean exact = false;
+        int pos = begin + 16;
+        if (pos < end && s.charAt(pos) == ':') {
+            second = digits(s, pos + 1, 2);
+            exact = true;
+            pos += 3;
+            if (pos > end) {
+                return null;
+            }
+        }
+        // Phần lẻ của giây: tối đa 9 chữ số (nano giây); thừa chữ số sẽ không khớp offset phía sau => null
+        int fractionUnit = 0;
+        int nanos = 0;
+        if (exact && pos < end && (s.charAt(pos) == '.' || s.charAt(pos) == ',')) {
+            int fractionBegin = ++pos;
+            while (pos < end && pos - fractionBegin < 9 && Character.isDigit(s.charAt(pos))) {
+                pos++;
+            }
+            int fractionDigits = pos - fractionBegin;
+            if (fractionDigits == 0) {
+                return null;
             }
+            fractionUnit = NANO_UNITS[fractionDigits];
+            nanos = digits(s, fractionBegin, fractionDigits) * fractionUnit;
+        }
+        LocalDateTime time = dateTime(year, month, dayOfMonth, hour, minute, second);
+        if (time == null) {
+            return null;
+        }
+        time = time.withNano(nanos);
+        if (pos < end) {
+            ZoneOffset offset = offset(s, pos, end);
+            if (offset == null) {
+                return null;
+            }
+            time = time.atOffset(offset).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        }
+        if (fractionUnit > 0) {
+            return new DateTimeParseResult(time, time.plusNanos(fractionUnit), true);
+        }
+        return exact
+                ? new DateTimeParseResult(time, time.plusSeconds(1), true)
+                : new DateTimeParseResult(time, time.plusMinutes(1), false);
+    }
+
+    // Z | +HH:mm | -HH:mm
+    private static ZoneOffset offset(String s, int begin, int end) {
+        char sign = s.charAt(begin);
+        if (sign == 'Z' && end - begin == 1) {
+            return ZoneOffset.UTC;
+        }
+        if ((sign != '+' && sign != '-') || end - begin != 6 || s.charAt(begin + 3) != ':') {
+            return null;
+        }
+        int hours = digits(s, begin + 1, 2);
+        int minutes = digits(s, begin + 4, 2);
+        if (hours < 0 || hours > 18 || minutes < 0 || minutes > 59) {
+            return null;
+        }
+        int totalSeconds = hours * 3600 + minutes * 60;
+        return ZoneOffset.ofTotalSeconds(sign == '-' ? -totalSeconds : totalSeconds);
+    }
+
+    // N(s|m|h|d), N tối đa 6 chữ số
+    private static DateTimeParseResult parseRelative(String s, int begin, int end, LocalDateTime now) {
+        int count = end - begin - 1;
+        if (count < 1 || count > 6) {
+            return null;
+        }
+        int amount = digits(s, begin, count);
+        if (amount <= 0) {
+            return null;
+        }
+        LocalDateTime at = switch (s.charAt(end - 1)) {
+            case 's' -> now.minusSeconds(amount);
+            case 'm' -> now.minusMinutes(amount);
+            case 'h' -> now.minusHours(amount);
+            case 'd' -> now.minusDays(amount);
+            default -> null;
+        };
+        return at == null ? null : new DateTimeParseResult(at, at, false, true);
+    }
 
-            // 6. ddMMyy
-            if (input.matches("\\d{6}")) {
-                LocalDate date = LocalDate.parse(input, DateTimeFormatter.ofPattern("ddMMyy"));
-                return new DateTimeParseResult(date.atStartOfDay(), date.plusDays(1).atStartOfDay(), false);
+    private static boolean isDashDate(String s, int begin) {
+        return s.charAt(begin + 2) == '-' && s.charAt(begin + 5) == '-';
+    }
+
+    private static DateTimeParseResult day(int year, int month, int dayOfMonth) {
+        LocalDateTime start = dateTime(year, month, dayOfMonth, 0, 0, 0);
+        return start == null ? null : new DateTimeParseResult(start, start.plusDays(1), false);
+    }
+
+    /** null nếu có thành phần không phải số hoặc ngoài phạm vi (kể cả 31-02, 29-02 năm không nhuận) */
+    private static LocalDateTime dateTime(int year, int month, int dayOfMonth, int hour, int minute, int second) {
+        if (year < 0 || month < 1 || month > 12 || dayOfMonth < 1
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+            return null;
+        }
+        if (dayOfMonth > daysInMonth(year, month)) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, dayOfMonth, hour, minute, second);
+    }
+
+    private static int daysInMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /** Giá trị của count chữ số bắt đầu tại from; -1 nếu có ký tự không phải số hoặc vượt quá độ dài chuỗi */
+    private static int digits(String s, int from, int count) {
+        if (from + count > s.length()) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int d = s.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
             }
-            
-        } catch (Exception e) {
-            log.warn("Lỗi phân tích ngày/giờ: {} - {}", input, e.getMessage());
+            value = value * 10 + d;
         }
-        return null;
+        return value;
     }
-    
+
     /**
      * Inner class để lưu kết quả parse datetime
      */
@@ -69,15 +273,23 @@ public class DateTimeUtils {
         private final LocalDateTime start;
         private final LocalDateTime end;
         private final boolean exactMatch;
+        // Mốc tương đối (-15m, ...) chưa có cuối khoảng: chỉ dùng nội bộ khi ghép khoảng, không trả ra ngoài
+        private final boolean relative;
 
         public DateTimeParseResult(LocalDateTime start, LocalDateTime end, boolean exactMatch) {
+            this(start, end, exactMatch, false);
+        }
+
+        private DateTimeParseResult(LocalDateTime start, LocalDateTime end, boolean exactMatch, boolean relative) {
             this.start = start;
             this.end = end;
             this.exactMatch = exactMatch;
+            this.relative = relative;
         }
 
         public LocalDateTime getStart() { return start; }
         public LocalDateTime getEnd() { return end; }
         public boolean isExactMatch() { return exactMatch; }
+        public boolean isRelative() { return relative; }
     }
 }
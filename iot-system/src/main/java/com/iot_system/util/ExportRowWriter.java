@@ -0,0 +1,135 @@
+package com.iot_system.util;
+
+import com.iot_system.domain.enums.ExportFormat;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Ghi từng dòng xuất ra Writer theo CSV hoặc NDJSON, không dựng đối tượng trung gian cho mỗi dòng.
+ * Cách dùng: startRow() -> value(...) theo đúng thứ tự cột -> endRow().
+ */
+public final class ExportRowWriter {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm:ss");
+
+    private final Writer out;
+    private final ExportFormat format;
+    private final String[] columns;
+    private final String[] jsonKeys;
+    private int column;
+
+    public ExportRowWriter(Writer out, ExportFormat format, String... columns) throws IOException {
+        this.out = out;
+        this.format = format;
+        this.columns = columns;
+        this.jsonKeys = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            jsonKeys[i] = (i == 0 ? "{\"" : ",\"") + columns[i] + "\":";
+        }
+        if (format == ExportFormat.CSV) {
+            out.write(String.join(",", columns));
+            out.write('\n');
+        }
+    }
+
+    public ExportRowWriter startRow() {
+        column = 0;
+        return this;
+    }
+
+    public ExportRowWriter value(long v) throws IOException {
+        prefix();
+        out.write(Long.toString(v));
+        return this;
+    }
+
+    /** isNull = true => ô trống (CSV) hoặc null (NDJSON) */
+    public ExportRowWriter value(double v, boolean isNull) throws IOException {
+        prefix();
+        if (isNull) {
+            if (format == ExportFormat.NDJSON) {
+                out.write("null");
+            }
+        } else {
+            out.write(Double.toString(v));
+        }
+        return this;
+    }
+
+    public ExportRowWriter value(LocalDateTime time) throws IOException {
+        return value(time != null ? TIME_FORMAT.format(time) : null);
+    }
+
+    public ExportRowWriter value(String s) throws IOException {
+        prefix();
+        if (s == null) {
+            if (format == ExportFormat.NDJSON) {
+                out.write("null");
+            }
+        } else if (format == ExportFormat.CSV) {
+            writeCsv(s);
+        } else {
+            writeJson(s);
+        }
+        return this;
+    }
+
+    public void endRow() throws IOException {
+        if (column != columns.length) {
+            throw new IllegalStateException("Số cột không khớp: " + column + "/" + columns.length);
+        }
+        if (format == ExportFormat.NDJSON) {
+            out.write('}');
+        }
+        out.write('\n');
+    }
+
+    private void prefix() throws IOException {
+        if (format == ExportFormat.NDJSON) {
+            out.write(jsonKeys[column]);
+        } else if (column > 0) {
+            out.write(',');
+        }
+        column++;
+    }
+
+    private void writeCsv(String s) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; i++) {
+            char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(s);
+            return;
+        }
+        out.write('"');
+        out.write(s.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private void writeJson(String s) throws IOException {
+        out.write('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> out.write("\\\"");
+                case '\\' -> out.write("\\\\");
+                case '\n' -> out.write("\\n");
+                case '\r' -> out.write("\\r");
+                case '\t' -> out.write("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+                }
+            }
+        }
+        out.write('"');
+    }
+}
@@ -0,0 +1,143 @@
+package com.iot_system.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Bộ hẹn giờ dạng bánh xe (hashed timing wheel) cho số lượng lớn timeout ngắn.
+ * - Thêm/hủy: O(1), không khóa (thêm qua hàng đợi, hủy chỉ đánh dấu)
+ * - Một luồng duy nhất quay bánh xe mỗi tick, hết hạn các mục trong ô hiện tại và gọi onExpire
+ * - Độ chính xác bằng một tick: mục hết hạn trong khoảng [deadline, deadline + tick)
+ */
+public final class HashedTimingWheel<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(HashedTimingWheel.class);
+
+    /** Một mục đang chờ hết hạn */
+    public static final class Timeout<T> {
+        private final T value;
+        private final long deadlineNanos;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+
+        private Timeout(T value, long deadlineNanos) {
+            this.value = value;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public T value() {
+            return value;
+        }
+
+        /** Hủy hẹn giờ; mục sẽ bị bỏ khi bánh xe quay tới ô của nó */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final List<Timeout<T>>[] buckets;
+    private final int mask;
+    private final long tickNanos;
+    private final Consumer<T> onExpire;
+    private final Queue<Timeout<T>> incoming = new ConcurrentLinkedQueue<>();
+
+    private final Thread worker;
+    private volatile boolean running;
+    private long startNanos;
+    private long tick;
+
+    /**
+     * @param wheelSize số ô (làm tròn lên lũy thừa của 2)
+     * @param tick      độ dài một tick
+     */
+    @SuppressWarnings("unchecked")
+    public HashedTimingWheel(String threadName, int wheelSize, long tick, TimeUnit unit, Consumer<T> onExpire) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.buckets = (List<Timeout<T>>[]) new List<?>[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = size - 1;
+        this.tickNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), unit.toNanos(tick));
+        this.onExpire = onExpire;
+        this.worker = new Thread(this::run, threadName);
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        startNanos = System.nanoTime();
+        running = true;
+        worker.start();
+    }
+
+    public void stop() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    public Timeout<T> schedule(T value, long delay, TimeUnit unit) {
+        Timeout<T> timeout = new Timeout<>(value, System.nanoTime() + unit.toNanos(delay));
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + (tick + 1) * tickNanos;
+            long sleep = deadline - System.nanoTime();
+            if (sleep > 0) {
+                LockSupport.parkNanos(this, sleep);
+                continue;
+            }
+            transferIncoming();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    // Chỉ luồng worker chạm vào các ô => không cần khóa
+    private void transferIncoming() {
+        Timeout<T> timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long calculated = Math.max(0, (timeout.deadlineNanos - startNanos) / tickNanos);
+            long target = Math.max(calculated, tick);
+            timeout.remainingRounds = (target - tick) / buckets.length;
+            buckets[(int) (target & mask)].add(timeout);
+        }
+    }
+
+    private void expire(List<Timeout<T>> bucket) {
+        Iterator<Timeout<T>> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout<T> timeout = it.next();
+            if (timeout.cancelled) {
+                it.remove();
+            } else if (timeout.remainingRounds <= 0) {
+                it.remove();
+                try {
+                    onExpire.accept(timeout.value);
+                } catch (Exception e) {
+                    log.error("Lỗi xử lý timeout", e);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.iot_system.util;
+
+import com.iot_system.exception.InvalidQueryException;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Con trỏ phân trang keyset dạng "<thời điểm ISO-8601>,<id>", ví dụ 2025-10-17T08:30:00,12345.
+ * Cặp (thời điểm, id) khớp với chỉ mục (recorded_at, id) / (executed_at, id) nên mỗi trang là một lần quét khoảng chỉ mục.
+ */
+public record KeysetCursor(LocalDateTime time, long id) {
+
+    public static KeysetCursor parse(String raw) {
+        if (raw == null || raw.isBlank()) {
+            return null;
+        }
+        int comma = raw.lastIndexOf(',');
+        if (comma <= 0 || comma == raw.length() - 1) {
+            throw new InvalidQueryException("Con trỏ không hợp lệ, cần dạng <yyyy-MM-ddTHH:mm:ss>,<id>: " + raw);
+        }
+        try {
+            LocalDateTime time = LocalDateTime.parse(raw.substring(0, comma).trim());
+            long id = Long.parseLong(raw.substring(comma + 1).trim());
+            return new KeysetCursor(time, id);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new InvalidQueryException("Con trỏ không hợp lệ, cần dạng <yyyy-MM-ddTHH:mm:ss>,<id>: " + raw);
+        }
+    }
+
+    public static String format(LocalDateTime time, Long id) {
+        return time + "," + id;
+    }
+}
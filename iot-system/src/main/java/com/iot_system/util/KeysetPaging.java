@@ -0,0 +1,124 @@
+package com.iot_system.util;
+
+import com.iot_system.domain.dto.PagedResponse;
+import com.iot_system.exception.InvalidQueryException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Phân trang keyset (seek) trên cặp (cột thời gian, id).
+ * - after: lấy các bản ghi nằm SAU con trỏ theo chiều sắp xếp hiện tại
+ * - before: lấy các bản ghi nằm TRƯỚC con trỏ (quét ngược rồi đảo lại)
+ * Lấy limit + 1 dòng để biết còn trang tiếp theo hay không, không chạy COUNT.
+ */
+public class KeysetPaging {
+
+    /** Nguồn dữ liệu: spec + sort + offset + limit, không COUNT */
+    @FunctionalInterface
+    public interface SliceFetcher<T> {
+        List<T> find(Specification<T> spec, Sort sort, int offset, int limit);
+    }
+
+    /** Nguồn dữ liệu tự xử lý điều kiện keyset: trả về tối đa limit bản ghi nằm sau seekFrom theo chiều quét */
+    @FunctionalInterface
+    public interface SeekFetcher<T> {
+        List<T> find(KeysetCursor seekFrom, boolean scanAscending, int limit);
+    }
+
+    public static <T, R> PagedResponse<R> page(Specification<T> filter,
+                                              String timeField,
+                                              String after,
+                                              String before,
+                                              int limit,
+                                              boolean ascending,
+                                              SliceFetcher<T> fetcher,
+                                              Function<T, String> cursorOf,
+                                              BiFunction<T, Integer, R> mapper,
+                                              String emptyMessage) {
+        return page(after, before, limit, ascending,
+                (seekFrom, scanAscending, n) -> fetcher.find(
+                        filter.and(seek(timeField, seekFrom, scanAscending)), order(timeField, scanAscending), 0, n),
+                cursorOf, mapper, emptyMessage);
+    }
+
+    public static <T, R> PagedResponse<R> page(String after,
+                                              String before,
+                                              int limit,
+                                              boolean ascending,
+                                              SeekFetcher<T> fetcher,
+                                              Function<T, String> cursorOf,
+                                              BiFunction<T, Integer, R> mapper,
+                                              String emptyMessage) {
+        if (limit <= 0) {
+            throw new InvalidQueryException("limit phải lớn hơn 0");
+        }
+        KeysetCursor afterCursor = KeysetCursor.parse(after);
+        KeysetCursor beforeCursor = KeysetCursor.parse(before);
+        if (afterCursor != null && beforeCursor != null) {
+            throw new InvalidQueryException("Chỉ được truyền một trong hai tham số 'after' hoặc 'before'");
+        }
+
+        boolean backward = beforeCursor != null;
+        boolean scanAscending = backward != ascending;
+        KeysetCursor seekFrom = backward ? beforeCursor : afterCursor;
+
+        List<T> rows = fetcher.find(seekFrom, scanAscending, limit + 1);
+
+        boolean hasMore = rows.size() > limit;
+        List<T> content = new ArrayList<>(hasMore ? rows.subList(0, limit) : rows);
+        if (backward) {
+            Collections.reverse(content);
+        }
+
+        String nextCursor = null;
+        String prevCursor = null;
+        if (!content.isEmpty()) {
+            T first = content.get(0);
+            T last = content.get(content.size() - 1);
+            if (backward) {
+                nextCursor = cursorOf.apply(last);
+                prevCursor = hasMore ? cursorOf.apply(first) : null;
+            } else {
+                nextCursor = hasMore ? cursorOf.apply(last) : null;
+                prevCursor = afterCursor != null ? cursorOf.apply(first) : null;
+            }
+        }
+
+        List<R> data = new ArrayList<>(content.size());
+        for (int i = 0; i < content.size(); i++) {
+            data.add(mapper.apply(content.get(i), i + 1));
+        }
+        String message = data.isEmpty() ? emptyMessage : "Tìm thấy " + data.size() + " kết quả.";
+        return PagedResponse.ofCursor(message, data, limit, nextCursor, prevCursor);
+    }
+
+    /** Điều kiện "nằm sau con trỏ" theo chiều quét: (time, id) > cursor hoặc < cursor */
+    static <T> Specification<T> seek(String timeField, KeysetCursor cursor, boolean ascending) {
+        return (root, query, cb) -> {
+            if (cursor == null) {
+                return cb.conjunction();
+            }
+            LocalDateTime time = cursor.time();
+            if (ascending) {
+                return cb.or(
+                        cb.greaterThan(root.get(timeField), time),
+                        cb.and(cb.equal(root.get(timeField), time), cb.greaterThan(root.get("id"), cursor.id())));
+            }
+            return cb.or(
+                    cb.lessThan(root.get(timeField), time),
+                    cb.and(cb.equal(root.get(timeField), time), cb.lessThan(root.get("id"), cursor.id())));
+        };
+    }
+
+    static Sort order(String timeField, boolean ascending) {
+        Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        return Sort.by(direction, timeField, "id");
+    }
+}
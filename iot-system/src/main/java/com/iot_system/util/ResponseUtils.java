@@ -1,7 +1,13 @@
 package com.iot_system.util;
 
 import com.iot_system.domain.dto.PagedResponse;
+import com.iot_system.domain.enums.ExportFormat;
 import org.springframework.data.domain.Page;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +21,8 @@ import java.util.stream.IntStream;
 public class ResponseUtils {
     
     private static final Logger log = LoggerFactory.getLogger(ResponseUtils.class);
+
+    private static final MediaType GZIP = MediaType.parseMediaType("application/gzip");
     
     /**
      * Generic method để chuyển Page<T> -> PagedResponse<R>
@@ -43,12 +51,33 @@ public class ResponseUtils {
 
         log.info("Mapped {} records to DTOs", results.size());
 
+        boolean totalExact = !(page instanceof CountedPage<?> counted) || counted.isTotalExact();
         if (results.isEmpty()) {
             return new PagedResponse<>(emptyMessage, results,
-                    pageNumber, pageSize, page.getTotalElements(), page.getTotalPages());
+                    pageNumber, pageSize, page.getTotalElements(), page.getTotalPages(), totalExact);
         }
 
         return new PagedResponse<>(message, results,
-                pageNumber, pageSize, page.getTotalElements(), page.getTotalPages());
+                pageNumber, pageSize, page.getTotalElements(), page.getTotalPages(), totalExact);
+    }
+
+    /**
+     * Bọc nội dung xuất file thành response tải về (attachment).
+     * gzip = true => body là file .gz: Content-Type application/gzip, tên file có đuôi .gz, không đặt Content-Encoding
+     * (nếu có, trình duyệt/HTTP client tự giải nén và lưu nội dung CSV dưới tên .gz)
+     */
+    public static ResponseEntity<StreamingResponseBody> attachment(String baseName,
+                                                                   ExportFormat format,
+                                                                   boolean gzip,
+                                                                   StreamingResponseBody body) {
+        String filename = baseName + "." + format.extension() + (gzip ? ".gz" : "");
+        MediaType contentType = gzip
+                ? GZIP
+                : MediaType.parseMediaType(format.contentType() + ";charset=UTF-8");
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(filename).build().toString())
+                .body(body);
     }
 }
@@ -15,6 +15,7 @@ export const ENDPOINTS = {
 export const WS = {
   endpoint: `${API_BASE}/ws`,
   topicSensors: '/topic/sensors',
+  topicSensorsOf: (deviceUid) => `/topic/sensors/${deviceUid}`,
   topicDevices: '/topic/devices'
 };
 
@@ -605,6 +605,19 @@ function connectWS() {
       },
       onDevices: (ack) => {
         try {
+          // Server báo lệnh quá hạn chờ ACK: mở lại toggle, giữ nguyên trạng thái hiện tại
+          if (ack.type === 'COMMAND_TIMEOUT') {
+            const pend = pendingMap.get(ack.deviceId);
+            if (pend && (!pend.correlationId || pend.correlationId === ack.correlationId)) {
+              clearTimeout(pend.timer);
+              pendingMap.delete(ack.deviceId);
+              const toggleEl = document.getElementById(`led${pend.toggleIndex}-toggle`);
+              if (toggleEl) toggleEl.disabled = false;
+            }
+            return;
+          }
+          // Sự kiện online/offline không phải ACK, không đổi trạng thái toggle
+          if (ack.type === 'DEVICE_ONLINE' || ack.type === 'DEVICE_OFFLINE') return;
           const idx = deviceIdByToggleIndex.findIndex(id => id === ack.deviceId);
           if (idx >= 0) {
             // Match ACK with pending command if any
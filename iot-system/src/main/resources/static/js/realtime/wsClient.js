@@ -1,23 +1,32 @@
 // STOMP + SockJS client wrapper for sensors/devices
 import { WS, INTERVALS } from '../config.js';
+import { fetchDevices } from '../api/devices.js';
 
-export function connectStomp({ onSensors, onDevices, onConnected, onDisconnected } = {}) {
+// Sensor devices to follow: explicit list, otherwise every ESP32 known to the backend
+async function resolveSensorDevices(sensorDevices) {
+  if (sensorDevices && sensorDevices.length) return sensorDevices;
+  const devices = await fetchDevices();
+  return devices.filter(d => d && d.type === 'ESP32').map(d => d.deviceUid);
+}
+
+export function connectStomp({ onSensors, onDevices, onConnected, onDisconnected, sensorDevices } = {}) {
   const sock = new SockJS(WS.endpoint);
   const client = Stomp.over(sock);
   client.debug = () => {};
   client.connect({}, () => {
     onConnected && onConnected();
-    if (onSensors) client.subscribe(WS.topicSensors, (frame) => {
-      try { onSensors(JSON.parse(frame.body)); } catch {}
-    });
+    // One subscription per device (/topic/sensors/{deviceUid}) so the page only receives the devices it shows
+    if (onSensors) resolveSensorDevices(sensorDevices).then((uids) => {
+      uids.forEach((uid) => client.subscribe(WS.topicSensorsOf(uid), (frame) => {
+        try { onSensors(JSON.parse(frame.body)); } catch {}
+      }));
+    }).catch(() => {});
     if (onDevices) client.subscribe(WS.topicDevices, (frame) => {
       try { onDevices(JSON.parse(frame.body)); } catch {}
     });
   }, () => {
     onDisconnected && onDisconnected();
-    setTimeout(() => connectStomp({ onSensors, onDevices, onConnected, onDisconnected }), INTERVALS.wsReconnectDelay);
+    setTimeout(() => connectStomp({ onSensors, onDevices, onConnected, onDisconnected, sensorDevices }), INTERVALS.wsReconnectDelay);
   });
   return client;
 }
-
-
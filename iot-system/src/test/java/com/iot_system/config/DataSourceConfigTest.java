@@ -0,0 +1,62 @@
+package com.iot_system.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DataSourceConfigTest {
+
+    // Hikari chỉ mở kết nối khi được dùng => không cần MySQL thật
+    private final ApplicationContextRunner runner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(DataSourceAutoConfiguration.class))
+            .withUserConfiguration(DataSourceConfig.class)
+            .withPropertyValues(
+                    "spring.datasource.url=jdbc:mysql://localhost:3306/iot_db",
+                    "spring.datasource.username=iot",
+                    "spring.datasource.driver-class-name=com.mysql.cj.jdbc.Driver",
+                    "spring.datasource.hikari.pool-name=query",
+                    "spring.datasource.hikari.maximum-pool-size=10",
+                    "ingest.datasource.hikari.pool-name=ingest",
+                    "ingest.datasource.hikari.maximum-pool-size=4",
+                    "ingest.datasource.hikari.connection-timeout=3000");
+
+    @Test
+    void poolsShareDatabaseButNotSettings() {
+        runner.run(context -> {
+            HikariDataSource query = context.getBean("dataSource", HikariDataSource.class);
+            HikariDataSource ingest = context.getBean("ingestDataSource", HikariDataSource.class);
+
+            assertThat(query.getPoolName()).isEqualTo("query");
+            assertThat(query.getMaximumPoolSize()).isEqualTo(10);
+            assertThat(ingest.getPoolName()).isEqualTo("ingest");
+            assertThat(ingest.getMaximumPoolSize()).isEqualTo(4);
+            assertThat(ingest.getConnectionTimeout()).isEqualTo(3000);
+            assertThat(ingest.getJdbcUrl()).isEqualTo(query.getJdbcUrl());
+            assertThat(ingest.getUsername()).isEqualTo("iot");
+        });
+    }
+
+    @Test
+    void unqualifiedBeansUseQueryPool() {
+        runner.run(context -> {
+            assertThat(context.getBean(DataSource.class)).isSameAs(context.getBean("dataSource"));
+            assertThat(context.getBean(JdbcTemplate.class).getDataSource()).isSameAs(context.getBean("dataSource"));
+            assertThat(context.getBean(DataSourceConfig.INGEST_JDBC_TEMPLATE, JdbcTemplate.class).getDataSource())
+                    .isSameAs(context.getBean("ingestDataSource"));
+            // Chỉ lấy được theo tên; không thay TransactionTemplate mặc định khi inject theo kiểu
+            assertThat(context.getBean(DataSourceConfig.INGEST_TRANSACTION_TEMPLATE)).isInstanceOf(TransactionTemplate.class);
+            AbstractBeanDefinition definition = (AbstractBeanDefinition) context.getBeanFactory()
+                    .getBeanDefinition(DataSourceConfig.INGEST_TRANSACTION_TEMPLATE);
+            assertThat(definition.isDefaultCandidate()).isFalse();
+        });
+    }
+}
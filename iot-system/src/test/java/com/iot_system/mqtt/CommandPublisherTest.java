@@ -0,0 +1,136 @@
+package com.iot_system.mqtt;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CommandPublisherTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MqttAsyncClient mqttClient = mock(MqttAsyncClient.class);
+    // Listener của các lệnh đang chờ PUBACK, theo thứ tự publish
+    private final List<IMqttActionListener> inflight = new CopyOnWriteArrayList<>();
+    private CommandPublisher publisher;
+
+    @BeforeEach
+    void setUp() throws MqttException {
+        when(mqttClient.publish(eq("device_actions"), any(MqttMessage.class), isNull(), any(IMqttActionListener.class)))
+                .thenAnswer(invocation -> {
+                    inflight.add(invocation.getArgument(3));
+                    return null;
+                });
+        publisher = new CommandPublisher(mqttClient, meterRegistry);
+        publisher.setActionTopic("device_actions");
+        publisher.setLimits(2, 3);
+        publisher.start();
+    }
+
+    private double gauge(String name) {
+        return meterRegistry.get(name).gauge().value();
+    }
+
+    private double publishCount(String result) {
+        return meterRegistry.get("iot.command.publish").tag("result", result).counter().count();
+    }
+
+    @Test
+    void publishesAtMostMaxInflightAndQueuesTheRest() {
+        CompletableFuture<Void> first = publisher.sendAction(1, "ON", "c-1");
+        publisher.sendAction(1, "OFF", "c-2");
+        CompletableFuture<Void> third = publisher.sendAction(1, "ON", "c-3");
+
+        assertThat(inflight).hasSize(2);
+        assertThat(gauge("iot.command.publish.inflight")).isEqualTo(2);
+        assertThat(gauge("iot.command.publish.queued")).isEqualTo(1);
+        assertThat(first).isNotDone();
+        assertThat(third).isNotDone();
+    }
+
+    @Test
+    void pubackCompletesFutureAndReleasesSlotForQueuedCommand() {
+        CompletableFuture<Void> first = publisher.sendAction(1, "ON", "c-1");
+        publisher.sendAction(1, "OFF", "c-2");
+        publisher.sendAction(1, "ON", "c-3");
+
+        inflight.get(0).onSuccess(null);
+
+        assertThat(first).isCompleted();
+        assertThat(inflight).hasSize(3);
+        assertThat(gauge("iot.command.publish.inflight")).isEqualTo(2);
+        assertThat(gauge("iot.command.publish.queued")).isZero();
+        assertThat(publishCount("ok")).isEqualTo(1);
+    }
+
+    @Test
+    void fullQueueRejectsImmediately() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(publisher.sendAction(1, "ON", "c-" + i)).isNotDone();
+        }
+
+        // 2 đang chờ PUBACK + 3 trong hàng => lệnh thứ 6 bị từ chối ngay, không chặn luồng gọi
+        CompletableFuture<Void> rejected = publisher.sendAction(1, "ON", "c-5");
+
+        assertThat(rejected).isCompletedExceptionally();
+        assertThat(rejected.exceptionNow()).isInstanceOf(RejectedExecutionException.class);
+        assertThat(publishCount("rejected")).isEqualTo(1);
+        assertThat(gauge("iot.command.publish.queued")).isEqualTo(3);
+    }
+
+    @Test
+    void failedPublishFailsFutureAndFreesSlot() {
+        CompletableFuture<Void> first = publisher.sendAction(1, "ON", "c-1");
+        publisher.sendAction(1, "OFF", "c-2");
+        publisher.sendAction(1, "ON", "c-3");
+
+        inflight.get(0).onFailure(null, new MqttException(MqttException.REASON_CODE_CLIENT_TIMEOUT));
+
+        assertThat(first).isCompletedExceptionally();
+        assertThat(inflight).hasSize(3);
+        assertThat(publishCount("failed")).isEqualTo(1);
+    }
+
+    @Test
+    void synchronousPublishErrorFailsOnlyThatCommand() throws MqttException {
+        when(mqttClient.publish(eq("device_actions"), any(MqttMessage.class), isNull(), any(IMqttActionListener.class)))
+                .thenThrow(new MqttException(MqttException.REASON_CODE_CLIENT_NOT_CONNECTED))
+                .thenAnswer(invocation -> {
+                    inflight.add(invocation.getArgument(3));
+                    return null;
+                });
+
+        CompletableFuture<Void> lost = publisher.sendAction(1, "ON", "c-1");
+        CompletableFuture<Void> next = publisher.sendAction(1, "OFF", "c-2");
+
+        assertThat(lost).isCompletedExceptionally();
+        assertThat(next).isNotDone();
+        assertThat(gauge("iot.command.publish.inflight")).isEqualTo(1);
+    }
+
+    @Test
+    void stopFailsQueuedCommands() {
+        publisher.sendAction(1, "ON", "c-1");
+        publisher.sendAction(1, "OFF", "c-2");
+        CompletableFuture<Void> queued = publisher.sendAction(1, "ON", "c-3");
+
+        publisher.stop();
+
+        assertThat(queued).isCompletedExceptionally();
+        assertThat(gauge("iot.command.publish.queued")).isZero();
+    }
+}
@@ -0,0 +1,120 @@
+package com.iot_system.mqtt;
+
+import com.iot_system.domain.entity.Device;
+import com.iot_system.service.CommandTracker;
+import com.iot_system.service.DeviceLivenessTracker;
+import com.iot_system.service.DeviceRegistry;
+import com.iot_system.service.SensorDataService;
+import com.iot_system.service.event.DeviceStatusListener;
+import com.iot_system.service.event.SensorBroadcaster;
+import com.iot_system.service.ingest.DeviceWriteBehind;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class IngestMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final IngestMetrics metrics = new IngestMetrics(meterRegistry);
+    private final DeviceRegistry deviceRegistry = mock(DeviceRegistry.class);
+    private final SensorDataService sensorDataService = mock(SensorDataService.class);
+    private DeviceStatusListener listener;
+
+    @BeforeEach
+    void setUp() {
+        listener = new DeviceStatusListener(deviceRegistry, mock(DeviceWriteBehind.class), sensorDataService,
+                mock(SimpMessagingTemplate.class), new TelemetryDecoder(), mock(SensorBroadcaster.class),
+                mock(CommandTracker.class), mock(DeviceLivenessTracker.class), metrics);
+        Device device = new Device();
+        device.setId(1L);
+        when(deviceRegistry.findByDeviceUid("esp32-01")).thenReturn(Optional.of(device));
+        when(deviceRegistry.findByDeviceUid("ghost")).thenReturn(Optional.empty());
+        when(sensorDataService.saveSensorData(eq(device), anyDouble(), anyDouble(), anyDouble(), anyMap(), anyLong()))
+                .thenReturn(true);
+    }
+
+    private void sensor(String json) {
+        listener.handleDeviceEvent(new DeviceStatusEvent(this, "sensor/data", json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private long stageCount(String stage) {
+        return meterRegistry.get("iot.ingest.stage").tag("stage", stage).timer().count();
+    }
+
+    private double errors(String reason) {
+        return meterRegistry.get("iot.ingest.errors").tag("reason", reason).counter().count();
+    }
+
+    @Test
+    void everyMeterIsRegisteredUpFront() {
+        for (IngestMetrics.Stage stage : IngestMetrics.Stage.values()) {
+            assertThat(stageCount(stage.name().toLowerCase())).isZero();
+        }
+        for (IngestMetrics.ErrorReason reason : IngestMetrics.ErrorReason.values()) {
+            assertThat(errors(reason.name().toLowerCase())).isZero();
+        }
+        assertThat(meterRegistry.get("iot.ingest.lag").timer().count()).isZero();
+    }
+
+    @Test
+    void receivedIsCountedPerTopicFilter() {
+        metrics.received("sensor/data");
+        metrics.received("sensor/data");
+        metrics.received("$share/iot/device_actions_ack");
+
+        assertThat(meterRegistry.get("iot.mqtt.received").tag("topic", "sensor/data").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("iot.mqtt.received").tag("topic", "$share/iot/device_actions_ack").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void lagIgnoresMissingAndFutureTimestamps() {
+        metrics.ingestLag(0);
+        metrics.ingestLag(System.currentTimeMillis() + 60_000);
+        metrics.ingestLag(System.currentTimeMillis() - 1_500);
+
+        assertThat(meterRegistry.get("iot.ingest.lag").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("iot.ingest.lag").timer().max(TimeUnit.MILLISECONDS))
+                .isGreaterThanOrEqualTo(1_500);
+    }
+
+    @Test
+    void acceptedReadingRecordsEveryStage() {
+        sensor("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"ts\":" + (System.currentTimeMillis() - 200) + "}");
+
+        assertThat(stageCount("parse_sensor")).isEqualTo(1);
+        assertThat(stageCount("device_lookup")).isEqualTo(1);
+        assertThat(stageCount("enqueue")).isEqualTo(1);
+        assertThat(meterRegistry.get("iot.ingest.lag").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("iot.ingest.errors").counters()).allSatisfy(c -> assertThat(c.count()).isZero());
+    }
+
+    @Test
+    void rejectedMessagesAreCountedByReason() {
+        sensor("{\"deviceUid\":");
+        sensor("{\"temperature\":28.4}");
+        sensor("{\"deviceUid\":\"ghost\",\"temperature\":28.4}");
+        when(sensorDataService.saveSensorData(any(Device.class), anyDouble(), anyDouble(), anyDouble(), anyMap(), anyLong()))
+                .thenReturn(false);
+        sensor("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4}");
+
+        assertThat(errors("bad_payload")).isEqualTo(2);
+        assertThat(errors("unknown_device")).isEqualTo(1);
+        assertThat(errors("queue_full")).isEqualTo(1);
+        assertThat(stageCount("enqueue")).isEqualTo(1);
+    }
+}
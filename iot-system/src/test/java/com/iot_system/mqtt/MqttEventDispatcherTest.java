@@ -0,0 +1,139 @@
+package com.iot_system.mqtt;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MqttEventDispatcherTest {
+
+    private static final byte[] UID = "\"deviceUid\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ID = "\"deviceId\"".getBytes(StandardCharsets.US_ASCII);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private MqttEventDispatcher dispatcher;
+
+    private MqttEventDispatcher dispatcher(ApplicationEventPublisher publisher, int workers, int capacity) {
+        dispatcher = new MqttEventDispatcher(publisher, meterRegistry, workers, capacity, 0, false);
+        return dispatcher;
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+    private static DeviceStatusEvent event(String json) {
+        return new DeviceStatusEvent(MqttEventDispatcherTest.class, "esp32/sensors", json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String field(DeviceStatusEvent event, String name) {
+        String json = event.getMessage();
+        int start = json.indexOf("\"" + name + "\":") + name.length() + 3;
+        int end = json.indexOf(',', start);
+        return json.substring(start, end < 0 ? json.indexOf('}', start) : end).replace("\"", "");
+    }
+
+    @Test
+    void partitionHashDependsOnlyOnFieldValue() {
+        int hash = MqttEventDispatcher.partitionHash(bytes("{\"deviceUid\":\"esp-01\",\"temperature\":25}"), UID);
+
+        assertThat(MqttEventDispatcher.partitionHash(bytes("{\"temperature\":26, \"deviceUid\" : \"esp-01\"}"), UID))
+                .isEqualTo(hash);
+        assertThat(MqttEventDispatcher.partitionHash(bytes("{\"deviceUid\":\"esp-02\"}"), UID)).isNotEqualTo(hash);
+        assertThat(MqttEventDispatcher.partitionHash(bytes("{\"deviceId\":7,\"state\":\"ON\"}"), ID))
+                .isEqualTo(MqttEventDispatcher.partitionHash(bytes("{\"state\":\"OFF\",\"deviceId\":7}"), ID));
+    }
+
+    @Test
+    void missingFieldHashesToZero() {
+        assertThat(MqttEventDispatcher.partitionHash(bytes("{\"temperature\":25}"), UID)).isZero();
+        assertThat(MqttEventDispatcher.partitionHash(bytes(""), UID)).isZero();
+    }
+
+    @Test
+    void messagesOfOneDeviceAreProcessedInOrder() throws InterruptedException {
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+        dispatcher(event -> {
+            DeviceStatusEvent e = (DeviceStatusEvent) event;
+            seen.computeIfAbsent(field(e, "deviceUid"), k -> new CopyOnWriteArrayList<>())
+                    .add(Integer.parseInt(field(e, "seq")));
+        }, 4, 10_000);
+        dispatcher.start();
+
+        for (int seq = 0; seq < 200; seq++) {
+            assertThat(dispatcher.dispatch(event("{\"deviceUid\":\"esp-" + (seq % 5) + "\",\"seq\":" + seq + "}"))).isTrue();
+        }
+        dispatcher.stop();
+
+        assertThat(seen).hasSize(5);
+        seen.forEach((uid, seqs) -> assertThat(seqs).as(uid).hasSize(40).isSorted());
+    }
+
+    @Test
+    void messagesAcceptedBeforeStartAreProcessedAfterStart() {
+        List<String> seen = new CopyOnWriteArrayList<>();
+        dispatcher(event -> seen.add(field((DeviceStatusEvent) event, "deviceUid")), 2, 100);
+
+        assertThat(dispatcher.dispatch(event("{\"deviceUid\":\"early\"}"))).isTrue();
+        assertThat(dispatcher.inboxDepth()).isEqualTo(1);
+
+        dispatcher.start();
+        dispatcher.stop();
+
+        assertThat(seen).containsExactly("early");
+    }
+
+    @Test
+    void fullLaneDropsMessage() {
+        dispatcher(event -> { }, 1, 1);
+
+        assertThat(dispatcher.dispatch(event("{\"deviceUid\":\"a\"}"))).isTrue();
+        assertThat(dispatcher.dispatch(event("{\"deviceUid\":\"a\"}"))).isFalse();
+        assertThat(meterRegistry.get("iot.mqtt.dispatch.dropped").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void stoppedDispatcherRejectsMessages() {
+        dispatcher(event -> { }, 1, 10);
+        dispatcher.start();
+        dispatcher.stop();
+
+        assertThat(dispatcher.dispatch(event("{\"deviceUid\":\"late\"}"))).isFalse();
+        assertThat(dispatcher.isRunning()).isFalse();
+    }
+
+    @Test
+    void failingHandlerDoesNotStopTheLane() {
+        List<String> seen = new CopyOnWriteArrayList<>();
+        dispatcher(event -> {
+            String uid = field((DeviceStatusEvent) event, "deviceUid");
+            seen.add(uid);
+            if (uid.equals("boom")) {
+                throw new IllegalStateException("boom");
+            }
+        }, 1, 10);
+        dispatcher.start();
+
+        dispatcher.dispatch(event("{\"deviceUid\":\"boom\"}"));
+        dispatcher.dispatch(event("{\"deviceUid\":\"after\"}"));
+        dispatcher.stop();
+
+        assertThat(seen).containsExactly("boom", "after");
+        assertThat(meterRegistry.get("iot.mqtt.dispatch.failed").counter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,104 @@
+package com.iot_system.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TelemetryDecoderTest {
+
+    private final TelemetryDecoder decoder = new TelemetryDecoder();
+
+    private TelemetryReading sensor(String json) throws IOException {
+        return decoder.decodeSensor(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private AckMessage ack(String json) throws IOException {
+        return decoder.decodeAck(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void decodesAllFields() throws IOException {
+        TelemetryReading reading = sensor("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"humidity\":71,\"light\":512}");
+
+        assertThat(reading.deviceUid()).isEqualTo("esp32-01");
+        assertThat(reading.temperature()).isEqualTo(28.4);
+        assertThat(reading.humidity()).isEqualTo(71.0);
+        assertThat(reading.light()).isEqualTo(512.0);
+    }
+
+    @Test
+    void sentinelMeansAbsent() throws IOException {
+        TelemetryReading reading = sensor("{\"deviceUid\":\"esp32-01\",\"temperature\":-1,\"humidity\":-1.0,\"light\":-1}");
+
+        assertThat(reading.temperature()).isNaN();
+        assertThat(reading.humidity()).isNaN();
+        assertThat(reading.light()).isNaN();
+    }
+
+    @Test
+    void otherNegativeValuesAreKept() throws IOException {
+        TelemetryReading reading = sensor("{\"deviceUid\":\"esp32-01\",\"temperature\":-1.5,\"humidity\":-0.0}");
+
+        assertThat(reading.temperature()).isEqualTo(-1.5);
+        assertThat(reading.humidity()).isEqualTo(-0.0);
+    }
+
+    @Test
+    void lightLevelIsUsedWhenLightIsMissing() throws IOException {
+        assertThat(sensor("{\"deviceUid\":\"a\",\"light_level\":300}").light()).isEqualTo(300.0);
+        // "light" được ưu tiên bất kể thứ tự trường
+        assertThat(sensor("{\"deviceUid\":\"a\",\"light_level\":300,\"light\":512}").light()).isEqualTo(512.0);
+        assertThat(sensor("{\"deviceUid\":\"a\",\"light\":512,\"light_level\":300}").light()).isEqualTo(512.0);
+    }
+
+    @Test
+    void sentinelOrNullLightFallsBackToLightLevel() throws IOException {
+        assertThat(sensor("{\"deviceUid\":\"a\",\"light\":null,\"light_level\":300}").light()).isEqualTo(300.0);
+        assertThat(sensor("{\"deviceUid\":\"a\",\"light\":\"x\",\"light_level\":300}").light()).isEqualTo(300.0);
+        assertThat(sensor("{\"deviceUid\":\"a\",\"light\":512,\"light_level\":-1}").light()).isEqualTo(512.0);
+        assertThat(sensor("{\"deviceUid\":\"a\",\"light_level\":-1}").light()).isNaN();
+    }
+
+    @Test
+    void numericStringsAndMissingFields() throws IOException {
+        TelemetryReading reading = sensor("{\"deviceUid\":\"a\",\"temperature\":\" 27.5 \",\"humidity\":\"n/a\"}");
+
+        assertThat(reading.temperature()).isEqualTo(27.5);
+        assertThat(reading.humidity()).isNaN();
+        assertThat(reading.light()).isNaN();
+    }
+
+    @Test
+    void nestedValuesAreSkipped() throws IOException {
+        TelemetryReading reading = sensor("{\"meta\":{\"temperature\":99},\"deviceUid\":\"a\",\"tags\":[1,2],\"temperature\":21}");
+
+        assertThat(reading.deviceUid()).isEqualTo("a");
+        assertThat(reading.temperature()).isEqualTo(21.0);
+    }
+
+    @Test
+    void sensorPayloadMustBeAnObject() {
+        assertThatThrownBy(() -> sensor("[1,2,3]")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void decodesAckWithStringOrNumericDeviceId() throws IOException {
+        AckMessage numeric = ack("{\"deviceId\":7,\"state\":\"ON\",\"correlationId\":\"c-1\"}");
+        AckMessage text = ack("{\"deviceId\":\" 7 \",\"state\":\"OFF\"}");
+
+        assertThat(numeric.deviceId()).isEqualTo(7);
+        assertThat(numeric.state()).isEqualTo("ON");
+        assertThat(numeric.correlationId()).isEqualTo("c-1");
+        assertThat(text.deviceId()).isEqualTo(7);
+        assertThat(text.correlationId()).isNull();
+    }
+
+    @Test
+    void ackWithoutStateIsRejected() {
+        assertThatThrownBy(() -> ack("{\"deviceId\":7}")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
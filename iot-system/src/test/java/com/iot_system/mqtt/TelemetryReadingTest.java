@@ -0,0 +1,58 @@
+package com.iot_system.mqtt;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TelemetryReadingTest {
+
+    private final TelemetryDecoder decoder = new TelemetryDecoder();
+
+    private long key(String json) throws IOException {
+        return decoder.decodeSensor(json.getBytes(StandardCharsets.UTF_8)).idempotencyKey();
+    }
+
+    @Test
+    void twoReadingsInSameSecondHaveDifferentKeys() throws IOException {
+        // "ts" theo giây: cả hai bản tin có cùng deviceTimestampMillis
+        long first = key("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"humidity\":71.2,\"light\":512,\"ts\":1760000000}");
+        long second = key("{\"deviceUid\":\"esp32-01\",\"temperature\":28.5,\"humidity\":71.2,\"light\":512,\"ts\":1760000000}");
+
+        assertThat(first).isNotZero();
+        assertThat(second).isNotZero().isNotEqualTo(first);
+    }
+
+    @Test
+    void extraMetricsAreIncludedInKey() throws IOException {
+        long first = key("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"co2\":410,\"ts\":1760000000}");
+        long second = key("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"co2\":415,\"ts\":1760000000}");
+
+        assertThat(second).isNotEqualTo(first);
+    }
+
+    @Test
+    void redeliveredReadingHasSameKey() throws IOException {
+        String json = "{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"humidity\":71.2,\"co2\":410,\"voltage\":3.3,\"ts\":1760000000}";
+        String reordered = "{\"voltage\":3.3,\"co2\":410,\"ts\":1760000000,\"humidity\":71.2,\"temperature\":28.4,\"deviceUid\":\"esp32-01\"}";
+
+        assertThat(key(json)).isEqualTo(key(json)).isEqualTo(key(reordered));
+    }
+
+    @Test
+    void messageIdTakesPrecedenceOverValues() throws IOException {
+        long first = key("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"ts\":1760000000,\"msgId\":\"42\"}");
+        long sameId = key("{\"deviceUid\":\"esp32-01\",\"temperature\":30.0,\"ts\":1760000001,\"msgId\":\"42\"}");
+        long otherId = key("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4,\"ts\":1760000000,\"msgId\":\"43\"}");
+
+        assertThat(sameId).isEqualTo(first);
+        assertThat(otherId).isNotEqualTo(first);
+    }
+
+    @Test
+    void noMessageIdAndNoTimestampMeansNoKey() throws IOException {
+        assertThat(key("{\"deviceUid\":\"esp32-01\",\"temperature\":28.4}")).isZero();
+    }
+}
@@ -0,0 +1,58 @@
+package com.iot_system.repository;
+
+import com.iot_system.domain.enums.ValueOp;
+import com.iot_system.exception.InvalidQueryException;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ValueRangeTest {
+
+    @Test
+    void operatorIsParsedCaseInsensitively() {
+        assertThat(ValueOp.parse("gte")).isEqualTo(ValueOp.GTE);
+        assertThat(ValueOp.parse(" Between ")).isEqualTo(ValueOp.BETWEEN);
+        assertThat(ValueOp.parse("LT")).isEqualTo(ValueOp.LT);
+    }
+
+    @Test
+    void missingOperatorMeansEquals() {
+        assertThat(ValueOp.parse(null)).isEqualTo(ValueOp.EQ);
+        assertThat(ValueOp.parse("  ")).isEqualTo(ValueOp.EQ);
+    }
+
+    @Test
+    void unknownOperatorIsRejected() {
+        assertThatThrownBy(() -> ValueOp.parse("ne")).isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> ValueOp.parse(">=")).isInstanceOf(InvalidQueryException.class);
+    }
+
+    @Test
+    void equalsAllowsToleranceOnBothSides() {
+        assertThat(ValueRange.of(ValueOp.EQ, 25.0, null))
+                .isEqualTo(new ValueRange(25.0 - ValueRange.EQ_TOLERANCE, true, 25.0 + ValueRange.EQ_TOLERANCE, true));
+    }
+
+    @Test
+    void oneSidedOperatorsLeaveOtherSideOpen() {
+        assertThat(ValueRange.of(ValueOp.LT, 30.0, null)).isEqualTo(new ValueRange(null, false, 30.0, false));
+        assertThat(ValueRange.of(ValueOp.LTE, 30.0, null)).isEqualTo(new ValueRange(null, false, 30.0, true));
+        assertThat(ValueRange.of(ValueOp.GT, 30.0, null)).isEqualTo(new ValueRange(30.0, false, null, false));
+        assertThat(ValueRange.of(ValueOp.GTE, 30.0, 99.0)).isEqualTo(new ValueRange(30.0, true, null, false));
+    }
+
+    @Test
+    void betweenIncludesBothEndsInEitherOrder() {
+        ValueRange expected = new ValueRange(20.0, true, 30.0, true);
+        assertThat(ValueRange.of(ValueOp.BETWEEN, 20.0, 30.0)).isEqualTo(expected);
+        assertThat(ValueRange.of(ValueOp.BETWEEN, 30.0, 20.0)).isEqualTo(expected);
+    }
+
+    @Test
+    void missingValuesAreRejected() {
+        assertThatThrownBy(() -> ValueRange.of(ValueOp.GT, null, null)).isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> ValueRange.of(ValueOp.BETWEEN, 20.0, null))
+                .isInstanceOf(InvalidQueryException.class);
+    }
+}
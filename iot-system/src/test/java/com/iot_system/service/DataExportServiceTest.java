@@ -0,0 +1,140 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.enums.ExportFormat;
+import com.iot_system.domain.enums.SensorMetric;
+import com.iot_system.exception.InvalidQueryException;
+import com.iot_system.service.archive.ColdSegmentStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class DataExportServiceTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 17, 8, 30, 5);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final DeviceRegistry deviceRegistry = mock(DeviceRegistry.class);
+    private final ColdSegmentStore coldStore = mock(ColdSegmentStore.class);
+    private final PreparedStatement statement = mock(PreparedStatement.class);
+    // SQL và tham số của câu truy vấn xuất gần nhất
+    private final List<String> sql = new ArrayList<>();
+    private final List<Object> params = new ArrayList<>();
+    private DataExportService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.prepareStatement(anyString(), anyInt(), anyInt())).thenAnswer(invocation -> {
+            sql.add(invocation.getArgument(0));
+            return statement;
+        });
+        doAnswer(invocation -> params.add(invocation.getArgument(1))).when(statement).setObject(anyInt(), any());
+
+        // Hai dòng sensor_data, dòng thứ hai thiếu độ ẩm
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getLong(1)).thenReturn(1L, 2L);
+        when(rs.getString(2)).thenReturn("esp32-01");
+        when(rs.getDouble(3)).thenReturn(28.5, 29.0);
+        when(rs.getDouble(4)).thenReturn(70.0, 0.0);
+        when(rs.getDouble(5)).thenReturn(300.0, 310.0);
+        when(rs.wasNull()).thenReturn(false, false, false, false, true, false);
+        when(rs.getTimestamp(6)).thenReturn(Timestamp.valueOf(T0), Timestamp.valueOf(T0.plusSeconds(5)));
+
+        doAnswer(invocation -> {
+            PreparedStatementCreator creator = invocation.getArgument(0);
+            RowCallbackHandler handler = invocation.getArgument(1);
+            creator.createPreparedStatement(connection);
+            handler.processRow(rs);
+            handler.processRow(rs);
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        Device device = new Device();
+        device.setId(1L);
+        when(deviceRegistry.findByDeviceUid("esp32-01")).thenReturn(Optional.of(device));
+        when(deviceRegistry.findByDeviceUid("ghost")).thenReturn(Optional.empty());
+        service = new DataExportService(jdbcTemplate, deviceRegistry, coldStore, meterRegistry);
+    }
+
+    private static String run(StreamingResponseBody body, boolean gzip) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.writeTo(out);
+        byte[] bytes = out.toByteArray();
+        if (gzip) {
+            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                bytes = in.readAllBytes();
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void sensorRowsAreStreamedAsCsv() throws Exception {
+        String csv = run(service.exportSensorData(null, "17-10-2026", "17-10-2026", "esp32-01", SensorMetric.ALL,
+                null, null, null, "asc", ExportFormat.CSV, false), false);
+
+        assertThat(csv).isEqualTo("""
+                id,deviceUid,temperature,humidity,light,recordedAt
+                1,esp32-01,28.5,70.0,300.0,17-10-2026 08:30:05
+                2,esp32-01,29.0,,310.0,17-10-2026 08:30:10
+                """);
+        // Con trỏ streaming của MySQL, không nạp toàn bộ kết quả
+        verify(statement).setFetchSize(Integer.MIN_VALUE);
+        assertThat(sql.get(0)).contains("s.recorded_at >= ?", "s.recorded_at < ?", "s.device_id = ?")
+                .endsWith("ORDER BY s.recorded_at ASC, s.id ASC");
+        assertThat(params).containsExactly(Timestamp.valueOf(LocalDateTime.of(2026, 10, 17, 0, 0)),
+                Timestamp.valueOf(LocalDateTime.of(2026, 10, 18, 0, 0)), 1L);
+        assertThat(meterRegistry.get("iot.export.rows").tag("type", "sensor").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void gzipExportDecompressesToSameNdjson() throws Exception {
+        String ndjson = run(service.exportSensorData(null, null, null, null, SensorMetric.TEMP,
+                null, null, null, "desc", ExportFormat.NDJSON, true), true);
+
+        assertThat(ndjson.lines()).hasSize(2).first().asString()
+                .isEqualTo("{\"id\":1,\"deviceUid\":\"esp32-01\",\"temperature\":28.5,\"humidity\":70.0,"
+                        + "\"light\":300.0,\"recordedAt\":\"17-10-2026 08:30:05\"}");
+        assertThat(sql.get(0)).contains("s.temperature IS NOT NULL").endsWith("s.recorded_at DESC, s.id DESC");
+    }
+
+    @Test
+    void invalidParametersFailBeforeStreaming() {
+        assertThatThrownBy(() -> service.exportSensorData(null, "18-10-2026", "17-10-2026", null, null,
+                null, null, null, null, ExportFormat.CSV, false)).isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> service.exportActionHistory(null, null, null, "ghost", null, null,
+                null, ExportFormat.CSV, false)).isInstanceOf(InvalidQueryException.class);
+        verifyNoInteractions(jdbcTemplate);
+    }
+}
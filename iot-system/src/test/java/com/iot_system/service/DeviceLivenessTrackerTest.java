@@ -0,0 +1,132 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.entity.Device;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class DeviceLivenessTrackerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final DeviceRegistry deviceRegistry = mock(DeviceRegistry.class);
+    private final SimpMessagingTemplate wsTemplate = mock(SimpMessagingTemplate.class);
+    // Danh sách id thiết bị của từng câu UPDATE đã chạy
+    private final List<List<Object>> updates = new ArrayList<>();
+    private final List<Map<String, Object>> events = new ArrayList<>();
+    private boolean dbDown;
+    private DeviceLivenessTracker tracker;
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            if (dbDown) {
+                throw new TransientDataAccessResourceException("connection lost");
+            }
+            Object[] args = (Object[]) invocation.getRawArguments()[1];
+            // Các tham số WHERE id IN (...) nằm ở phần ba cuối
+            updates.add(List.of(args).subList(args.length / 3 * 2, args.length));
+            return 1;
+        }).when(jdbcTemplate).update(startsWith("UPDATE device SET last_seen_at"), any(Object[].class));
+        doAnswer(invocation -> {
+            events.add(invocation.getArgument(1));
+            return null;
+        }).when(wsTemplate).convertAndSend(eq("/topic/devices"), any(Object.class));
+
+        tracker = new DeviceLivenessTracker(jdbcTemplate, deviceRegistry, wsTemplate, meterRegistry);
+        // Chu kỳ nền dài: test gọi sweep()/flush() trực tiếp
+        tracker.setIntervals(60_000, 3_600_000, 3_600_000);
+        tracker.setLimits(2, 10_000);
+    }
+
+    @AfterEach
+    void tearDown() {
+        tracker.stop();
+    }
+
+    private static Device device(long id, LocalDateTime lastSeenAt) {
+        Device device = new Device();
+        device.setId(id);
+        device.setLastSeenAt(lastSeenAt);
+        return device;
+    }
+
+    @Test
+    void flushWritesChangedDevicesInChunks() {
+        tracker.start();
+        tracker.touch(1);
+        tracker.touch(2);
+        tracker.touch(3);
+
+        tracker.flush();
+        assertThat(updates).containsExactly(List.of(1, 2), List.of(3));
+
+        updates.clear();
+        tracker.flush();
+        assertThat(updates).as("không có gì mới").isEmpty();
+    }
+
+    @Test
+    void failedFlushIsRetriedNextTime() {
+        tracker.start();
+        tracker.touch(7);
+        dbDown = true;
+        tracker.flush();
+
+        dbDown = false;
+        tracker.flush();
+
+        assertThat(updates).containsExactly(List.of(7));
+    }
+
+    @Test
+    void seededStateIsSilentAndTransitionsArePublished() throws InterruptedException {
+        when(deviceRegistry.all()).thenReturn(List.of(device(1, LocalDateTime.now().minusHours(1)), device(2, null)));
+        tracker.setIntervals(100, 3_600_000, 3_600_000);
+        tracker.start();
+
+        tracker.sweep();
+        assertThat(events).as("thiết bị 1 đã OFFLINE từ trước khi khởi động").isEmpty();
+
+        tracker.touch(1);
+        tracker.sweep();
+        assertThat(events).extracting(e -> e.get("type")).containsExactly("DEVICE_ONLINE");
+        assertThat(events.get(0).get("deviceId")).isEqualTo(1L);
+
+        Thread.sleep(150);
+        tracker.sweep();
+        assertThat(events).extracting(e -> e.get("type")).containsExactly("DEVICE_ONLINE", "DEVICE_OFFLINE");
+        assertThat(meterRegistry.get("iot.device.liveness.offline").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void touchGrowsArrayAndIgnoresOutOfRangeIds() {
+        tracker.start();
+        tracker.touch(5_000);
+        tracker.touch(20_000);
+        tracker.touch(0);
+
+        assertThat(tracker.lastSeenAt(5_000)).isNotNull();
+        assertThat(tracker.lastSeenAt(20_000)).isNull();
+        assertThat(tracker.lastSeenAt(4_999)).isNull();
+        verifyNoInteractions(wsTemplate);
+    }
+}
@@ -0,0 +1,98 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.entity.Device;
+import com.iot_system.repository.DeviceRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeviceRegistryTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DeviceRepository deviceRepo = mock(DeviceRepository.class);
+    private DeviceRegistry registry;
+
+    private static Device device(long id, String uid) {
+        Device device = new Device();
+        device.setId(id);
+        device.setDeviceUid(uid);
+        return device;
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(deviceRepo.findAll()).thenReturn(List.of(device(2, "fan-1"), device(1, "led-1")));
+        registry = new DeviceRegistry(deviceRepo, meterRegistry);
+        registry.setNegativeTtlMs(60_000);
+        registry.init();
+    }
+
+    private double lookups(String result) {
+        return meterRegistry.get("iot.device.registry.lookups").tag("result", result).counter().count();
+    }
+
+    @Test
+    void preloadedDevicesAreServedWithoutDb() {
+        assertThat(registry.findByDeviceUid("fan-1")).map(Device::getId).contains(2L);
+        assertThat(registry.findById(1L)).map(Device::getDeviceUid).contains("led-1");
+        assertThat(registry.all()).extracting(Device::getId).containsExactly(1L, 2L);
+
+        verify(deviceRepo, times(0)).findByDeviceUid("fan-1");
+        assertThat(lookups("hit")).isEqualTo(2);
+    }
+
+    @Test
+    void missLoadsOnceThenHits() {
+        when(deviceRepo.findByDeviceUid("ac-1")).thenReturn(Optional.of(device(3, "ac-1")));
+
+        registry.findByDeviceUid("ac-1");
+        assertThat(registry.findByDeviceUid("ac-1")).map(Device::getId).contains(3L);
+        assertThat(registry.findById(3L)).isPresent();
+
+        verify(deviceRepo, times(1)).findByDeviceUid("ac-1");
+        assertThat(lookups("miss")).isEqualTo(1);
+    }
+
+    @Test
+    void unknownUidIsRememberedUntilDeviceIsCreated() {
+        when(deviceRepo.findByDeviceUid("ghost")).thenReturn(Optional.empty());
+
+        assertThat(registry.findByDeviceUid("ghost")).isEmpty();
+        assertThat(registry.findByDeviceUid("ghost")).isEmpty();
+        verify(deviceRepo, times(1)).findByDeviceUid("ghost");
+        assertThat(lookups("negative_hit")).isEqualTo(1);
+
+        registry.put(device(9, "ghost"));
+        assertThat(registry.findByDeviceUid("ghost")).map(Device::getId).contains(9L);
+    }
+
+    @Test
+    void renamedUidDropsOldMapping() {
+        registry.put(device(2, "fan-2"));
+        when(deviceRepo.findByDeviceUid("fan-1")).thenReturn(Optional.empty());
+
+        assertThat(registry.findByDeviceUid("fan-2")).map(Device::getId).contains(2L);
+        assertThat(registry.findByDeviceUid("fan-1")).isEmpty();
+        verify(deviceRepo).findByDeviceUid("fan-1");
+    }
+
+    @Test
+    void evictForcesReload() {
+        registry.evict(1L);
+        when(deviceRepo.findById(1L)).thenReturn(Optional.of(device(1, "led-1")));
+
+        assertThat(registry.findById(1L)).isPresent();
+        assertThat(registry.findByDeviceUid("led-1")).isPresent();
+        verify(deviceRepo).findById(1L);
+        verify(deviceRepo, times(0)).findByDeviceUid("led-1");
+    }
+}
@@ -0,0 +1,77 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.dto.DeviceControlDTO;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.exception.CommandRejectedException;
+import com.iot_system.mqtt.CommandPublisher;
+import com.iot_system.repository.DeviceRepository;
+import com.iot_system.service.ingest.DeviceWriteBehind;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DeviceServiceTest {
+
+    private final DeviceRegistry deviceRegistry = mock(DeviceRegistry.class);
+    private final CommandPublisher commandPublisher = mock(CommandPublisher.class);
+    private final CommandTracker commandTracker = mock(CommandTracker.class);
+    private DeviceService service;
+    private Device device;
+
+    @BeforeEach
+    void setUp() {
+        service = new DeviceService(mock(DeviceRepository.class), deviceRegistry, commandPublisher, commandTracker,
+                mock(DeviceWriteBehind.class), mock(DeviceLivenessTracker.class));
+        device = new Device();
+        device.setId(7L);
+        when(deviceRegistry.findById(7L)).thenReturn(Optional.of(device));
+    }
+
+    @Test
+    void acceptedCommandStaysTracked() {
+        CompletableFuture<Void> puback = new CompletableFuture<>();
+        when(commandPublisher.sendAction(eq(7), eq("ON"), anyString())).thenReturn(puback);
+
+        String correlationId = service.sendCommand(new DeviceControlDTO(7L, DeviceState.ON));
+
+        verify(commandTracker).track(correlationId, device, DeviceState.ON);
+        puback.complete(null);
+        verify(commandTracker, never()).untrack(anyString());
+    }
+
+    @Test
+    void rejectedCommandIsUntrackedAndNoIdIsReturned() {
+        when(commandPublisher.sendAction(eq(7), eq("ON"), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new RejectedExecutionException("Hàng publish lệnh đầy")));
+
+        assertThatThrownBy(() -> service.sendCommand(new DeviceControlDTO(7L, DeviceState.ON)))
+                .isInstanceOf(CommandRejectedException.class)
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+        verify(commandTracker).untrack(anyString());
+    }
+
+    @Test
+    void failedPubackUntracksCommand() {
+        CompletableFuture<Void> puback = new CompletableFuture<>();
+        when(commandPublisher.sendAction(eq(7), eq("ON"), anyString())).thenReturn(puback);
+
+        String correlationId = service.sendCommand(new DeviceControlDTO(7L, DeviceState.ON));
+        puback.completeExceptionally(new IllegalStateException("mất kết nối"));
+
+        assertThat(correlationId).isNotBlank();
+        verify(commandTracker).untrack(correlationId);
+    }
+}
@@ -0,0 +1,202 @@
+package com.iot_system.service;
+
+import com.iot_system.service.ingest.SensorReadingRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryResultCacheTest {
+
+    private static final LocalDateTime WATERMARK = LocalDateTime.of(2026, 10, 17, 12, 0);
+
+    private QueryResultCache cache;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        cache = new QueryResultCache(new SimpleMeterRegistry());
+        cache.setEnabled(true);
+        cache.setLimits(100, 1_000_000L);
+        cache.setSettleMs(5_000L);
+    }
+
+    private Page<String> load(String key, LocalDateTime start, LocalDateTime end) {
+        return cache.getOrLoad(key, QueryResultCache.Domain.SENSOR, start, end, WATERMARK, () -> {
+            loads.incrementAndGet();
+            return new PageImpl<>(List.of(key));
+        });
+    }
+
+    private static List<SensorReadingRow> batchAt(LocalDateTime... times) {
+        return Arrays.stream(times)
+                .map(t -> new SensorReadingRow(1, 25.0, 60.0, 300, t, List.of(), 0))
+                .toList();
+    }
+
+    @Test
+    void secondRequestIsServedFromCache() {
+        LocalDateTime start = WATERMARK.minusHours(1);
+        Page<String> first = load("q", start, null);
+        Page<String> second = load("q", start, null);
+
+        assertThat(second).isSameAs(first);
+        assertThat(loads).hasValue(1);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void mutableEntryIsInvalidatedOnlyByOverlappingBatch() {
+        // end sau watermark - settle => khả biến
+        LocalDateTime start = WATERMARK.minusMinutes(30);
+        LocalDateTime end = WATERMARK.plusMinutes(30);
+        load("q", start, end);
+
+        cache.onBatchWritten(batchAt(WATERMARK.plusHours(2)));
+        cache.onBatchWritten(batchAt(start.minusMinutes(5)));
+        load("q", start, end);
+        assertThat(loads).as("lô nằm ngoài khoảng không xóa mục").hasValue(1);
+
+        cache.onBatchWritten(batchAt(start.minusMinutes(5), WATERMARK.plusMinutes(10)));
+        load("q", start, end);
+        assertThat(loads).as("lô giao với khoảng xóa mục").hasValue(2);
+    }
+
+    @Test
+    void batchAtExactBoundsOfRange() {
+        LocalDateTime start = WATERMARK.minusMinutes(30);
+        LocalDateTime end = WATERMARK.plusMinutes(30);
+        load("q", start, end);
+
+        // Khoảng [start, end): bản ghi tại end nằm ngoài
+        cache.onBatchWritten(batchAt(end));
+        load("q", start, end);
+        assertThat(loads).hasValue(1);
+
+        cache.onBatchWritten(batchAt(start));
+        load("q", start, end);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void openEndedEntryIsInvalidatedByAnyLaterBatch() {
+        load("q", WATERMARK.minusDays(1), null);
+
+        cache.onBatchWritten(batchAt(WATERMARK.plusDays(30)));
+        load("q", WATERMARK.minusDays(1), null);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void immutableEntrySurvivesWritesButNotPurge() {
+        // end trước watermark - settle => bất biến
+        LocalDateTime start = WATERMARK.minusDays(2);
+        LocalDateTime end = WATERMARK.minusDays(1);
+        load("q", start, end);
+
+        cache.onBatchWritten(batchAt(start.plusHours(1)));
+        load("q", start, end);
+        assertThat(loads).hasValue(1);
+
+        cache.invalidateBefore(QueryResultCache.Domain.SENSOR, end);
+        load("q", start, end);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void replayedBatchInvalidatesEntryCachedWhileItWasPending() {
+        // Lô lỗi chờ ghi lại có bản ghi cũ nhất lúc pendingSince => SensorBatchWriter trả watermark = pendingSince
+        LocalDateTime pendingSince = WATERMARK.minusDays(2);
+        LocalDateTime start = WATERMARK.minusDays(3);
+        LocalDateTime end = WATERMARK.minusDays(1);
+        cache.getOrLoad("q", QueryResultCache.Domain.SENSOR, start, end, pendingSince, () -> {
+            loads.incrementAndGet();
+            return new PageImpl<>(List.of("without replayed rows"));
+        });
+
+        // Lô được ghi lại: toàn bộ bản ghi cũ hơn watermark hiện tại
+        cache.onBatchWritten(batchAt(pendingSince, pendingSince.plusMinutes(1)));
+        load("q", start, end);
+
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void invalidationIsScopedToDomain() {
+        load("q", WATERMARK.minusHours(1), null);
+
+        cache.onHistoryWritten(WATERMARK.minusMinutes(10), WATERMARK);
+        cache.invalidateBefore(QueryResultCache.Domain.ACTION_HISTORY, WATERMARK);
+        load("q", WATERMARK.minusHours(1), null);
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void mutableResultLoadedDuringWriteIsReturnedButNotCached() {
+        LocalDateTime start = WATERMARK.minusHours(1);
+        Page<String> page = cache.getOrLoad("q", QueryResultCache.Domain.SENSOR, start, null, WATERMARK, () -> {
+            loads.incrementAndGet();
+            // Lô ghi xong trong lúc đang tải (không giao với khoảng vẫn tính: thế hệ ghi đã đổi)
+            cache.onBatchWritten(batchAt(start.minusDays(1)));
+            return new PageImpl<>(List.of("stale"));
+        });
+
+        assertThat(page.getContent()).containsExactly("stale");
+        assertThat(cache.size()).isZero();
+        load("q", start, null);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    void immutableResultLoadedDuringWriteIsCachedButNotDuringPurge() {
+        LocalDateTime start = WATERMARK.minusDays(2);
+        LocalDateTime end = WATERMARK.minusDays(1);
+        cache.getOrLoad("written", QueryResultCache.Domain.SENSOR, start, end, WATERMARK, () -> {
+            cache.onBatchWritten(batchAt(WATERMARK));
+            return new PageImpl<>(List.of("written"));
+        });
+        assertThat(cache.size()).isEqualTo(1);
+
+        cache.getOrLoad("purged", QueryResultCache.Domain.SENSOR, start, end, WATERMARK, () -> {
+            cache.invalidateBefore(QueryResultCache.Domain.SENSOR, start);
+            return new PageImpl<>(List.of("purged"));
+        });
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        cache.setLimits(2, 1_000_000L);
+        LocalDateTime start = WATERMARK.minusHours(1);
+        load("a", start, null);
+        load("b", start, null);
+        load("a", start, null);
+        load("c", start, null);
+
+        assertThat(cache.size()).isEqualTo(2);
+        load("a", start, null);
+        assertThat(loads).as("a vừa dùng nên còn trong cache").hasValue(3);
+        load("b", start, null);
+        assertThat(loads).as("b bị đẩy ra").hasValue(4);
+    }
+
+    @Test
+    void disabledCacheAlwaysLoads() {
+        cache.setEnabled(false);
+        load("q", null, null);
+        load("q", null, null);
+
+        assertThat(loads).hasValue(2);
+        assertThat(cache.size()).isZero();
+    }
+}
@@ -0,0 +1,190 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.enums.CountMode;
+import com.iot_system.service.ingest.MetricSample;
+import com.iot_system.service.ingest.SensorReadingRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SearchCountServiceTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 10, 17, 12, 0);
+
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private SearchCountService service;
+    private final AtomicInteger exactCalls = new AtomicInteger();
+    private final LongSupplier exact = () -> {
+        exactCalls.incrementAndGet();
+        return 1234;
+    };
+
+    @BeforeEach
+    void setUp() {
+        service = new SearchCountService(jdbcTemplate, new SimpleMeterRegistry());
+        service.setCache(60_000L, 10);
+        // Đếm nền theo chu kỳ không chạy trong thời gian test
+        service.setEstimateRefreshMs(3_600_000L);
+        service.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stop();
+    }
+
+    private void givenSensorRows(long tableRows, long... counts) {
+        when(jdbcTemplate.queryForObject(startsWith("SELECT TABLE_ROWS"), eq(Long.class))).thenReturn(tableRows);
+        Long[] rest = new Long[counts.length - 1];
+        for (int i = 1; i < counts.length; i++) {
+            rest[i - 1] = counts[i];
+        }
+        when(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM sensor_data", Long.class)).thenReturn(counts[0], rest);
+    }
+
+    /** Lần gọi estimate đầu tiên đếm lại ngay trên luồng nền; đợi lần đếm thứ n xong */
+    private void awaitCount(int n, long expectedEstimate) throws InterruptedException {
+        verify(jdbcTemplate, timeout(2_000).times(n)).queryForObject("SELECT COUNT(*) FROM sensor_data", Long.class);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (service.estimateSensorRows() != expectedEstimate && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static SensorReadingRow wide(double temperature) {
+        return new SensorReadingRow(1, temperature, Double.NaN, Double.NaN, NOW);
+    }
+
+    private static SensorReadingRow narrowOnly() {
+        return new SensorReadingRow(1, Double.NaN, Double.NaN, Double.NaN, NOW, List.of(new MetricSample(4, 410)), 0);
+    }
+
+    @Test
+    void shortFirstPageGivesExactTotal() {
+        assertThat(SearchCountService.fromShortPage(0, 7, 20)).isEqualTo(7);
+    }
+
+    @Test
+    void emptyFirstPageMeansNoRows() {
+        assertThat(SearchCountService.fromShortPage(0, 0, 20)).isZero();
+    }
+
+    @Test
+    void shortLaterPageAddsOffset() {
+        assertThat(SearchCountService.fromShortPage(40, 5, 20)).isEqualTo(45);
+        assertThat(SearchCountService.fromShortPage(40, 19, 20)).isEqualTo(59);
+    }
+
+    @Test
+    void fullPageSaysNothing() {
+        assertThat(SearchCountService.fromShortPage(0, 20, 20)).isEqualTo(-1);
+        assertThat(SearchCountService.fromShortPage(100, 20, 20)).isEqualTo(-1);
+    }
+
+    @Test
+    void emptyPageAfterEndSaysNothing() {
+        // Trang rỗng ở offset > 0: dữ liệu có thể kết thúc ở bất kỳ đâu trước offset
+        assertThat(SearchCountService.fromShortPage(100, 0, 20)).isEqualTo(-1);
+    }
+
+    @Test
+    void shortPageSkipsCount() {
+        SearchCountService.Total total = service.count(CountMode.EXACT, "k", 20, 3, 20, null, exact);
+
+        assertThat(total).isEqualTo(new SearchCountService.Total(23, true));
+        assertThat(exactCalls).hasValue(0);
+    }
+
+    @Test
+    void fullPageFallsBackToMode() {
+        SearchCountService.Total total = service.count(CountMode.EXACT, "k", 0, 20, 20, null, exact);
+
+        assertThat(total).isEqualTo(new SearchCountService.Total(1234, true));
+        assertThat(exactCalls).hasValue(1);
+    }
+
+    @Test
+    void cachedModeReusesCountForSameKey() {
+        SearchCountService.Total first = service.count(CountMode.CACHED, "k", 0, 20, 20, null, exact);
+        SearchCountService.Total second = service.count(CountMode.CACHED, "k", 20, 20, 20, null, exact);
+        service.count(CountMode.CACHED, "other", 0, 20, 20, null, exact);
+
+        assertThat(first).isEqualTo(new SearchCountService.Total(1234, true));
+        assertThat(second).isEqualTo(new SearchCountService.Total(1234, false));
+        assertThat(exactCalls).hasValue(2);
+    }
+
+    @Test
+    void estimateModeUsesEstimatorWhenAvailable() {
+        SearchCountService.Total estimated = service.count(CountMode.ESTIMATE, "k", 0, 20, 20, () -> 999, exact);
+        assertThat(estimated).isEqualTo(new SearchCountService.Total(999, false));
+        assertThat(exactCalls).hasValue(0);
+
+        // Không ước lượng được (có lọc) => như CACHED
+        service.count(CountMode.ESTIMATE, "filtered", 0, 20, 20, null, exact);
+        service.count(CountMode.ESTIMATE, "filtered", 20, 20, 20, null, exact);
+        assertThat(exactCalls).hasValue(1);
+    }
+
+    @Test
+    void estimateCountsOnlyRowsWrittenToSensorData() throws InterruptedException {
+        givenSensorRows(90, 100);
+        service.estimateSensorRows();
+        awaitCount(1, 100);
+
+        service.onBatchWritten(List.of(wide(25), narrowOnly(), wide(26), narrowOnly()));
+
+        assertThat(service.estimateSensorRows()).isEqualTo(102);
+    }
+
+    @Test
+    void deletedRowsShrinkTheEstimate() throws InterruptedException {
+        givenSensorRows(90, 100);
+        service.estimateSensorRows();
+        awaitCount(1, 100);
+
+        service.onBatchWritten(List.of(wide(25)));
+        service.onSensorRowsDeleted(40);
+        assertThat(service.estimateSensorRows()).isEqualTo(61);
+
+        service.onSensorRowsDeleted(1_000);
+        assertThat(service.estimateSensorRows()).isZero();
+    }
+
+    @Test
+    void droppedPartitionForcesRecount() throws InterruptedException {
+        givenSensorRows(90, 100, 30);
+        service.estimateSensorRows();
+        awaitCount(1, 100);
+
+        service.refreshSensorEstimateNow();
+        awaitCount(2, 30);
+
+        assertThat(service.estimateSensorRows()).isEqualTo(30);
+    }
+
+    @Test
+    void recountIsSkippedUntilEstimateIsUsed() {
+        service.refreshSensorEstimateNow();
+        service.stop();
+
+        verify(jdbcTemplate, times(0)).queryForObject("SELECT COUNT(*) FROM sensor_data", Long.class);
+    }
+}
@@ -0,0 +1,71 @@
+package com.iot_system.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class SensorRetentionServiceTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private QueryResultCache queryCache;
+    private SearchCountService countService;
+    private SensorRetentionService service;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = mock(JdbcTemplate.class);
+        queryCache = mock(QueryResultCache.class);
+        countService = mock(SearchCountService.class);
+        service = new SensorRetentionService(jdbcTemplate, new SimpleMeterRegistry(), queryCache, countService);
+    }
+
+    @Test
+    void retentionIsOffByDefault() throws NoSuchFieldException {
+        Value value = SensorRetentionService.class.getDeclaredField("retentionDays").getAnnotation(Value.class);
+        assertThat(value.value()).isEqualTo("${sensor.retention.days:0}");
+    }
+
+    @Test
+    void disabledRetentionDeletesNothing() {
+        assertThat(service.runOnce()).isZero();
+
+        // Chỉ đọc danh sách partition, không DELETE/DROP
+        verify(jdbcTemplate).query(anyString(), any(RowCallbackHandler.class), eq("sensor_data"));
+        verifyNoMoreInteractions(jdbcTemplate);
+        verify(queryCache, never()).invalidateBefore(any(), any());
+        verifyNoInteractions(countService);
+    }
+
+    @Test
+    void enabledRetentionPurgesBothTablesBeforeCutoff() {
+        service.setRetentionDays(30);
+        when(jdbcTemplate.update(startsWith("DELETE FROM sensor_data"), any(Timestamp.class), any())).thenReturn(12);
+        Timestamp cutoff = Timestamp.valueOf(LocalDate.now().minusDays(30).atStartOfDay());
+
+        assertThat(service.runOnce()).isEqualTo(12);
+
+        verify(jdbcTemplate).update(eq("DELETE FROM sensor_reading WHERE ts < ? LIMIT ?"), eq(cutoff), any());
+        verify(jdbcTemplate).update(eq("DELETE FROM sensor_data WHERE recorded_at < ? LIMIT ?"), eq(cutoff), any());
+        verify(queryCache).invalidateBefore(QueryResultCache.Domain.SENSOR, cutoff.toLocalDateTime());
+        // Chỉ dòng sensor_data trừ vào ước lượng số dòng
+        verify(countService).onSensorRowsDeleted(12);
+    }
+}
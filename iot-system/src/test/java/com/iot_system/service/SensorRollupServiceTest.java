@@ -0,0 +1,136 @@
+package com.iot_system.service;
+
+import com.iot_system.exception.InvalidQueryException;
+import com.iot_system.repository.SensorRollupRepository;
+import com.iot_system.service.archive.ColdSegmentStore;
+import com.iot_system.service.ingest.SensorReadingRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class SensorRollupServiceTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 17, 8, 30, 5);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private final JdbcTemplate ingestJdbcTemplate = mock(JdbcTemplate.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+    private final ColdSegmentStore coldStore = mock(ColdSegmentStore.class);
+    // Tham số của từng dòng upsert trong lô gần nhất
+    private final List<Object[]> upserted = new ArrayList<>();
+    private SensorRollupService service;
+
+    @BeforeEach
+    void setUp() {
+        when(ingestJdbcTemplate.batchUpdate(startsWith("INSERT INTO sensor_rollup"), anyList())).thenAnswer(invocation -> {
+            List<Object[]> args = invocation.getArgument(1);
+            upserted.addAll(args);
+            return new int[args.size()];
+        });
+        when(transactionTemplate.execute(any())).thenAnswer(invocation -> {
+            TransactionCallback<?> callback = invocation.getArgument(0);
+            return callback.doInTransaction(null);
+        });
+        service = new SensorRollupService(jdbcTemplate, ingestJdbcTemplate, transactionTemplate,
+                mock(SensorRollupRepository.class), mock(DeviceRegistry.class), coldStore, meterRegistry);
+        service.setEnabled(true);
+    }
+
+    private static SensorReadingRow row(long deviceId, double temperature, double light, LocalDateTime at) {
+        return new SensorReadingRow(deviceId, temperature, Double.NaN, light, at);
+    }
+
+    private Object[] upsertFor(long deviceId, String metric, String bucket, LocalDateTime bucketStart) {
+        return upserted.stream()
+                .filter(a -> (long) a[0] == deviceId && a[1].equals(metric) && a[2].equals(bucket)
+                        && a[3].equals(Timestamp.valueOf(bucketStart)))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    @Test
+    void batchIsFoldedIntoOneRowPerBucket() {
+        // Bản ghi mới nhất đứng trước trong lô: last vẫn phải là giá trị có thời điểm muộn nhất
+        service.onBatchWritten(List.of(
+                row(1, 24, 300, T0.plusSeconds(20)),
+                row(1, 20, Double.NaN, T0),
+                row(1, 22, Double.NaN, T0.plusMinutes(1)),
+                row(2, 30, Double.NaN, T0)));
+
+        Object[] minute = upsertFor(1, "TEMP", "MINUTE", LocalDateTime.of(2026, 10, 17, 8, 30));
+        assertThat(List.of(minute).subList(4, 10))
+                .containsExactly(2L, 20.0, 24.0, 44.0, 24.0, Timestamp.valueOf(T0.plusSeconds(20)));
+
+        Object[] hour = upsertFor(1, "TEMP", "HOUR", LocalDateTime.of(2026, 10, 17, 8, 0));
+        assertThat(List.of(hour).subList(4, 10))
+                .containsExactly(3L, 20.0, 24.0, 66.0, 22.0, Timestamp.valueOf(T0.plusMinutes(1)));
+
+        assertThat(upsertFor(1, "LIGHT", "DAY", LocalDateTime.of(2026, 10, 17, 0, 0))[4]).isEqualTo(1L);
+        assertThat(upserted).as("giá trị NaN không tạo bucket").noneMatch(a -> a[1].equals("HUMIDITY"));
+        // Thiết bị 1: TEMP 2 phút + giờ + ngày, LIGHT 3 bucket; thiết bị 2: TEMP 3 bucket
+        assertThat(upserted).hasSize(10);
+    }
+
+    @Test
+    void disabledRollupDoesNothing() {
+        service.setEnabled(false);
+        service.onBatchWritten(List.of(row(1, 24, 300, T0)));
+
+        verifyNoInteractions(ingestJdbcTemplate);
+    }
+
+    @Test
+    void failedUpsertIsCountedNotThrown() {
+        doThrow(new TransientDataAccessResourceException("connection lost"))
+                .when(ingestJdbcTemplate).batchUpdate(anyString(), anyList());
+
+        service.onBatchWritten(List.of(row(1, 24, Double.NaN, T0)));
+
+        assertThat(meterRegistry.get("iot.rollup.upsert.failed").counter().count()).isEqualTo(3);
+    }
+
+    @Test
+    void rebuildWidensRangeToWholeDays() {
+        when(jdbcTemplate.update(startsWith("INSERT INTO sensor_rollup"), any(Timestamp.class), any(Timestamp.class)))
+                .thenReturn(4);
+
+        int written = service.rebuild("17-10-2026 08:30", "17-10-2026 09:00");
+
+        Timestamp start = Timestamp.valueOf(LocalDateTime.of(2026, 10, 17, 0, 0));
+        Timestamp end = Timestamp.valueOf(LocalDateTime.of(2026, 10, 18, 0, 0));
+        verify(coldStore).requireNotArchived(LocalDateTime.of(2026, 10, 17, 0, 0), "Dựng lại tổng hợp");
+        verify(jdbcTemplate).update(startsWith("DELETE FROM sensor_rollup"), eq(start), eq(end));
+        // 3 bucket x 3 metric
+        assertThat(written).isEqualTo(36);
+    }
+
+    @Test
+    void rebuildRejectsMissingOrInvertedRange() {
+        assertThatThrownBy(() -> service.rebuild(null, "17-10-2026")).isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> service.rebuild("18-10-2026", "17-10-2026")).isInstanceOf(InvalidQueryException.class);
+        verifyNoInteractions(jdbcTemplate);
+    }
+}
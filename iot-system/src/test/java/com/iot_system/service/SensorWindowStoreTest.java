@@ -0,0 +1,130 @@
+package com.iot_system.service;
+
+import com.iot_system.domain.dto.SensorReadingDTO;
+import com.iot_system.domain.dto.SensorUpdateDTO;
+import com.iot_system.domain.entity.Device;
+import com.iot_system.domain.entity.SensorData;
+import com.iot_system.repository.SensorDataRepository;
+import com.iot_system.service.ingest.SensorReadingRow;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SensorWindowStoreTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SensorDataRepository sensorRepo = mock(SensorDataRepository.class);
+    private final DeviceRegistry deviceRegistry = mock(DeviceRegistry.class);
+    // Cắt về mili giây như ring buffer
+    private final LocalDateTime now = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+    private SensorWindowStore store;
+
+    private static Device device(long id, String uid) {
+        Device device = new Device();
+        device.setId(id);
+        device.setDeviceUid(uid);
+        return device;
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(deviceRegistry.findById(1L)).thenReturn(Optional.of(device(1, "esp-01")));
+        when(deviceRegistry.findByDeviceUid("esp-01")).thenReturn(Optional.of(device(1, "esp-01")));
+        store = new SensorWindowStore(sensorRepo, deviceRegistry, meterRegistry);
+        store.setLimits(4, 60);
+    }
+
+    private static SensorReadingRow row(long deviceId, LocalDateTime at, double temperature) {
+        return new SensorReadingRow(deviceId, temperature, 60.0, Double.NaN, at);
+    }
+
+    private double reads(String source) {
+        return meterRegistry.get("iot.sensor.window.reads").tag("source", source).counter().count();
+    }
+
+    @Test
+    void recentWindowIsServedFromRing() {
+        store.init(now.minusHours(1));
+        store.onBatchWritten(List.of(row(1, now.minusMinutes(10), 20), row(1, now.minusMinutes(3), 21),
+                row(2, now.minusMinutes(2), 99), row(1, now.minusMinutes(1), 22)));
+
+        List<SensorReadingDTO> recent = store.recent("esp-01", null, 5);
+
+        assertThat(recent).extracting(SensorReadingDTO::getTemperature).containsExactly(21.0, 22.0);
+        assertThat(recent).extracting(SensorReadingDTO::getStt).containsExactly(1, 2);
+        assertThat(recent.get(0).getLight()).isNull();
+        assertThat(recent.get(1).getRecordedAt()).isEqualTo(now.minusMinutes(1));
+        assertThat(reads("memory")).isEqualTo(1);
+        verify(sensorRepo, never()).findByDevice_IdAndRecordedAtGreaterThanEqualOrderByRecordedAtAsc(anyLong(), any());
+    }
+
+    @Test
+    void windowOlderThanStartupReadsDb() {
+        store.init(now.minusMinutes(2));
+        store.onBatchWritten(List.of(row(1, now.minusMinutes(1), 22)));
+
+        store.recent(null, 1L, 5);
+
+        assertThat(reads("db")).isEqualTo(1);
+        verify(sensorRepo).findByDevice_IdAndRecordedAtGreaterThanEqualOrderByRecordedAtAsc(eq(1L), any());
+    }
+
+    @Test
+    void overwrittenRowsShrinkCoverage() {
+        store.init(now.minusHours(1));
+        // Capacity 4: bản ghi lúc -6m30s bị ghi đè => ring chỉ còn bao phủ từ sau mốc đó
+        for (int minutesAgo = 6; minutesAgo >= 2; minutesAgo--) {
+            store.onBatchWritten(List.of(row(1, now.minusMinutes(minutesAgo).minusSeconds(30), minutesAgo)));
+        }
+
+        assertThat(store.recent(null, 1L, 6)).hasSize(4);
+        store.recent(null, 1L, 10);
+
+        assertThat(reads("memory")).isEqualTo(1);
+        assertThat(reads("db")).isEqualTo(1);
+    }
+
+    @Test
+    void latestIsSeededFromDbOnlyOnce() {
+        store.init(now.minusHours(1));
+        when(deviceRegistry.all()).thenReturn(List.of(device(1, "esp-01"), device(2, "esp-02"), device(3, "esp-03")));
+        SensorData stored = new SensorData();
+        stored.setTemperature(18.5);
+        stored.setRecordedAt(now.minusDays(1));
+        when(sensorRepo.findTopByDevice_IdOrderByRecordedAtDesc(2L)).thenReturn(Optional.of(stored));
+        when(sensorRepo.findTopByDevice_IdOrderByRecordedAtDesc(3L)).thenReturn(Optional.empty());
+        store.onBatchWritten(List.of(row(1, now.minusMinutes(1), 22)));
+
+        store.latestForAll();
+        List<SensorUpdateDTO> latest = store.latestForAll();
+
+        assertThat(latest).extracting(SensorUpdateDTO::deviceUid).containsExactly("esp-01", "esp-02");
+        assertThat(latest.get(1).temperature()).isEqualTo(18.5);
+        assertThat(latest.get(1).humidity()).isNull();
+        verify(sensorRepo, never()).findTopByDevice_IdOrderByRecordedAtDesc(1L);
+        verify(sensorRepo, times(1)).findTopByDevice_IdOrderByRecordedAtDesc(2L);
+        verify(sensorRepo, times(1)).findTopByDevice_IdOrderByRecordedAtDesc(3L);
+    }
+
+    @Test
+    void minutesOutsideLimitIsRejected() {
+        store.init(now);
+        assertThatThrownBy(() -> store.recent("esp-01", null, 0)).hasMessageContaining("'minutes'");
+    }
+}
@@ -0,0 +1,124 @@
+package com.iot_system.service.archive;
+
+import com.iot_system.domain.enums.SensorMetric;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ColdSegmentTest {
+
+    private record Reading(long deviceId, long micros, double temperature, double humidity, double light) {
+    }
+
+    private static List<Reading> decode(ByteBuffer segment) {
+        List<Reading> readings = new ArrayList<>();
+        ColdSegment.decode(segment, (deviceId, micros, t, h, l) -> readings.add(new Reading(deviceId, micros, t, h, l)));
+        return readings;
+    }
+
+    private static void assertSameReadings(List<Reading> actual, List<Reading> expected) {
+        assertThat(actual).hasSameSizeAs(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            Reading a = actual.get(i);
+            Reading e = expected.get(i);
+            assertThat(a.deviceId()).isEqualTo(e.deviceId());
+            assertThat(a.micros()).as("micros #%d", i).isEqualTo(e.micros());
+            // So sánh theo bit để NaN (giá trị vắng mặt) và -0.0 được kiểm tra chính xác
+            assertThat(Double.doubleToRawLongBits(a.temperature())).as("temperature #%d", i)
+                    .isEqualTo(Double.doubleToRawLongBits(e.temperature()));
+            assertThat(Double.doubleToRawLongBits(a.humidity())).as("humidity #%d", i)
+                    .isEqualTo(Double.doubleToRawLongBits(e.humidity()));
+            assertThat(Double.doubleToRawLongBits(a.light())).as("light #%d", i)
+                    .isEqualTo(Double.doubleToRawLongBits(e.light()));
+        }
+    }
+
+    @Test
+    void roundTripKeepsTimestampsAndValues() {
+        long deviceId = 42;
+        long start = ColdSegment.toMicros(LocalDateTime.of(2026, 10, 1, 0, 0));
+        Random random = new Random(7);
+        // Bước thời gian thay đổi để đi qua mọi nhánh mã delta-of-delta: 0, 7, 12, 20, 32 và 64 bit
+        long[] steps = {1_000_000, 1_000_000, 1_000_050, 1_001_000, 1_300_000, 60_000_000, 1_000_000,
+                5_000_000_000L, 1_000_000, 1, 3_000_000_000_000L, 1_000_000};
+        ColdSegment.Builder builder = new ColdSegment.Builder(deviceId);
+        List<Reading> expected = new ArrayList<>();
+        long micros = start;
+        for (int i = 0; i < 1000; i++) {
+            micros += steps[i % steps.length];
+            double t = i % 10 == 0 ? Double.NaN : Math.round((25 + random.nextGaussian()) * 10) / 10.0;
+            double h = i % 50 < 5 ? 60.0 : 40 + random.nextDouble() * 40;
+            double l = i % 7 == 0 ? Double.NaN : (i % 3 == 0 ? -0.0 : random.nextInt(1024));
+            builder.add(micros, t, h, l);
+            expected.add(new Reading(deviceId, micros, t, h, l));
+        }
+
+        ByteBuffer segment = builder.encode();
+
+        assertThat(segment.position()).isZero();
+        assertSameReadings(decode(segment), expected);
+    }
+
+    @Test
+    void headerCountsPresentValuesPerMetric() {
+        ColdSegment.Builder builder = new ColdSegment.Builder(7);
+        long base = ColdSegment.toMicros(LocalDateTime.of(2026, 10, 2, 8, 0));
+        builder.add(base, 21.5, Double.NaN, 300);
+        builder.add(base + 1_000_000, Double.NaN, Double.NaN, 310);
+        builder.add(base + 2_000_000, 22.0, 55.0, Double.NaN);
+
+        ColdSegment.Header header = ColdSegment.readHeader(builder.encode());
+
+        assertThat(header.deviceId()).isEqualTo(7);
+        assertThat(header.count()).isEqualTo(3);
+        assertThat(header.count(SensorMetric.TEMP)).isEqualTo(2);
+        assertThat(header.count(SensorMetric.HUMIDITY)).isEqualTo(1);
+        assertThat(header.count(SensorMetric.LIGHT)).isEqualTo(2);
+        assertThat(header.count(SensorMetric.ALL)).isEqualTo(3);
+        assertThat(header.count(null)).isEqualTo(3);
+        assertThat(header.firstMicros()).isEqualTo(base);
+        assertThat(header.lastMicros()).isEqualTo(base + 2_000_000);
+    }
+
+    @Test
+    void singleAndEmptySegments() {
+        ColdSegment.Builder single = new ColdSegment.Builder(1);
+        long at = ColdSegment.toMicros(LocalDateTime.of(2026, 10, 3, 23, 59, 59, 999_999_000));
+        single.add(at, 1.5, 2.5, 3.5);
+        assertSameReadings(decode(single.encode()), List.of(new Reading(1, at, 1.5, 2.5, 3.5)));
+
+        ByteBuffer empty = new ColdSegment.Builder(2).encode();
+        assertThat(ColdSegment.readHeader(empty).count()).isZero();
+        assertThat(decode(empty)).isEmpty();
+    }
+
+    @Test
+    void microsConversionRoundTrips() {
+        LocalDateTime time = LocalDateTime.of(2026, 10, 17, 10, 15, 30, 123_456_000);
+        assertThat(ColdSegment.fromMicros(ColdSegment.toMicros(time))).isEqualTo(time);
+
+        LocalDateTime beforeEpoch = LocalDateTime.of(1969, 12, 31, 23, 59, 59, 500_000_000);
+        assertThat(ColdSegment.fromMicros(ColdSegment.toMicros(beforeEpoch))).isEqualTo(beforeEpoch);
+    }
+
+    @Test
+    void rejectsCorruptSegments() {
+        ByteBuffer segment = new ColdSegment.Builder(1).encode();
+        segment.putInt(0, 0xCAFEBABE);
+        assertThatThrownBy(() -> ColdSegment.readHeader(segment)).isInstanceOf(IllegalStateException.class);
+
+        ByteBuffer newer = new ColdSegment.Builder(1).encode();
+        newer.putShort(4, (short) (ColdSegment.VERSION + 1));
+        assertThatThrownBy(() -> ColdSegment.readHeader(newer)).isInstanceOf(IllegalStateException.class);
+
+        assertThatThrownBy(() -> ColdSegment.readHeader(ByteBuffer.allocate(8)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
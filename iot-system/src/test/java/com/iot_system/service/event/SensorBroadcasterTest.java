@@ -0,0 +1,128 @@
+package com.iot_system.service.event;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.iot_system.domain.dto.SensorUpdateDTO;
+import com.iot_system.mqtt.IngestMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+class SensorBroadcasterTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 17, 10, 0);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SimpMessagingTemplate wsTemplate = mock(SimpMessagingTemplate.class);
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    // [đích, payload JSON] theo thứ tự gửi
+    private final List<Map.Entry<String, String>> sent = new CopyOnWriteArrayList<>();
+    private SensorBroadcaster broadcaster;
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            Message<?> message = invocation.getArgument(1);
+            sent.add(Map.entry(invocation.getArgument(0), new String((byte[]) message.getPayload(), StandardCharsets.UTF_8)));
+            return null;
+        }).when(wsTemplate).send(anyString(), any(Message.class));
+        broadcaster = new SensorBroadcaster(wsTemplate, objectMapper, meterRegistry, new IngestMetrics(meterRegistry));
+    }
+
+    @AfterEach
+    void tearDown() {
+        broadcaster.stop();
+    }
+
+    private static SensorUpdateDTO update(String deviceUid, double temperature) {
+        return new SensorUpdateDTO(deviceUid, temperature, 60.0, 300.0, T0);
+    }
+
+    private void awaitSent(int n) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (sent.size() < n && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private double count(String name) {
+        return meterRegistry.get(name).counter().count();
+    }
+
+    @Test
+    void latestUpdatePerDeviceWins() throws InterruptedException {
+        broadcaster.setMaxRatePerSecond(5);
+        broadcaster.start();
+
+        for (int i = 1; i <= 5; i++) {
+            broadcaster.publish(update("dev-a", 20 + i));
+        }
+        broadcaster.publish(update("dev-b", 30));
+        awaitSent(2);
+        // Chờ thêm một nhịp: không có gì gửi lại
+        Thread.sleep(250);
+
+        assertThat(sent).hasSize(2);
+        assertThat(sent).extracting(Map.Entry::getKey).containsExactlyInAnyOrder("/topic/sensors/dev-a", "/topic/sensors/dev-b");
+        assertThat(sent).filteredOn(e -> e.getKey().endsWith("dev-a")).singleElement()
+                .satisfies(e -> assertThat(e.getValue()).contains("\"temperature\":25.0"));
+        assertThat(count("iot.ws.sensors.conflated")).isEqualTo(4);
+        assertThat(count("iot.ws.sensors.sent")).isEqualTo(2);
+    }
+
+    @Test
+    void zeroRateSendsEveryUpdateImmediately() {
+        broadcaster.setMaxRatePerSecond(0);
+        broadcaster.start();
+
+        broadcaster.publish(update("dev-a", 21));
+        broadcaster.publish(update("dev-a", 22));
+
+        assertThat(sent).extracting(Map.Entry::getValue)
+                .satisfiesExactly(v -> assertThat(v).contains("21.0"), v -> assertThat(v).contains("22.0"));
+        assertThat(count("iot.ws.sensors.conflated")).isZero();
+    }
+
+    @Test
+    void legacyTopicGetsTheSamePayload() {
+        broadcaster.setMaxRatePerSecond(0);
+        broadcaster.setLegacyTopic(true);
+        broadcaster.start();
+
+        broadcaster.publish(update("dev-a", 21));
+
+        assertThat(sent).extracting(Map.Entry::getKey).containsExactly("/topic/sensors/dev-a", "/topic/sensors");
+        assertThat(sent.get(0).getValue()).isEqualTo(sent.get(1).getValue())
+                .contains("\"recordedAt\":\"17-10-2026 10:00:00\"");
+    }
+
+    @Test
+    void sendFailureIsCounted() {
+        broadcaster.setMaxRatePerSecond(0);
+        broadcaster.start();
+        doThrow(new IllegalStateException("session closed")).when(wsTemplate).send(anyString(), any(Message.class));
+
+        broadcaster.publish(update("dev-a", 21));
+
+        assertThat(count("iot.ws.sensors.failed")).isEqualTo(1);
+        assertThat(count("iot.ws.sensors.sent")).isZero();
+        assertThat(meterRegistry.get("iot.ingest.errors").tag("reason", "ws_failure").counter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,139 @@
+package com.iot_system.service.ingest;
+
+import com.iot_system.domain.enums.DeviceState;
+import com.iot_system.mqtt.IngestMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.TransientDataAccessResourceException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DeviceWriteBehindTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 17, 9, 0);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    // deviceId của các dòng lịch sử đã INSERT thành công
+    private final List<Long> inserted = new CopyOnWriteArrayList<>();
+    // Mỗi phần tử là [oldest, newest] của một lần báo listener
+    private final BlockingQueue<List<LocalDateTime>> notified = new LinkedBlockingQueue<>();
+    private final AtomicBoolean dbDown = new AtomicBoolean();
+    private final AtomicInteger failNextInserts = new AtomicInteger();
+    private DeviceWriteBehind writeBehind;
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcTemplate.batchUpdate(startsWith("INSERT"), anyList())).thenAnswer(invocation -> {
+            List<Object[]> args = invocation.getArgument(1);
+            if (dbDown.get() || failNextInserts.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new TransientDataAccessResourceException("connection lost");
+            }
+            if (args.stream().anyMatch(row -> (long) row[0] == 13L)) {
+                throw new DataIntegrityViolationException("bad row");
+            }
+            args.forEach(row -> inserted.add((long) row[0]));
+            return new int[args.size()];
+        });
+        when(jdbcTemplate.queryForObject(startsWith("SELECT 1"), eq(Integer.class))).thenAnswer(invocation -> {
+            if (dbDown.get()) {
+                throw new TransientDataAccessResourceException("connection lost");
+            }
+            return 1;
+        });
+
+        ActionHistoryListener listener = (oldest, newest) -> notified.add(List.of(oldest, newest));
+        writeBehind = new DeviceWriteBehind(jdbcTemplate, meterRegistry, new IngestMetrics(meterRegistry), List.of(listener));
+        writeBehind.setQueueCapacity(100);
+        writeBehind.setBatchSize(100);
+        writeBehind.setFlushIntervalMs(50);
+        writeBehind.setRetry(3, 10, 20);
+        writeBehind.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        writeBehind.stop();
+    }
+
+    private double historyRows(String result) {
+        return meterRegistry.get("iot.device.writebehind.rows").tag("kind", "history").tag("result", result)
+                .counter().count();
+    }
+
+    @Test
+    void failedBatchIsRetriedInsteadOfDropped() throws InterruptedException {
+        failNextInserts.set(2);
+        writeBehind.recordAck(1, DeviceState.ON, T0);
+        writeBehind.recordAck(2, DeviceState.OFF, T0.plusSeconds(1));
+
+        List<LocalDateTime> first = notified.poll(2, TimeUnit.SECONDS);
+        assertThat(first).isNotNull();
+        assertThat(first.get(0)).isEqualTo(T0);
+        // Hai dòng có thể rơi vào hai lô khác nhau; chờ dòng thứ hai nếu có
+        if (inserted.size() < 2) {
+            assertThat(notified.poll(2, TimeUnit.SECONDS)).isNotNull();
+        }
+        assertThat(inserted).containsExactly(1L, 2L);
+        assertThat(historyRows("failed")).isZero();
+        assertThat(meterRegistry.get("iot.device.writebehind.retries").counter().count()).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    void unwritableRowIsDroppedWithoutBlockingTheRest() throws InterruptedException {
+        writeBehind.recordAck(12, DeviceState.ON, T0);
+        writeBehind.recordAck(13, DeviceState.ON, T0.plusSeconds(1));
+        writeBehind.recordAck(14, DeviceState.ON, T0.plusSeconds(2));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (historyRows("failed") < 1 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        writeBehind.recordAck(15, DeviceState.OFF, T0.plusSeconds(3));
+        while (!inserted.contains(15L) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(inserted).containsExactly(12L, 14L, 15L);
+        assertThat(historyRows("failed")).isEqualTo(1);
+    }
+
+    @Test
+    void batchIsHeldWhileDatabaseIsDown() throws InterruptedException {
+        dbDown.set(true);
+        writeBehind.recordAck(1, DeviceState.ON, T0);
+        writeBehind.recordAck(2, DeviceState.ON, T0.plusSeconds(1));
+
+        // Quá retry.max-attempts lần nhưng DB không trả lời => vẫn giữ lô, watermark đứng ở dòng cũ nhất
+        assertThat(notified.poll(300, TimeUnit.MILLISECONDS)).isNull();
+        assertThat(writeBehind.historyWatermark()).isEqualTo(T0);
+        assertThat(historyRows("failed")).isZero();
+
+        dbDown.set(false);
+        assertThat(notified.poll(2, TimeUnit.SECONDS)).isNotNull();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!writeBehind.historyWatermark().isAfter(T0.plusSeconds(1)) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(inserted).containsExactly(1L, 2L);
+        assertThat(writeBehind.historyWatermark()).isAfter(T0.plusSeconds(1));
+    }
+}
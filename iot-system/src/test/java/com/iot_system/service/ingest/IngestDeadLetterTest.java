@@ -0,0 +1,89 @@
+package com.iot_system.service.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IngestDeadLetterTest {
+
+    @Test
+    void formatAndParseRoundTrip() {
+        SensorReadingRow row = new SensorReadingRow(42L, 28.4, Double.NaN, 512.0,
+                LocalDateTime.of(2026, 10, 17, 10, 0, 0, 123_456_000),
+                List.of(new MetricSample(4, 410.0), new MetricSample(7, 3.3)), -8_123_456_789L);
+
+        SensorReadingRow parsed = IngestDeadLetter.parse(IngestDeadLetter.format(row));
+
+        assertThat(parsed.deviceId()).isEqualTo(42L);
+        assertThat(parsed.temperature()).isEqualTo(28.4);
+        assertThat(parsed.humidity()).isNaN();
+        assertThat(parsed.light()).isEqualTo(512.0);
+        assertThat(parsed.recordedAt()).isEqualTo(row.recordedAt());
+        assertThat(parsed.metrics()).containsExactlyElementsOf(row.metrics());
+        assertThat(parsed.idempotencyKey()).isEqualTo(row.idempotencyKey());
+    }
+
+    @Test
+    void rowWithoutMetricsHasEmptyMetricList() {
+        SensorReadingRow row = new SensorReadingRow(1L, Double.NaN, 70.0, Double.NaN, LocalDateTime.of(2026, 10, 17, 0, 0));
+
+        SensorReadingRow parsed = IngestDeadLetter.parse(IngestDeadLetter.format(row));
+
+        assertThat(parsed.metrics()).isEmpty();
+        assertThat(parsed.idempotencyKey()).isZero();
+        assertThat(parsed.hasWideValues()).isTrue();
+    }
+
+    private static IngestDeadLetter open(Path dir) throws IOException {
+        IngestDeadLetter deadLetter = new IngestDeadLetter(new SimpleMeterRegistry());
+        deadLetter.setDir(dir.toString());
+        deadLetter.start();
+        return deadLetter;
+    }
+
+    private static SensorReadingRow rowAt(LocalDateTime recordedAt) {
+        return new SensorReadingRow(1L, 25.0, 60.0, 300.0, recordedAt);
+    }
+
+    @Test
+    void tracksOldestPendingRecordedAt() throws IOException {
+        LocalDateTime t = LocalDateTime.of(2026, 10, 17, 10, 0);
+        IngestDeadLetter deadLetter = open(Files.createTempDirectory("dead-letter"));
+        assertThat(deadLetter.oldestPending()).isNull();
+
+        // Lô không theo thứ tự thời gian: mốc là bản ghi cũ nhất, không phải bản ghi đầu
+        assertThat(deadLetter.append(List.of(rowAt(t.plusMinutes(5)), rowAt(t)))).isTrue();
+        assertThat(deadLetter.append(List.of(rowAt(t.minusHours(1))))).isTrue();
+        assertThat(deadLetter.oldestPending()).isEqualTo(t.minusHours(1));
+
+        deadLetter.delete(deadLetter.oldest());
+        assertThat(deadLetter.oldestPending()).isEqualTo(t.minusHours(1));
+
+        deadLetter.quarantine(deadLetter.oldest());
+        assertThat(deadLetter.oldestPending()).isNull();
+        assertThat(deadLetter.hasPending()).isFalse();
+    }
+
+    @Test
+    void pendingFilesAreReloadedOnStart() throws IOException {
+        Path dir = Files.createTempDirectory("dead-letter");
+        LocalDateTime t = LocalDateTime.of(2026, 10, 17, 10, 0);
+        open(dir).append(List.of(rowAt(t), rowAt(t.minusMinutes(3))));
+        Files.writeString(dir.resolve("batch-1-1.csv"), "not,a,row");
+
+        IngestDeadLetter restarted = open(dir);
+
+        assertThat(restarted.hasPending()).isTrue();
+        // File không đọc được giữ mốc ở rất xa trong quá khứ cho tới khi bị cách ly
+        assertThat(restarted.oldestPending()).isBefore(t.minusYears(10));
+        restarted.quarantine(restarted.oldest());
+        assertThat(restarted.oldestPending()).isEqualTo(t.minusMinutes(3));
+    }
+}
@@ -0,0 +1,130 @@
+package com.iot_system.service.ingest;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class IngestDedupeTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 10, 17, 12, 0);
+
+    private record Key(long deviceId, long msgKey) {
+    }
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    // Bảng sensor_ingest_key giả lập: khóa chính (device_id, msg_key) -> claim_id
+    private final Map<Key, Long> table = new ConcurrentHashMap<>();
+    // Tham số của các câu INSERT IGNORE theo thứ tự gửi
+    private final List<Key> claimOrder = new ArrayList<>();
+    private IngestDedupe dedupe;
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcTemplate.batchUpdate(startsWith("INSERT IGNORE"), anyList())).thenAnswer(invocation -> {
+            List<Object[]> args = invocation.getArgument(1);
+            for (Object[] row : args) {
+                Key key = new Key((long) row[0], (long) row[1]);
+                claimOrder.add(key);
+                table.putIfAbsent(key, (long) row[2]);
+            }
+            return new int[args.size()];
+        });
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            long claimId = invocation.getArgument(2);
+            for (Map.Entry<Key, Long> e : table.entrySet()) {
+                if (e.getValue() == claimId) {
+                    ResultSet rs = mock(ResultSet.class);
+                    when(rs.getLong(1)).thenReturn(e.getKey().deviceId());
+                    when(rs.getLong(2)).thenReturn(e.getKey().msgKey());
+                    handler.processRow(rs);
+                }
+            }
+            return null;
+        }).when(jdbcTemplate).query(startsWith("SELECT device_id, msg_key"), any(RowCallbackHandler.class), any());
+
+        dedupe = new IngestDedupe(jdbcTemplate, meterRegistry);
+        dedupe.setEnabled(true);
+        dedupe.setPurge(3_600_000L, 3_600_000L, 5000);
+        dedupe.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        dedupe.stop();
+    }
+
+    private static SensorReadingRow row(long deviceId, long msgKey) {
+        return new SensorReadingRow(deviceId, 25.0, 60.0, 300, NOW, List.of(), msgKey);
+    }
+
+    private double duplicates() {
+        return meterRegistry.get("iot.ingest.rows").tag("result", "duplicate").counter().count();
+    }
+
+    @Test
+    void disabledDedupePassesBatchThroughWithoutDb() {
+        IngestDedupe disabled = new IngestDedupe(jdbcTemplate, meterRegistry);
+        List<SensorReadingRow> batch = List.of(row(1, 10), row(1, 10));
+
+        assertThat(disabled.claim(batch)).isSameAs(batch);
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void rowsWithoutKeyAreAlwaysKept() {
+        List<SensorReadingRow> batch = List.of(row(1, 0), row(1, 0));
+
+        assertThat(dedupe.claim(batch)).isSameAs(batch);
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void redeliveredMessageIsDroppedOnSecondClaim() {
+        assertThat(dedupe.claim(List.of(row(1, 10), row(2, 10)))).hasSize(2);
+
+        List<SensorReadingRow> redelivered = dedupe.claim(List.of(row(1, 10), row(1, 11), row(3, 0)));
+
+        assertThat(redelivered).extracting(SensorReadingRow::idempotencyKey).containsExactly(11L, 0L);
+        assertThat(duplicates()).isEqualTo(1);
+    }
+
+    @Test
+    void keyRepeatedInsideOneBatchKeepsFirstRow() {
+        SensorReadingRow first = row(1, 10);
+        SensorReadingRow repeat = new SensorReadingRow(1, 30.0, 60.0, 300, NOW.plusSeconds(1), List.of(), 10);
+
+        List<SensorReadingRow> kept = dedupe.claim(List.of(first, row(2, 5), repeat));
+
+        assertThat(kept).containsExactly(first, row(2, 5));
+        assertThat(duplicates()).isEqualTo(1);
+    }
+
+    @Test
+    void keysAreClaimedInPrimaryKeyOrder() {
+        dedupe.claim(List.of(row(2, 1), row(1, 9), row(1, 3), row(3, 0)));
+
+        // Mọi instance giành theo cùng thứ tự => hai lô chồng khóa chờ nhau thay vì deadlock
+        assertThat(claimOrder).containsExactly(new Key(1, 3), new Key(1, 9), new Key(2, 1));
+    }
+}
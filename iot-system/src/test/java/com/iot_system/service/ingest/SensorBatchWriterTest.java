@@ -0,0 +1,258 @@
+package com.iot_system.service.ingest;
+
+import com.iot_system.mqtt.IngestMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionOperations;
+
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SensorBatchWriterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+    private IngestDeadLetter deadLetter = mock(IngestDeadLetter.class);
+    private IngestDedupe dedupe;
+    // Mỗi phần tử là deviceId của một lô đã ghi, theo thứ tự ghi
+    private final BlockingQueue<List<Long>> written = new LinkedBlockingQueue<>();
+    private SensorBatchWriter writer;
+
+    @BeforeEach
+    void setUp() {
+        dedupe = mock(IngestDedupe.class);
+        when(dedupe.claim(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        writer = newWriter();
+    }
+
+    private SensorBatchWriter newWriter() {
+        SensorBatchListener listener = batch -> written.add(batch.stream().map(SensorReadingRow::deviceId).toList());
+        SensorBatchWriter batchWriter = new SensorBatchWriter(jdbcTemplate, TransactionOperations.withoutTransaction(),
+                meterRegistry, new IngestMetrics(meterRegistry), List.of(listener), dedupe, deadLetter);
+        batchWriter.setQueueCapacity(100);
+        batchWriter.setBatchSize(100);
+        batchWriter.setFlushIntervalMs(50);
+        batchWriter.setOverflowPolicy(SensorBatchWriter.OverflowPolicy.DROP_NEWEST, 0);
+        batchWriter.setRetry(1, 0, 60_000);
+        return batchWriter;
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.stop();
+    }
+
+    private static SensorReadingRow row(long deviceId) {
+        return new SensorReadingRow(deviceId, 25.0, 60.0, 300, LocalDateTime.now());
+    }
+
+    // Lô đầu tiên bị giữ trong batchUpdate tới khi release; trả về latch báo writer đã vào lô đó
+    private CountDownLatch blockFirstFlush(CountDownLatch release) {
+        CountDownLatch entered = new CountDownLatch(1);
+        when(jdbcTemplate.batchUpdate(anyString(), any(BatchPreparedStatementSetter.class))).thenAnswer(invocation -> {
+            if (entered.getCount() > 0) {
+                entered.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            return new int[0];
+        });
+        return entered;
+    }
+
+    private double rows(String result) {
+        return meterRegistry.get("iot.ingest.rows").tag("result", result).counter().count();
+    }
+
+    @Test
+    void flushesAsSoonAsBatchIsFull() throws InterruptedException {
+        writer.setBatchSize(3);
+        writer.setFlushIntervalMs(10_000);
+        writer.start();
+
+        writer.enqueue(row(1));
+        writer.enqueue(row(2));
+        writer.enqueue(row(3));
+
+        // Không chờ hết flush-interval (10 s)
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(1L, 2L, 3L);
+        assertThat(rows("written")).isEqualTo(3);
+    }
+
+    @Test
+    void flushesPartialBatchAfterInterval() throws InterruptedException {
+        writer.start();
+
+        writer.enqueue(row(1));
+        writer.enqueue(row(2));
+
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(1L, 2L);
+        assertThat(written).isEmpty();
+    }
+
+    @Test
+    void dropNewestRejectsRowsWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch entered = blockFirstFlush(release);
+        writer.setQueueCapacity(2);
+        writer.setBatchSize(1);
+        writer.start();
+
+        writer.enqueue(row(1));
+        assertThat(entered.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(writer.enqueue(row(2))).isTrue();
+        assertThat(writer.enqueue(row(3))).isTrue();
+        assertThat(writer.enqueue(row(4))).isFalse();
+        assertThat(rows("dropped")).isEqualTo(1);
+
+        release.countDown();
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(1L);
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(2L);
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(3L);
+        assertThat(written.poll(200, TimeUnit.MILLISECONDS)).isNull();
+    }
+
+    @Test
+    void dropOldestEvictsQueueHeadWhenQueueIsFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch entered = blockFirstFlush(release);
+        writer.setQueueCapacity(2);
+        writer.setBatchSize(1);
+        writer.setOverflowPolicy(SensorBatchWriter.OverflowPolicy.DROP_OLDEST, 0);
+        writer.start();
+
+        writer.enqueue(row(1));
+        assertThat(entered.await(2, TimeUnit.SECONDS)).isTrue();
+        writer.enqueue(row(2));
+        writer.enqueue(row(3));
+        assertThat(writer.enqueue(row(4))).isTrue();
+        assertThat(rows("dropped")).isEqualTo(1);
+
+        release.countDown();
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(1L);
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(3L);
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(4L);
+    }
+
+    @Test
+    void blockPolicyGivesUpAfterOfferTimeout() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch entered = blockFirstFlush(release);
+        writer.setQueueCapacity(1);
+        writer.setBatchSize(1);
+        writer.setOverflowPolicy(SensorBatchWriter.OverflowPolicy.BLOCK, 50);
+        writer.start();
+
+        writer.enqueue(row(1));
+        assertThat(entered.await(2, TimeUnit.SECONDS)).isTrue();
+        writer.enqueue(row(2));
+        long startNanos = System.nanoTime();
+        assertThat(writer.enqueue(row(3))).isFalse();
+        assertThat(System.nanoTime() - startNanos).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+        assertThat(rows("dropped")).isEqualTo(1);
+        release.countDown();
+    }
+
+    @Test
+    void stopDrainsQueuedRowsInBatches() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch entered = blockFirstFlush(release);
+        writer.setBatchSize(2);
+        writer.setFlushIntervalMs(0);
+        writer.start();
+
+        writer.enqueue(row(1));
+        assertThat(entered.await(2, TimeUnit.SECONDS)).isTrue();
+        for (long id = 2; id <= 6; id++) {
+            writer.enqueue(row(id));
+        }
+        Thread stopper = new Thread(writer::stop);
+        stopper.start();
+        // stop() chờ lô đang ghi xong rồi mới ghi nốt hàng đợi
+        release.countDown();
+        stopper.join(5_000);
+
+        assertThat(written.poll(1, TimeUnit.SECONDS)).containsExactly(1L);
+        assertThat(written.poll(1, TimeUnit.SECONDS)).containsExactly(2L, 3L);
+        assertThat(written.poll(1, TimeUnit.SECONDS)).containsExactly(4L, 5L);
+        assertThat(written.poll(1, TimeUnit.SECONDS)).containsExactly(6L);
+        assertThat(writer.queueDepth()).isZero();
+        assertThat(writer.enqueue(row(7))).isFalse();
+    }
+
+    @Test
+    void failedBatchGoesToDeadLetterAfterRetries() throws InterruptedException {
+        CountDownLatch attempts = new CountDownLatch(3);
+        when(jdbcTemplate.batchUpdate(anyString(), any(BatchPreparedStatementSetter.class))).thenAnswer(invocation -> {
+            attempts.countDown();
+            throw new IllegalStateException("db down");
+        });
+        when(deadLetter.append(anyList())).thenReturn(true);
+        writer.setRetry(3, 1, 60_000);
+        writer.setBatchSize(2);
+        writer.setFlushIntervalMs(1_000);
+        writer.start();
+
+        writer.enqueue(row(1));
+        writer.enqueue(row(2));
+
+        assertThat(attempts.await(2, TimeUnit.SECONDS)).isTrue();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (rows("dead_letter") < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(rows("dead_letter")).isEqualTo(2);
+        assertThat(meterRegistry.get("iot.ingest.retries").counter().count()).isEqualTo(2);
+        assertThat(written).isEmpty();
+    }
+
+    @Test
+    void deadLetteredRowsHoldWatermarkUntilReplayed() throws Exception {
+        deadLetter = new IngestDeadLetter(meterRegistry);
+        deadLetter.setDir(Files.createTempDirectory("dead-letter").toString());
+        deadLetter.start();
+        writer = newWriter();
+        writer.setRetry(1, 0, 100);
+        AtomicBoolean dbDown = new AtomicBoolean(true);
+        when(jdbcTemplate.batchUpdate(anyString(), any(BatchPreparedStatementSetter.class))).thenAnswer(invocation -> {
+            if (dbDown.get()) {
+                throw new IllegalStateException("db down");
+            }
+            return new int[0];
+        });
+        writer.start();
+        LocalDateTime old = LocalDateTime.now().minusHours(1);
+
+        writer.enqueue(new SensorReadingRow(1, 25.0, 60.0, 300, old));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!deadLetter.hasPending() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(deadLetter.hasPending()).isTrue();
+        // Hàng đợi rỗng, không có lô đang ghi: mốc vẫn dừng ở bản ghi chờ ghi lại
+        assertThat(writer.queueDepth()).isZero();
+        assertThat(writer.ingestWatermark()).isEqualTo(old);
+
+        dbDown.set(false);
+        // Lô ghi lại được báo cho listener (QueryResultCache xóa các mục khả biến giao với nó)
+        assertThat(written.poll(2, TimeUnit.SECONDS)).containsExactly(1L);
+        assertThat(deadLetter.hasPending()).isFalse();
+        assertThat(writer.ingestWatermark()).isAfter(LocalDateTime.now().minusMinutes(1));
+    }
+}
@@ -0,0 +1,143 @@
+package com.iot_system.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DateTimeUtilsTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 10, 17, 12, 0, 0);
+
+    private static DateTimeUtils.DateTimeParseResult parse(String input) {
+        return DateTimeUtils.parseDateTime(input, NOW);
+    }
+
+    private static void assertRange(String input, LocalDateTime start, LocalDateTime end, boolean exact) {
+        DateTimeUtils.DateTimeParseResult result = parse(input);
+        assertThat(result).as(input).isNotNull();
+        assertThat(result.getStart()).as(input).isEqualTo(start);
+        assertThat(result.getEnd()).as(input).isEqualTo(end);
+        assertThat(result.isExactMatch()).as(input).isEqualTo(exact);
+        assertThat(result.isRelative()).as(input).isFalse();
+    }
+
+    @Test
+    void secondFormatIsExactMatch() {
+        LocalDateTime t = LocalDateTime.of(2026, 10, 17, 10, 15, 30);
+        assertRange("17-10-2026 10:15:30", t, t.plusSeconds(1), true);
+    }
+
+    @Test
+    void minuteFormatCoversOneMinute() {
+        LocalDateTime t = LocalDateTime.of(2026, 10, 17, 10, 15);
+        assertRange("17-10-2026 10:15", t, t.plusMinutes(1), false);
+    }
+
+    @Test
+    void dayFormatsCoverOneDay() {
+        LocalDateTime day = LocalDateTime.of(2026, 10, 17, 0, 0);
+        for (String input : new String[]{"17-10-2026", "17/10/2026", "17102026", "171026", "2026-10-17"}) {
+            assertRange(input, day, day.plusDays(1), false);
+        }
+    }
+
+    @Test
+    void surroundingSpacesAreIgnored() {
+        LocalDateTime day = LocalDateTime.of(2026, 10, 17, 0, 0);
+        assertRange("  17-10-2026 ", day, day.plusDays(1), false);
+    }
+
+    @Test
+    void isoMinuteAndSecond() {
+        LocalDateTime t = LocalDateTime.of(2026, 10, 17, 10, 15);
+        assertRange("2026-10-17T10:15", t, t.plusMinutes(1), false);
+        assertRange("2026-10-17 10:15:30", t.withSecond(30), t.withSecond(31), true);
+    }
+
+    @Test
+    void isoFractionalSecondsMatchOneUnitOfLastDigit() {
+        LocalDateTime t = LocalDateTime.of(2026, 10, 17, 10, 0, 0);
+        assertRange("2026-10-17T10:00:00.123", t.withNano(123_000_000), t.withNano(124_000_000), true);
+        assertRange("2026-10-17T10:00:00,5", t.withNano(500_000_000), t.withNano(600_000_000), true);
+        assertRange("2026-10-17T10:00:00.000000001", t.withNano(1), t.withNano(2), true);
+    }
+
+    @Test
+    void isoFractionalSecondsRejectMalformedInput() {
+        assertThat(parse("2026-10-17T10:00:00.")).isNull();
+        assertThat(parse("2026-10-17T10:00:00.1234567890")).isNull();
+        assertThat(parse("2026-10-17T10:00.123")).isNull();
+    }
+
+    @Test
+    void isoOffsetIsConvertedToServerZone() {
+        LocalDateTime expected = ZonedDateTime.of(2026, 10, 17, 10, 0, 0, 123_000_000, ZoneId.of("Z"))
+                .withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+        assertRange("2026-10-17T10:00:00.123Z", expected, expected.plusNanos(1_000_000), true);
+    }
+
+    @Test
+    void relativeInputRunsUntilNow() {
+        assertRange("-15m", NOW.minusMinutes(15), NOW, false);
+        assertRange("-2h", NOW.minusHours(2), NOW, false);
+        assertRange("-7d", NOW.minusDays(7), NOW, false);
+        assertRange("-30s", NOW.minusSeconds(30), NOW, false);
+    }
+
+    @Test
+    void invalidRelativeInputs() {
+        assertThat(parse("-0m")).isNull();
+        assertThat(parse("-5w")).isNull();
+        assertThat(parse("-1234567m")).isNull();
+        assertThat(parse("-m")).isNull();
+    }
+
+    @Test
+    void rangeTakesStartOfLeftAndEndOfRight() {
+        assertRange("01-10-2026..17-10-2026",
+                LocalDateTime.of(2026, 10, 1, 0, 0), LocalDateTime.of(2026, 10, 18, 0, 0), false);
+        assertRange("-2h..-1h", NOW.minusHours(2), NOW.minusHours(1), false);
+        assertRange("2026-10-17T10:00 .. 2026-10-17T10:30",
+                LocalDateTime.of(2026, 10, 17, 10, 0), LocalDateTime.of(2026, 10, 17, 10, 31), false);
+    }
+
+    @Test
+    void rangeMustBeOrdered() {
+        assertThat(parse("17-10-2026..01-10-2026")).isNull();
+        assertThat(parse("-1h..-2h")).isNull();
+        assertThat(parse("17-10-2026..")).isNull();
+    }
+
+    @Test
+    void invalidDatesAreRejected() {
+        assertThat(parse("31-02-2026")).isNull();
+        assertThat(parse("29-02-2026")).isNull();
+        assertThat(parse("31-04-2026")).isNull();
+        assertThat(parse("17-13-2026")).isNull();
+        assertThat(parse("17-10-2026 24:00")).isNull();
+        assertThat(parse("17-10-2026 10:60:00")).isNull();
+        assertThat(parse("2026-02-30")).isNull();
+    }
+
+    @Test
+    void leapDayIsAccepted() {
+        LocalDateTime day = LocalDateTime.of(2028, 2, 29, 0, 0);
+        assertRange("29-02-2028", day, day.plusDays(1), false);
+        assertThat(parse("29-02-2100")).isNull();
+        assertThat(parse("29-02-2000")).isNotNull();
+    }
+
+    @Test
+    void garbageIsRejected() {
+        assertThat(parse(null)).isNull();
+        assertThat(parse("")).isNull();
+        assertThat(parse("   ")).isNull();
+        assertThat(parse("hello")).isNull();
+        assertThat(parse("17.10.2026")).isNull();
+        assertThat(parse("1a-10-2026")).isNull();
+    }
+}
@@ -0,0 +1,63 @@
+package com.iot_system.util;
+
+import com.iot_system.domain.enums.ExportFormat;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExportRowWriterTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 17, 8, 30, 5);
+
+    private static String write(ExportFormat format, String text, boolean valueIsNull) throws IOException {
+        StringWriter out = new StringWriter();
+        new ExportRowWriter(out, format, "id", "name", "value", "at")
+                .startRow().value(7L).value(text).value(21.5, valueIsNull).value(T0).endRow();
+        return out.toString();
+    }
+
+    @Test
+    void csvHasHeaderAndPlainValues() throws IOException {
+        assertThat(write(ExportFormat.CSV, "Quạt phòng khách", false))
+                .isEqualTo("id,name,value,at\n7,Quạt phòng khách,21.5,17-10-2026 08:30:05\n");
+    }
+
+    @Test
+    void csvQuotesOnlyWhenNeeded() throws IOException {
+        assertThat(write(ExportFormat.CSV, "a,b", false)).endsWith("\n7,\"a,b\",21.5,17-10-2026 08:30:05\n");
+        assertThat(write(ExportFormat.CSV, "đèn \"LED\"", false)).contains(",\"đèn \"\"LED\"\"\",");
+        assertThat(write(ExportFormat.CSV, "hai\ndòng", false)).contains(",\"hai\ndòng\",");
+    }
+
+    @Test
+    void csvNullsAreEmptyCells() throws IOException {
+        assertThat(write(ExportFormat.CSV, null, true)).endsWith("\n7,,,17-10-2026 08:30:05\n");
+    }
+
+    @Test
+    void ndjsonWritesOneObjectPerLine() throws IOException {
+        assertThat(write(ExportFormat.NDJSON, "Quạt", false))
+                .isEqualTo("{\"id\":7,\"name\":\"Quạt\",\"value\":21.5,\"at\":\"17-10-2026 08:30:05\"}\n");
+        assertThat(write(ExportFormat.NDJSON, null, true))
+                .isEqualTo("{\"id\":7,\"name\":null,\"value\":null,\"at\":\"17-10-2026 08:30:05\"}\n");
+    }
+
+    @Test
+    void ndjsonEscapesStrings() throws IOException {
+        assertThat(write(ExportFormat.NDJSON, "a\"b\\c\nd\te\u0001", false))
+                .contains("\"name\":\"a\\\"b\\\\c\\nd\\te\\u0001\"");
+    }
+
+    @Test
+    void missingColumnIsRejected() throws IOException {
+        ExportRowWriter writer = new ExportRowWriter(new StringWriter(), ExportFormat.CSV, "id", "name");
+        writer.startRow().value(1L);
+
+        assertThatThrownBy(writer::endRow).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,126 @@
+package com.iot_system.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HashedTimingWheelTest {
+
+    private static final long TICK_MS = 10;
+
+    private final BlockingQueue<String> expired = new LinkedBlockingQueue<>();
+    private final Map<String, Long> expiredAtNanos = new ConcurrentHashMap<>();
+    private HashedTimingWheel<String> wheel;
+
+    private HashedTimingWheel<String> start(int wheelSize, Consumer<String> onExpire) {
+        wheel = new HashedTimingWheel<>("test-wheel", wheelSize, TICK_MS, TimeUnit.MILLISECONDS, onExpire);
+        wheel.start();
+        return wheel;
+    }
+
+    private HashedTimingWheel<String> start(int wheelSize) {
+        return start(wheelSize, value -> {
+            expiredAtNanos.put(value, System.nanoTime());
+            expired.add(value);
+        });
+    }
+
+    @AfterEach
+    void stopWheel() {
+        if (wheel != null) {
+            wheel.stop();
+        }
+    }
+
+    @Test
+    void expiresNoEarlierThanDeadline() throws InterruptedException {
+        start(64);
+        long scheduledAt = System.nanoTime();
+        wheel.schedule("a", 50, TimeUnit.MILLISECONDS);
+
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("a");
+        assertThat(expiredAtNanos.get("a") - scheduledAt).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    void zeroDelayExpiresOnNextTick() throws InterruptedException {
+        start(64);
+        wheel.schedule("now", 0, TimeUnit.MILLISECONDS);
+
+        assertThat(expired.poll(1, TimeUnit.SECONDS)).isEqualTo("now");
+    }
+
+    @Test
+    void cancelledTimeoutNeverExpires() throws InterruptedException {
+        start(64);
+        HashedTimingWheel.Timeout<String> cancelled = wheel.schedule("cancelled", 30, TimeUnit.MILLISECONDS);
+        wheel.schedule("marker", 80, TimeUnit.MILLISECONDS);
+        cancelled.cancel();
+
+        // marker hết hạn sau cancelled => bánh xe đã quay qua ô của cancelled
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("marker");
+        assertThat(cancelled.isCancelled()).isTrue();
+        assertThat(expired).isEmpty();
+    }
+
+    @Test
+    void delayLongerThanOneRevolutionWaitsExtraRounds() throws InterruptedException {
+        // 4 ô x 10 ms = 40 ms mỗi vòng; 150 ms cần gần 4 vòng
+        start(4);
+        long scheduledAt = System.nanoTime();
+        wheel.schedule("late", 150, TimeUnit.MILLISECONDS);
+        wheel.schedule("early", 20, TimeUnit.MILLISECONDS);
+
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("early");
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("late");
+        assertThat(expiredAtNanos.get("late") - scheduledAt).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    void expiresInDeadlineOrder() throws InterruptedException {
+        start(8);
+        wheel.schedule("c", 120, TimeUnit.MILLISECONDS);
+        wheel.schedule("a", 20, TimeUnit.MILLISECONDS);
+        wheel.schedule("b", 60, TimeUnit.MILLISECONDS);
+
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("a");
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("b");
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("c");
+    }
+
+    @Test
+    void failingCallbackDoesNotStopTheWheel() throws InterruptedException {
+        List<String> seen = new CopyOnWriteArrayList<>();
+        start(16, value -> {
+            seen.add(value);
+            if (value.equals("boom")) {
+                throw new IllegalStateException("boom");
+            }
+            expired.add(value);
+        });
+        wheel.schedule("boom", 10, TimeUnit.MILLISECONDS);
+        wheel.schedule("after", 50, TimeUnit.MILLISECONDS);
+
+        assertThat(expired.poll(2, TimeUnit.SECONDS)).isEqualTo("after");
+        assertThat(seen).containsExactly("boom", "after");
+    }
+
+    @Test
+    void stoppedWheelExpiresNothing() throws InterruptedException {
+        start(16);
+        wheel.schedule("never", 30, TimeUnit.MILLISECONDS);
+        wheel.stop();
+
+        assertThat(expired.poll(150, TimeUnit.MILLISECONDS)).isNull();
+    }
+}
@@ -0,0 +1,118 @@
+package com.iot_system.util;
+
+import com.iot_system.domain.dto.PagedResponse;
+import com.iot_system.exception.InvalidQueryException;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeysetPagingTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2026, 10, 17, 8, 30);
+
+    private record Row(LocalDateTime time, long id) {
+    }
+
+    private static final Comparator<Row> ORDER = Comparator.comparing(Row::time).thenComparingLong(Row::id);
+
+    // 10 dòng, cứ hai dòng chung một thời điểm => thứ tự trong cùng thời điểm do id quyết định
+    private static final List<Row> ROWS = rows();
+
+    private static List<Row> rows() {
+        List<Row> rows = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            rows.add(new Row(T0.plusSeconds(i / 2), 100 + i));
+        }
+        return rows;
+    }
+
+    /** Giống truy vấn thật: lọc theo điều kiện keyset, sắp theo (time, id) theo chiều quét, lấy tối đa limit dòng */
+    private static List<Row> seek(KeysetCursor from, boolean ascending, int limit) {
+        Row cursor = from != null ? new Row(from.time(), from.id()) : null;
+        return ROWS.stream()
+                .filter(r -> cursor == null || (ascending ? ORDER.compare(r, cursor) > 0 : ORDER.compare(r, cursor) < 0))
+                .sorted(ascending ? ORDER : ORDER.reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    private static PagedResponse<Long> page(String after, String before, int limit, boolean ascending) {
+        return KeysetPaging.page(after, before, limit, ascending, KeysetPagingTest::seek,
+                r -> KeysetCursor.format(r.time(), r.id()), (r, i) -> r.id(), "Không có dữ liệu");
+    }
+
+    @Test
+    void cursorRoundTrips() {
+        LocalDateTime withNanos = LocalDateTime.of(2026, 10, 17, 8, 30, 15, 123_456_789);
+        assertThat(KeysetCursor.parse(KeysetCursor.format(withNanos, 42L))).isEqualTo(new KeysetCursor(withNanos, 42));
+        // LocalDateTime.toString bỏ giây khi bằng 0
+        assertThat(KeysetCursor.parse(KeysetCursor.format(T0, 7L))).isEqualTo(new KeysetCursor(T0, 7));
+        assertThat(KeysetCursor.parse(" 2026-10-17T08:30:00 , 7 ")).isEqualTo(new KeysetCursor(T0, 7));
+    }
+
+    @Test
+    void blankCursorMeansFirstPage() {
+        assertThat(KeysetCursor.parse(null)).isNull();
+        assertThat(KeysetCursor.parse("  ")).isNull();
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        for (String raw : new String[]{"2026-10-17T08:30:00", ",12", "2026-10-17T08:30:00,", "17-10-2026,12",
+                "2026-10-17T08:30:00,abc"}) {
+            assertThatThrownBy(() -> KeysetCursor.parse(raw)).as(raw).isInstanceOf(InvalidQueryException.class);
+        }
+    }
+
+    @Test
+    void nextCursorsWalkEveryRowOnce() {
+        List<Long> seen = new ArrayList<>();
+        String after = null;
+        int pages = 0;
+        do {
+            PagedResponse<Long> response = page(after, null, 3, false);
+            seen.addAll(response.getData());
+            after = response.getNextCursor();
+            pages++;
+        } while (after != null);
+
+        assertThat(pages).isEqualTo(4);
+        assertThat(seen).containsExactly(109L, 108L, 107L, 106L, 105L, 104L, 103L, 102L, 101L, 100L);
+    }
+
+    @Test
+    void prevCursorReturnsPreviousPageInDisplayOrder() {
+        PagedResponse<Long> first = page(null, null, 4, true);
+        PagedResponse<Long> second = page(first.getNextCursor(), null, 4, true);
+        assertThat(first.getPrevCursor()).isNull();
+        assertThat(second.getData()).containsExactly(104L, 105L, 106L, 107L);
+
+        PagedResponse<Long> back = page(null, second.getPrevCursor(), 4, true);
+
+        assertThat(back.getData()).containsExactly(100L, 101L, 102L, 103L);
+        assertThat(back.getPrevCursor()).as("không còn gì trước trang đầu").isNull();
+        assertThat(back.getNextCursor()).isEqualTo(first.getNextCursor());
+    }
+
+    @Test
+    void lastPageHasNoNextCursor() {
+        PagedResponse<Long> response = page(KeysetCursor.format(T0.plusSeconds(4), 108L), null, 5, true);
+
+        assertThat(response.getData()).containsExactly(109L);
+        assertThat(response.getNextCursor()).isNull();
+        assertThat(response.getPrevCursor()).isNotNull();
+    }
+
+    @Test
+    void invalidPagingArgumentsAreRejected() {
+        String cursor = KeysetCursor.format(T0, 100L);
+        assertThatThrownBy(() -> page(cursor, cursor, 5, true)).isInstanceOf(InvalidQueryException.class);
+        assertThatThrownBy(() -> page(null, null, 0, true)).isInstanceOf(InvalidQueryException.class);
+    }
+}
@@ -0,0 +1,36 @@
+package com.iot_system.util;
+
+import com.iot_system.domain.enums.ExportFormat;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseUtilsTest {
+
+    private static final StreamingResponseBody EMPTY = out -> {
+    };
+
+    @Test
+    void plainExportUsesFormatContentType() {
+        ResponseEntity<StreamingResponseBody> response = ResponseUtils.attachment("sensor-data", ExportFormat.CSV, false, EMPTY);
+        HttpHeaders headers = response.getHeaders();
+
+        assertThat(headers.getContentType()).hasToString("text/csv;charset=UTF-8");
+        assertThat(headers.getContentDisposition().getFilename()).isEqualTo("sensor-data.csv");
+        assertThat(headers.containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+    }
+
+    @Test
+    void gzipExportIsAGzipFileWithoutContentEncoding() {
+        ResponseEntity<StreamingResponseBody> response = ResponseUtils.attachment("device-actions", ExportFormat.NDJSON, true, EMPTY);
+        HttpHeaders headers = response.getHeaders();
+
+        // Content-Encoding sẽ khiến client giải nén và lưu CSV/NDJSON dưới tên .gz
+        assertThat(headers.getContentType()).hasToString("application/gzip");
+        assertThat(headers.getContentDisposition().getFilename()).isEqualTo("device-actions.ndjson.gz");
+        assertThat(headers.containsKey(HttpHeaders.CONTENT_ENCODING)).isFalse();
+    }
+}